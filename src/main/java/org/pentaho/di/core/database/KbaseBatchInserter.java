@@ -0,0 +1,282 @@
+package org.pentaho.di.core.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Kbase批量插入器
+ * 按批次向Kbase写入数据，支持JDBC批处理(addBatch/executeBatch)和多行INSERT两种方式，
+ * 批次大小和提交间隔取自连接属性(见{@link KbaseDatabaseMeta#getBatchSize()})。
+ * <p>
+ * A failing batch is rolled back to a savepoint and split in halves until the offending rows are isolated;
+ * those rows are handed to the {@link RowErrorHandler} so step error handling keeps working. A batch that fails for
+ * any other reason (a value that can't be converted, an error handler aborting the load) is rolled back completely
+ * and dropped from the buffer, so neither a retry nor {@link #close()} sends it again.
+ */
+public class KbaseBatchInserter {
+
+    /**
+     * 出错行处理
+     */
+    public interface RowErrorHandler {
+        /**
+         * @param row the row that could not be inserted
+         * @param e   the error reported by the driver for this single row
+         * @throws KettleDatabaseException to abort the load
+         */
+        void rowFailed(Object[] row, SQLException e) throws KettleDatabaseException;
+    }
+
+    private final DatabaseMeta databaseMeta;
+    private final Connection connection;
+    private final String tableName;
+    private final RowMetaInterface rowMeta;
+    private final String[] columns;
+    private final RowErrorHandler errorHandler;
+
+    private final int batchSize;
+    private final int commitSize;
+    private final boolean multiRowInsert;
+    private final boolean deferCommit;
+
+    private final List<Object[]> buffer;
+    private PreparedStatement rowStatement;
+    private PreparedStatement batchStatement;
+    private boolean restoreAutoCommit;
+
+    private long rowsWritten;
+    private long rowsRejected;
+    private long uncommitted;
+
+    /**
+     * @param database     a connected Kbase database
+     * @param schemaName   the schema of the target table, may be null
+     * @param tableName    the target table
+     * @param rowMeta      the fields to insert, in column order
+     * @param errorHandler receives rows rejected by the server, null to fail on the first bad row
+     * @throws KettleDatabaseException
+     */
+    public KbaseBatchInserter(Database database, String schemaName, String tableName, RowMetaInterface rowMeta,
+                              RowErrorHandler errorHandler) throws KettleDatabaseException {
+        this(database, schemaName, tableName, rowMeta, errorHandler, false);
+    }
+
+    /**
+     * @param deferCommit true to leave the transaction to the caller: no intermediate commits and {@link #close()}
+     *                    only writes the remaining rows, the caller commits or rolls back the connection
+     * @see #KbaseBatchInserter(Database, String, String, RowMetaInterface, RowErrorHandler)
+     */
+    public KbaseBatchInserter(Database database, String schemaName, String tableName, RowMetaInterface rowMeta,
+                              RowErrorHandler errorHandler, boolean deferCommit) throws KettleDatabaseException {
+        this.databaseMeta = database.getDatabaseMeta();
+        this.connection = database.getConnection();
+        this.tableName = databaseMeta.getQuotedSchemaTableCombination(schemaName, tableName);
+        this.rowMeta = rowMeta;
+        this.columns = new String[rowMeta.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = databaseMeta.quoteField(rowMeta.getValueMeta(i).getName());
+        }
+        this.errorHandler = errorHandler;
+
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+        this.batchSize = kbaseMeta.getBatchSize();
+        this.deferCommit = deferCommit;
+        this.commitSize = deferCommit ? 0 : kbaseMeta.getBatchCommitSize();
+        this.multiRowInsert = kbaseMeta.isMultiRowInsert();
+        this.buffer = new ArrayList<Object[]>(batchSize);
+
+        try {
+            // 拆分重试依赖保存点，必须在事务中执行
+            if (connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+            rowStatement = connection.prepareStatement(kbaseMeta.getMultiRowInsertStatement(this.tableName, columns, 1));
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to prepare batch insert into table [" + this.tableName + "]", e);
+        }
+    }
+
+    /**
+     * 添加一行，缓冲区满时写入一个批次
+     *
+     * @param row the row data
+     * @throws KettleDatabaseException
+     */
+    public void addRow(Object[] row) throws KettleDatabaseException {
+        buffer.add(row);
+        if (buffer.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * 写入缓冲区中的行，达到提交间隔时提交
+     *
+     * @throws KettleDatabaseException
+     */
+    public void flush() throws KettleDatabaseException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        try {
+            try {
+                writeBatch(buffer);
+                uncommitted += buffer.size();
+            } finally {
+                // 失败的批次已回滚，不再重发
+                buffer.clear();
+            }
+            if (commitSize > 0 && uncommitted >= commitSize) {
+                commit();
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Error inserting batch into table [" + tableName + "]", e);
+        }
+    }
+
+    /**
+     * 写入剩余行、提交并释放语句(延迟提交时不提交，也不恢复自动提交)
+     *
+     * @throws KettleDatabaseException
+     */
+    public void close() throws KettleDatabaseException {
+        try {
+            flush();
+            if (!deferCommit) {
+                commit();
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to commit batch insert into table [" + tableName + "]", e);
+        } finally {
+            closeQuietly(rowStatement);
+            closeQuietly(batchStatement);
+            // 恢复自动提交会提交当前事务
+            if (restoreAutoCommit && !deferCommit) {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // connection is being released by the caller anyway
+                }
+            }
+        }
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    private void commit() throws SQLException {
+        if (uncommitted > 0) {
+            connection.commit();
+            uncommitted = 0;
+        }
+    }
+
+    /**
+     * 写入一个批次，失败时回滚到保存点并对半拆分，直到定位出错行；没有出错行处理时直接抛出
+     */
+    private void writeBatch(List<Object[]> rows) throws SQLException, KettleDatabaseException {
+        Savepoint savepoint = connection.setSavepoint();
+        long written = rowsWritten;
+        long rejected = rowsRejected;
+        try {
+            try {
+                execute(rows);
+                rowsWritten += rows.size();
+            } catch (SQLException e) {
+                connection.rollback(savepoint);
+                if (errorHandler == null) {
+                    // 没有出错行处理时不需要定位出错行
+                    throw e;
+                }
+                if (rows.size() == 1) {
+                    rowsRejected++;
+                    errorHandler.rowFailed(rows.get(0), e);
+                } else {
+                    int middle = rows.size() / 2;
+                    writeBatch(rows.subList(0, middle));
+                    writeBatch(rows.subList(middle, rows.size()));
+                }
+            }
+        } catch (KettleDatabaseException e) {
+            // 值转换出错或出错行处理中止：整个批次回滚
+            connection.rollback(savepoint);
+            rowsWritten = written;
+            rowsRejected = rejected;
+            throw e;
+        }
+    }
+
+    private void execute(List<Object[]> rows) throws SQLException, KettleDatabaseException {
+        if (rows.size() == 1) {
+            setValues(rowStatement, rows.get(0), 0);
+            rowStatement.executeUpdate();
+        } else if (multiRowInsert) {
+            PreparedStatement ps = getMultiRowStatement(rows.size());
+            try {
+                int offset = 0;
+                for (Object[] row : rows) {
+                    setValues(ps, row, offset);
+                    offset += rowMeta.size();
+                }
+                ps.executeUpdate();
+            } finally {
+                if (ps != batchStatement) {
+                    ps.close();
+                }
+            }
+        } else {
+            try {
+                for (Object[] row : rows) {
+                    setValues(rowStatement, row, 0);
+                    rowStatement.addBatch();
+                }
+                rowStatement.executeBatch();
+            } finally {
+                rowStatement.clearBatch();
+            }
+        }
+    }
+
+    /**
+     * 满批次的多行INSERT语句只准备一次，拆分后的小批次临时准备
+     */
+    private PreparedStatement getMultiRowStatement(int nrRows) throws SQLException {
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+        if (nrRows != batchSize) {
+            return connection.prepareStatement(kbaseMeta.getMultiRowInsertStatement(tableName, columns, nrRows));
+        }
+        if (batchStatement == null) {
+            batchStatement = connection.prepareStatement(kbaseMeta.getMultiRowInsertStatement(tableName, columns, nrRows));
+        }
+        return batchStatement;
+    }
+
+    private void setValues(PreparedStatement ps, Object[] row, int offset) throws KettleDatabaseException {
+        for (int i = 0; i < rowMeta.size(); i++) {
+            rowMeta.getValueMeta(i).setPreparedStatementValue(databaseMeta, ps, offset + i + 1, row[i]);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        if (ps != null) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+}
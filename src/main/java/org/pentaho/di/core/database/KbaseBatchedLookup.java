@@ -0,0 +1,255 @@
+package org.pentaho.di.core.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Kbase批量查找
+ * 收集多个不同的整数键后用一条 WHERE key IN (...) 查询取回，结果放入以long为键的LRU缓存；
+ * 小维表可以流式预加载整张表，之后不再访问数据库。
+ * <p>
+ * The IN list length comes from {@link KbaseDatabaseMeta#getMaxInListSize()}. A partial list is padded with its
+ * last key so every query uses the same prepared statement. Keys without a matching row are cached as misses too.
+ * Hits and misses of a query are decided on the query result itself, not on the cache, so a cache smaller than the IN
+ * list can evict prefetched keys (which are then looked up again) but never turns a match into a miss.
+ */
+public class KbaseBatchedLookup {
+
+    /**
+     * 缓存中表示"没有匹配行"的值
+     */
+    private static final Object[] NO_ROW = new Object[0];
+
+    private final Database database;
+    private final RowMetaInterface returnRowMeta;
+    private final String selectSQL;
+    private final String lookupSQL;
+    private final int maxInListSize;
+    private final KbaseLongLruCache<Object[]> cache;
+
+    private final long[] pending;
+    private int nrPending;
+    private boolean preloaded;
+    private long queries;
+    private PreparedStatement lookupStatement;
+
+    /**
+     * @param database      a connected Kbase database
+     * @param schemaName    the schema of the lookup table, may be null
+     * @param tableName     the lookup table
+     * @param keyField      the integer key column
+     * @param returnFields  the columns to return
+     * @param cacheSize     the maximum number of keys to cache
+     * @throws KettleDatabaseException
+     */
+    public KbaseBatchedLookup(Database database, String schemaName, String tableName, String keyField,
+                              String[] returnFields, int cacheSize) throws KettleDatabaseException {
+        DatabaseMeta databaseMeta = database.getDatabaseMeta();
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+        this.database = database;
+        this.maxInListSize = Math.max(1, kbaseMeta.getMaxInListSize());
+        this.cache = new KbaseLongLruCache<Object[]>(cacheSize);
+        this.pending = new long[maxInListSize];
+
+        RowMetaInterface tableFields = KbaseDatabaseMeta.getTableFields(database, schemaName, tableName);
+        returnRowMeta = new RowMeta();
+        StringBuilder select = new StringBuilder(64 + 24 * returnFields.length);
+        select.append("SELECT ").append(databaseMeta.quoteField(keyField));
+        for (String field : returnFields) {
+            if (tableFields.searchValueMeta(field) == null) {
+                throw new KettleDatabaseException("Field [" + field + "] not found in table [" + tableName + "]");
+            }
+            returnRowMeta.addValueMeta(tableFields.searchValueMeta(field));
+            select.append(", ").append(databaseMeta.quoteField(field));
+        }
+        select.append(" FROM ").append(databaseMeta.getQuotedSchemaTableCombination(schemaName, tableName));
+        selectSQL = select.toString();
+
+        StringBuilder lookup = new StringBuilder(selectSQL.length() + 32 + 3 * maxInListSize);
+        lookup.append(selectSQL).append(" WHERE ").append(databaseMeta.quoteField(keyField)).append(" IN (");
+        for (int i = 0; i < maxInListSize; i++) {
+            lookup.append(i > 0 ? ", ?" : "?");
+        }
+        lookupSQL = lookup.append(')').toString();
+    }
+
+    /**
+     * 流式预加载整张表，表的行数超过缓存容量时停止并退回到按键查找
+     *
+     * @return true if the whole table fits in the cache
+     * @throws KettleDatabaseException
+     */
+    public boolean preload() throws KettleDatabaseException {
+        Statement statement = null;
+        ResultSet res = null;
+        try {
+            KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface();
+            statement = database.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(kbaseMeta.getFetchSize());
+            statement.setMaxRows(cache.getCapacity() + 1);
+            res = statement.executeQuery(selectSQL);
+            int rows = 0;
+            while (res.next()) {
+                if (++rows > cache.getCapacity()) {
+                    return false;
+                }
+                cache.put(res.getLong(1), readRow(res));
+            }
+            preloaded = true;
+            return true;
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to preload lookup table with [" + selectSQL + "]", e);
+        } finally {
+            close(res, statement);
+        }
+    }
+
+    /**
+     * 登记一个需要查找的键，凑满一个IN列表时立即查询
+     *
+     * @param key the key to look up later with {@link #get(long)}
+     * @throws KettleDatabaseException
+     */
+    public void prefetch(long key) throws KettleDatabaseException {
+        if (preloaded || cache.containsKey(key) || isPending(key)) {
+            return;
+        }
+        pending[nrPending++] = key;
+        if (nrPending == maxInListSize) {
+            resolve();
+        }
+    }
+
+    /**
+     * 查询所有登记的键
+     *
+     * @throws KettleDatabaseException
+     */
+    public void resolvePending() throws KettleDatabaseException {
+        resolve();
+    }
+
+    /**
+     * 获取键对应的返回字段，未缓存的键会先查询
+     *
+     * @param key the key
+     * @return the return field values or null if there is no matching row
+     * @throws KettleDatabaseException
+     */
+    public Object[] get(long key) throws KettleDatabaseException {
+        Object[] row = cache.get(key);
+        if (row == null && !preloaded) {
+            if (!isPending(key)) {
+                // 列表满时 prefetch 已经查询过，这里一定有空位
+                pending[nrPending++] = key;
+            }
+            row = resolve().get(key);
+        }
+        return row == null || row == NO_ROW ? null : row;
+    }
+
+    private boolean isPending(long key) {
+        for (int i = 0; i < nrPending; i++) {
+            if (pending[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 查询所有登记的键并放入缓存
+     *
+     * @return the rows of the queried keys, {@link #NO_ROW} for keys without a match
+     */
+    private Map<Long, Object[]> resolve() throws KettleDatabaseException {
+        if (nrPending == 0) {
+            return Collections.emptyMap();
+        }
+        long[] keys = Arrays.copyOf(pending, nrPending);
+        nrPending = 0;
+        ResultSet res = null;
+        try {
+            if (lookupStatement == null) {
+                lookupStatement = database.getConnection().prepareStatement(lookupSQL);
+            }
+            for (int i = 0; i < maxInListSize; i++) {
+                lookupStatement.setLong(i + 1, keys[Math.min(i, keys.length - 1)]);
+            }
+            res = lookupStatement.executeQuery();
+            queries++;
+            Map<Long, Object[]> rows = new HashMap<Long, Object[]>(keys.length * 2);
+            while (res.next()) {
+                rows.put(res.getLong(1), readRow(res));
+            }
+            for (long key : keys) {
+                Object[] row = rows.get(key);
+                if (row == null) {
+                    row = NO_ROW;
+                    rows.put(key, row);
+                }
+                cache.put(key, row);
+            }
+            return rows;
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Error looking up " + keys.length + " keys with [" + lookupSQL + "]", e);
+        } finally {
+            close(res, null);
+        }
+    }
+
+    /**
+     * @return the layout of the rows returned by {@link #get(long)}
+     */
+    public RowMetaInterface getReturnRowMeta() {
+        return returnRowMeta;
+    }
+
+    public KbaseLongLruCache<Object[]> getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the number of IN-list queries executed
+     */
+    public long getQueries() {
+        return queries;
+    }
+
+    public void close() {
+        close(null, lookupStatement);
+        lookupStatement = null;
+    }
+
+    private Object[] readRow(ResultSet res) throws KettleDatabaseException {
+        DatabaseInterface databaseInterface = database.getDatabaseMeta().getDatabaseInterface();
+        Object[] row = new Object[returnRowMeta.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = returnRowMeta.getValueMeta(i).getValueFromResultSet(databaseInterface, res, i + 1);
+        }
+        return row;
+    }
+
+    private static void close(ResultSet res, Statement statement) {
+        try {
+            if (res != null) {
+                res.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package org.pentaho.di.core.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Kbase批量装载
+ * 把输入行写入暂存文件(NIO缓冲写入)，文件达到指定大小后切换到新文件，已写完的文件交给后台线程
+ * 通过服务端批量导入语句装载，写入和装载同时进行。可选在装载完成后执行 PACK 整理表。
+ * <p>
+ * Staging files are tab separated UTF-8 text: tabs, line breaks and backslashes are escaped with a backslash and
+ * NULL is written as <code>\N</code>. The import statement comes from
+ * {@link KbaseDatabaseMeta#getBulkLoadStatement(String, String)} and has to be configured. Each import (and the PACK)
+ * is committed when the connection is not in auto commit mode. Staging files are deleted once they were imported or
+ * the import failed, unless {@link KbaseDatabaseMeta#isBulkKeepFiles()} keeps them for debugging. The target table, when created, uses the
+ * plugin's {@link KbaseDatabaseMeta#getFieldDefinition} mapping so staging and target schemas agree. Dates are
+ * written with milliseconds, timestamps with {@link Timestamp#toString()} so fractional seconds survive the load.
+ * A loader that is not {@link #close() closed} has to be {@link #abort() aborted}, otherwise its staging files and
+ * loader thread are left behind.
+ */
+public class KbaseBulkLoader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final File END_OF_FILES = new File("");
+
+    private final Database database;
+    private final KbaseDatabaseMeta kbaseMeta;
+    private final String tableName;
+    private final RowMetaInterface rowMeta;
+    private final File stagingDirectory;
+    private final long maxFileSize;
+    private final boolean packAfterLoad;
+    private final boolean keepFiles;
+
+    private final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE / 4);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final BlockingQueue<File> finishedFiles = new ArrayBlockingQueue<File>(2);
+    private Thread loaderThread;
+    private volatile Exception loaderError;
+    private volatile boolean aborted;
+
+    private File currentFile;
+    private FileChannel channel;
+    private long fileSize;
+    private int fileNr;
+    private long rowsWritten;
+    private volatile int filesLoaded;
+
+    /**
+     * @param database         a connected Kbase database, used only by the loader thread
+     * @param schemaName       the schema of the target table, may be null
+     * @param tableName        the target table
+     * @param rowMeta          the incoming fields, in target column order
+     * @param stagingDirectory the directory for the staging files, it has to be readable by the Kbase server
+     * @param packAfterLoad    true to PACK the table after the last file was loaded
+     * @throws KettleDatabaseException if no bulk import statement is configured for the connection
+     */
+    public KbaseBulkLoader(Database database, String schemaName, String tableName, RowMetaInterface rowMeta,
+                           File stagingDirectory, boolean packAfterLoad) throws KettleDatabaseException {
+        this.database = database;
+        this.kbaseMeta = (KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface();
+        this.tableName = database.getDatabaseMeta().getQuotedSchemaTableCombination(schemaName, tableName);
+        this.rowMeta = rowMeta;
+        this.stagingDirectory = stagingDirectory;
+        this.maxFileSize = kbaseMeta.getBulkFileSize();
+        this.packAfterLoad = packAfterLoad;
+        this.keepFiles = kbaseMeta.isBulkKeepFiles();
+        // 在写入暂存文件前检查装载语句
+        kbaseMeta.getBulkLoadStatement(this.tableName, "");
+    }
+
+    /**
+     * 生成按输入字段建表的语句，字段类型与{@link KbaseDatabaseMeta#getFieldDefinition}一致
+     *
+     * @return the CREATE TABLE statement for the target table
+     */
+    public String getCreateTableStatement() {
+        StringBuilder sql = new StringBuilder(64 + 32 * rowMeta.size());
+        sql.append("CREATE TABLE ").append(tableName).append(Const.CR).append('(');
+        for (int i = 0; i < rowMeta.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            kbaseMeta.appendFieldDefinition(sql, rowMeta.getValueMeta(i), null, null, false, true, false);
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * 启动后台装载线程
+     *
+     * @throws KettleDatabaseException
+     */
+    public void start() throws KettleDatabaseException {
+        openFile();
+        loaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadFiles();
+            }
+        }, "Kbase bulk loader " + tableName);
+        loaderThread.setDaemon(true);
+        loaderThread.start();
+    }
+
+    /**
+     * 写入一行，文件超过大小后切换到新文件
+     *
+     * @param row the row data
+     * @throws KettleDatabaseException
+     */
+    public void addRow(Object[] row) throws KettleDatabaseException {
+        checkLoader();
+        try {
+            for (int i = 0; i < rowMeta.size(); i++) {
+                if (i > 0) {
+                    put('\t');
+                }
+                writeValue(rowMeta.getValueMeta(i), row[i]);
+            }
+            put('\n');
+            rowsWritten++;
+            if (fileSize + byteBuffer.position() + charBuffer.position() * 3L >= maxFileSize) {
+                rotate();
+            }
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to write staging file [" + currentFile + "]", e);
+        } catch (KettleValueException e) {
+            throw new KettleDatabaseException("Unable to convert row " + (rowsWritten + 1) + " for bulk load", e);
+        }
+    }
+
+    /**
+     * 写完最后一个文件，等待全部文件装载完成，按需执行 PACK
+     *
+     * @throws KettleDatabaseException
+     */
+    public void close() throws KettleDatabaseException {
+        if (aborted) {
+            throw new KettleDatabaseException("Bulk load into " + tableName + " was aborted");
+        }
+        try {
+            finishFile();
+            finishedFiles.put(END_OF_FILES);
+            loaderThread.join();
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to write staging file [" + currentFile + "]", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KettleDatabaseException("Interrupted while waiting for the bulk load of " + tableName, e);
+        }
+        checkLoader();
+        if (packAfterLoad) {
+            execute(kbaseMeta.getPackTableStatement(tableName));
+        }
+    }
+
+    /**
+     * 放弃装载：关闭并删除暂存文件，通知后台线程结束(不等待正在执行的装载语句)
+     * <p>
+     * Files the server already imported stay imported. Safe to call more than once and after a failed
+     * {@link #close()}; the loader can't be used afterwards.
+     */
+    public void abort() {
+        aborted = true;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        if (currentFile != null) {
+            discard(currentFile);
+            currentFile = null;
+        }
+        List<File> pending = new ArrayList<File>();
+        finishedFiles.drainTo(pending);
+        for (File file : pending) {
+            discard(file);
+        }
+        if (loaderThread != null) {
+            // 只有本线程放入文件，清空后队列一定有空位
+            finishedFiles.offer(END_OF_FILES);
+        }
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public int getFilesLoaded() {
+        return filesLoaded;
+    }
+
+    private void loadFiles() {
+        try {
+            File file = finishedFiles.take();
+            while (file != END_OF_FILES) {
+                try {
+                    if (loaderError == null && !aborted) {
+                        execute(kbaseMeta.getBulkLoadStatement(tableName, file.getAbsolutePath()));
+                        filesLoaded++;
+                    }
+                } finally {
+                    discard(file);
+                }
+                file = finishedFiles.take();
+            }
+        } catch (Exception e) {
+            loaderError = e;
+            // 继续清空队列，避免写入线程阻塞
+            drain();
+        }
+    }
+
+    private void drain() {
+        try {
+            File file = finishedFiles.take();
+            while (file != END_OF_FILES) {
+                discard(file);
+                file = finishedFiles.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 执行装载或整理语句，连接不是自动提交时立即提交
+     */
+    private void execute(String sql) throws KettleDatabaseException {
+        Connection connection = database.getConnection();
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(sql);
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            rollback(connection);
+            throw new KettleDatabaseException("Error executing [" + sql + "]", e);
+        } finally {
+            try {
+                if (statement != null) {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            // 保留原来的异常
+        }
+    }
+
+    private void discard(File file) {
+        if (!keepFiles) {
+            file.delete();
+        }
+    }
+
+    private void checkLoader() throws KettleDatabaseException {
+        if (aborted) {
+            throw new KettleDatabaseException("Bulk load into " + tableName + " was aborted");
+        }
+        if (loaderError != null) {
+            throw new KettleDatabaseException("Bulk load into " + tableName + " failed", loaderError);
+        }
+    }
+
+    private void openFile() throws KettleDatabaseException {
+        try {
+            currentFile = File.createTempFile("kbase_" + (++fileNr) + "_", ".txt", stagingDirectory);
+            channel = new RandomAccessFile(currentFile, "rw").getChannel();
+            fileSize = 0;
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to create staging file in [" + stagingDirectory + "]", e);
+        }
+    }
+
+    private void rotate() throws IOException, KettleDatabaseException {
+        finishFile();
+        openFile();
+    }
+
+    /**
+     * 写出缓冲区并关闭当前文件，交给装载线程(队列满时等待)
+     */
+    private void finishFile() throws IOException, KettleDatabaseException {
+        flushChars(true);
+        flushBytes();
+        channel.close();
+        try {
+            finishedFiles.put(currentFile);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KettleDatabaseException("Interrupted while handing over [" + currentFile + "]", e);
+        }
+    }
+
+    private void writeValue(ValueMetaInterface valueMeta, Object value) throws IOException, KettleValueException {
+        if (valueMeta.isNull(value)) {
+            put('\\');
+            put('N');
+            return;
+        }
+        switch (valueMeta.getType()) {
+            case ValueMetaInterface.TYPE_INTEGER:
+                putText(Long.toString(valueMeta.getInteger(value)));
+                break;
+            case ValueMetaInterface.TYPE_NUMBER:
+                putText(Double.toString(valueMeta.getNumber(value)));
+                break;
+            case ValueMetaInterface.TYPE_BIGNUMBER:
+                BigDecimal number = valueMeta.getBigNumber(value);
+                putText(number.toPlainString());
+                break;
+            case ValueMetaInterface.TYPE_DATE:
+                putText(dateFormat.format(valueMeta.getDate(value)));
+                break;
+            case ValueMetaInterface.TYPE_TIMESTAMP:
+                Date date = valueMeta.getDate(value);
+                putText((date instanceof Timestamp ? (Timestamp) date : new Timestamp(date.getTime())).toString());
+                break;
+            case ValueMetaInterface.TYPE_BOOLEAN:
+                put(valueMeta.getBoolean(value) ? 'Y' : 'N');
+                break;
+            case ValueMetaInterface.TYPE_BINARY:
+                for (byte b : valueMeta.getBinary(value)) {
+                    put(Character.forDigit((b >> 4) & 0xF, 16));
+                    put(Character.forDigit(b & 0xF, 16));
+                }
+                break;
+            default:
+                putEscaped(valueMeta.getString(value));
+                break;
+        }
+    }
+
+    private void putText(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            put(text.charAt(i));
+        }
+    }
+
+    private void putEscaped(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\t':
+                    put('\\');
+                    put('t');
+                    break;
+                case '\n':
+                    put('\\');
+                    put('n');
+                    break;
+                case '\r':
+                    put('\\');
+                    put('r');
+                    break;
+                case '\\':
+                    put('\\');
+                    put('\\');
+                    break;
+                default:
+                    put(c);
+                    break;
+            }
+        }
+    }
+
+    private void put(char c) throws IOException {
+        if (!charBuffer.hasRemaining()) {
+            flushChars(false);
+        }
+        charBuffer.put(c);
+    }
+
+    private void flushChars(boolean endOfInput) throws IOException {
+        charBuffer.flip();
+        CoderResult result = encoder.encode(charBuffer, byteBuffer, endOfInput);
+        while (result.isOverflow()) {
+            flushBytes();
+            result = encoder.encode(charBuffer, byteBuffer, endOfInput);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        if (endOfInput) {
+            while (encoder.flush(byteBuffer).isOverflow()) {
+                flushBytes();
+            }
+            encoder.reset();
+        }
+        // 保留未编码的代理对的前半部分
+        charBuffer.compact();
+    }
+
+    private void flushBytes() throws IOException {
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            fileSize += channel.write(byteBuffer);
+        }
+        byteBuffer.clear();
+    }
+}
@@ -0,0 +1,187 @@
+package org.pentaho.di.core.database;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Kbase字段画像
+ * 统计一个字段抽样值的空值比例、最小/最大值、是否全为整数、整数位数和小数位数、字符串最大长度以及日期是否带时间，
+ * 生成DDL时据此选择最窄的字段类型(见{@link KbaseDatabaseMeta#getFieldDefinition(ValueMetaInterface, KbaseColumnProfile,
+ * String, String, boolean, boolean, boolean)})。
+ * <p>
+ * String lengths are counted the way the database counts VARCHAR(n): in characters (code points, so a supplementary
+ * character counts once) or in bytes of the database character set
+ * ({@link KbaseDatabaseMeta#getVarcharLengthCharset()}).
+ */
+public class KbaseColumnProfile {
+
+    private final ValueMetaInterface valueMeta;
+    private final Charset lengthCharset;
+
+    private long rows;
+    private long nulls;
+    private boolean integral = true;
+    private long minimum = Long.MAX_VALUE;
+    private long maximum = Long.MIN_VALUE;
+    private int integerDigits;
+    private int scale;
+    private int maxLength;
+    private boolean hasTime;
+
+    private final Calendar calendar = Calendar.getInstance();
+
+    /**
+     * @param valueMeta     the field to profile
+     * @param lengthCharset the character set to measure string lengths in bytes of, null to count characters
+     */
+    public KbaseColumnProfile(ValueMetaInterface valueMeta, Charset lengthCharset) {
+        this.valueMeta = valueMeta;
+        this.lengthCharset = lengthCharset;
+    }
+
+    /**
+     * 统计一个值
+     *
+     * @param value the field value in the row
+     * @throws KettleValueException
+     */
+    public void addValue(Object value) throws KettleValueException {
+        rows++;
+        if (valueMeta.isNull(value)) {
+            nulls++;
+            return;
+        }
+        switch (valueMeta.getType()) {
+            case ValueMetaInterface.TYPE_INTEGER:
+                addInteger(valueMeta.getInteger(value));
+                break;
+            case ValueMetaInterface.TYPE_NUMBER:
+                double number = valueMeta.getNumber(value);
+                if (number == Math.rint(number) && Math.abs(number) < 1e18) {
+                    addInteger((long) number);
+                } else {
+                    addDecimal(BigDecimal.valueOf(number));
+                }
+                break;
+            case ValueMetaInterface.TYPE_BIGNUMBER:
+                addDecimal(valueMeta.getBigNumber(value));
+                break;
+            case ValueMetaInterface.TYPE_DATE:
+            case ValueMetaInterface.TYPE_TIMESTAMP:
+                addDate(valueMeta.getDate(value));
+                break;
+            case ValueMetaInterface.TYPE_STRING:
+                maxLength = Math.max(maxLength, length(valueMeta.getString(value)));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private int length(String value) {
+        return lengthCharset == null ? value.codePointCount(0, value.length()) : value.getBytes(lengthCharset).length;
+    }
+
+    private void addInteger(long value) {
+        minimum = Math.min(minimum, value);
+        maximum = Math.max(maximum, value);
+        integerDigits = Math.max(integerDigits, value == Long.MIN_VALUE ? 19 : Long.toString(Math.abs(value)).length());
+    }
+
+    private void addDecimal(BigDecimal value) {
+        BigDecimal stripped = value.stripTrailingZeros();
+        if (stripped.scale() <= 0 && stripped.precision() - stripped.scale() <= 18) {
+            addInteger(stripped.longValueExact());
+            return;
+        }
+        integral = false;
+        int valueScale = Math.max(0, stripped.scale());
+        scale = Math.max(scale, valueScale);
+        integerDigits = Math.max(integerDigits, Math.max(1, stripped.precision() - stripped.scale()));
+    }
+
+    private void addDate(Date date) {
+        calendar.setTime(date);
+        if (calendar.get(Calendar.HOUR_OF_DAY) != 0 || calendar.get(Calendar.MINUTE) != 0
+                || calendar.get(Calendar.SECOND) != 0 || calendar.get(Calendar.MILLISECOND) != 0) {
+            hasTime = true;
+        }
+    }
+
+    public ValueMetaInterface getValueMeta() {
+        return valueMeta;
+    }
+
+    /**
+     * @return the number of profiled values
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getNulls() {
+        return nulls;
+    }
+
+    /**
+     * @return the share of NULL values, 0 when nothing was profiled
+     */
+    public double getNullRatio() {
+        return rows == 0 ? 0 : (double) nulls / rows;
+    }
+
+    /**
+     * @return true if at least one non-NULL value was profiled
+     */
+    public boolean hasValues() {
+        return rows > nulls;
+    }
+
+    /**
+     * @return true if all numeric values are whole numbers that fit a BIGINT
+     */
+    public boolean isIntegral() {
+        return integral;
+    }
+
+    public long getMinimum() {
+        return minimum;
+    }
+
+    public long getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @return the largest number of digits before the decimal point
+     */
+    public int getIntegerDigits() {
+        return integerDigits;
+    }
+
+    /**
+     * @return the largest number of significant decimal places
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * @return the length of the longest string, in characters or bytes as the database counts it
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return true if a date has a time of day other than midnight
+     */
+    public boolean hasTime() {
+        return hasTime;
+    }
+}
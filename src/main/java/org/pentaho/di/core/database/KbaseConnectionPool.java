@@ -0,0 +1,72 @@
+package org.pentaho.di.core.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+
+/**
+ * Kbase连接池辅助
+ * 作业开始时预热连接池，并汇总连接池和表结构缓存的统计信息。
+ * <p>
+ * Pooling itself is Kettle's own (DBCP based) connection pool; {@link KbaseDatabaseMeta} supplies the Kbase
+ * defaults for pool sizes, the validation query and DBCP's prepared statement pooling
+ * (<code>poolPreparedStatements</code>), which caches prepared statements per pooled connection.
+ */
+public final class KbaseConnectionPool {
+
+    private static final AtomicLong WARMED_UP = new AtomicLong();
+
+    private KbaseConnectionPool() {
+    }
+
+    /**
+     * 预热连接池：同时打开指定数量的连接再归还给连接池；连接未启用连接池时不做任何事
+     *
+     * @param parent       the logging parent, usually the job
+     * @param databaseMeta a Kbase connection with pooling enabled
+     * @param nrConnections the number of connections to open, &lt;=0 uses the connection's initial pool size
+     * @throws KettleDatabaseException if a connection can't be opened
+     */
+    public static void warmUp(LoggingObjectInterface parent, DatabaseMeta databaseMeta, int nrConnections)
+            throws KettleDatabaseException {
+        if (!databaseMeta.getDatabaseInterface().isUsingConnectionPool()) {
+            return;
+        }
+        int size = nrConnections > 0 ? nrConnections : databaseMeta.getDatabaseInterface().getInitialPoolSize();
+        List<Database> databases = new ArrayList<Database>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                Database database = new Database(parent, databaseMeta);
+                database.connect();
+                databases.add(database);
+            }
+            WARMED_UP.addAndGet(databases.size());
+        } finally {
+            for (Database database : databases) {
+                database.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return the number of connections opened by {@link #warmUp} in this JVM
+     */
+    public static long getWarmedUpConnections() {
+        return WARMED_UP.get();
+    }
+
+    /**
+     * @param databaseMeta a Kbase connection
+     * @return a one line summary of the pool settings
+     */
+    public static String getStatistics(DatabaseMeta databaseMeta) {
+        DatabaseInterface kbaseMeta = databaseMeta.getDatabaseInterface();
+        return "pooling=" + kbaseMeta.isUsingConnectionPool()
+                + ", initialPoolSize=" + kbaseMeta.getInitialPoolSize()
+                + ", maximumPoolSize=" + kbaseMeta.getMaximumPoolSize()
+                + ", warmedUp=" + WARMED_UP.get();
+    }
+}
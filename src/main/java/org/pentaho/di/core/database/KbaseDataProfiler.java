@@ -0,0 +1,82 @@
+package org.pentaho.di.core.database;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Kbase数据画像
+ * 抽样输入行并为每个字段生成{@link KbaseColumnProfile}，再按画像生成建表语句，
+ * 没有声明长度/精度的字段也能得到较窄的类型(SMALLINT/INT/BIGINT、NUMERIC(p, s)、按样本长度的VARCHAR、DATE)。
+ * <p>
+ * Only the first <code>sampleSize</code> rows are profiled, so sampled lengths and ranges get
+ * {@link KbaseDatabaseMeta#getProfileHeadroom()} percent added. A column is never narrower than its Kettle type:
+ * Number fields stay DOUBLE PRECISION and BigNumber fields NUMERIC. Declared lengths still take precedence and strings
+ * longer than {@link KbaseDatabaseMeta#getMaxVARCHARLength()} become TEXT.
+ */
+public class KbaseDataProfiler {
+
+    private final KbaseDatabaseMeta kbaseMeta;
+    private final RowMetaInterface rowMeta;
+    private final KbaseColumnProfile[] profiles;
+    private final long sampleSize;
+    private long rows;
+
+    /**
+     * @param kbaseMeta  the Kbase connection type
+     * @param rowMeta    the incoming fields
+     * @param sampleSize the number of rows to profile, &lt;=0 to profile all rows
+     */
+    public KbaseDataProfiler(KbaseDatabaseMeta kbaseMeta, RowMetaInterface rowMeta, long sampleSize) {
+        this.kbaseMeta = kbaseMeta;
+        this.rowMeta = rowMeta;
+        this.sampleSize = sampleSize > 0 ? sampleSize : Long.MAX_VALUE;
+        this.profiles = new KbaseColumnProfile[rowMeta.size()];
+        for (int i = 0; i < profiles.length; i++) {
+            profiles[i] = new KbaseColumnProfile(rowMeta.getValueMeta(i), kbaseMeta.getVarcharLengthCharset());
+        }
+    }
+
+    /**
+     * 统计一行
+     *
+     * @param row the row data
+     * @return false once the sample is complete, further rows are ignored
+     * @throws KettleValueException
+     */
+    public boolean addRow(Object[] row) throws KettleValueException {
+        if (rows >= sampleSize) {
+            return false;
+        }
+        for (int i = 0; i < profiles.length; i++) {
+            profiles[i].addValue(row[i]);
+        }
+        return ++rows < sampleSize;
+    }
+
+    public KbaseColumnProfile getProfile(int index) {
+        return profiles[index];
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * 按画像生成建表语句
+     *
+     * @param tableName the quoted (schema-qualified) table name
+     * @param tk        the technical key field, may be null
+     * @param pk        the primary key field, may be null
+     * @return the CREATE TABLE statement
+     */
+    public String getCreateTableStatement(String tableName, String tk, String pk) {
+        StringBuilder sql = new StringBuilder(64 + 32 * profiles.length);
+        sql.append("CREATE TABLE ").append(tableName).append(Const.CR).append('(').append(Const.CR);
+        for (int i = 0; i < profiles.length; i++) {
+            sql.append(i > 0 ? ", " : "  ");
+            kbaseMeta.appendFieldDefinition(sql, rowMeta.getValueMeta(i), profiles[i], tk, pk, false, true, true);
+        }
+        return sql.append(')').append(Const.CR).toString();
+    }
+}
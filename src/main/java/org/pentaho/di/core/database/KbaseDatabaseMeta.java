@@ -1,13 +1,21 @@
 package org.pentaho.di.core.database;
 
-import java.sql.ResultSet;
+import java.nio.charset.Charset;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
 
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.DBCache;
 import org.pentaho.di.core.database.*;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.plugins.DatabaseMetaPlugin;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.trans.steps.tableoutput.TableOutput;
 /**
@@ -15,16 +23,52 @@ import org.pentaho.di.trans.steps.tableoutput.TableOutput;
  */
 @DatabaseMetaPlugin(type = "KBASE", typeDescription = "Kbase数据库")
 public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInterface {
-    static {
-        System.load("C:\\Windows\\System32\\FTSClientU.dll");
-        //System.load("C:\\Windows\\System32\\KBaseClient4jU.dll");
-        System.load("C:\\Windows\\System32\\KBaseClientU.dll");
-        System.load("C:\\Windows\\System32\\TPIClientU.dll");
-        System.load("C:\\Windows\\System32\\TPIExtClientU.dll");
-    }
-
     private static final String STRICT_BIGNUMBER_INTERPRETATION = "STRICT_NUMBER_38_INTERPRETATION";
 
+    private static final String BATCH_SIZE = "KBASE_BATCH_SIZE";
+    private static final String BATCH_COMMIT_SIZE = "KBASE_BATCH_COMMIT_SIZE";
+    private static final String MULTI_ROW_INSERT = "KBASE_MULTI_ROW_INSERT";
+    private static final String METADATA_CACHE_TTL = "KBASE_METADATA_CACHE_TTL";
+    private static final String STATEMENT_CACHE_SIZE = "KBASE_STATEMENT_CACHE_SIZE";
+    private static final String FETCH_SIZE = "KBASE_FETCH_SIZE";
+    private static final String BULK_LOAD_SQL = "KBASE_BULK_LOAD_SQL";
+    private static final String BULK_FILE_SIZE = "KBASE_BULK_FILE_SIZE";
+    private static final String BULK_KEEP_FILES = "KBASE_BULK_KEEP_FILES";
+    private static final String MAX_IN_LIST_SIZE = "KBASE_MAX_IN_LIST_SIZE";
+    private static final String INSTRUMENTATION = "KBASE_INSTRUMENTATION";
+    private static final String LOB_THRESHOLD = "KBASE_LOB_THRESHOLD";
+    private static final String LOB_CHUNK_SIZE = "KBASE_LOB_CHUNK_SIZE";
+    private static final String REPLICA_HOSTS = "KBASE_REPLICA_HOSTS";
+    private static final String READ_ONLY_CONNECTION = "KBASE_READ_ONLY_CONNECTION";
+    private static final String LOAD_BALANCING = "KBASE_LOAD_BALANCING";
+    private static final String HEALTH_CHECK_INTERVAL = "KBASE_HEALTH_CHECK_INTERVAL";
+    private static final String PROFILE_HEADROOM = "KBASE_PROFILE_HEADROOM";
+    private static final String VARCHAR_LENGTH_SEMANTICS = "KBASE_VARCHAR_LENGTH_SEMANTICS";
+    private static final String DATABASE_CHARSET = "KBASE_DATABASE_CHARSET";
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_BATCH_COMMIT_SIZE = 5000;
+    private static final int DEFAULT_METADATA_CACHE_TTL = 300;
+    private static final int DEFAULT_INITIAL_POOL_SIZE = 2;
+    private static final int DEFAULT_MAXIMUM_POOL_SIZE = 20;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 50;
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final long DEFAULT_BULK_FILE_SIZE = 256L * 1024 * 1024;
+    private static final int DEFAULT_MAX_IN_LIST_SIZE = 500;
+    private static final long DEFAULT_LOB_THRESHOLD = 1024L * 1024;
+    private static final int DEFAULT_LOB_CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_HEALTH_CHECK_INTERVAL = 30;
+    private static final int DEFAULT_PROFILE_HEADROOM = 100;
+    private static final String DEFAULT_DATABASE_CHARSET = "UTF-8";
+
+    public static final String LENGTH_SEMANTICS_CHAR = "CHAR";
+    public static final String LENGTH_SEMANTICS_BYTE = "BYTE";
+
+    /**
+     * 连接校验使用的数据字典表，探测语句不返回数据
+     */
+    private static final String VALIDATION_TABLE = "USER_IND_COLUMNS";
+
     /**
      * ※
      *
@@ -36,6 +80,53 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
         return new int[]{DatabaseMeta.TYPE_ACCESS_NATIVE, DatabaseMeta.TYPE_ACCESS_JNDI};
     }
 
+    /**
+     * 连接池初始连接数，未设置时使用Kbase默认值
+     */
+    @Override
+    public int getInitialPoolSize() {
+        return Const.toInt(getAttributes().getProperty(ATTRIBUTE_POOLING_INITIAL_POOL_SIZE), DEFAULT_INITIAL_POOL_SIZE);
+    }
+
+    /**
+     * 连接池最大连接数，未设置时使用Kbase默认值
+     */
+    @Override
+    public int getMaximumPoolSize() {
+        return Const.toInt(getAttributes().getProperty(ATTRIBUTE_POOLING_MAXIMUM_POOL_SIZE), DEFAULT_MAXIMUM_POOL_SIZE);
+    }
+
+    /**
+     * 连接池参数：在用户设置的参数基础上补充连接校验和预编译语句缓存的默认值
+     *
+     * @return the DBCP pooling properties
+     */
+    @Override
+    public Properties getConnectionPoolingProperties() {
+        Properties properties = super.getConnectionPoolingProperties();
+        if (properties == null) {
+            properties = new Properties();
+        }
+        setDefault(properties, "validationQuery", getValidationQuery());
+        setDefault(properties, "testOnBorrow", "true");
+        setDefault(properties, "poolPreparedStatements", "true");
+        setDefault(properties, "maxOpenPreparedStatements", Integer.toString(getStatementCacheSize()));
+        return properties;
+    }
+
+    private static void setDefault(Properties properties, String key, String value) {
+        if (!properties.containsKey(key)) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    /**
+     * @return a cheap query to validate a pooled connection, it never returns rows
+     */
+    public String getValidationQuery() {
+        return getSQLQueryFields(VALIDATION_TABLE);
+    }
+
     /**
      * ※
      * Generates the SQL statement to add a column to the specified table
@@ -52,17 +143,28 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
     @Override
     public String getAddColumnStatement(String tablename, ValueMetaInterface v, String tk, boolean use_autoinc,
                                         String pk, boolean semicolon) {
-        return "ALTER TABLE " + tablename + " ADD " + getFieldDefinition(v, tk, pk, use_autoinc, true, false);
+        StringBuilder sql = new StringBuilder(64 + tablename.length());
+        sql.append("ALTER TABLE ").append(tablename).append(" ADD ");
+        return appendFieldDefinition(sql, v, tk, pk, use_autoinc, true, false).toString();
     }
 
     /**
      * 获取驱动类
+     * 打开连接前才加载Kbase客户端本地库(见{@link KbaseNativeLoader})，开启统计时使用{@link KbaseInstrumentedDriver}，
+     * 有副本的只读连接使用{@link KbaseReplicaDriver}
      *
      * @return
      */
     @Override
     public String getDriverClass() {
-        return getAccessType() == DatabaseMeta.TYPE_ACCESS_NATIVE ? "com.kbase.jdbc.Driver" : null;
+        if (getAccessType() != DatabaseMeta.TYPE_ACCESS_NATIVE) {
+            return null;
+        }
+        KbaseNativeLoader.ensureLoaded(getNativeLibraryPath());
+        if (routesToReplicas()) {
+            return KbaseReplicaDriver.class.getName();
+        }
+        return isInstrumented() ? KbaseInstrumentedDriver.class.getName() : KbaseInstrumentedDriver.KBASE_DRIVER;
     }
 
     /**
@@ -94,10 +196,19 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
             if (Utils.isEmpty(databaseName)) {
                 _databaseName = "BDMS";
             }
-            if (!databaseName.startsWith("/")) {
-                _databaseName = "/" + databaseName;
+            if (!_databaseName.startsWith("/")) {
+                _databaseName = "/" + _databaseName;
+            }
+            String url = "jdbc:kbase://" + _hostname + (Utils.isEmpty(_port) ? "" : ":" + _port) + _databaseName;
+            if (isInstrumented()) {
+                url = KbaseInstrumentedDriver.toInstrumentedURL(url);
             }
-            return "jdbc:kbase://" + _hostname + (Utils.isEmpty(_port) ? "" : ":" + _port);
+            if (routesToReplicas()) {
+                // 只读连接在打开物理连接时才选择副本节点，URL本身不变
+                url = KbaseReplicaDriver.toReplicaURL(url, KbaseNodeRouter.parseHosts(getReplicaHosts(), _port),
+                        getLoadBalancing(), getHealthCheckInterval());
+            }
+            return url;
         } else {
             throw new KettleDatabaseException("不支持的数据库连接方式[" + getAccessType() + "]");
         }
@@ -119,8 +230,9 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
     @Override
     public String getModifyColumnStatement(String tablename, ValueMetaInterface v, String tk, boolean use_autoinc,
                                            String pk, boolean semicolon) {
-
-        return "ALTER TABLE" + tablename + "ALTER" + getFieldDefinition(v, tk, pk, use_autoinc, true, false);
+        StringBuilder sql = new StringBuilder(64 + tablename.length());
+        sql.append("ALTER TABLE").append(tablename).append("ALTER");
+        return appendFieldDefinition(sql, v, tk, pk, use_autoinc, true, false).toString();
     }
 
     /**
@@ -137,11 +249,42 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
     @Override
     public String getFieldDefinition(ValueMetaInterface v, String tk, String pk, boolean use_autoinc,
                                      boolean add_fieldname, boolean add_cr) {
-        StringBuilder retval = new StringBuilder(128);
+        return appendFieldDefinition(new StringBuilder(64), v, tk, pk, use_autoinc, add_fieldname, add_cr).toString();
+    }
 
+    /**
+     * 按数据画像定义字段属性：没有声明长度/精度的字段使用抽样数据选择最窄的类型
+     *
+     * @param v       The column defined as a value
+     * @param profile the profile of the sampled values, null to use only the declared length and precision
+     * @return the field definition
+     * @see KbaseDataProfiler
+     */
+    public String getFieldDefinition(ValueMetaInterface v, KbaseColumnProfile profile, String tk, String pk,
+                                     boolean use_autoinc, boolean add_fieldname, boolean add_cr) {
+        return appendFieldDefinition(new StringBuilder(64), v, profile, tk, pk, use_autoinc, add_fieldname, add_cr)
+                .toString();
+    }
+
+    /**
+     * 将字段定义追加到已有的语句中，避免生成DDL时的中间字符串
+     *
+     * @param retval the statement being built
+     * @return retval
+     * @see #getFieldDefinition(ValueMetaInterface, String, String, boolean, boolean, boolean)
+     */
+    StringBuilder appendFieldDefinition(StringBuilder retval, ValueMetaInterface v, String tk, String pk,
+                                        boolean use_autoinc, boolean add_fieldname, boolean add_cr) {
+        return appendFieldDefinition(retval, v, null, tk, pk, use_autoinc, add_fieldname, add_cr);
+    }
+
+    StringBuilder appendFieldDefinition(StringBuilder retval, ValueMetaInterface v, KbaseColumnProfile profile,
+                                        String tk, String pk, boolean use_autoinc, boolean add_fieldname,
+                                        boolean add_cr) {
         String fieldname = v.getName();//字段名
         int length = v.getLength();//字段长度
         int precision = v.getPrecision();//精度
+        boolean profiled = profile != null && profile.hasValues();
 
         if (add_fieldname) {
             retval.append(fieldname).append(" ");
@@ -150,7 +293,8 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
         int type = v.getType();
         switch (type) {
             case ValueMetaInterface.TYPE_DATE:
-                retval.append("DATE");
+                retval.append(profiled && profile.hasTime() && supportsTimestampDataType() ? "TIMESTAMP" : "DATE");
+                break;
             case ValueMetaInterface.TYPE_TIMESTAMP:
                 if (this.supportsTimestampDataType()) {
                     retval.append("TIMESTAMP");
@@ -168,6 +312,8 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
                         fieldname.equalsIgnoreCase(pk) // Primary key
                 ) {
                     retval.append("BIGSERIAL");
+                } else if (length <= 0 && profiled && type != ValueMetaInterface.TYPE_NUMBER) {
+                    appendProfiledNumber(retval, type, precision, profile, getProfileHeadroom());
                 } else {
                     if (length > 0) {
                         if (precision > 0 || length > 18) {
@@ -193,7 +339,10 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
                 }
                 break;
             case ValueMetaInterface.TYPE_STRING:
-                if (length < 1 || length >= DatabaseMeta.CLOB_LENGTH) {
+                int profiledLength = profiled ? withHeadroom(profile.getMaxLength(), getProfileHeadroom()) : 0;
+                if (length < 1 && profiled && profiledLength <= getMaxVARCHARLength()) {
+                    retval.append("VARCHAR(").append(Math.max(1, profiledLength)).append(")");
+                } else if (length < 1 || length >= DatabaseMeta.CLOB_LENGTH) {
                     retval.append("TEXT");
                 } else {
                     retval.append("VARCHAR(").append(length).append(")");
@@ -211,9 +360,88 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
             retval.append(Const.CR);
         }
 
-        return retval.toString();
+        return retval;
     }
 
+    /**
+     * 按抽样的取值范围加上余量选择数值类型，不窄于Kettle字段类型：整数取能容纳最小/最大值的最窄整型，
+     * BigNumber始终使用NUMERIC(p, s)。Number(双精度)字段不按画像缩小。
+     */
+    private static void appendProfiledNumber(StringBuilder retval, int type, int precision,
+                                             KbaseColumnProfile profile, int headroom) {
+        if (type == ValueMetaInterface.TYPE_INTEGER) {
+            double factor = 1 + headroom / 100.0;
+            double min = Math.min(0, profile.getMinimum()) * factor;
+            double max = Math.max(0, profile.getMaximum()) * factor;
+            if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+                retval.append("SMALLINT");
+            } else if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+                retval.append("INT");
+            } else {
+                retval.append("BIGINT");
+            }
+        } else {
+            // 余量按位数计算：100%的余量多留一位整数
+            int extraDigits = (int) Math.ceil(Math.log10(1 + headroom / 100.0));
+            int scale = Math.max(profile.getScale(), Math.max(0, precision));
+            retval.append("NUMERIC(").append(profile.getIntegerDigits() + extraDigits + scale).append(", ")
+                    .append(scale).append(")");
+        }
+    }
+
+    private static int withHeadroom(int value, int headroom) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(value * (1 + headroom / 100.0)));
+    }
+
+    /**
+     * 按结果集的精度和小数位数确定数值字段类型：能无损表示时使用 Integer(long) 或 Number(double)，
+     * 否则使用 BigNumber。开启 strict number(38) interpretation 时小数始终使用 BigNumber。
+     * Kettle's ValueMetaBase.getValueFromSQLType calls this for every column of a query or table it describes.
+     * <ul>
+     * <li>scale 0, precision 1..18: Integer</li>
+     * <li>scale &gt; 0, precision 1..15: Number, BigNumber when strict</li>
+     * <li>unknown precision or scale: BigNumber, a double could lose digits</li>
+     * <li>anything wider: BigNumber</li>
+     * </ul>
+     *
+     * @param v     the value metadata derived by Kettle
+     * @param rm    the result set metadata
+     * @param index the 1 based column index
+     * @return the value metadata with the cheapest lossless numeric type, or null to keep Kettle's choice
+     * @throws SQLException if the result set metadata can't be read
+     */
+    @Override
+    public ValueMetaInterface customizeValueFromSQLType(ValueMetaInterface v, ResultSetMetaData rm, int index)
+            throws SQLException {
+        if (v == null || !v.isNumeric()) {
+            return null;
+        }
+        int sqlType = rm.getColumnType(index);
+        if (sqlType != Types.NUMERIC && sqlType != Types.DECIMAL) {
+            return null;
+        }
+        int length = rm.getPrecision(index);
+        int precision = rm.getScale(index);
+
+        int type;
+        if (precision == 0 && length > 0 && length <= 18) {
+            type = ValueMetaInterface.TYPE_INTEGER;
+        } else if (precision > 0 && length > 0 && length <= 15 && !strictBigNumberInterpretation()) {
+            type = ValueMetaInterface.TYPE_NUMBER;
+        } else {
+            type = ValueMetaInterface.TYPE_BIGNUMBER;
+        }
+        if (type == v.getType()) {
+            return null;
+        }
+        try {
+            ValueMetaInterface customized = ValueMetaFactory.cloneValueMeta(v, type);
+            customized.setLength(length, type == ValueMetaInterface.TYPE_INTEGER ? 0 : precision);
+            return customized;
+        } catch (KettlePluginException e) {
+            throw new SQLException("Unable to create value metadata for column " + index, e);
+        }
+    }
 
     /**
      * 默认连接端口4567
@@ -243,6 +471,44 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
         return " LIMIT " + nrRows;
     }
 
+    /**
+     * 分页读取：跳过offset行后最多返回nrRows行
+     *
+     * @param offset the number of rows to skip
+     * @param nrRows the maximum number of rows to return, &lt;0 for all remaining rows
+     * @return the LIMIT/OFFSET clause to append to an ordered SELECT
+     */
+    public String getLimitClause(long offset, long nrRows) {
+        if (nrRows < 0) {
+            return " OFFSET " + offset;
+        }
+        return " LIMIT " + nrRows + " OFFSET " + offset;
+    }
+
+    /**
+     * 全文检索条件，由Kbase检索引擎在服务端匹配；权重大于1时用 FACTOR 提高该字段命中的相关度
+     *
+     * @param field      the quoted field to search
+     * @param expression the Kbase search expression, e.g. <code>数据+仓库</code>
+     * @param weight     the relevance weight of the field, 1 for the default
+     * @return field = 'expression' [FACTOR weight]
+     */
+    public String getFullTextCondition(String field, String expression, int weight) {
+        StringBuilder condition = new StringBuilder(field.length() + expression.length() + 16);
+        condition.append(field).append(" = ").append(quoteSQLString(expression));
+        if (weight > 1) {
+            condition.append(" FACTOR ").append(weight);
+        }
+        return condition.toString();
+    }
+
+    /**
+     * @return the clause ordering full-text hits by descending relevance
+     */
+    public String getRelevanceOrderClause() {
+        return " ORDER BY RELEVANT";
+    }
+
     /**
      * 返回获取表所有字段信息的语句(WHERE 1=0 可以保证只返回表结构而没有数据)
      *
@@ -251,7 +517,8 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
      */
     @Override
     public String getSQLQueryFields(String tableName) {
-        return "SELECT * FROM " + tableName + " WHERE 1=0";
+        return new StringBuilder(26 + tableName.length()).append("SELECT * FROM ").append(tableName)
+                .append(" WHERE 1=0").toString();
     }
 
     /**
@@ -281,6 +548,14 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
         return "SELECT " + columnname + " FROM " + tableName + " WHERE 1=0";
     }
 
+    /**
+     * Kbase驱动支持设置抓取条数，大表读取时不会一次缓存全部结果
+     */
+    @Override
+    public boolean isFetchSizeSupported() {
+        return true;
+    }
+
     /**
      * 是否锁定所有表
      *
@@ -318,7 +593,7 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
      * @return The SQL to get the name of the sequence back from the databases data
      *         dictionary
      */
-   /* @Override
+    @Override
     public String getSQLSequenceExists(String sequenceName) {
         int dotPos = sequenceName.indexOf('.');  //获取序列中'.'的下标
         String sql = "";
@@ -332,7 +607,7 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
                     + "' AND SEQUENCE_OWNER = '" + schemaName.toUpperCase() + "'";
         }
         return sql;
-    }*/
+    }
 
     /**
      * Get the current value of a database sequence 获取数据库序列当前值
@@ -341,27 +616,54 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
      *            The sequence to check
      * @return The current value of a database sequence
      */
-/*    @Override
+    @Override
     public String getSQLCurrentSequenceValue(String sequenceName) {
         return "SELECT " + sequenceName + ".currval FROM DUAL";
-    }*/
+    }
 
     /**
-     * Get the SQL to get the next value of a sequence. (Oracle only)
+     * Get the SQL to get the next value of a sequence. 获取序列下一个值
      *
      * @param sequenceName
      *            The sequence name
-     * @return the SQL to get the next value of a sequence. (Oracle only)
+     * @return the SQL to get the next value of a sequence.
      */
-   /* @Override
+    @Override
     public String getSQLNextSequenceValue(String sequenceName) {
-        return "SELECT " + sequenceName + ".nextval FROM dual";
-    }*/
+        return "SELECT " + sequenceName + ".nextval FROM DUAL";
+    }
 
-   /* @Override
+    @Override
     public boolean supportsSequenceNoMaxValueOption() {
         return true;
-    }*/
+    }
+
+    /**
+     * 生成按块分配主键使用的序列：每次取值前进一个块的大小(见{@link KbaseKeyAllocator})
+     *
+     * @param sequenceName the sequence name
+     * @param blockSize    the number of keys reserved by one nextval
+     * @return the CREATE SEQUENCE statement
+     */
+    public String getSQLCreateSequence(String sequenceName, int blockSize) {
+        return "CREATE SEQUENCE " + sequenceName + " START WITH 1 INCREMENT BY " + blockSize;
+    }
+
+    /**
+     * 查询序列每次取值前进的步长，与{@link #getSQLSequenceExists(String)}使用同样的数据字典视图
+     *
+     * @param sequenceName the sequence name, optionally prefixed with the schema
+     * @return the query returning INCREMENT_BY of the sequence, no row when it doesn't exist
+     */
+    public String getSQLSequenceIncrement(String sequenceName) {
+        int dotPos = sequenceName.indexOf('.');
+        if (dotPos == -1) {
+            return "SELECT INCREMENT_BY FROM USER_SEQUENCES WHERE SEQUENCE_NAME = '" + sequenceName.toUpperCase() + "'";
+        }
+        return "SELECT INCREMENT_BY FROM ALL_SEQUENCES WHERE SEQUENCE_NAME = '"
+                + sequenceName.substring(dotPos + 1).toUpperCase() + "' AND SEQUENCE_OWNER = '"
+                + sequenceName.substring(0, dotPos).toUpperCase() + "'";
+    }
 
     /**
      * @return true if we need to supply the schema-name to getTables in order to
@@ -395,7 +697,9 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
     @Override
     public String getDropColumnStatement(String tablename, ValueMetaInterface v, String tk, boolean use_autoinc,
                                          String pk, boolean semicolon) {
-        return "ALTER TABLE " + tablename + " DROP COLUMN " + v.getName() + Const.CR;
+        StringBuilder sql = new StringBuilder(32 + tablename.length() + v.getName().length());
+        return sql.append("ALTER TABLE ").append(tablename).append(" DROP COLUMN ").append(v.getName())
+                .append(Const.CR).toString();
     }
 
 
@@ -417,7 +721,7 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
 
     @Override
     public String getSQLLockTables(String[] tableNames) {
-        StringBuilder sql = new StringBuilder(128);
+        StringBuilder sql = new StringBuilder(48 * tableNames.length);
         for (int i = 0; i < tableNames.length; i++) {
             sql.append("LOCK TABLE ").append(tableNames[i]).append(" IN EXCLUSIVE MODE;").append(Const.CR);
         }
@@ -465,54 +769,45 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
 
         String tablename = database.getDatabaseMeta().getQuotedSchemaTableCombination(schemaName, tableName);
 
-        boolean[] exists = new boolean[idx_fields.length];
-        for (int i = 0; i < exists.length; i++) {
-            exists[i] = false;
-        }
-
         try {
-            //
-            // Get the info from the data dictionary...
-            //
-            String sql = "SELECT * FROM USER_IND_COLUMNS WHERE TABLE_NAME = '" + tableName + "'";
-            ResultSet res = null;
-            try {
-                res = database.openQuery(sql);
-                if (res != null) {
-                    Object[] row = database.getRow(res);
-                    while (row != null) {
-                        String column = database.getReturnRowMeta().getString(row, "COLUMN_NAME", "");
-                        int idx = Const.indexOfString(column, idx_fields);
-                        if (idx >= 0) {
-                            exists[idx] = true;
-                        }
-
-                        row = database.getRow(res);
-                    }
-
-                } else {
-                    return false;
-                }
-            } finally {
-                if (res != null) {
-                    database.closeQuery(res);
-                }
-            }
-
-            // See if all the fields are indexed...
-            boolean all = true;
-            for (int i = 0; i < exists.length && all; i++) {
-                if (!exists[i]) {
-                    all = false;
-                }
-            }
-
-            return all;
+            // 从索引目录快照中判断，不再逐行读取数据字典
+            return KbaseIndexCatalog.getInstance().isIndexed(database, tableName, idx_fields);
         } catch (Exception e) {
             throw new KettleDatabaseException("Unable to determine if indexes exists on table [" + tablename + "]", e);
         }
     }
 
+    /**
+     * 生成创建索引的SQL语句
+     *
+     * @param tablename the quoted (schema-qualified) table name
+     * @param indexname the name of the index
+     * @param idx_fields the fields to index
+     * @param unique    true to create a unique index
+     * @param semicolon whether or not to add a semi-colon behind the statement
+     * @return the CREATE INDEX statement
+     */
+    public String getCreateIndexStatement(String tablename, String indexname, String[] idx_fields, boolean unique,
+                                          boolean semicolon) {
+        StringBuilder sql = new StringBuilder(128);
+        sql.append("CREATE ");
+        if (unique) {
+            sql.append("UNIQUE ");
+        }
+        sql.append("INDEX ").append(indexname).append(" ON ").append(tablename).append('(');
+        for (int i = 0; i < idx_fields.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(idx_fields[i]);
+        }
+        sql.append(')');
+        if (semicolon) {
+            sql.append(';');
+        }
+        return sql.toString();
+    }
+
     @Override
     public boolean requiresCreateTablePrimaryKeyAppend() {
         return true;
@@ -539,6 +834,20 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
         return 32;
     }
 
+    /**
+     * @return The maximum number of values in one IN (...) list, used by batched lookups
+     */
+    public int getMaxInListSize() {
+        return Const.toInt(getAttributes().getProperty(MAX_IN_LIST_SIZE), DEFAULT_MAX_IN_LIST_SIZE);
+    }
+
+    /**
+     * @param maxInListSize The maximum number of values in one IN (...) list
+     */
+    public void setMaxInListSize(int maxInListSize) {
+        getAttributes().setProperty(MAX_IN_LIST_SIZE, Integer.toString(maxInListSize));
+    }
+
     /**
      * @return The SQL on this database to get a list of sequences.
      */
@@ -548,16 +857,47 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
     }
 
     /**
+     * 单次扫描完成转义：单引号加倍，换行/回车拼接为 chr() 表达式，不含特殊字符时不做额外分配
+     *
      * @param string
      * @return A string that is properly quoted for use in an Oracle SQL statement
      * (insert, update, delete, etc)
      */
     @Override
     public String quoteSQLString(String string) {
-        string = string.replaceAll("'", "''");
-        string = string.replaceAll("\\n", "'||chr(13)||'");
-        string = string.replaceAll("\\r", "'||chr(10)||'");
-        return "'" + string + "'";
+        int length = string.length();
+        int first = 0;
+        while (first < length) {
+            char c = string.charAt(first);
+            if (c == '\'' || c == '\n' || c == '\r') {
+                break;
+            }
+            first++;
+        }
+        if (first == length) {
+            return new StringBuilder(length + 2).append('\'').append(string).append('\'').toString();
+        }
+
+        StringBuilder quoted = new StringBuilder(length + 16);
+        quoted.append('\'').append(string, 0, first);
+        for (int i = first; i < length; i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '\'':
+                    quoted.append("''");
+                    break;
+                case '\n':
+                    quoted.append("'||chr(13)||'");
+                    break;
+                case '\r':
+                    quoted.append("'||chr(10)||'");
+                    break;
+                default:
+                    quoted.append(c);
+                    break;
+            }
+        }
+        return quoted.append('\'').toString();
     }
 
     /**
@@ -568,6 +908,9 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
         return false;
     }
 
+    /**
+     * 驱动在批次失败后不返回可靠的更新计数，出错行由{@link KbaseBatchInserter}拆分批次定位
+     */
     @Override
     public boolean supportsErrorHandlingOnBatchUpdates() {
         return false;
@@ -575,6 +918,8 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
 
     /**
      * @return true if Kettle can create a repository on this type of database.
+     * @see KbaseRepositoryCache
+     * @see KbaseRepositoryBatchWriter
      */
     @Override
     public boolean supportsRepository() {
@@ -599,11 +944,237 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
         return "DROP TABLE IF EXISTS " + tableName;
     }
 
+    /**
+     * 合并(upsert)第一步：用暂存表中的数据更新目标表中已存在的行
+     *
+     * @param tableName   the quoted target table
+     * @param stagingName the quoted staging table holding one batch
+     * @param keys        the quoted key columns
+     * @param values      the quoted columns to update, not empty
+     * @return UPDATE target SET v = (SELECT s.v FROM staging s WHERE keys match) WHERE EXISTS (matching staging row)
+     */
+    public String getSQLMergeUpdate(String tableName, String stagingName, String[] keys, String[] values) {
+        StringBuilder match = new StringBuilder(32 * keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            match.append(i > 0 ? " AND " : " WHERE ");
+            match.append("S.").append(keys[i]).append(" = ").append(tableName).append('.').append(keys[i]);
+        }
+        StringBuilder sql = new StringBuilder(128 + (values.length + 1) * (32 + match.length()));
+        sql.append("UPDATE ").append(tableName).append(" SET ");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(values[i]).append(" = (SELECT S.").append(values[i]).append(" FROM ").append(stagingName)
+                    .append(" S").append(match).append(')');
+        }
+        sql.append(" WHERE EXISTS (SELECT 1 FROM ").append(stagingName).append(" S").append(match).append(')');
+        return sql.toString();
+    }
+
+    /**
+     * 合并(upsert)第二步：插入暂存表中目标表还没有的行
+     *
+     * @param tableName   the quoted target table
+     * @param stagingName the quoted staging table holding one batch
+     * @param keys        the quoted key columns
+     * @param columns     all quoted columns, keys included
+     * @return INSERT INTO target (columns) SELECT columns FROM staging s WHERE NOT EXISTS (matching target row)
+     */
+    public String getSQLMergeInsert(String tableName, String stagingName, String[] keys, String[] columns) {
+        StringBuilder sql = new StringBuilder(128 + 24 * columns.length + 48 * keys.length);
+        sql.append("INSERT INTO ").append(tableName).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]);
+        }
+        sql.append(") SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", S." : "S.").append(columns[i]);
+        }
+        sql.append(" FROM ").append(stagingName).append(" S WHERE NOT EXISTS (SELECT 1 FROM ").append(tableName);
+        for (int i = 0; i < keys.length; i++) {
+            sql.append(i > 0 ? " AND " : " WHERE ");
+            sql.append(tableName).append('.').append(keys[i]).append(" = S.").append(keys[i]);
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * 批量导入暂存文件的语句，取自连接属性 KBASE_BULK_LOAD_SQL，{TABLE}和{FILE}分别替换为表名和文件路径
+     * <p>
+     * The import syntax depends on the Kbase server version, so there is no default: the attribute has to be set to
+     * the server's import statement for tab separated UTF-8 files with <code>\N</code> for NULL (see
+     * {@link KbaseBulkLoader}). {FILE} is replaced by the quoted path as seen by the server.
+     *
+     * @param tableName the quoted (schema-qualified) table name
+     * @param fileName  the staging file as seen by the server
+     * @return the bulk import statement
+     * @throws KettleDatabaseException if KBASE_BULK_LOAD_SQL is not set
+     */
+    public String getBulkLoadStatement(String tableName, String fileName) throws KettleDatabaseException {
+        String template = getBulkLoadSQL();
+        if (Utils.isEmpty(template)) {
+            throw new KettleDatabaseException("No bulk import statement configured: set the connection attribute "
+                    + BULK_LOAD_SQL + " to the import statement of the Kbase server, with {TABLE} and {FILE}");
+        }
+        return template.replace("{TABLE}", tableName).replace("{FILE}", quoteSQLString(fileName));
+    }
+
+    /**
+     * 整理表(清除删除标记、重建索引)，批量装载后使用
+     *
+     * @param tableName the quoted (schema-qualified) table name
+     * @return the PACK statement
+     */
+    public String getPackTableStatement(String tableName) {
+        return "PACK TABLE " + tableName;
+    }
+
+    /**
+     * 脚本拆分，批量执行见{@link KbaseScriptExecutor}
+     */
     @Override
     public SqlScriptParser createSqlScriptParser() {
         return new SqlScriptParser(false);
     }
 
+    /**
+     * @return the number of rows fetched per round-trip by streaming reads
+     */
+    public int getFetchSize() {
+        return Const.toInt(getAttributes().getProperty(FETCH_SIZE), DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @param fetchSize the number of rows fetched per round-trip by streaming reads
+     */
+    public void setFetchSize(int fetchSize) {
+        getAttributes().setProperty(FETCH_SIZE, Integer.toString(fetchSize));
+    }
+
+    /**
+     * @return the size in bytes after which the bulk loader starts a new staging file
+     */
+    public long getBulkFileSize() {
+        return Const.toLong(getAttributes().getProperty(BULK_FILE_SIZE), DEFAULT_BULK_FILE_SIZE);
+    }
+
+    /**
+     * @param bulkFileSize the size in bytes after which the bulk loader starts a new staging file
+     */
+    public void setBulkFileSize(long bulkFileSize) {
+        getAttributes().setProperty(BULK_FILE_SIZE, Long.toString(bulkFileSize));
+    }
+
+    /**
+     * @return the bulk import statement template with {TABLE} and {FILE} placeholders, null if not configured
+     */
+    public String getBulkLoadSQL() {
+        return getAttributes().getProperty(BULK_LOAD_SQL);
+    }
+
+    /**
+     * @param bulkLoadSQL the bulk import statement template with {TABLE} and {FILE} placeholders
+     */
+    public void setBulkLoadSQL(String bulkLoadSQL) {
+        getAttributes().setProperty(BULK_LOAD_SQL, bulkLoadSQL);
+    }
+
+    /**
+     * @return true if the bulk loader keeps its staging files for debugging instead of deleting them
+     */
+    public boolean isBulkKeepFiles() {
+        return "Y".equalsIgnoreCase(getAttributes().getProperty(BULK_KEEP_FILES, "N"));
+    }
+
+    /**
+     * @param bulkKeepFiles true to keep the staging files of the bulk loader for debugging
+     */
+    public void setBulkKeepFiles(boolean bulkKeepFiles) {
+        getAttributes().setProperty(BULK_KEEP_FILES, bulkKeepFiles ? "Y" : "N");
+    }
+
+    /**
+     * @return the number of prepared statements kept open per connection
+     */
+    public int getStatementCacheSize() {
+        return Const.toInt(getAttributes().getProperty(STATEMENT_CACHE_SIZE), DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * @param statementCacheSize the number of prepared statements kept open per connection
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        getAttributes().setProperty(STATEMENT_CACHE_SIZE, Integer.toString(statementCacheSize));
+    }
+
+    /**
+     * @return the directory holding the Kbase native client libraries, empty to use the default lookup
+     */
+    public String getNativeLibraryPath() {
+        return getAttributes().getProperty(KbaseNativeLoader.NATIVE_LIB_PATH, "");
+    }
+
+    /**
+     * @param nativeLibraryPath the directory holding the Kbase native client libraries
+     */
+    public void setNativeLibraryPath(String nativeLibraryPath) {
+        getAttributes().setProperty(KbaseNativeLoader.NATIVE_LIB_PATH, nativeLibraryPath);
+    }
+
+    /**
+     * 插件缓存使用的连接标识：连接名，未命名时使用 主机:端口/数据库
+     *
+     * @param databaseMeta the connection
+     * @return the key identifying the connection in the plugin's caches
+     */
+    public static String getConnectionKey(DatabaseMeta databaseMeta) {
+        String name = databaseMeta.getName();
+        if (!Utils.isEmpty(name)) {
+            return name;
+        }
+        return databaseMeta.environmentSubstitute(databaseMeta.getHostname()) + ":"
+                + databaseMeta.environmentSubstitute(databaseMeta.getDatabasePortNumberString()) + "/"
+                + databaseMeta.environmentSubstitute(databaseMeta.getDatabaseName());
+    }
+
+    /**
+     * 获取表的字段信息
+     * <p>
+     * Goes through {@link Database#getTableFields(String)}, so the probe is cached in Kettle's {@link DBCache} under
+     * the exact probe SQL: quoted names stay case sensitive and {@link KbaseScriptExecutor} clears the connection's
+     * entries after executing DDL.
+     *
+     * @param database   a connected Kbase database
+     * @param schemaName the schema, may be null
+     * @param tableName  the table
+     * @return the fields of the table
+     * @throws KettleDatabaseException if the table can't be queried (e.g. it doesn't exist)
+     */
+    public static RowMetaInterface getTableFields(Database database, String schemaName, String tableName)
+            throws KettleDatabaseException {
+        String table = database.getDatabaseMeta().getQuotedSchemaTableCombination(schemaName, tableName);
+        RowMetaInterface fields = database.getTableFields(table);
+        if (fields == null) {
+            throw new KettleDatabaseException("Unable to retrieve the fields of table [" + table + "]");
+        }
+        return fields;
+    }
+
+    /**
+     * @return the number of seconds the index snapshot of {@link KbaseIndexCatalog} is trusted
+     */
+    public int getMetadataCacheTTL() {
+        return Const.toInt(getAttributes().getProperty(METADATA_CACHE_TTL), DEFAULT_METADATA_CACHE_TTL);
+    }
+
+    /**
+     * @param metadataCacheTTL the number of seconds the index snapshot of {@link KbaseIndexCatalog} is trusted
+     */
+    public void setMetadataCacheTTL(int metadataCacheTTL) {
+        getAttributes().setProperty(METADATA_CACHE_TTL, Integer.toString(metadataCacheTTL));
+    }
+
     /**
      * @return true if using strict number(38) interpretation
      */
@@ -617,6 +1188,237 @@ public class KbaseDatabaseMeta extends BaseDatabaseMeta implements DatabaseInter
     public void setStrictBigNumberInterpretation(boolean strictBigNumberInterpretation) {
         getAttributes().setProperty(STRICT_BIGNUMBER_INTERPRETATION, strictBigNumberInterpretation ? "Y" : "N");
     }
-}
 
+    /**
+     * 生成多行INSERT语句，每行一组参数占位符
+     *
+     * @param tableName the quoted (schema-qualified) table name
+     * @param columns   the quoted column names
+     * @param nrRows    the number of rows (VALUES groups) in the statement
+     * @return INSERT INTO table (f1, f2) VALUES (?, ?), (?, ?) ...
+     */
+    public String getMultiRowInsertStatement(String tableName, String[] columns, int nrRows) {
+        int nrFields = columns.length;
+        StringBuilder sql = new StringBuilder(64 + nrFields * (16 + 3 * nrRows));
+        sql.append("INSERT INTO ").append(tableName).append(" (");
+        for (int i = 0; i < nrFields; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES ");
+        for (int r = 0; r < nrRows; r++) {
+            if (r > 0) {
+                sql.append(", ");
+            }
+            sql.append('(');
+            for (int i = 0; i < nrFields; i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(')');
+        }
+        return sql.toString();
+    }
+
+    /**
+     * @return the number of rows sent to Kbase in one batch
+     */
+    public int getBatchSize() {
+        return Const.toInt(getAttributes().getProperty(BATCH_SIZE), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize the number of rows sent to Kbase in one batch
+     */
+    public void setBatchSize(int batchSize) {
+        getAttributes().setProperty(BATCH_SIZE, Integer.toString(batchSize));
+    }
+
+    /**
+     * @return the number of rows after which a batch load commits, &lt;=0 commits only at the end
+     */
+    public int getBatchCommitSize() {
+        return Const.toInt(getAttributes().getProperty(BATCH_COMMIT_SIZE), DEFAULT_BATCH_COMMIT_SIZE);
+    }
+
+    /**
+     * @param batchCommitSize the number of rows after which a batch load commits
+     */
+    public void setBatchCommitSize(int batchCommitSize) {
+        getAttributes().setProperty(BATCH_COMMIT_SIZE, Integer.toString(batchCommitSize));
+    }
+
+    /**
+     * @return true if batches are sent as one multi-row INSERT instead of a JDBC batch
+     */
+    public boolean isMultiRowInsert() {
+        return "Y".equalsIgnoreCase(getAttributes().getProperty(MULTI_ROW_INSERT, "N"));
+    }
+
+    /**
+     * @param multiRowInsert true to send batches as one multi-row INSERT instead of a JDBC batch
+     */
+    public void setMultiRowInsert(boolean multiRowInsert) {
+        getAttributes().setProperty(MULTI_ROW_INSERT, multiRowInsert ? "Y" : "N");
+    }
+
+    /**
+     * @return true if statement timings and row counts are collected in {@link KbaseStatistics}
+     */
+    public boolean isInstrumented() {
+        return "Y".equalsIgnoreCase(getAttributes().getProperty(INSTRUMENTATION, "N"));
+    }
+
+    /**
+     * @param instrumented true to collect statement timings and row counts in {@link KbaseStatistics}
+     */
+    public void setInstrumented(boolean instrumented) {
+        getAttributes().setProperty(INSTRUMENTATION, instrumented ? "Y" : "N");
+    }
+
+    /**
+     * @return the headroom in percent {@link KbaseDataProfiler} adds to sampled lengths and ranges, default 100
+     */
+    public int getProfileHeadroom() {
+        return Math.max(0, Const.toInt(getAttributes().getProperty(PROFILE_HEADROOM), DEFAULT_PROFILE_HEADROOM));
+    }
+
+    /**
+     * @param profileHeadroom the headroom in percent added to sampled lengths and ranges, 0 for the exact sample
+     */
+    public void setProfileHeadroom(int profileHeadroom) {
+        getAttributes().setProperty(PROFILE_HEADROOM, Integer.toString(profileHeadroom));
+    }
+
+    /**
+     * VARCHAR(n)的长度单位，与数据库的设置一致
+     *
+     * @return {@link #LENGTH_SEMANTICS_CHAR} (default) or {@link #LENGTH_SEMANTICS_BYTE}
+     */
+    public String getVarcharLengthSemantics() {
+        return getAttributes().getProperty(VARCHAR_LENGTH_SEMANTICS, LENGTH_SEMANTICS_CHAR);
+    }
+
+    /**
+     * @param varcharLengthSemantics {@link #LENGTH_SEMANTICS_CHAR} or {@link #LENGTH_SEMANTICS_BYTE}
+     */
+    public void setVarcharLengthSemantics(String varcharLengthSemantics) {
+        getAttributes().setProperty(VARCHAR_LENGTH_SEMANTICS, varcharLengthSemantics);
+    }
+
+    /**
+     * @return the character set of the database, used to measure lengths in bytes
+     */
+    public String getDatabaseCharset() {
+        return getAttributes().getProperty(DATABASE_CHARSET, DEFAULT_DATABASE_CHARSET);
+    }
+
+    /**
+     * @param databaseCharset the character set of the database, used to measure lengths in bytes
+     */
+    public void setDatabaseCharset(String databaseCharset) {
+        getAttributes().setProperty(DATABASE_CHARSET, databaseCharset);
+    }
+
+    /**
+     * @return the character set VARCHAR lengths are counted in bytes of, null if they are counted in characters
+     */
+    public Charset getVarcharLengthCharset() {
+        return LENGTH_SEMANTICS_BYTE.equalsIgnoreCase(getVarcharLengthSemantics())
+                ? Charset.forName(getDatabaseCharset()) : null;
+    }
+
+    /**
+     * @return the size in bytes (characters for TEXT) above which LOB values are only streamed, not read into rows
+     */
+    public long getLobThreshold() {
+        return Const.toLong(getAttributes().getProperty(LOB_THRESHOLD), DEFAULT_LOB_THRESHOLD);
+    }
+
+    /**
+     * @param lobThreshold the size above which LOB values are only streamed, not read into rows
+     */
+    public void setLobThreshold(long lobThreshold) {
+        getAttributes().setProperty(LOB_THRESHOLD, Long.toString(lobThreshold));
+    }
+
+    /**
+     * @return the buffer size used to stream LOB values
+     */
+    public int getLobChunkSize() {
+        return Const.toInt(getAttributes().getProperty(LOB_CHUNK_SIZE), DEFAULT_LOB_CHUNK_SIZE);
+    }
+
+    /**
+     * @param lobChunkSize the buffer size used to stream LOB values
+     */
+    public void setLobChunkSize(int lobChunkSize) {
+        getAttributes().setProperty(LOB_CHUNK_SIZE, Integer.toString(lobChunkSize));
+    }
+
+    /**
+     * @return the replica nodes as <code>host[:port],host[:port]...</code>, empty for a single node
+     */
+    public String getReplicaHosts() {
+        return getAttributes().getProperty(REPLICA_HOSTS, "");
+    }
+
+    /**
+     * @param replicaHosts the replica nodes as <code>host[:port],host[:port]...</code>
+     */
+    public void setReplicaHosts(String replicaHosts) {
+        getAttributes().setProperty(REPLICA_HOSTS, replicaHosts);
+    }
+
+    /**
+     * 只读连接(表输入、查询、结构探测)使用副本节点，其它连接(写入、DDL)始终使用主节点
+     *
+     * @return true if this connection is only used for reading and may be routed to a replica
+     */
+    public boolean isReadOnlyConnection() {
+        return "Y".equalsIgnoreCase(getAttributes().getProperty(READ_ONLY_CONNECTION, "N"));
+    }
 
+    /**
+     * @param readOnlyConnection true if this connection is only used for reading and may be routed to a replica
+     */
+    public void setReadOnlyConnection(boolean readOnlyConnection) {
+        getAttributes().setProperty(READ_ONLY_CONNECTION, readOnlyConnection ? "Y" : "N");
+    }
+
+    /**
+     * @return true if this is a read-only connection with replicas, connected through {@link KbaseReplicaDriver}
+     */
+    public boolean routesToReplicas() {
+        return isReadOnlyConnection() && !KbaseNodeRouter.parseHosts(getReplicaHosts(), null).isEmpty();
+    }
+
+    /**
+     * @return {@link KbaseNodeRouter#ROUND_ROBIN} (default) or {@link KbaseNodeRouter#LEAST_LOADED}
+     */
+    public String getLoadBalancing() {
+        return getAttributes().getProperty(LOAD_BALANCING, KbaseNodeRouter.ROUND_ROBIN);
+    }
+
+    /**
+     * @param loadBalancing {@link KbaseNodeRouter#ROUND_ROBIN} or {@link KbaseNodeRouter#LEAST_LOADED}
+     */
+    public void setLoadBalancing(String loadBalancing) {
+        getAttributes().setProperty(LOAD_BALANCING, loadBalancing);
+    }
+
+    /**
+     * @return the number of seconds between health checks of a replica
+     */
+    public int getHealthCheckInterval() {
+        return Const.toInt(getAttributes().getProperty(HEALTH_CHECK_INTERVAL), DEFAULT_HEALTH_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param healthCheckInterval the number of seconds between health checks of a replica
+     */
+    public void setHealthCheckInterval(int healthCheckInterval) {
+        getAttributes().setProperty(HEALTH_CHECK_INTERVAL, Integer.toString(healthCheckInterval));
+    }
+}
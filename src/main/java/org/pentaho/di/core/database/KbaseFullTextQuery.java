@@ -0,0 +1,175 @@
+package org.pentaho.di.core.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Kbase全文检索
+ * 把检索表达式、字段权重和相关度排序下推到Kbase检索引擎，按页读取命中结果，取满前K条后不再访问服务器，
+ * 只传输需要的记录。
+ * <p>
+ * The search fields are OR-ed, each with {@link KbaseDatabaseMeta#getFullTextCondition(String, String, int)}, and
+ * the hits are ordered with {@link KbaseDatabaseMeta#getRelevanceOrderClause()}. Every page is a separate query
+ * with {@link KbaseDatabaseMeta#getLimitClause(long, long)}; the last page only asks for the rows still missing to
+ * reach top-K.
+ */
+public class KbaseFullTextQuery {
+
+    private final Database database;
+    private final RowMetaInterface rowMeta;
+    private final String searchSQL;
+    private final long topK;
+    private final int pageSize;
+
+    private Statement statement;
+    private ResultSet resultSet;
+    private long rowsRead;
+    private int pageRows;
+    private int pages;
+    private boolean lastPage;
+
+    /**
+     * @param database     a connected Kbase database
+     * @param schemaName   the schema, may be null
+     * @param tableName    the table to search
+     * @param returnFields the fields to return, in this order
+     * @param expression   the Kbase search expression
+     * @param searchFields the fields to search
+     * @param weights      the relevance weight per search field, null to weight all fields equally
+     * @param topK         the maximum number of hits to return, &lt;=0 for all hits
+     * @param pageSize     the number of hits read per query
+     * @throws KettleDatabaseException
+     */
+    public KbaseFullTextQuery(Database database, String schemaName, String tableName, String[] returnFields,
+                              String expression, String[] searchFields, int[] weights, long topK, int pageSize)
+            throws KettleDatabaseException {
+        if (searchFields.length == 0) {
+            throw new KettleDatabaseException("No fields to search in table [" + tableName + "]");
+        }
+        DatabaseMeta databaseMeta = database.getDatabaseMeta();
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+        this.database = database;
+        this.topK = topK > 0 ? topK : Long.MAX_VALUE;
+        this.pageSize = Math.max(1, pageSize);
+
+        RowMetaInterface tableFields = KbaseDatabaseMeta.getTableFields(database, schemaName, tableName);
+        rowMeta = new RowMeta();
+        StringBuilder sql = new StringBuilder(128 + 24 * returnFields.length);
+        sql.append("SELECT ");
+        for (int i = 0; i < returnFields.length; i++) {
+            if (tableFields.searchValueMeta(returnFields[i]) == null) {
+                throw new KettleDatabaseException("Field [" + returnFields[i] + "] not found in table [" + tableName + "]");
+            }
+            rowMeta.addValueMeta(tableFields.searchValueMeta(returnFields[i]));
+            sql.append(i > 0 ? ", " : "").append(databaseMeta.quoteField(returnFields[i]));
+        }
+        sql.append(" FROM ").append(databaseMeta.getQuotedSchemaTableCombination(schemaName, tableName)).append(" WHERE ");
+        for (int i = 0; i < searchFields.length; i++) {
+            int weight = weights == null || i >= weights.length ? 1 : weights[i];
+            sql.append(i > 0 ? " OR " : "")
+                    .append(kbaseMeta.getFullTextCondition(databaseMeta.quoteField(searchFields[i]), expression, weight));
+        }
+        searchSQL = sql.append(kbaseMeta.getRelevanceOrderClause()).toString();
+    }
+
+    /**
+     * 读取下一条命中记录，当前页读完后查询下一页
+     *
+     * @return the next hit or null after the last hit or top-K hits
+     * @throws KettleDatabaseException
+     */
+    public Object[] getRow() throws KettleDatabaseException {
+        try {
+            while (rowsRead < topK) {
+                if (resultSet == null) {
+                    if (lastPage) {
+                        return null;
+                    }
+                    openPage();
+                }
+                if (resultSet.next()) {
+                    pageRows++;
+                    rowsRead++;
+                    return readRow();
+                }
+                // 不足一页说明没有更多命中
+                lastPage = lastPage || pageRows < pageSize;
+                close();
+            }
+            close();
+            return null;
+        } catch (SQLException e) {
+            close();
+            throw new KettleDatabaseException("Error reading hit " + (rowsRead + 1) + " of [" + searchSQL + "]", e);
+        }
+    }
+
+    private void openPage() throws SQLException {
+        long nrRows = Math.min(pageSize, topK - rowsRead);
+        lastPage = nrRows < pageSize;
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface();
+        statement = database.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize((int) nrRows);
+        resultSet = statement.executeQuery(searchSQL + kbaseMeta.getLimitClause(rowsRead, nrRows));
+        pageRows = 0;
+        pages++;
+    }
+
+    private Object[] readRow() throws KettleDatabaseException {
+        DatabaseInterface databaseInterface = database.getDatabaseMeta().getDatabaseInterface();
+        Object[] row = new Object[rowMeta.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = rowMeta.getValueMeta(i).getValueFromResultSet(databaseInterface, resultSet, i);
+        }
+        return row;
+    }
+
+    /**
+     * 释放当前页的结果集和语句
+     */
+    public void close() {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        }
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        }
+        resultSet = null;
+        statement = null;
+    }
+
+    /**
+     * @return the search query without the paging clause
+     */
+    public String getSearchSQL() {
+        return searchSQL;
+    }
+
+    public RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * @return the number of page queries sent to the server
+     */
+    public int getPages() {
+        return pages;
+    }
+}
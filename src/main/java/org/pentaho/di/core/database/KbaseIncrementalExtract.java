@@ -0,0 +1,351 @@
+package org.pentaho.di.core.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.util.Utils;
+
+/**
+ * Kbase增量抽取
+ * 按水位字段(时间戳或递增的BIGSERIAL键)只读取上次抽取之后变化的行：先取当前最大值作为本次窗口的上界，
+ * 再按 low &lt; col &lt;= high 分页读取；下游处理成功后调用{@link #commit()}保存新水位，失败时水位不变，下次重新抽取。
+ * <p>
+ * The window is fixed when the extract is opened. Rows committed later with a watermark above the window are read by
+ * the next run, but a row whose watermark was assigned before the window was fixed and that is committed only
+ * afterwards (a long transaction, a timestamp set by the client, a sequence value taken early) falls below the next
+ * low watermark and is never read. {@link #setSafetyLag(long)} keeps the newest part of the table out of the window
+ * until such writers are done: the upper bound becomes at most <i>now - lag</i> for timestamps (client clock, so the
+ * lag has to cover clock skew too) and <i>MAX - lag</i> for integer keys.
+ * <p>
+ * Pages are read by key set, not by OFFSET: with a unique key column the next page continues after the last
+ * (watermark, key) pair read; without one, each page first looks up the watermark of its last row and then reads up
+ * to and including that value, so rows sharing a watermark are never split across pages (a page may then be larger
+ * than the page size). Rows with a NULL watermark are never extracted.
+ */
+public class KbaseIncrementalExtract {
+
+    private final Database database;
+    private final KbaseWatermarkStore store;
+    private final String watermarkKey;
+    private final String tableName;
+    private final String watermarkColumn;
+    private final String keyColumn;
+    private final int watermarkIndex;
+    private final int keyIndex;
+    private final RowMetaInterface rowMeta;
+    private final int pageSize;
+    private long safetyLag;
+
+    private Object low;
+    private Object high;
+    private Object lastValue;
+    private Object lastKey;
+    private String selectSQL;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+    private int pageRows;
+    private boolean lastPage;
+    private long rowsRead;
+    private boolean finished;
+
+    /**
+     * @param database        a connected Kbase database
+     * @param store           the watermark store
+     * @param schemaName      the schema, may be null
+     * @param tableName       the table to extract
+     * @param watermarkColumn a timestamp or increasing integer column
+     * @param keyColumn       a unique, non-null column to page rows with the same watermark, may be null
+     * @param pageSize        the number of rows read per query
+     * @throws KettleDatabaseException
+     */
+    public KbaseIncrementalExtract(Database database, KbaseWatermarkStore store, String schemaName, String tableName,
+                                   String watermarkColumn, String keyColumn, int pageSize) throws KettleDatabaseException {
+        DatabaseMeta databaseMeta = database.getDatabaseMeta();
+        this.database = database;
+        this.store = store;
+        this.watermarkKey = KbaseWatermarkStore.getKey(databaseMeta, databaseMeta.getQuotedSchemaTableCombination(
+                schemaName, tableName), watermarkColumn);
+        this.tableName = databaseMeta.getQuotedSchemaTableCombination(schemaName, tableName);
+        this.watermarkColumn = databaseMeta.quoteField(watermarkColumn);
+        this.keyColumn = Utils.isEmpty(keyColumn) ? null : databaseMeta.quoteField(keyColumn);
+        this.rowMeta = KbaseDatabaseMeta.getTableFields(database, schemaName, tableName);
+        this.pageSize = Math.max(1, pageSize);
+
+        this.watermarkIndex = indexOf(watermarkColumn);
+        this.keyIndex = this.keyColumn == null ? -1 : indexOf(keyColumn);
+    }
+
+    private int indexOf(String column) throws KettleDatabaseException {
+        int index = rowMeta.indexOfValue(column);
+        if (index < 0) {
+            throw new KettleDatabaseException("Column [" + column + "] not found in table [" + tableName + "]");
+        }
+        return index;
+    }
+
+    /**
+     * @param safetyLag milliseconds for timestamp watermarks, key values for integer watermarks; 0 (the default)
+     *                  to read up to the current maximum
+     */
+    public void setSafetyLag(long safetyLag) {
+        this.safetyLag = Math.max(0, safetyLag);
+    }
+
+    public long getSafetyLag() {
+        return safetyLag;
+    }
+
+    /**
+     * 读取上次的水位和当前最大值，确定本次抽取窗口
+     *
+     * @throws KettleDatabaseException
+     */
+    public void open() throws KettleDatabaseException {
+        close();
+        low = store.getWatermark(watermarkKey);
+        String sql = "SELECT MAX(" + watermarkColumn + ") FROM " + tableName;
+        Statement max = null;
+        ResultSet res = null;
+        try {
+            max = database.getConnection().createStatement();
+            res = max.executeQuery(sql);
+            res.next();
+            high = applySafetyLag(normalize(res.getObject(1)));
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to determine the extraction window with [" + sql + "]", e);
+        } finally {
+            try {
+                if (res != null) {
+                    res.close();
+                }
+                if (max != null) {
+                    max.close();
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+        if (low != null && high != null && (low instanceof Date) != (high instanceof Date)) {
+            // 水位字段类型改变了，重新抽取全部数据
+            low = null;
+        }
+        // 没有新数据
+        finished = high == null || (low != null && compare(high, low) <= 0);
+        lastValue = low;
+        lastKey = null;
+        lastPage = false;
+        rowsRead = 0;
+    }
+
+    private Object applySafetyLag(Object max) {
+        if (max == null || safetyLag == 0) {
+            return max;
+        }
+        if (max instanceof Date) {
+            long limit = System.currentTimeMillis() - safetyLag;
+            return ((Date) max).getTime() > limit ? new Timestamp(limit) : max;
+        }
+        return (Long) max - safetyLag;
+    }
+
+    /**
+     * 读取窗口内的下一行，按页查询
+     *
+     * @return the next changed row or null when the window was read completely
+     * @throws KettleDatabaseException
+     */
+    public Object[] getRow() throws KettleDatabaseException {
+        try {
+            while (!finished) {
+                if (resultSet == null) {
+                    if (lastPage) {
+                        finished = true;
+                        break;
+                    }
+                    openPage();
+                }
+                if (resultSet.next()) {
+                    pageRows++;
+                    rowsRead++;
+                    DatabaseInterface databaseInterface = database.getDatabaseMeta().getDatabaseInterface();
+                    Object[] row = new Object[rowMeta.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = rowMeta.getValueMeta(i).getValueFromResultSet(databaseInterface, resultSet, i);
+                    }
+                    lastValue = normalize(resultSet.getObject(watermarkIndex + 1));
+                    if (keyColumn != null) {
+                        lastKey = resultSet.getObject(keyIndex + 1);
+                    }
+                    return row;
+                }
+                close();
+                if (keyColumn != null) {
+                    lastPage = pageRows < pageSize;
+                }
+            }
+            close();
+            return null;
+        } catch (SQLException e) {
+            close();
+            throw new KettleDatabaseException("Error reading row " + (rowsRead + 1) + " of [" + selectSQL + "]", e);
+        }
+    }
+
+    /**
+     * 打开下一页：有唯一键时从上一页最后的(水位, 键)之后继续，否则读到本页最后一行的水位值为止
+     */
+    private void openPage() throws SQLException {
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface();
+        StringBuilder where = new StringBuilder(128);
+        where.append(" WHERE ");
+        if (lastValue != null && lastKey != null) {
+            where.append('(').append(watermarkColumn).append(" > ? OR (").append(watermarkColumn).append(" = ? AND ")
+                    .append(keyColumn).append(" > ?)) AND ");
+        } else if (lastValue != null) {
+            where.append(watermarkColumn).append(" > ? AND ");
+        }
+        where.append(watermarkColumn).append(" <= ?");
+
+        Object pageEnd = high;
+        if (keyColumn == null) {
+            pageEnd = findPageEnd(where.toString(), kbaseMeta);
+            selectSQL = "SELECT * FROM " + tableName + where + " ORDER BY " + watermarkColumn;
+        } else {
+            selectSQL = "SELECT * FROM " + tableName + where + " ORDER BY " + watermarkColumn + ", " + keyColumn
+                    + kbaseMeta.getLimitClause(pageSize);
+        }
+        statement = database.getConnection().prepareStatement(selectSQL);
+        statement.setFetchSize(pageSize);
+        setBounds(statement, pageEnd);
+        resultSet = statement.executeQuery();
+        pageRows = 0;
+    }
+
+    /**
+     * 查询本页第 pageSize 行的水位值作为本页上界，不足一页时是最后一页
+     */
+    private Object findPageEnd(String where, KbaseDatabaseMeta kbaseMeta) throws SQLException {
+        String sql = "SELECT " + watermarkColumn + " FROM " + tableName + where + " ORDER BY " + watermarkColumn
+                + kbaseMeta.getLimitClause(pageSize - 1, 1);
+        selectSQL = sql;
+        PreparedStatement probe = database.getConnection().prepareStatement(sql);
+        try {
+            setBounds(probe, high);
+            ResultSet res = probe.executeQuery();
+            try {
+                Object pageEnd = res.next() ? normalize(res.getObject(1)) : null;
+                lastPage = pageEnd == null || compare(pageEnd, high) >= 0;
+                return lastPage ? high : pageEnd;
+            } finally {
+                res.close();
+            }
+        } finally {
+            probe.close();
+        }
+    }
+
+    private void setBounds(PreparedStatement ps, Object upper) throws SQLException {
+        int index = 1;
+        if (lastValue != null) {
+            setWatermark(ps, index++, lastValue);
+            if (lastKey != null) {
+                setWatermark(ps, index++, lastValue);
+                ps.setObject(index++, lastKey);
+            }
+        }
+        setWatermark(ps, index, upper);
+    }
+
+    private static void setWatermark(PreparedStatement ps, int index, Object value) throws SQLException {
+        if (value instanceof Timestamp) {
+            ps.setTimestamp(index, (Timestamp) value);
+        } else if (value instanceof Date) {
+            ps.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+        } else {
+            ps.setLong(index, (Long) value);
+        }
+    }
+
+    /**
+     * 下游处理成功后保存新水位
+     *
+     * @throws KettleDatabaseException
+     */
+    public void commit() throws KettleDatabaseException {
+        if (!finished) {
+            throw new KettleDatabaseException("The window of [" + tableName + "] was not read completely, "
+                    + "the watermark is not moved");
+        }
+        if (high != null && (low == null || compare(high, low) > 0)) {
+            store.setWatermark(watermarkKey, high);
+            low = high;
+        }
+    }
+
+    /**
+     * 释放语句和结果集，不保存水位
+     */
+    public void close() {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        }
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        }
+        resultSet = null;
+        statement = null;
+    }
+
+    public RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * @return the watermark of the previous extraction, null for the first one
+     */
+    public Object getLowWatermark() {
+        return low;
+    }
+
+    /**
+     * @return the watermark that {@link #commit()} will store
+     */
+    public Object getHighWatermark() {
+        return high;
+    }
+
+    private static Object normalize(Object value) throws SQLException {
+        if (value == null || value instanceof Date) {
+            return value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        throw new SQLException("Watermark columns must be dates or integers, not " + value.getClass().getName());
+    }
+
+    private static int compare(Object a, Object b) {
+        if (a instanceof Date) {
+            return Long.compare(((Date) a).getTime(), ((Date) b).getTime());
+        }
+        return ((Long) a).compareTo((Long) b);
+    }
+}
@@ -0,0 +1,196 @@
+package org.pentaho.di.core.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+
+/**
+ * Kbase索引目录
+ * 按表读取 USER_IND_COLUMNS 数据字典，在内存中保存每个连接的 表 -> 索引 -> 字段 映射，
+ * checkIndexExists 等判断只需按字段数查找集合。字段名不区分大小写。
+ * <p>
+ * A table is read from the data dictionary on its first lookup and its snapshot, including "not indexed" answers, is
+ * trusted until the connection's metadata TTL ({@link KbaseDatabaseMeta#getMetadataCacheTTL()}) runs out.
+ * {@link KbaseScriptExecutor} calls {@link #refresh(DatabaseMeta)} after executing DDL; callers executing index DDL
+ * some other way call {@link #invalidateTable(DatabaseMeta, String)} afterwards.
+ */
+public class KbaseIndexCatalog {
+
+    private static final String SQL_TABLE_INDEX_COLUMNS =
+            "SELECT INDEX_NAME, COLUMN_NAME FROM USER_IND_COLUMNS WHERE TABLE_NAME = ?";
+
+    private static final KbaseIndexCatalog INSTANCE = new KbaseIndexCatalog();
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, TableIndexes>> snapshots =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, TableIndexes>>();
+
+    public static KbaseIndexCatalog getInstance() {
+        return INSTANCE;
+    }
+
+    private KbaseIndexCatalog() {
+    }
+
+    /**
+     * 判断表上是否所有字段都建有索引(不要求在同一个索引中)
+     *
+     * @param database  a connected Kbase database
+     * @param tableName the table name as stored in the data dictionary
+     * @param fields    the fields to check
+     * @return true if every field is part of an index on the table
+     * @throws KettleDatabaseException
+     */
+    public boolean isIndexed(Database database, String tableName, String[] fields) throws KettleDatabaseException {
+        TableIndexes indexes = getTableIndexes(database, tableName);
+        for (String field : fields) {
+            if (!indexes.columns.contains(columnKey(field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找包含所有指定字段的索引
+     *
+     * @param database  a connected Kbase database
+     * @param tableName the table name as stored in the data dictionary
+     * @param fields    the fields the index has to cover
+     * @return the name of an index covering all the fields or null if there is none
+     * @throws KettleDatabaseException
+     */
+    public String findIndex(Database database, String tableName, String[] fields) throws KettleDatabaseException {
+        for (Map.Entry<String, Set<String>> index : getTableIndexes(database, tableName).indexes.entrySet()) {
+            boolean covers = true;
+            for (int i = 0; i < fields.length && covers; i++) {
+                covers = index.getValue().contains(columnKey(fields[i]));
+            }
+            if (covers) {
+                return index.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param database  a connected Kbase database
+     * @param tableName the table name as stored in the data dictionary
+     * @return index name -> indexed columns (upper case), empty if the table has no indexes
+     * @throws KettleDatabaseException
+     */
+    public Map<String, Set<String>> getIndexes(Database database, String tableName) throws KettleDatabaseException {
+        return Collections.unmodifiableMap(getTableIndexes(database, tableName).indexes);
+    }
+
+    /**
+     * 丢弃连接的索引快照，下次访问时重新读取数据字典
+     */
+    public void refresh(DatabaseMeta databaseMeta) {
+        snapshots.remove(KbaseDatabaseMeta.getConnectionKey(databaseMeta));
+    }
+
+    /**
+     * 表的索引已变化，下次访问时重新读取该表
+     *
+     * @param databaseMeta the connection the DDL was executed on
+     * @param tableName    the table name, optionally schema-qualified and quoted
+     */
+    public void invalidateTable(DatabaseMeta databaseMeta, String tableName) {
+        Map<String, TableIndexes> tables = snapshots.get(KbaseDatabaseMeta.getConnectionKey(databaseMeta));
+        if (tables != null) {
+            tables.remove(unqualify(tableName));
+        }
+    }
+
+    private TableIndexes getTableIndexes(Database database, String tableName) throws KettleDatabaseException {
+        DatabaseMeta databaseMeta = database.getDatabaseMeta();
+        String connectionKey = KbaseDatabaseMeta.getConnectionKey(databaseMeta);
+        ConcurrentHashMap<String, TableIndexes> tables = snapshots.get(connectionKey);
+        if (tables == null) {
+            ConcurrentHashMap<String, TableIndexes> created = new ConcurrentHashMap<String, TableIndexes>();
+            tables = snapshots.putIfAbsent(connectionKey, created);
+            if (tables == null) {
+                tables = created;
+            }
+        }
+        long ttl = ((KbaseDatabaseMeta) databaseMeta.getDatabaseInterface()).getMetadataCacheTTL() * 1000L;
+        TableIndexes indexes = tables.get(tableName);
+        if (indexes == null || System.currentTimeMillis() - indexes.loaded > ttl) {
+            indexes = load(database.getConnection(), tableName);
+            tables.put(tableName, indexes);
+        }
+        return indexes;
+    }
+
+    private static TableIndexes load(Connection connection, String tableName) throws KettleDatabaseException {
+        TableIndexes indexes = new TableIndexes();
+        PreparedStatement ps = null;
+        ResultSet res = null;
+        try {
+            ps = connection.prepareStatement(SQL_TABLE_INDEX_COLUMNS);
+            ps.setString(1, tableName);
+            res = ps.executeQuery();
+            while (res.next()) {
+                indexes.add(res.getString(1), res.getString(2));
+            }
+            return indexes;
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to read index dictionary USER_IND_COLUMNS", e);
+        } finally {
+            try {
+                if (res != null) {
+                    res.close();
+                }
+                if (ps != null) {
+                    ps.close();
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 去掉模式名和引号，得到数据字典中的表名
+     */
+    static String unqualify(String tableName) {
+        String table = tableName.substring(tableName.lastIndexOf('.') + 1).trim();
+        if (table.length() > 1 && table.charAt(0) == '"' && table.charAt(table.length() - 1) == '"') {
+            table = table.substring(1, table.length() - 1);
+        }
+        return table;
+    }
+
+    /**
+     * 字段名不区分大小写，与 Const.indexOfString 的比较方式一致
+     */
+    private static String columnKey(String column) {
+        return column.toUpperCase(Locale.ROOT);
+    }
+
+    private static class TableIndexes {
+        private final long loaded = System.currentTimeMillis();
+        private final Map<String, Set<String>> indexes = new HashMap<String, Set<String>>();
+        private final Set<String> columns = new HashSet<String>();
+
+        private void add(String index, String column) {
+            Set<String> indexColumns = indexes.get(index);
+            if (indexColumns == null) {
+                indexColumns = new HashSet<String>();
+                indexes.put(index, indexColumns);
+            }
+            indexColumns.add(columnKey(column));
+            columns.add(columnKey(column));
+        }
+    }
+}
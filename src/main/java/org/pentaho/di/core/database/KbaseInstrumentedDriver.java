@@ -0,0 +1,246 @@
+package org.pentaho.di.core.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.pentaho.di.core.logging.LogChannel;
+
+/**
+ * 带统计的Kbase驱动
+ * 接受 jdbc:kbase-instrumented:// 形式的URL，实际连接交给 com.kbase.jdbc.Driver，
+ * 并通过动态代理记录连接、预编译、执行、读取和提交的耗时(见{@link KbaseStatistics})。
+ * <p>
+ * {@link KbaseDatabaseMeta} returns this driver and URL only when instrumentation is enabled on the connection. Each
+ * connection records into statistics of its own, added to the cumulative statistics of the URL, and logs them at
+ * detailed level when it is closed.
+ */
+public class KbaseInstrumentedDriver implements Driver {
+
+    static final String KBASE_DRIVER = "com.kbase.jdbc.Driver";
+
+    private static final String KBASE_PREFIX = "jdbc:kbase:";
+    private static final String INSTRUMENTED_PREFIX = "jdbc:kbase-instrumented:";
+
+    static {
+        try {
+            DriverManager.registerDriver(new KbaseInstrumentedDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * @param url a jdbc:kbase: URL
+     * @return the same URL handled by this driver
+     */
+    public static String toInstrumentedURL(String url) {
+        return url.startsWith(KBASE_PREFIX) ? INSTRUMENTED_PREFIX + url.substring(KBASE_PREFIX.length()) : url;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        String kbaseURL = KBASE_PREFIX + url.substring(INSTRUMENTED_PREFIX.length());
+        try {
+            Class.forName(KBASE_DRIVER);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("Kbase JDBC driver " + KBASE_DRIVER + " not found", e);
+        }
+        KbaseStatistics statistics = KbaseStatistics.getStatistics(kbaseURL).newConnectionStatistics();
+        long start = System.nanoTime();
+        Connection connection = DriverManager.getDriver(kbaseURL).connect(kbaseURL, info);
+        statistics.record(KbaseStatistics.Kind.CONNECT, System.nanoTime() - start, null);
+        return (Connection) Proxy.newProxyInstance(KbaseInstrumentedDriver.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection, statistics));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(INSTRUMENTED_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 连接代理：记录预编译和提交/回滚耗时，返回的语句也被代理，关闭时输出本连接的统计摘要
+     */
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final KbaseStatistics statistics;
+        private boolean closed;
+
+        private ConnectionHandler(Connection connection, KbaseStatistics statistics) {
+            this.connection = connection;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            long start = System.nanoTime();
+            Object result = KbaseInstrumentedDriver.invoke(connection, method, args);
+            long elapsed = System.nanoTime() - start;
+
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    statistics.logSummary(LogChannel.GENERAL);
+                }
+            } else if (name.equals("commit")) {
+                statistics.record(KbaseStatistics.Kind.COMMIT, elapsed, null);
+            } else if (name.equals("rollback")) {
+                statistics.record(KbaseStatistics.Kind.ROLLBACK, elapsed, null);
+            } else if (result instanceof Statement) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                if (sql != null) {
+                    statistics.record(KbaseStatistics.Kind.PREPARE, elapsed, sql);
+                }
+                return Proxy.newProxyInstance(KbaseInstrumentedDriver.class.getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler((Statement) result, sql, statistics));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 语句代理：记录执行耗时、批次大小和写入行数，返回的结果集也被代理
+     */
+    private static class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String preparedSQL;
+        private final KbaseStatistics statistics;
+        private int batchSize;
+
+        private StatementHandler(Statement statement, String preparedSQL, KbaseStatistics statistics) {
+            this.statement = statement;
+            this.preparedSQL = preparedSQL;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("addBatch")) {
+                batchSize++;
+                return KbaseInstrumentedDriver.invoke(statement, method, args);
+            }
+            if (name.equals("clearBatch")) {
+                batchSize = 0;
+                return KbaseInstrumentedDriver.invoke(statement, method, args);
+            }
+            if (!name.startsWith("execute") && !name.equals("getResultSet")) {
+                return KbaseInstrumentedDriver.invoke(statement, method, args);
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSQL;
+            long start = System.nanoTime();
+            Object result = KbaseInstrumentedDriver.invoke(statement, method, args);
+            if (!name.equals("getResultSet")) {
+                statistics.record(KbaseStatistics.Kind.EXECUTE, System.nanoTime() - start, sql);
+            }
+
+            if (name.equals("executeBatch")) {
+                statistics.addBatch(batchSize);
+                batchSize = 0;
+                for (int count : (int[]) result) {
+                    if (count > 0) {
+                        statistics.addRowsWritten(count);
+                    }
+                }
+            } else if (result instanceof Integer || result instanceof Long) {
+                statistics.addRowsWritten(((Number) result).longValue());
+            } else if (result instanceof ResultSet) {
+                return Proxy.newProxyInstance(KbaseInstrumentedDriver.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, new ResultSetHandler((ResultSet) result, sql, statistics));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 结果集代理：记录读取行数和读取耗时，关闭时汇总为一次 FETCH
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final String sql;
+        private final KbaseStatistics statistics;
+        private long fetchNanos;
+        private long rows;
+        private boolean closed;
+
+        private ResultSetHandler(ResultSet resultSet, String sql, KbaseStatistics statistics) {
+            this.resultSet = resultSet;
+            this.sql = sql;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                long start = System.nanoTime();
+                Object result = KbaseInstrumentedDriver.invoke(resultSet, method, args);
+                fetchNanos += System.nanoTime() - start;
+                if (Boolean.TRUE.equals(result)) {
+                    rows++;
+                }
+                return result;
+            }
+            if (name.equals("close") && !closed) {
+                closed = true;
+                statistics.addRowsRead(rows);
+                statistics.record(KbaseStatistics.Kind.FETCH, fetchNanos, sql);
+            }
+            return KbaseInstrumentedDriver.invoke(resultSet, method, args);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.pentaho.di.core.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+
+/**
+ * Kbase主键块分配器(hi/lo)
+ * 每次从序列取值时预留一整块主键，块内的主键在各步骤副本之间无锁分配，只有取新块时才访问数据库。
+ * <p>
+ * The sequence has to advance by the block size on every nextval, see
+ * {@link KbaseDatabaseMeta#getSQLCreateSequence(String, int)}: a value <code>v</code> reserves the keys
+ * <code>[v, v + blockSize)</code>, so keys never collide with other allocators or sessions using the same sequence.
+ * Keys left in a block when the JVM stops are lost, which leaves gaps but never duplicates. Before the first block the
+ * increment is read from the data dictionary once; an allocator refuses to hand out keys from a sequence whose
+ * increment differs from its block size, because the blocks would overlap.
+ */
+public class KbaseKeyAllocator {
+
+    private static final ConcurrentHashMap<String, KbaseKeyAllocator> ALLOCATORS =
+            new ConcurrentHashMap<String, KbaseKeyAllocator>();
+
+    private final String sequenceName;
+    private final int blockSize;
+    private final AtomicReference<Block> block = new AtomicReference<Block>();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private boolean incrementVerified;
+
+    /**
+     * 获取连接和序列共享的分配器，同一转换中的所有步骤副本使用同一个实例
+     *
+     * @param databaseMeta the Kbase connection
+     * @param sequenceName the sequence reserving the blocks
+     * @param blockSize    the increment of the sequence
+     * @return the shared allocator
+     * @throws IllegalArgumentException when the allocator of the sequence already uses another block size
+     */
+    public static KbaseKeyAllocator getAllocator(DatabaseMeta databaseMeta, String sequenceName, int blockSize) {
+        String key = KbaseDatabaseMeta.getConnectionKey(databaseMeta) + "|" + sequenceName.toUpperCase();
+        KbaseKeyAllocator allocator = ALLOCATORS.get(key);
+        if (allocator == null) {
+            KbaseKeyAllocator created = new KbaseKeyAllocator(sequenceName, blockSize);
+            allocator = ALLOCATORS.putIfAbsent(key, created);
+            if (allocator == null) {
+                allocator = created;
+            }
+        }
+        if (allocator.blockSize != blockSize) {
+            throw new IllegalArgumentException("Sequence [" + sequenceName + "] is already allocated in blocks of "
+                    + allocator.blockSize + ", not " + blockSize);
+        }
+        return allocator;
+    }
+
+    public KbaseKeyAllocator(String sequenceName, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1, not " + blockSize);
+        }
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 分配下一个主键，当前块用完时使用调用方的连接取新块
+     *
+     * @param database a connected Kbase database, only used when a new block is needed
+     * @return a key that was never handed out before
+     * @throws KettleDatabaseException
+     */
+    public long nextKey(Database database) throws KettleDatabaseException {
+        while (true) {
+            Block current = block.get();
+            if (current != null) {
+                long key = current.next.getAndIncrement();
+                if (key < current.end) {
+                    return key;
+                }
+            }
+            refill(database, current);
+        }
+    }
+
+    /**
+     * @return the number of sequence values fetched, i.e. the number of network round-trips
+     */
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    private synchronized void refill(Database database, Block exhausted) throws KettleDatabaseException {
+        if (block.get() != exhausted) {
+            // 其他线程已经取到新块
+            return;
+        }
+        if (!incrementVerified) {
+            verifyIncrement(database);
+            incrementVerified = true;
+        }
+        long start = fetchNextValue(database);
+        block.set(new Block(start, start + blockSize));
+    }
+
+    /**
+     * 检查序列的步长等于块大小，否则不同会话取到的块会重叠
+     */
+    private void verifyIncrement(Database database) throws KettleDatabaseException {
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface();
+        long increment = queryLong(database, kbaseMeta.getSQLSequenceIncrement(sequenceName), "Sequence ["
+                + sequenceName + "] was not found");
+        if (increment != blockSize) {
+            throw new KettleDatabaseException("Sequence [" + sequenceName + "] increments by " + increment
+                    + " but keys are allocated in blocks of " + blockSize + ", create it with "
+                    + kbaseMeta.getSQLCreateSequence(sequenceName, blockSize));
+        }
+    }
+
+    private long fetchNextValue(Database database) throws KettleDatabaseException {
+        String sql = database.getDatabaseMeta().getDatabaseInterface().getSQLNextSequenceValue(sequenceName);
+        long value = queryLong(database, sql, "Sequence [" + sequenceName + "] returned no value");
+        roundTrips.incrementAndGet();
+        return value;
+    }
+
+    private long queryLong(Database database, String sql, String noRowMessage) throws KettleDatabaseException {
+        Statement statement = null;
+        ResultSet res = null;
+        try {
+            statement = database.getConnection().createStatement();
+            res = statement.executeQuery(sql);
+            if (!res.next()) {
+                throw new KettleDatabaseException(noRowMessage);
+            }
+            return res.getLong(1);
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Error executing [" + sql + "]", e);
+        } finally {
+            try {
+                if (res != null) {
+                    res.close();
+                }
+                if (statement != null) {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.pentaho.di.core.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+
+/**
+ * Kbase大字段流式传输
+ * BLOB/TEXT通过InputStream/Reader按块读写，缓冲区从共享池中取用；不超过阈值的值以byte[]/String放入行中，
+ * 更大的值只能按流复制到输出流或直接绑定到另一条语句，不在堆中完整保存。
+ * <p>
+ * {@link #getBlob(ResultSet, int)} and {@link #getClob(ResultSet, int)} return values that a binary or string
+ * ValueMeta accepts, so heap use per value is bounded by {@link KbaseDatabaseMeta#getLobThreshold()} (default 1MB);
+ * a larger value fails with a {@link KettleDatabaseException} instead of exhausting the heap. Values of any size
+ * can be streamed with {@link #copyBlob(ResultSet, int, OutputStream)}/{@link #copyClob(ResultSet, int, Writer)},
+ * or passed from a source row to a target statement with {@link #transferBlob(ResultSet, int, PreparedStatement, int)}
+ * and {@link #transferClob(ResultSet, int, PreparedStatement, int)}, which only hold one chunk at a time. A
+ * transferred stream reads from the source row, so the target statement has to be executed (not batched) before
+ * the source result set moves on; call {@link #closeStreams()} after executing it.
+ */
+public class KbaseLobTransfer {
+
+    private static final int POOL_SIZE = 32;
+    private static final ArrayBlockingQueue<byte[]> BYTE_BUFFERS = new ArrayBlockingQueue<byte[]>(POOL_SIZE);
+    private static final ArrayBlockingQueue<char[]> CHAR_BUFFERS = new ArrayBlockingQueue<char[]>(POOL_SIZE);
+
+    private final long threshold;
+    private final int chunkSize;
+    private final List<Closeable> openStreams = new ArrayList<Closeable>();
+
+    /**
+     * @param kbaseMeta the Kbase connection type, supplies the threshold and chunk size
+     */
+    public KbaseLobTransfer(KbaseDatabaseMeta kbaseMeta) {
+        this.threshold = kbaseMeta.getLobThreshold();
+        this.chunkSize = Math.max(1024, kbaseMeta.getLobChunkSize());
+    }
+
+    /**
+     * 按块读取BLOB，超过阈值时报错
+     *
+     * @param rs     the result set positioned on the row
+     * @param column the 1 based column index
+     * @return null or the bytes of the value
+     * @throws KettleDatabaseException if the value is larger than the threshold or can't be read
+     */
+    public byte[] getBlob(ResultSet rs, int column) throws KettleDatabaseException {
+        byte[] buffer = acquireBytes();
+        InputStream in = null;
+        try {
+            in = rs.getBinaryStream(column);
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(chunkSize, threshold));
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+                if (total > threshold) {
+                    throw new KettleDatabaseException("BLOB column " + column + " is larger than the LOB threshold of "
+                            + threshold + " bytes, stream it with copyBlob or transferBlob");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to read BLOB column " + column, e);
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to read BLOB column " + column, e);
+        } finally {
+            close(in);
+            releaseBytes(buffer);
+        }
+    }
+
+    /**
+     * 按块读取TEXT，超过阈值时报错
+     *
+     * @param rs     the result set positioned on the row
+     * @param column the 1 based column index
+     * @return null or the text of the value
+     * @throws KettleDatabaseException if the value is longer than the threshold or can't be read
+     */
+    public String getClob(ResultSet rs, int column) throws KettleDatabaseException {
+        char[] buffer = acquireChars();
+        Reader in = null;
+        try {
+            in = rs.getCharacterStream(column);
+            if (in == null) {
+                return null;
+            }
+            StringBuilder text = new StringBuilder((int) Math.min(chunkSize, threshold));
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (text.length() + n > threshold) {
+                    throw new KettleDatabaseException("TEXT column " + column + " is longer than the LOB threshold of "
+                            + threshold + " characters, stream it with copyClob or transferClob");
+                }
+                text.append(buffer, 0, n);
+            }
+            return text.toString();
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to read TEXT column " + column, e);
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to read TEXT column " + column, e);
+        } finally {
+            close(in);
+            releaseChars(buffer);
+        }
+    }
+
+    /**
+     * 按块把BLOB复制到输出流，与大小无关
+     *
+     * @return the number of bytes copied, -1 if the value is NULL
+     * @throws KettleDatabaseException
+     */
+    public long copyBlob(ResultSet rs, int column, OutputStream out) throws KettleDatabaseException {
+        byte[] buffer = acquireBytes();
+        InputStream in = null;
+        try {
+            in = rs.getBinaryStream(column);
+            if (in == null) {
+                return -1;
+            }
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to copy BLOB column " + column, e);
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to copy BLOB column " + column, e);
+        } finally {
+            close(in);
+            releaseBytes(buffer);
+        }
+    }
+
+    /**
+     * 按块把TEXT复制到Writer，与大小无关
+     *
+     * @return the number of characters copied, -1 if the value is NULL
+     * @throws KettleDatabaseException
+     */
+    public long copyClob(ResultSet rs, int column, Writer out) throws KettleDatabaseException {
+        char[] buffer = acquireChars();
+        Reader in = null;
+        try {
+            in = rs.getCharacterStream(column);
+            if (in == null) {
+                return -1;
+            }
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to copy TEXT column " + column, e);
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to copy TEXT column " + column, e);
+        } finally {
+            close(in);
+            releaseChars(buffer);
+        }
+    }
+
+    /**
+     * 把源行的BLOB以流的方式绑定到目标语句的参数，例如表间复制
+     *
+     * @param rs     the source result set positioned on the row
+     * @param column the 1 based source column index
+     * @param ps     the target statement, executed before rs moves on
+     * @param index  the 1 based parameter index
+     * @throws KettleDatabaseException
+     */
+    public void transferBlob(ResultSet rs, int column, PreparedStatement ps, int index)
+            throws KettleDatabaseException {
+        try {
+            InputStream in = rs.getBinaryStream(column);
+            if (in == null) {
+                ps.setNull(index, Types.BLOB);
+            } else {
+                openStreams.add(in);
+                ps.setBinaryStream(index, in);
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to transfer BLOB column " + column + " to parameter " + index,
+                    e);
+        }
+    }
+
+    /**
+     * 把源行的TEXT以Reader的方式绑定到目标语句的参数
+     *
+     * @param rs     the source result set positioned on the row
+     * @param column the 1 based source column index
+     * @param ps     the target statement, executed before rs moves on
+     * @param index  the 1 based parameter index
+     * @throws KettleDatabaseException
+     */
+    public void transferClob(ResultSet rs, int column, PreparedStatement ps, int index)
+            throws KettleDatabaseException {
+        try {
+            Reader in = rs.getCharacterStream(column);
+            if (in == null) {
+                ps.setNull(index, Types.CLOB);
+            } else {
+                openStreams.add(in);
+                ps.setCharacterStream(index, in);
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to transfer TEXT column " + column + " to parameter " + index,
+                    e);
+        }
+    }
+
+    /**
+     * 绑定BLOB参数，超过阈值的值以流的方式传给驱动
+     *
+     * @param ps    the statement
+     * @param index the 1 based parameter index
+     * @param value null or the bytes
+     * @throws KettleDatabaseException
+     */
+    public void setBlob(PreparedStatement ps, int index, byte[] value) throws KettleDatabaseException {
+        try {
+            if (value == null) {
+                ps.setNull(index, Types.BLOB);
+            } else if (value.length > threshold) {
+                ps.setBinaryStream(index, new ByteArrayInputStream(value), value.length);
+            } else {
+                ps.setBytes(index, value);
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to set BLOB parameter " + index, e);
+        }
+    }
+
+    /**
+     * 绑定TEXT参数，超过阈值的值以Reader的方式传给驱动
+     *
+     * @param ps    the statement
+     * @param index the 1 based parameter index
+     * @param value null or the text
+     * @throws KettleDatabaseException
+     */
+    public void setClob(PreparedStatement ps, int index, String value) throws KettleDatabaseException {
+        try {
+            if (value == null) {
+                ps.setNull(index, Types.CLOB);
+            } else if (value.length() > threshold) {
+                ps.setCharacterStream(index, new StringReader(value), value.length());
+            } else {
+                ps.setString(index, value);
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to set TEXT parameter " + index, e);
+        }
+    }
+
+    /**
+     * 关闭绑定到语句上的流，在语句执行后调用
+     */
+    public void closeStreams() {
+        for (Closeable stream : openStreams) {
+            close(stream);
+        }
+        openStreams.clear();
+    }
+
+    private byte[] acquireBytes() {
+        byte[] buffer = BYTE_BUFFERS.poll();
+        while (buffer != null && buffer.length != chunkSize) {
+            buffer = BYTE_BUFFERS.poll();
+        }
+        return buffer != null ? buffer : new byte[chunkSize];
+    }
+
+    private void releaseBytes(byte[] buffer) {
+        BYTE_BUFFERS.offer(buffer);
+    }
+
+    private char[] acquireChars() {
+        char[] buffer = CHAR_BUFFERS.poll();
+        while (buffer != null && buffer.length != chunkSize) {
+            buffer = CHAR_BUFFERS.poll();
+        }
+        return buffer != null ? buffer : new char[chunkSize];
+    }
+
+    private void releaseChars(char[] buffer) {
+        CHAR_BUFFERS.offer(buffer);
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.pentaho.di.core.database;
+
+import java.util.Arrays;
+
+/**
+ * 以long为键的LRU缓存
+ * 键保存在基本类型数组中，不为每个键创建Long对象；容量满时淘汰最久未使用的条目。
+ * <p>
+ * Entries live in fixed arrays of the configured capacity: hash buckets are chained through <code>chain</code>
+ * and the access order is a doubly linked list through <code>before</code>/<code>after</code>.
+ * Not thread safe, use one cache per step copy.
+ *
+ * @param <V> the cached value type
+ */
+public class KbaseLongLruCache<V> {
+
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] buckets;
+
+    private final long[] keys;
+    private final Object[] values;
+    private final int[] chain;
+    private final int[] before;
+    private final int[] after;
+
+    private int size;
+    private int eldest = NONE;
+    private int youngest = NONE;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity the maximum number of entries
+     */
+    public KbaseLongLruCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1, not " + capacity);
+        }
+        this.capacity = capacity;
+        int nrBuckets = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = nrBuckets - 1;
+        this.buckets = new int[nrBuckets];
+        Arrays.fill(buckets, NONE);
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.chain = new int[capacity];
+        this.before = new int[capacity];
+        this.after = new int[capacity];
+    }
+
+    /**
+     * @param key the key
+     * @return the cached value or null if the key is not cached
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int entry = find(key);
+        if (entry == NONE) {
+            misses++;
+            return null;
+        }
+        hits++;
+        moveToYoungest(entry);
+        return (V) values[entry];
+    }
+
+    /**
+     * @return true if the key is cached, without changing the access order
+     */
+    public boolean containsKey(long key) {
+        return find(key) != NONE;
+    }
+
+    /**
+     * 放入缓存，已满时淘汰最久未使用的条目
+     *
+     * @param key   the key
+     * @param value the value, not null
+     */
+    public void put(long key, V value) {
+        int entry = find(key);
+        if (entry != NONE) {
+            values[entry] = value;
+            moveToYoungest(entry);
+            return;
+        }
+        if (size < capacity) {
+            entry = size++;
+        } else {
+            entry = eldest;
+            unlinkOrder(entry);
+            unlinkBucket(entry);
+            evictions++;
+        }
+        keys[entry] = key;
+        values[entry] = value;
+        int bucket = bucket(key);
+        chain[entry] = buckets[bucket];
+        buckets[bucket] = entry;
+        linkYoungest(entry);
+    }
+
+    public void clear() {
+        Arrays.fill(buckets, NONE);
+        Arrays.fill(values, null);
+        size = 0;
+        eldest = NONE;
+        youngest = NONE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    private int find(long key) {
+        int entry = buckets[bucket(key)];
+        while (entry != NONE && keys[entry] != key) {
+            entry = chain[entry];
+        }
+        return entry;
+    }
+
+    private int bucket(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void unlinkBucket(int entry) {
+        int bucket = bucket(keys[entry]);
+        int current = buckets[bucket];
+        if (current == entry) {
+            buckets[bucket] = chain[entry];
+            return;
+        }
+        while (chain[current] != entry) {
+            current = chain[current];
+        }
+        chain[current] = chain[entry];
+    }
+
+    private void moveToYoungest(int entry) {
+        if (entry != youngest) {
+            unlinkOrder(entry);
+            linkYoungest(entry);
+        }
+    }
+
+    private void unlinkOrder(int entry) {
+        if (before[entry] == NONE) {
+            eldest = after[entry];
+        } else {
+            after[before[entry]] = after[entry];
+        }
+        if (after[entry] == NONE) {
+            youngest = before[entry];
+        } else {
+            before[after[entry]] = before[entry];
+        }
+    }
+
+    private void linkYoungest(int entry) {
+        before[entry] = youngest;
+        after[entry] = NONE;
+        if (youngest == NONE) {
+            eldest = entry;
+        } else {
+            after[youngest] = entry;
+        }
+        youngest = entry;
+    }
+}
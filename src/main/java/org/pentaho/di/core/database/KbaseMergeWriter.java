@@ -0,0 +1,269 @@
+package org.pentaho.di.core.database;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Kbase批量合并(upsert)
+ * 按批次收集输入行写入暂存表，再用一条 UPDATE 和一条 INSERT ... SELECT 合并到目标表，
+ * 每个批次的语句数固定，不再逐行查询后插入或更新。
+ * <p>
+ * Per batch: <code>DELETE FROM staging</code>, one JDBC batch into the staging table, the set based UPDATE of
+ * {@link KbaseDatabaseMeta#getSQLMergeUpdate} and the INSERT of {@link KbaseDatabaseMeta#getSQLMergeInsert}.
+ * On an auto commit connection each batch is its own transaction and is committed; inside the caller's transaction
+ * a failing batch is rolled back to a savepoint and committing is left to the caller. When a key occurs more than once in a batch the last row wins; keys are compared by value, binary
+ * keys by content and numbers regardless of their scale. A NULL key never matches a target row in SQL, so rows with
+ * a NULL key field are rejected instead of being inserted again on every run. The staging table is created from
+ * the incoming fields when it doesn't exist and should not be shared between concurrent writers.
+ */
+public class KbaseMergeWriter {
+
+    private final DatabaseMeta databaseMeta;
+    private final KbaseDatabaseMeta kbaseMeta;
+    private final Connection connection;
+    private final RowMetaInterface rowMeta;
+    private final int[] keyIndexes;
+    private final int batchSize;
+
+    private final String stagingName;
+    private final String insertStaging;
+    private final String mergeUpdate;
+    private final String mergeInsert;
+
+    private final Map<Key, Object[]> batch;
+
+    private long inserted;
+    private long updated;
+
+    /**
+     * @param database    a connected Kbase database
+     * @param schemaName  the schema of the target and staging table, may be null
+     * @param tableName   the target table
+     * @param stagingName the staging table, created when missing
+     * @param rowMeta     the incoming fields, named after the target columns
+     * @param keyFields   the fields identifying a row
+     * @throws KettleDatabaseException
+     */
+    public KbaseMergeWriter(Database database, String schemaName, String tableName, String stagingName,
+                            RowMetaInterface rowMeta, String[] keyFields) throws KettleDatabaseException {
+        this.databaseMeta = database.getDatabaseMeta();
+        this.kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+        this.connection = database.getConnection();
+        this.rowMeta = rowMeta;
+        this.batchSize = kbaseMeta.getBatchSize();
+        this.batch = new LinkedHashMap<Key, Object[]>(batchSize * 2);
+
+        String target = databaseMeta.getQuotedSchemaTableCombination(schemaName, tableName);
+        this.stagingName = databaseMeta.getQuotedSchemaTableCombination(schemaName, stagingName);
+
+        keyIndexes = new int[keyFields.length];
+        String[] keys = new String[keyFields.length];
+        for (int i = 0; i < keyFields.length; i++) {
+            keyIndexes[i] = rowMeta.indexOfValue(keyFields[i]);
+            if (keyIndexes[i] < 0) {
+                throw new KettleDatabaseException("Key field [" + keyFields[i] + "] is not an incoming field");
+            }
+            keys[i] = databaseMeta.quoteField(keyFields[i]);
+        }
+        String[] columns = new String[rowMeta.size()];
+        List<String> values = new ArrayList<String>(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = databaseMeta.quoteField(rowMeta.getValueMeta(i).getName());
+            if (Const.indexOfString(rowMeta.getValueMeta(i).getName(), keyFields) < 0) {
+                values.add(columns[i]);
+            }
+        }
+
+        insertStaging = kbaseMeta.getMultiRowInsertStatement(this.stagingName, columns, 1);
+        mergeUpdate = values.isEmpty() ? null
+                : kbaseMeta.getSQLMergeUpdate(target, this.stagingName, keys, values.toArray(new String[values.size()]));
+        mergeInsert = kbaseMeta.getSQLMergeInsert(target, this.stagingName, keys, columns);
+
+        if (!database.checkTableExists(this.stagingName)) {
+            StringBuilder ddl = new StringBuilder(64 + 32 * columns.length);
+            ddl.append("CREATE TABLE ").append(this.stagingName).append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    ddl.append(", ");
+                }
+                kbaseMeta.appendFieldDefinition(ddl, rowMeta.getValueMeta(i), null, null, false, true, false);
+            }
+            execute(ddl.append(')').toString());
+        }
+    }
+
+    /**
+     * 收集一行，批次满时合并
+     *
+     * @param row the row data
+     * @throws KettleDatabaseException when a key field is NULL, the row is not added
+     */
+    public void addRow(Object[] row) throws KettleDatabaseException {
+        Object[] key = new Object[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            ValueMetaInterface valueMeta = rowMeta.getValueMeta(keyIndexes[i]);
+            Object value = row[keyIndexes[i]];
+            try {
+                if (valueMeta.isNull(value)) {
+                    throw new KettleDatabaseException("Key field [" + valueMeta.getName()
+                            + "] is NULL, the row can't be merged");
+                }
+            } catch (KettleValueException e) {
+                throw new KettleDatabaseException("Unable to read key field [" + valueMeta.getName() + "]", e);
+            }
+            key[i] = value instanceof BigDecimal ? ((BigDecimal) value).stripTrailingZeros() : value;
+        }
+        batch.put(new Key(key), row);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * 合并当前批次；自动提交的连接上作为一个事务提交，调用者的事务中只回滚本批次，由调用者提交
+     *
+     * @throws KettleDatabaseException
+     */
+    public void flush() throws KettleDatabaseException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        boolean ownTransaction = false;
+        Savepoint savepoint = null;
+        boolean merged = false;
+        try {
+            ownTransaction = connection.getAutoCommit();
+            if (ownTransaction) {
+                connection.setAutoCommit(false);
+            } else {
+                savepoint = connection.setSavepoint();
+            }
+
+            executeUpdate("DELETE FROM " + stagingName);
+            PreparedStatement ps = connection.prepareStatement(insertStaging);
+            try {
+                for (Object[] row : batch.values()) {
+                    for (int i = 0; i < rowMeta.size(); i++) {
+                        rowMeta.getValueMeta(i).setPreparedStatementValue(databaseMeta, ps, i + 1, row[i]);
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+            int batchUpdated = mergeUpdate == null ? 0 : executeUpdate(mergeUpdate);
+            int batchInserted = executeUpdate(mergeInsert);
+            if (ownTransaction) {
+                connection.commit();
+            } else if (kbaseMeta.releaseSavepoint()) {
+                connection.releaseSavepoint(savepoint);
+            }
+            merged = true;
+            updated += batchUpdated;
+            inserted += batchInserted;
+            batch.clear();
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to merge batch of " + batch.size() + " rows", e);
+        } finally {
+            // 任何异常(包括字段转换错误)都回滚本批次
+            if (!merged) {
+                rollback(savepoint, ownTransaction);
+            }
+            if (ownTransaction) {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void rollback(Savepoint savepoint, boolean ownTransaction) {
+        try {
+            if (ownTransaction) {
+                connection.rollback();
+            } else if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+        } catch (SQLException e) {
+            // report the original error
+        }
+    }
+
+    /**
+     * 合并剩余的行
+     *
+     * @throws KettleDatabaseException
+     */
+    public void close() throws KettleDatabaseException {
+        flush();
+    }
+
+    public long getInsertedCount() {
+        return inserted;
+    }
+
+    /**
+     * @return the number of target rows matched by a key, including rows whose values didn't change
+     */
+    public long getUpdatedCount() {
+        return updated;
+    }
+
+    private int executeUpdate(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            return statement.executeUpdate(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void execute(String sql) throws KettleDatabaseException {
+        try {
+            executeUpdate(sql);
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Error executing [" + sql + "]", e);
+        }
+    }
+
+    /**
+     * 批次内的主键，byte[] 按内容比较
+     */
+    private static final class Key {
+        private final Object[] values;
+        private final int hashCode;
+
+        private Key(Object[] values) {
+            this.values = values;
+            this.hashCode = Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.deepEquals(values, ((Key) obj).values);
+        }
+    }
+}
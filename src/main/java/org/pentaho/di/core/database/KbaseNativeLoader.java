@@ -0,0 +1,192 @@
+package org.pentaho.di.core.database;
+
+import java.io.File;
+import java.util.Locale;
+
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.core.variables.Variables;
+
+/**
+ * Kbase客户端本地库加载器
+ * 在第一次打开Kbase连接时才加载本地库(而不是插件扫描时)，加载成功后每个JVM只加载一次；
+ * 加载失败时在路径改变或等待 {@value #RETRY_INTERVAL_MILLIS} 毫秒后重试。
+ * <p>
+ * Libraries are looked up in this order:
+ * <ol>
+ * <li>the connection attribute {@value #NATIVE_LIB_PATH}, with <code>${VARIABLE}</code> references substituted</li>
+ * <li>the system property {@value #NATIVE_LIB_PATH}, which is also where Kettle puts kettle.properties entries</li>
+ * <li>the environment variable {@value #NATIVE_LIB_PATH}</li>
+ * <li>%SystemRoot%\System32 on Windows, java.library.path elsewhere</li>
+ * </ol>
+ * Inside a directory a platform sub folder such as <code>linux-x86_64</code> is preferred over the directory itself.
+ * When a library can't be found the plugin falls back to pure JDBC mode instead of failing.
+ */
+public final class KbaseNativeLoader {
+
+    public static final String NATIVE_LIB_PATH = "KBASE_NATIVE_LIB_PATH";
+
+    /**
+     * 加载顺序与依赖顺序一致
+     */
+    private static final String[] LIBRARIES = {"FTSClientU", "KBaseClientU", "TPIClientU", "TPIExtClientU"};
+
+    static final long RETRY_INTERVAL_MILLIS = 60000L;
+
+    private static volatile Boolean nativeAvailable;
+    private static String failedPath;
+    private static long failedAt;
+    private static long retryIntervalMillis = RETRY_INTERVAL_MILLIS;
+    private static int loadAttempts;
+
+    private KbaseNativeLoader() {
+    }
+
+    /**
+     * 加载本地库，成功后不再重复加载
+     *
+     * @param libraryPath the configured library directory, may be empty or contain variables
+     * @return true if the native client libraries are loaded, false if running in pure JDBC mode
+     */
+    public static boolean ensureLoaded(String libraryPath) {
+        if (Boolean.TRUE.equals(nativeAvailable)) {
+            return true;
+        }
+        String path = Utils.isEmpty(libraryPath)
+                ? libraryPath : Variables.getADefaultVariableSpace().environmentSubstitute(libraryPath);
+        synchronized (KbaseNativeLoader.class) {
+            if (Boolean.TRUE.equals(nativeAvailable)) {
+                return true;
+            }
+            String key = String.valueOf(path);
+            if (nativeAvailable != null && key.equals(failedPath)
+                    && System.currentTimeMillis() - failedAt < retryIntervalMillis) {
+                return false;
+            }
+            loadAttempts++;
+            boolean available = load(path);
+            if (!available) {
+                failedPath = key;
+                failedAt = System.currentTimeMillis();
+            }
+            nativeAvailable = available;
+            return available;
+        }
+    }
+
+    /**
+     * @return true if the native libraries were loaded, false if they were not (yet) loaded
+     */
+    public static boolean isNativeAvailable() {
+        return Boolean.TRUE.equals(nativeAvailable);
+    }
+
+    /**
+     * @return the number of times the libraries were looked up so far
+     */
+    static synchronized int getLoadAttempts() {
+        return loadAttempts;
+    }
+
+    /**
+     * @return the library path, variables substituted, of the last failed attempt
+     */
+    static synchronized String getFailedPath() {
+        return failedPath;
+    }
+
+    /**
+     * 测试用：忘记之前的加载结果，并设置失败后的重试间隔
+     */
+    static synchronized void reset(long retryInterval) {
+        nativeAvailable = null;
+        failedPath = null;
+        failedAt = 0L;
+        loadAttempts = 0;
+        retryIntervalMillis = retryInterval;
+    }
+
+    private static boolean load(String libraryPath) {
+        long start = System.currentTimeMillis();
+        File directory = resolveDirectory(libraryPath);
+        String libraryName = null;
+        try {
+            for (String library : LIBRARIES) {
+                libraryName = library;
+                File file = resolveLibrary(directory, library);
+                if (file != null) {
+                    System.load(file.getAbsolutePath());
+                } else {
+                    System.loadLibrary(library);
+                }
+            }
+            LogChannel.GENERAL.logDetailed("Kbase native client libraries loaded from ["
+                    + (directory == null ? "java.library.path" : directory.getAbsolutePath()) + "] in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            LogChannel.GENERAL.logBasic("Kbase native client library [" + libraryName + "] not available for "
+                    + getPlatform() + ", using pure JDBC mode: " + e.getMessage());
+            return false;
+        } catch (SecurityException e) {
+            LogChannel.GENERAL.logBasic("Not allowed to load Kbase native client library [" + libraryName
+                    + "], using pure JDBC mode: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static File resolveDirectory(String libraryPath) {
+        String path = libraryPath;
+        if (Utils.isEmpty(path)) {
+            path = System.getProperty(NATIVE_LIB_PATH);
+        }
+        if (Utils.isEmpty(path)) {
+            path = System.getenv(NATIVE_LIB_PATH);
+        }
+        if (Utils.isEmpty(path) && isWindows()) {
+            String systemRoot = System.getenv("SystemRoot");
+            path = (Utils.isEmpty(systemRoot) ? "C:\\Windows" : systemRoot) + File.separator + "System32";
+        }
+        return Utils.isEmpty(path) ? null : new File(path);
+    }
+
+    private static File resolveLibrary(File directory, String library) {
+        if (directory == null) {
+            return null;
+        }
+        String fileName = System.mapLibraryName(library);
+        File file = new File(new File(directory, getPlatform()), fileName);
+        if (file.isFile()) {
+            return file;
+        }
+        file = new File(directory, fileName);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * @return os-arch, e.g. windows-x86_64 or linux-aarch64
+     */
+    static String getPlatform() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+        if (os.startsWith("windows")) {
+            os = "windows";
+        } else if (os.startsWith("mac")) {
+            os = "mac";
+        } else if (os.startsWith("linux")) {
+            os = "linux";
+        } else {
+            os = os.replace(' ', '_');
+        }
+        String arch = System.getProperty("os.arch", "").toLowerCase(Locale.ENGLISH);
+        if (arch.equals("amd64") || arch.equals("x64")) {
+            arch = "x86_64";
+        } else if (arch.matches("i[3-6]86")) {
+            arch = "x86";
+        }
+        return os + "-" + arch;
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).startsWith("windows");
+    }
+}
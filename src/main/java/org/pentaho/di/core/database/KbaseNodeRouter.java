@@ -0,0 +1,258 @@
+package org.pentaho.di.core.database;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.util.Utils;
+
+/**
+ * Kbase多节点路由
+ * 只读连接在副本节点间轮询或选择响应最快的节点，写入和DDL始终使用主节点；
+ * 节点定期做TCP探测，不可达的节点移出轮询，恢复后重新加入，所有副本都不可用时退回主节点。
+ * <p>
+ * {@link KbaseReplicaDriver} selects a replica for every physical connection it opens. Health checks run on one shared
+ * daemon thread, so {@link #selectReplica(String)} only reads the cached state and never waits for a probe. Nodes count as healthy
+ * until their first check. A router that wasn't used for {@value #IDLE_MILLIS} ms stops probing until it is used
+ * again. The response time of the checks (exponentially averaged) is the load measure for {@link #LEAST_LOADED}.
+ * IPv6 replicas are written as <code>[address]:port</code>.
+ */
+public class KbaseNodeRouter {
+
+    public static final String ROUND_ROBIN = "ROUND_ROBIN";
+    public static final String LEAST_LOADED = "LEAST_LOADED";
+
+    private static final int CHECK_TIMEOUT_MILLIS = 1000;
+    private static final long MIN_CHECK_INTERVAL_MILLIS = 1000;
+    private static final long IDLE_MILLIS = 10 * 60 * 1000L;
+
+    private static final ConcurrentHashMap<String, KbaseNodeRouter> ROUTERS =
+            new ConcurrentHashMap<String, KbaseNodeRouter>();
+
+    private static ScheduledExecutorService checker;
+
+    private final List<Node> replicas;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicBoolean checking = new AtomicBoolean();
+    private volatile long checkIntervalMillis = MIN_CHECK_INTERVAL_MILLIS;
+    private volatile long lastUsed;
+
+    /**
+     * 获取副本列表对应的路由器，相同的列表共享节点状态
+     *
+     * @param replicaHosts the replicas as <code>host[:port],host[:port]...</code>
+     * @param defaultPort  the port of replicas without one
+     * @return the router
+     */
+    public static KbaseNodeRouter getRouter(String replicaHosts, String defaultPort) {
+        String key = replicaHosts + "|" + defaultPort;
+        KbaseNodeRouter router = ROUTERS.get(key);
+        if (router == null) {
+            KbaseNodeRouter created = new KbaseNodeRouter(parseHosts(replicaHosts, defaultPort));
+            router = ROUTERS.putIfAbsent(key, created);
+            if (router == null) {
+                router = created;
+            }
+        }
+        return router;
+    }
+
+    KbaseNodeRouter(List<Node> replicas) {
+        this.replicas = Collections.unmodifiableList(replicas);
+    }
+
+    static List<Node> parseHosts(String hosts, String defaultPort) {
+        List<Node> nodes = new ArrayList<Node>();
+        if (Utils.isEmpty(hosts)) {
+            return nodes;
+        }
+        for (String host : hosts.split("[,;\\s]+")) {
+            if (host.isEmpty()) {
+                continue;
+            }
+            if (host.startsWith("[")) {
+                // [IPv6地址]:端口
+                int close = host.indexOf(']');
+                if (close < 0) {
+                    throw new IllegalArgumentException("Missing ']' in replica host [" + host + "]");
+                }
+                String port = host.length() > close + 2 && host.charAt(close + 1) == ':' ? host.substring(close + 2)
+                        : defaultPort;
+                nodes.add(new Node(host.substring(1, close), port));
+                continue;
+            }
+            int colon = host.lastIndexOf(':');
+            if (colon > 0 && host.indexOf(':') == colon) {
+                nodes.add(new Node(host.substring(0, colon), host.substring(colon + 1)));
+            } else {
+                // 没有端口，或不带方括号的IPv6地址
+                nodes.add(new Node(host, defaultPort));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * 为只读连接选择一个可用的副本
+     *
+     * @param strategy {@link #ROUND_ROBIN} or {@link #LEAST_LOADED}
+     * @return a healthy replica or null if there is none, then the primary has to be used
+     */
+    public Node selectReplica(String strategy) {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+        lastUsed = System.currentTimeMillis();
+        if (checking.compareAndSet(false, true)) {
+            schedule(0);
+        }
+        if (LEAST_LOADED.equalsIgnoreCase(strategy)) {
+            Node best = null;
+            for (Node node : replicas) {
+                if (node.healthy && (best == null || node.latencyNanos < best.latencyNanos)) {
+                    best = node;
+                }
+            }
+            return best;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Node node = replicas.get((start + i) % size);
+            if (node.healthy) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void schedule(long delayMillis) {
+        getChecker().schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkAll();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 后台线程探测所有副本，然后按检查间隔重新排程；长时间未使用时停止，下次选择节点时重新开始
+     */
+    void checkAll() {
+        try {
+            for (Node node : replicas) {
+                check(node);
+            }
+        } finally {
+            if (System.currentTimeMillis() - lastUsed > IDLE_MILLIS) {
+                checking.set(false);
+            } else {
+                schedule(Math.max(MIN_CHECK_INTERVAL_MILLIS, checkIntervalMillis));
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getChecker() {
+        if (checker == null) {
+            checker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Kbase node health check");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return checker;
+    }
+
+    /**
+     * TCP探测节点，记录可达状态和响应时间
+     */
+    synchronized void check(Node node) {
+        long start = System.nanoTime();
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(node.host, Const.toInt(node.port, 4567)), CHECK_TIMEOUT_MILLIS);
+            long latency = System.nanoTime() - start;
+            node.latencyNanos = node.latencyNanos == 0 ? latency : (node.latencyNanos * 3 + latency) / 4;
+            if (!node.healthy) {
+                LogChannel.GENERAL.logBasic("Kbase node " + node + " is back in rotation");
+            }
+            node.healthy = true;
+        } catch (IOException e) {
+            if (node.healthy) {
+                LogChannel.GENERAL.logBasic("Kbase node " + node + " taken out of rotation: " + e.getMessage());
+            }
+            node.healthy = false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * @param checkIntervalMillis the time between health checks, at least one second
+     */
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    public List<Node> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * 节点及其探测状态
+     */
+    public static class Node {
+        private final String host;
+        private final String port;
+        private volatile boolean healthy = true;
+        private volatile long latencyNanos;
+
+        Node(String host, String port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getPort() {
+            return port;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * @return the host as used in a URL, IPv6 addresses in square brackets
+         */
+        public String getURLHost() {
+            return host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+        }
+
+        @Override
+        public String toString() {
+            return getURLHost() + ":" + port;
+        }
+    }
+}
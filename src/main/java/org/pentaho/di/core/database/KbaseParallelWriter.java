@@ -0,0 +1,286 @@
+package org.pentaho.di.core.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Kbase并行写入
+ * 按键字段的哈希把行分配到多个连接，每个连接由一个写入线程通过{@link KbaseBatchInserter}批量写入；
+ * 调用线程和写入线程之间是有界队列，写入跟不上时调用线程等待。全部写完后统一提交，任一连接出错则全部回滚。
+ * <p>
+ * Rows with the same key value (hashed with {@link ValueMetaInterface#hashCode(Object)}, binary keys by content)
+ * always go to the same connection, so the partitions don't contend for the same rows and no table lock
+ * ({@link KbaseDatabaseMeta#getSQLLockTables(String[])}) is needed. The final commit is coordinated
+ * but not two-phase: every connection has written all its rows before the first commit, yet if a commit itself
+ * fails after others succeeded the load is partially committed, which is reported in the exception.
+ */
+public class KbaseParallelWriter {
+
+    private static final Object[][] END_OF_ROWS = new Object[0][];
+
+    private final String tableName;
+    private final ValueMetaInterface keyMeta;
+    private final int keyIndex;
+    private final int chunkSize;
+    private final Worker[] workers;
+    private final Object[][][] chunks;
+    private final int[] chunkRows;
+    private volatile Exception error;
+
+    /**
+     * @param parent        the logging parent, usually the step
+     * @param databaseMeta  the Kbase connection
+     * @param schemaName    the schema of the target table, may be null
+     * @param tableName     the target table
+     * @param rowMeta       the fields to insert, in column order
+     * @param keyIndex      the index of the key field used to partition the rows
+     * @param nrConnections the number of connections (and writer threads)
+     * @param queueSize     the number of batches that may wait per connection
+     * @throws KettleDatabaseException
+     */
+    public KbaseParallelWriter(LoggingObjectInterface parent, DatabaseMeta databaseMeta, String schemaName,
+                               String tableName, RowMetaInterface rowMeta, int keyIndex, int nrConnections,
+                               int queueSize) throws KettleDatabaseException {
+        KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+        int size = Math.max(1, nrConnections);
+        this.tableName = tableName;
+        this.keyMeta = rowMeta.getValueMeta(keyIndex);
+        this.keyIndex = keyIndex;
+        this.chunkSize = Math.max(1, kbaseMeta.getBatchSize());
+        this.workers = new Worker[size];
+        this.chunks = new Object[size][][];
+        this.chunkRows = new int[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                Database database = new Database(parent, databaseMeta);
+                database.connect();
+                workers[i] = new Worker(i, database, new ArrayBlockingQueue<Object[][]>(Math.max(1, queueSize)));
+                workers[i].inserter = new KbaseBatchInserter(database, schemaName, tableName, rowMeta, null, true);
+                chunks[i] = new Object[chunkSize][];
+            }
+        } catch (KettleDatabaseException e) {
+            disconnect();
+            throw e;
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * 按键分配一行，队列满时等待
+     *
+     * @param row the row data
+     * @throws KettleDatabaseException if a writer failed
+     */
+    public void addRow(Object[] row) throws KettleDatabaseException {
+        checkError();
+        int hash;
+        try {
+            // 按值计算哈希，byte[] 等键按内容而不是对象地址分区
+            hash = keyMeta.hashCode(row[keyIndex]);
+        } catch (KettleValueException e) {
+            throw new KettleDatabaseException("Unable to hash key field [" + keyMeta.getName() + "]", e);
+        }
+        int partition = (hash & Integer.MAX_VALUE) % workers.length;
+        chunks[partition][chunkRows[partition]++] = row;
+        if (chunkRows[partition] == chunkSize) {
+            handOver(partition);
+        }
+    }
+
+    /**
+     * 写完所有行后统一提交；任一连接出错时全部回滚
+     *
+     * @throws KettleDatabaseException if the load failed and was rolled back, or a commit failed
+     */
+    public void close() throws KettleDatabaseException {
+        try {
+            for (int i = 0; i < workers.length && error == null; i++) {
+                if (chunkRows[i] > 0) {
+                    handOver(i);
+                }
+            }
+            finishWorkers();
+            checkError();
+            commit();
+        } catch (KettleDatabaseException e) {
+            stopWorkers();
+            rollback();
+            throw e;
+        } finally {
+            disconnect();
+        }
+    }
+
+    /**
+     * 放弃写入并回滚所有连接
+     */
+    public void cancel() {
+        if (error == null) {
+            error = new KettleDatabaseException("Load into [" + tableName + "] was cancelled");
+        }
+        stopWorkers();
+        rollback();
+        disconnect();
+    }
+
+    public long getRowsWritten() {
+        long rows = 0;
+        for (Worker worker : workers) {
+            rows += worker.inserter.getRowsWritten();
+        }
+        return rows;
+    }
+
+    private void handOver(int partition) throws KettleDatabaseException {
+        Object[][] chunk = chunkRows[partition] == chunkSize
+                ? chunks[partition] : Arrays.copyOf(chunks[partition], chunkRows[partition]);
+        put(workers[partition].queue, chunk);
+        chunks[partition] = new Object[chunkSize][];
+        chunkRows[partition] = 0;
+    }
+
+    private void put(BlockingQueue<Object[][]> queue, Object[][] chunk) throws KettleDatabaseException {
+        try {
+            // 写入线程出错后不再消费队列，定时检查避免一直等待
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                checkError();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KettleDatabaseException("Interrupted while queueing rows for [" + tableName + "]", e);
+        }
+    }
+
+    private void finishWorkers() throws KettleDatabaseException {
+        for (Worker worker : workers) {
+            if (worker.isAlive()) {
+                put(worker.queue, END_OF_ROWS);
+            }
+        }
+        join();
+    }
+
+    /**
+     * 出错或取消时停止所有写入线程，之后才能在调用线程中回滚
+     */
+    private void stopWorkers() {
+        for (Worker worker : workers) {
+            if (worker.isAlive()) {
+                worker.queue.clear();
+                worker.interrupt();
+            }
+        }
+        try {
+            join();
+        } catch (KettleDatabaseException e) {
+            // interrupted, the connections are rolled back and closed anyway
+        }
+    }
+
+    private void join() throws KettleDatabaseException {
+        for (Worker worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new KettleDatabaseException("Interrupted while waiting for the writers of [" + tableName + "]", e);
+            }
+        }
+    }
+
+    private void commit() throws KettleDatabaseException {
+        int committed = 0;
+        try {
+            for (Worker worker : workers) {
+                worker.database.getConnection().commit();
+                committed++;
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException((committed == 0 ? "Commit of [" + tableName + "] failed"
+                    : "Commit of [" + tableName + "] failed after " + committed + " of " + workers.length
+                    + " connections were committed, the load is partially committed"), e);
+        }
+    }
+
+    private void rollback() {
+        for (Worker worker : workers) {
+            try {
+                worker.database.getConnection().rollback();
+            } catch (SQLException e) {
+                // the connection is closed below
+            }
+        }
+    }
+
+    private void disconnect() {
+        for (Worker worker : workers) {
+            if (worker != null) {
+                Connection connection = worker.database.getConnection();
+                try {
+                    if (connection != null && !connection.getAutoCommit()) {
+                        connection.setAutoCommit(true);
+                    }
+                } catch (SQLException e) {
+                    // ignore
+                }
+                worker.database.disconnect();
+            }
+        }
+    }
+
+    private void checkError() throws KettleDatabaseException {
+        if (error != null) {
+            throw new KettleDatabaseException("Parallel load into [" + tableName + "] failed", error);
+        }
+    }
+
+    /**
+     * 写入线程：从队列取出批次并写入自己的连接
+     */
+    private class Worker extends Thread {
+        private final Database database;
+        private final BlockingQueue<Object[][]> queue;
+        private KbaseBatchInserter inserter;
+
+        private Worker(int nr, Database database, BlockingQueue<Object[][]> queue) {
+            super("Kbase parallel writer " + tableName + " #" + nr);
+            setDaemon(true);
+            this.database = database;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Object[][] chunk = queue.take();
+                while (chunk != END_OF_ROWS && error == null) {
+                    for (Object[] row : chunk) {
+                        inserter.addRow(row);
+                    }
+                    chunk = queue.take();
+                }
+                if (error == null) {
+                    inserter.close();
+                }
+            } catch (InterruptedException e) {
+                // cancelled after an error elsewhere
+            } catch (Exception e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+}
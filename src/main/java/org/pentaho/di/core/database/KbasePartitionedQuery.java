@@ -0,0 +1,248 @@
+package org.pentaho.di.core.database;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+import org.pentaho.di.core.util.Utils;
+
+/**
+ * Kbase分区读取
+ * 按拆分字段的取值范围(数值或日期)把一张表分成N个互不重叠的区间，每个步骤副本/连接读取其中一个区间；
+ * 没有拆分字段时按 LIMIT/OFFSET 分页。
+ * <p>
+ * Ranges are half open (<code>low &lt;= col &lt; high</code>); the first range has no lower and the last range no
+ * upper bound, and rows with a NULL split value are read by partition 0. Together the partitions return every row
+ * exactly once, also when rows are added after the bounds were computed.
+ * The bounds are computed with {@link BigDecimal} arithmetic, so fractional values, the full range of BIGINT and
+ * timestamps down to the nanosecond split exactly, and are bound as parameters rather than formatted into the SQL:
+ * open a partition with <code>database.openQuery(getPartitionSQL(nr), params.getRowMeta(), params.getData())</code>
+ * where <code>params</code> is {@link #getPartitionParameters(int)}.
+ * Offset paging requires an ORDER BY; it is only gap and duplicate free when the ORDER BY columns are unique and no
+ * rows are deleted or inserted before the last page while the table is read. The last page has no row limit, so rows
+ * added after the row count was taken are read by the last partition.
+ */
+public class KbasePartitionedQuery {
+
+    private final KbaseDatabaseMeta kbaseMeta;
+    private final String tableName;
+    private final String fields;
+    private final String splitColumn;
+    private final String orderBy;
+    private final int nrPartitions;
+
+    private boolean dateSplit;
+    private BigDecimal minimum;
+    private BigDecimal maximum;
+    private long rowCount;
+    private boolean empty;
+
+    /**
+     * @param databaseMeta the Kbase connection
+     * @param tableName    the quoted (schema-qualified) table name
+     * @param fields       the select list, e.g. <code>*</code>
+     * @param splitColumn  a numeric or date column to split on, empty to page with LIMIT/OFFSET
+     * @param orderBy      the unique ordering used for paging, required when there is no split column
+     * @param nrPartitions the number of partitions (step copies)
+     */
+    public KbasePartitionedQuery(DatabaseMeta databaseMeta, String tableName, String fields, String splitColumn,
+                                 String orderBy, int nrPartitions) {
+        if (Utils.isEmpty(splitColumn) && Utils.isEmpty(orderBy)) {
+            // 没有确定的顺序时各分页可能重叠或遗漏行
+            throw new IllegalArgumentException("Paging over " + tableName + " needs a unique ORDER BY when there is "
+                    + "no split column");
+        }
+        this.kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+        this.tableName = tableName;
+        this.fields = Utils.isEmpty(fields) ? "*" : fields;
+        this.splitColumn = splitColumn;
+        this.orderBy = orderBy;
+        this.nrPartitions = Math.max(1, nrPartitions);
+    }
+
+    /**
+     * 读取拆分字段的最小/最大值(或表的行数)，所有分区使用相同的边界
+     *
+     * @param database a connected Kbase database
+     * @throws KettleDatabaseException
+     */
+    public void computeBounds(Database database) throws KettleDatabaseException {
+        String sql = Utils.isEmpty(splitColumn)
+                ? "SELECT COUNT(*) FROM " + tableName
+                : "SELECT MIN(" + splitColumn + "), MAX(" + splitColumn + ") FROM " + tableName;
+        Statement statement = null;
+        ResultSet res = null;
+        try {
+            statement = database.getConnection().createStatement();
+            res = statement.executeQuery(sql);
+            res.next();
+            if (Utils.isEmpty(splitColumn)) {
+                rowCount = res.getLong(1);
+                empty = rowCount == 0;
+            } else {
+                Object min = res.getObject(1);
+                Object max = res.getObject(2);
+                empty = min == null || max == null;
+                if (!empty) {
+                    dateSplit = min instanceof Date;
+                    minimum = toDecimal(min);
+                    maximum = toDecimal(max);
+                }
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to compute partition bounds with [" + sql + "]", e);
+        } finally {
+            try {
+                if (res != null) {
+                    res.close();
+                }
+                if (statement != null) {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 生成某个分区的查询语句，需要先调用{@link #computeBounds(Database)}
+     *
+     * @param partitionNr the partition, usually the step copy number (0 based)
+     * @return the SQL returning the rows of this partition, with a parameter per bound
+     * @see #getPartitionParameters(int)
+     */
+    public String getPartitionSQL(int partitionNr) {
+        checkPartition(partitionNr);
+        StringBuilder sql = new StringBuilder(128);
+        sql.append("SELECT ").append(fields).append(" FROM ").append(tableName);
+
+        if (Utils.isEmpty(splitColumn)) {
+            long pageSize = (rowCount + nrPartitions - 1) / nrPartitions;
+            sql.append(" ORDER BY ").append(orderBy);
+            if (nrPartitions > 1) {
+                // 最后一页不限制行数，统计行数之后新增的行也能读到
+                sql.append(kbaseMeta.getLimitClause(partitionNr * pageSize,
+                        partitionNr == nrPartitions - 1 ? -1 : pageSize));
+            }
+            return sql.toString();
+        }
+
+        if (empty) {
+            // 只有NULL值或空表：全部由第一个分区读取
+            return partitionNr == 0 ? sql.toString() : sql.append(" WHERE 1=0").toString();
+        }
+
+        if (nrPartitions == 1) {
+            return sql.toString();
+        }
+        sql.append(" WHERE ");
+        if (partitionNr == 0) {
+            sql.append('(').append(splitColumn).append(" IS NULL OR ").append(splitColumn).append(" < ?)");
+        } else {
+            sql.append(splitColumn).append(" >= ?");
+            if (partitionNr < nrPartitions - 1) {
+                sql.append(" AND ").append(splitColumn).append(" < ?");
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 某个分区查询的参数(区间的边界)，顺序与{@link #getPartitionSQL(int)}中的参数一致
+     *
+     * @param partitionNr the partition, usually the step copy number (0 based)
+     * @return the bounds of the partition, BigNumber or Timestamp values; no values when the query has no parameters
+     */
+    public RowMetaAndData getPartitionParameters(int partitionNr) {
+        checkPartition(partitionNr);
+        RowMetaInterface rowMeta = new RowMeta();
+        if (Utils.isEmpty(splitColumn) || empty || nrPartitions == 1) {
+            return new RowMetaAndData(rowMeta, new Object[0]);
+        }
+        int low = partitionNr == 0 ? -1 : partitionNr;
+        int high = partitionNr == nrPartitions - 1 ? -1 : partitionNr + 1;
+        Object[] data = new Object[(low < 0 ? 0 : 1) + (high < 0 ? 0 : 1)];
+        int index = 0;
+        for (int bound : new int[]{low, high}) {
+            if (bound >= 0) {
+                ValueMetaInterface valueMeta = dateSplit ? new ValueMetaTimestamp(splitColumn)
+                        : new ValueMetaBigNumber(splitColumn);
+                rowMeta.addValueMeta(valueMeta);
+                data[index++] = value(lowerBound(bound));
+            }
+        }
+        return new RowMetaAndData(rowMeta, data);
+    }
+
+    public int getNrPartitions() {
+        return nrPartitions;
+    }
+
+    private void checkPartition(int partitionNr) {
+        if (partitionNr < 0 || partitionNr >= nrPartitions) {
+            throw new IllegalArgumentException("Partition " + partitionNr + " is not in [0, " + nrPartitions + ")");
+        }
+    }
+
+    private BigDecimal lowerBound(int partitionNr) {
+        BigDecimal bound = minimum.add(maximum.subtract(minimum).multiply(BigDecimal.valueOf(partitionNr))
+                .divide(BigDecimal.valueOf(nrPartitions), MathContext.DECIMAL128));
+        // 时间戳精确到纳秒
+        return dateSplit ? bound.setScale(9, RoundingMode.FLOOR) : bound;
+    }
+
+    private Object value(BigDecimal bound) {
+        if (!dateSplit) {
+            return bound;
+        }
+        BigDecimal seconds = bound.setScale(0, RoundingMode.FLOOR);
+        Timestamp timestamp = new Timestamp(seconds.longValueExact() * 1000L);
+        timestamp.setNanos(bound.subtract(seconds).movePointRight(9).intValue());
+        return timestamp;
+    }
+
+    /**
+     * @return numbers as they are, dates as seconds since the epoch with the fraction down to the nanosecond
+     */
+    private static BigDecimal toDecimal(Object value) throws SQLException {
+        if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            long seconds = Math.floorDiv(timestamp.getTime(), 1000L);
+            return BigDecimal.valueOf(seconds).add(BigDecimal.valueOf(timestamp.getNanos(), 9));
+        }
+        if (value instanceof Date) {
+            return BigDecimal.valueOf(((Date) value).getTime(), 3);
+        }
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            try {
+                return new BigDecimal(value.toString());
+            } catch (NumberFormatException e) {
+                throw new SQLException("Unable to split on the value " + value, e);
+            }
+        }
+        throw new SQLException("Split column values must be numeric or dates, not " + value.getClass().getName());
+    }
+}
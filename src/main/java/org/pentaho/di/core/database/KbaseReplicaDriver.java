@@ -0,0 +1,141 @@
+package org.pentaho.di.core.database;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.pentaho.di.core.logging.LogChannel;
+
+/**
+ * 副本路由驱动
+ * 接受 jdbc:kbase-replica:策略:检查间隔:副本列表@实际URL 形式的URL，每打开一个物理连接时由{@link KbaseNodeRouter}
+ * 选择一个健康的副本，用副本的主机和端口替换实际URL中的主节点后连接；没有可用副本或副本连接失败时连接主节点。
+ * <p>
+ * {@link KbaseDatabaseMeta} returns this driver and URL only for read-only connections with replicas, so the URL
+ * itself is stable and writes and DDL always connect to the primary. Because the replica is chosen per physical
+ * connection, a connection pool spreads its connections over the replicas; pooled connections to a node that failed
+ * later are dropped by the pool's validation on borrow (see {@link KbaseDatabaseMeta#getConnectionPoolingProperties()}).
+ */
+public class KbaseReplicaDriver implements Driver {
+
+    private static final String REPLICA_PREFIX = "jdbc:kbase-replica:";
+    private static final String DEFAULT_PORT = "4567";
+
+    static {
+        try {
+            DriverManager.registerDriver(new KbaseReplicaDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * @param url                 the URL of the primary, jdbc:kbase: or jdbc:kbase-instrumented:
+     * @param replicas            the replicas to route to
+     * @param loadBalancing       {@link KbaseNodeRouter#ROUND_ROBIN} or {@link KbaseNodeRouter#LEAST_LOADED}
+     * @param healthCheckInterval the number of seconds between health checks of a replica
+     * @return the URL handled by this driver
+     */
+    static String toReplicaURL(String url, List<KbaseNodeRouter.Node> replicas, String loadBalancing,
+                               int healthCheckInterval) {
+        StringBuilder replicaURL = new StringBuilder(64 + url.length());
+        replicaURL.append(REPLICA_PREFIX).append(loadBalancing).append(':').append(healthCheckInterval).append(':');
+        for (int i = 0; i < replicas.size(); i++) {
+            if (i > 0) {
+                replicaURL.append(',');
+            }
+            replicaURL.append(replicas.get(i));
+        }
+        return replicaURL.append('@').append(url).toString();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        int at = url.indexOf('@');
+        if (at < 0) {
+            throw new SQLException("Missing '@' before the primary URL in [" + url + "]");
+        }
+        String[] routing = url.substring(REPLICA_PREFIX.length(), at).split(":", 3);
+        if (routing.length < 3) {
+            throw new SQLException("Invalid Kbase replica URL [" + url + "]");
+        }
+        String primaryURL = url.substring(at + 1);
+        loadDriver(primaryURL);
+
+        KbaseNodeRouter router = KbaseNodeRouter.getRouter(routing[2], DEFAULT_PORT);
+        router.setCheckIntervalMillis(Long.parseLong(routing[1]) * 1000L);
+        KbaseNodeRouter.Node node = router.selectReplica(routing[0]);
+        if (node != null) {
+            String replicaURL = withNode(primaryURL, node);
+            try {
+                return DriverManager.getDriver(replicaURL).connect(replicaURL, info);
+            } catch (SQLException e) {
+                // 下次健康检查前节点仍在轮询中，这次连接改用主节点
+                LogChannel.GENERAL.logBasic("Unable to connect to Kbase replica " + node + ", using the primary: "
+                        + e.getMessage());
+            }
+        }
+        return DriverManager.getDriver(primaryURL).connect(primaryURL, info);
+    }
+
+    private static void loadDriver(String url) throws SQLException {
+        String driver = url.startsWith("jdbc:kbase-instrumented:") ? KbaseInstrumentedDriver.class.getName()
+                : KbaseInstrumentedDriver.KBASE_DRIVER;
+        try {
+            Class.forName(driver);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("Kbase JDBC driver " + driver + " not found", e);
+        }
+    }
+
+    /**
+     * @return the URL with the host and port of the node instead of the primary's
+     */
+    static String withNode(String url, KbaseNodeRouter.Node node) throws SQLException {
+        int start = url.indexOf("//");
+        int end = start < 0 ? -1 : url.indexOf('/', start + 2);
+        if (end < 0) {
+            throw new SQLException("No host in Kbase URL [" + url + "]");
+        }
+        return url.substring(0, start + 2) + node + url.substring(end);
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(REPLICA_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,179 @@
+package org.pentaho.di.core.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Kbase资源库批量保存
+ * 保存转换/作业时把各资源库表的单行INSERT按表缓存，提交前以JDBC批处理写入，代替逐行往返。
+ * <p>
+ * Tables are flushed in the order they were first written to, so header rows go in before their details; a table
+ * that reaches the batch size flushes every table first written to before it too.
+ * {@link #flush()} has to be called before the saved rows are read back; {@link #commit(String, long)} flushes,
+ * commits and drops the object from {@link KbaseRepositoryCache}.
+ */
+public class KbaseRepositoryBatchWriter {
+
+    private final Database database;
+    private final int batchSize;
+    private final Map<String, TableBatch> batches = new LinkedHashMap<String, TableBatch>();
+    private long rowsWritten;
+    private long roundTrips;
+
+    /**
+     * @param database the connected repository database
+     */
+    public KbaseRepositoryBatchWriter(Database database) {
+        this.database = database;
+        this.batchSize = Math.max(1, ((KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface())
+                .getBatchSize());
+    }
+
+    /**
+     * 缓存一行，表的缓存达到批次大小时连同更早的表一起写入
+     *
+     * @param tableName the repository table, e.g. R_STEP_ATTRIBUTE
+     * @param rowMeta   the columns of the row, the same for every row of a table
+     * @param row       the row data
+     * @throws KettleDatabaseException
+     */
+    public void insertRow(String tableName, RowMetaInterface rowMeta, Object[] row) throws KettleDatabaseException {
+        TableBatch batch = batches.get(tableName);
+        if (batch == null) {
+            batch = new TableBatch(tableName, rowMeta);
+            batches.put(tableName, batch);
+        }
+        batch.rows.add(row);
+        if (batch.rows.size() >= batchSize) {
+            // 先写入更早的表，明细行不会先于它引用的头行写入
+            for (TableBatch earlier : batches.values()) {
+                earlier.flush();
+                if (earlier == batch) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入所有缓存的行
+     *
+     * @throws KettleDatabaseException
+     */
+    public void flush() throws KettleDatabaseException {
+        for (TableBatch batch : batches.values()) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * 写入、提交并使缓存中保存的对象失效
+     *
+     * @param objectTable R_TRANSFORMATION or R_JOB
+     * @param id          the id of the saved object
+     * @throws KettleDatabaseException
+     */
+    public void commit(String objectTable, long id) throws KettleDatabaseException {
+        flush();
+        try {
+            if (!database.getConnection().getAutoCommit()) {
+                database.getConnection().commit();
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to commit repository changes", e);
+        } finally {
+            KbaseRepositoryCache.getInstance().invalidate(database.getDatabaseMeta(), objectTable, id);
+        }
+    }
+
+    /**
+     * 释放预编译语句，未写入的行被丢弃
+     */
+    public void close() {
+        for (TableBatch batch : batches.values()) {
+            try {
+                if (batch.statement != null) {
+                    batch.statement.close();
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+        batches.clear();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * @return the number of batches sent to the repository database
+     */
+    public long getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * 一张表的待写入行和INSERT语句
+     */
+    private class TableBatch {
+        private final String tableName;
+        private final RowMetaInterface rowMeta;
+        private final List<Object[]> rows = new ArrayList<Object[]>();
+        private PreparedStatement statement;
+
+        private TableBatch(String tableName, RowMetaInterface rowMeta) {
+            this.tableName = tableName;
+            this.rowMeta = rowMeta;
+        }
+
+        private void flush() throws KettleDatabaseException {
+            if (rows.isEmpty()) {
+                return;
+            }
+            DatabaseMeta databaseMeta = database.getDatabaseMeta();
+            int count = rows.size();
+            boolean written = false;
+            try {
+                if (statement == null) {
+                    String[] columns = new String[rowMeta.size()];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = databaseMeta.quoteField(rowMeta.getValueMeta(i).getName());
+                    }
+                    KbaseDatabaseMeta kbaseMeta = (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+                    statement = database.getConnection().prepareStatement(kbaseMeta.getMultiRowInsertStatement(
+                            databaseMeta.getQuotedSchemaTableCombination(null, tableName), columns, 1));
+                }
+                for (Object[] row : rows) {
+                    for (int i = 0; i < rowMeta.size(); i++) {
+                        rowMeta.getValueMeta(i).setPreparedStatementValue(databaseMeta, statement, i + 1, row[i]);
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                roundTrips++;
+                rowsWritten += count;
+                written = true;
+            } catch (SQLException e) {
+                throw new KettleDatabaseException("Unable to insert " + count + " rows into [" + tableName + "]", e);
+            } finally {
+                // 转换出错和执行出错一样：丢弃这些行，调用方回滚
+                rows.clear();
+                if (!written && statement != null) {
+                    try {
+                        statement.clearBatch();
+                    } catch (SQLException ignored) {
+                        // the caller rolls back anyway
+                    }
+                }
+            }
+        }
+    }
+}
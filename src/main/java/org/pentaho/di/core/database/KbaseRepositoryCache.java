@@ -0,0 +1,324 @@
+package org.pentaho.di.core.database;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Kbase资源库缓存
+ * 打开转换/作业时用少量按对象ID的集合查询一次取回步骤、属性、连线、注释等全部资源库行，代替逐行的字典查询；
+ * 以 R_TRANSFORMATION/R_JOB 的整行和步骤/作业项的行数及最大ID作为版本，版本变化时重新读取。类型等不变的代码表按连接缓存。
+ * <p>
+ * MODIFIED_DATE alone can't tell two saves within its resolution apart, and a save by another user may keep it.
+ * The version therefore compares the whole header row (MODIFIED_DATE, MODIFIED_USER, name, ...) and the count and
+ * highest id of the steps or job entries: a save replaces them with rows under new ids.
+ * <p>
+ * Each connection keeps at most {@link #MAX_OBJECTS} transformations and jobs, least recently used first out.
+ * Saving through {@link KbaseRepositoryBatchWriter} invalidates the saved object.
+ */
+public class KbaseRepositoryCache {
+
+    public static final int MAX_OBJECTS = 100;
+
+    private static final String[] TRANSFORMATION_TABLES = {
+            "R_STEP", "R_STEP_ATTRIBUTE", "R_STEP_DATABASE", "R_TRANS_HOP", "R_TRANS_ATTRIBUTE", "R_TRANS_NOTE",
+            "R_TRANS_STEP_CONDITION", "R_TRANS_PARTITION_SCHEMA", "R_TRANS_CLUSTER", "R_TRANS_SLAVE",
+    };
+    private static final String[] JOB_TABLES = {
+            "R_JOBENTRY", "R_JOBENTRY_COPY", "R_JOBENTRY_ATTRIBUTE", "R_JOBENTRY_DATABASE", "R_JOB_HOP",
+            "R_JOB_ATTRIBUTE", "R_JOB_NOTE",
+    };
+
+    private static final KbaseRepositoryCache INSTANCE = new KbaseRepositoryCache();
+
+    private final ConcurrentHashMap<String, Map<String, RepositoryObject>> connections =
+            new ConcurrentHashMap<String, Map<String, RepositoryObject>>();
+    private final ConcurrentHashMap<String, Rows> codeTables = new ConcurrentHashMap<String, Rows>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+
+    public static KbaseRepositoryCache getInstance() {
+        return INSTANCE;
+    }
+
+    private KbaseRepositoryCache() {
+    }
+
+    /**
+     * 获取转换的全部资源库行，版本未变化时使用缓存
+     *
+     * @param database         the connected repository database
+     * @param idTransformation the transformation id
+     * @return the rows of the transformation or null if it doesn't exist
+     * @throws KettleDatabaseException
+     */
+    public RepositoryObject getTransformation(Database database, long idTransformation) throws KettleDatabaseException {
+        return getObject(database, "R_TRANSFORMATION", "ID_TRANSFORMATION", idTransformation, TRANSFORMATION_TABLES,
+                "ID_STEP", "R_TRANS_NOTE");
+    }
+
+    /**
+     * 获取作业的全部资源库行，版本未变化时使用缓存
+     *
+     * @param database the connected repository database
+     * @param idJob    the job id
+     * @return the rows of the job or null if it doesn't exist
+     * @throws KettleDatabaseException
+     */
+    public RepositoryObject getJob(Database database, long idJob) throws KettleDatabaseException {
+        return getObject(database, "R_JOB", "ID_JOB", idJob, JOB_TABLES, "ID_JOBENTRY", "R_JOB_NOTE");
+    }
+
+    /**
+     * 获取不会变化的代码表(R_STEP_TYPE、R_DATABASE_TYPE等)的全部行
+     *
+     * @param database  the connected repository database
+     * @param tableName the code table
+     * @return the rows of the table
+     * @throws KettleDatabaseException
+     */
+    public Rows getCodeTable(Database database, String tableName) throws KettleDatabaseException {
+        String key = KbaseDatabaseMeta.getConnectionKey(database.getDatabaseMeta()) + "/" + tableName;
+        Rows rows = codeTables.get(key);
+        if (rows != null) {
+            hits.incrementAndGet();
+            return rows;
+        }
+        misses.incrementAndGet();
+        rows = query(database, "SELECT * FROM " + table(database, tableName));
+        codeTables.put(key, rows);
+        return rows;
+    }
+
+    /**
+     * 丢弃缓存的转换或作业，保存后调用
+     *
+     * @param databaseMeta the repository connection
+     * @param objectTable  R_TRANSFORMATION or R_JOB
+     * @param id           the object id
+     */
+    public void invalidate(DatabaseMeta databaseMeta, String objectTable, long id) {
+        Map<String, RepositoryObject> objects = connections.get(KbaseDatabaseMeta.getConnectionKey(databaseMeta));
+        if (objects != null) {
+            synchronized (objects) {
+                objects.remove(objectTable + "/" + id);
+            }
+        }
+    }
+
+    /**
+     * 丢弃连接的全部缓存，例如升级资源库后
+     */
+    public void invalidateConnection(DatabaseMeta databaseMeta) {
+        String connectionKey = KbaseDatabaseMeta.getConnectionKey(databaseMeta);
+        connections.remove(connectionKey);
+        for (String key : codeTables.keySet()) {
+            if (key.startsWith(connectionKey + "/")) {
+                codeTables.remove(key);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of queries sent to the repository database
+     */
+    public long getQueries() {
+        return queries.get();
+    }
+
+    private RepositoryObject getObject(Database database, String objectTable, String idColumn, long id,
+                                       String[] childTables, String childIdColumn, String noteLinkTable)
+            throws KettleDatabaseException {
+        DatabaseMeta databaseMeta = database.getDatabaseMeta();
+        String key = objectTable + "/" + id;
+        Map<String, RepositoryObject> objects = getObjects(databaseMeta);
+
+        String where = " WHERE " + databaseMeta.quoteField(idColumn) + " = " + id;
+        Rows header = query(database, "SELECT * FROM " + table(database, objectTable) + where);
+        if (header.rows.isEmpty()) {
+            invalidate(databaseMeta, objectTable, id);
+            return null;
+        }
+        // 子表的行数和最大ID：每次保存都用新ID重新插入步骤/作业项
+        String childId = databaseMeta.quoteField(childIdColumn);
+        Rows children = query(database, "SELECT COUNT(*), MAX(" + childId + ") FROM "
+                + table(database, childTables[0]) + where);
+        List<Object> version = new ArrayList<Object>(Arrays.asList(header.rows.get(0)));
+        version.addAll(Arrays.asList(children.rows.get(0)));
+
+        RepositoryObject object;
+        synchronized (objects) {
+            object = objects.get(key);
+        }
+        if (object != null && version.equals(object.version)) {
+            hits.incrementAndGet();
+            return object;
+        }
+        misses.incrementAndGet();
+
+        object = new RepositoryObject(version);
+        object.tables.put(objectTable, header);
+        for (String childTable : childTables) {
+            object.tables.put(childTable, query(database, "SELECT * FROM " + table(database, childTable) + where));
+        }
+        object.tables.put("R_NOTE", query(database, "SELECT * FROM " + table(database, "R_NOTE") + " WHERE "
+                + databaseMeta.quoteField("ID_NOTE") + " IN (SELECT " + databaseMeta.quoteField("ID_NOTE") + " FROM "
+                + table(database, noteLinkTable) + where + ")"));
+        synchronized (objects) {
+            objects.put(key, object);
+        }
+        return object;
+    }
+
+    private Map<String, RepositoryObject> getObjects(DatabaseMeta databaseMeta) {
+        String connectionKey = KbaseDatabaseMeta.getConnectionKey(databaseMeta);
+        Map<String, RepositoryObject> objects = connections.get(connectionKey);
+        if (objects == null) {
+            Map<String, RepositoryObject> created = new LinkedHashMap<String, RepositoryObject>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, RepositoryObject> eldest) {
+                    return size() > MAX_OBJECTS;
+                }
+            };
+            objects = connections.putIfAbsent(connectionKey, created);
+            if (objects == null) {
+                objects = created;
+            }
+        }
+        return objects;
+    }
+
+    private static String table(Database database, String tableName) {
+        return database.getDatabaseMeta().getQuotedSchemaTableCombination(null, tableName);
+    }
+
+    private Rows query(Database database, String sql) throws KettleDatabaseException {
+        queries.incrementAndGet();
+        ResultSet res = database.openQuery(sql);
+        try {
+            RowMetaInterface rowMeta = database.getReturnRowMeta();
+            List<Object[]> rows = new ArrayList<Object[]>();
+            Object[] row = database.getRow(res);
+            while (row != null) {
+                rows.add(row);
+                row = database.getRow(res);
+            }
+            return new Rows(rowMeta, rows);
+        } finally {
+            database.closeQuery(res);
+        }
+    }
+
+    /**
+     * 一张资源库表的若干行
+     * <p>
+     * The rows are shared by every reader of the cached object, so {@link #getRows()} and
+     * {@link #getRows(String, Object)} hand out copies of the row arrays; the row metadata is read-only.
+     */
+    public static class Rows {
+        private final RowMetaInterface rowMeta;
+        private final List<Object[]> rows;
+
+        Rows(RowMetaInterface rowMeta, List<Object[]> rows) {
+            this.rowMeta = rowMeta;
+            this.rows = rows;
+        }
+
+        public RowMetaInterface getRowMeta() {
+            return rowMeta;
+        }
+
+        /**
+         * @return copies of the rows
+         */
+        public List<Object[]> getRows() {
+            List<Object[]> copies = new ArrayList<Object[]>(rows.size());
+            for (Object[] row : rows) {
+                copies.add(row.clone());
+            }
+            return copies;
+        }
+
+        /**
+         * @return the number of rows
+         */
+        public int size() {
+            return rows.size();
+        }
+
+        /**
+         * @return the value of a column in a row, null if the table has no such column
+         */
+        public Object getValue(int rowNr, String column) {
+            int index = rowMeta.indexOfValue(column);
+            return index < 0 ? null : rows.get(rowNr)[index];
+        }
+
+        /**
+         * 按字段值筛选行，例如某个步骤的全部属性
+         *
+         * @param column the column to match, e.g. ID_STEP
+         * @param value  the value to match
+         * @return copies of the matching rows
+         */
+        public List<Object[]> getRows(String column, Object value) {
+            int index = rowMeta.indexOfValue(column);
+            List<Object[]> matches = new ArrayList<Object[]>();
+            if (index < 0) {
+                return matches;
+            }
+            for (Object[] row : rows) {
+                if (value == null ? row[index] == null : value.equals(row[index])) {
+                    matches.add(row.clone());
+                }
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * 一个转换或作业的全部资源库行
+     */
+    public static class RepositoryObject {
+        private final Object version;
+        private final Map<String, Rows> tables = new HashMap<String, Rows>();
+
+        RepositoryObject(Object version) {
+            this.version = version;
+        }
+
+        /**
+         * @return the header row values and the child count and highest child id the rows were read for
+         */
+        public Object getVersion() {
+            return version;
+        }
+
+        /**
+         * @param tableName a repository table, e.g. R_STEP_ATTRIBUTE
+         * @return the rows of the object in the table, null if the table isn't part of the object
+         */
+        public Rows getTable(String tableName) {
+            return tables.get(tableName);
+        }
+    }
+}
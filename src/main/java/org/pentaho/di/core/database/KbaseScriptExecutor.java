@@ -0,0 +1,250 @@
+package org.pentaho.di.core.database;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.util.Utils;
+
+/**
+ * Kbase脚本执行
+ * 用{@link KbaseDatabaseMeta#createSqlScriptParser()}拆分脚本，把相邻的同类语句(DML或DDL)合并为JDBC批处理提交，
+ * 其它语句(查询、LOCK等)单独执行并作为批次的分界，语句的执行顺序与脚本一致。
+ * <p>
+ * A failing statement doesn't stop the script: it is recorded as a {@link Failure} and the rest of the script is
+ * executed, unless the executor stops on the first error. When a driver stops a batch at a failure, the statements
+ * it didn't report update counts for are run one at a time: statements with an update count are never submitted
+ * again and a failure is only recorded for the statement that actually failed. After executing DDL the connection's
+ * table metadata is dropped from Kettle's {@link DBCache} and {@link KbaseIndexCatalog} is refreshed.
+ */
+public class KbaseScriptExecutor {
+
+    private enum Kind {
+        DML, DDL, SINGLE
+    }
+
+    /**
+     * 执行失败的语句
+     */
+    public static class Failure {
+        private final int index;
+        private final String sql;
+        private final SQLException exception;
+
+        Failure(int index, String sql, SQLException exception) {
+            this.index = index;
+            this.sql = sql;
+            this.exception = exception;
+        }
+
+        /**
+         * @return the 0 based position of the statement in the script
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public SQLException getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return "Statement " + (index + 1) + " [" + sql + "] failed: " + exception.getMessage();
+        }
+    }
+
+    private final Database database;
+    private final int batchSize;
+    private final boolean stopOnError;
+
+    private final List<Failure> failures = new ArrayList<Failure>();
+    private long statements;
+    private long roundTrips;
+    private long rowsAffected;
+
+    /**
+     * @param database    a connected Kbase database
+     * @param stopOnError true to throw on the first failing statement
+     */
+    public KbaseScriptExecutor(Database database, boolean stopOnError) {
+        this.database = database;
+        this.batchSize = Math.max(1, ((KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface())
+                .getBatchSize());
+        this.stopOnError = stopOnError;
+    }
+
+    /**
+     * 执行脚本
+     *
+     * @param script the SQL script, statements separated by semicolons
+     * @return the statements of this call that failed, empty if all succeeded
+     * @throws KettleDatabaseException if stopping on errors and a statement failed
+     */
+    public List<Failure> execute(String script) throws KettleDatabaseException {
+        List<String> sqls = database.getDatabaseMeta().getDatabaseInterface().createSqlScriptParser().split(script);
+        return execute(sqls);
+    }
+
+    /**
+     * 按顺序执行语句
+     *
+     * @param sqls the statements, e.g. generated DDL
+     * @return the statements of this call that failed, empty if all succeeded
+     * @throws KettleDatabaseException if stopping on errors and a statement failed
+     */
+    public List<Failure> execute(List<String> sqls) throws KettleDatabaseException {
+        Statement statement = null;
+        boolean ddlExecuted = false;
+        List<Failure> scriptFailures = new ArrayList<Failure>();
+        try {
+            statement = database.getConnection().createStatement();
+            int start = 0;
+            while (start < sqls.size()) {
+                Kind kind = classify(sqls.get(start));
+                int end = start + 1;
+                if (kind != Kind.SINGLE) {
+                    while (end < sqls.size() && end - start < batchSize && classify(sqls.get(end)) == kind) {
+                        end++;
+                    }
+                }
+                if (kind == Kind.DDL) {
+                    ddlExecuted = true;
+                }
+                if (end - start == 1) {
+                    executeSingle(statement, sqls, start, scriptFailures);
+                } else {
+                    executeBatch(statement, sqls, start, end, scriptFailures);
+                }
+                start = end;
+            }
+        } catch (SQLException e) {
+            throw new KettleDatabaseException("Unable to execute script", e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
+            if (ddlExecuted) {
+                DBCache.getInstance().clear(database.getDatabaseMeta().getName());
+                KbaseIndexCatalog.getInstance().refresh(database.getDatabaseMeta());
+            }
+        }
+        return Collections.unmodifiableList(scriptFailures);
+    }
+
+    private void executeSingle(Statement statement, List<String> sqls, int index, List<Failure> scriptFailures)
+            throws KettleDatabaseException {
+        roundTrips++;
+        statements++;
+        try {
+            if (!statement.execute(sqls.get(index))) {
+                rowsAffected += Math.max(0, statement.getUpdateCount());
+            }
+        } catch (SQLException e) {
+            fail(index, sqls.get(index), e, scriptFailures);
+        }
+    }
+
+    /**
+     * 提交一个批次；驱动在出错处停止时，没有返回更新计数的语句逐条执行，不重复提交已执行的语句
+     */
+    private void executeBatch(Statement statement, List<String> sqls, int start, int end,
+                              List<Failure> scriptFailures) throws SQLException, KettleDatabaseException {
+        statement.clearBatch();
+        for (int i = start; i < end; i++) {
+            statement.addBatch(sqls.get(i));
+        }
+        roundTrips++;
+        try {
+            addCounts(statement.executeBatch(), sqls, start, null, scriptFailures);
+            statements += end - start;
+        } catch (BatchUpdateException e) {
+            int[] counts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+            addCounts(counts, sqls, start, e, scriptFailures);
+            int executed = Math.min(counts.length, end - start);
+            statements += executed;
+            // 驱动没有说明哪条语句失败(或没有返回计数)，其余语句逐条执行以确定失败的语句
+            for (int i = start + executed; i < end; i++) {
+                executeSingle(statement, sqls, i, scriptFailures);
+            }
+        }
+    }
+
+    private void addCounts(int[] counts, List<String> sqls, int start, BatchUpdateException e,
+                           List<Failure> scriptFailures) throws KettleDatabaseException {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == Statement.EXECUTE_FAILED) {
+                fail(start + i, sqls.get(start + i), e, scriptFailures);
+            } else if (counts[i] > 0) {
+                rowsAffected += counts[i];
+            }
+        }
+    }
+
+    private void fail(int index, String sql, SQLException e, List<Failure> scriptFailures)
+            throws KettleDatabaseException {
+        Failure failure = new Failure(index, sql, e);
+        scriptFailures.add(failure);
+        failures.add(failure);
+        if (stopOnError) {
+            throw new KettleDatabaseException(failure.toString(), e);
+        }
+    }
+
+    private static Kind classify(String sql) {
+        String trimmed = sql.trim();
+        int end = 0;
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+            end++;
+        }
+        String keyword = trimmed.substring(0, end).toUpperCase(Locale.ROOT);
+        if (Utils.isEmpty(keyword)) {
+            return Kind.SINGLE;
+        }
+        if (keyword.equals("INSERT") || keyword.equals("UPDATE") || keyword.equals("DELETE")
+                || keyword.equals("REPLACE")) {
+            return Kind.DML;
+        }
+        if (keyword.equals("CREATE") || keyword.equals("ALTER") || keyword.equals("DROP")
+                || keyword.equals("PACK")) {
+            return Kind.DDL;
+        }
+        return Kind.SINGLE;
+    }
+
+    /**
+     * @return the failures of every script executed so far, each index relative to its own script
+     */
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    public long getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return the number of submissions to the server, less than {@link #getStatements()} when batching paid off
+     */
+    public long getRoundTrips() {
+        return roundTrips;
+    }
+
+    public long getRowsAffected() {
+        return rowsAffected;
+    }
+}
@@ -0,0 +1,323 @@
+package org.pentaho.di.core.database;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Kbase连接统计
+ * 按语句类型记录耗时直方图、读写行数、批次大小、提交次数和慢语句样本，并注册为JMX MBean
+ * (<code>org.pentaho.di.core.database:type=KbaseStatistics,url=...</code>)。
+ * <p>
+ * Statistics are collected by {@link KbaseInstrumentedDriver}, which is only used when instrumentation is switched
+ * on for the connection, so there is no overhead otherwise. The counters are cumulative per URL. Every instrumented
+ * connection also counts in statistics of its own ({@link #newConnectionStatistics()}), which the driver logs at
+ * detailed level when the connection is closed. A {@link #reset()} concurrent with recording may lose or
+ * keep the calls in flight, but never loses later ones.
+ */
+public class KbaseStatistics implements KbaseStatisticsMBean {
+
+    /**
+     * 语句类型
+     */
+    public enum Kind {
+        CONNECT, PREPARE, EXECUTE, FETCH, COMMIT, ROLLBACK
+    }
+
+    private static final int BUCKETS = 32;
+    private static final int SLOW_SAMPLES = 32;
+    private static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 1000;
+
+    private static final ConcurrentHashMap<String, KbaseStatistics> STATISTICS =
+            new ConcurrentHashMap<String, KbaseStatistics>();
+
+    private final String url;
+    private final KbaseStatistics parent;
+    private final Histogram[] histograms = new Histogram[Kind.values().length];
+    private final AtomicLong statements = new AtomicLong();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedRows = new AtomicLong();
+
+    private final String[] slowStatements = new String[SLOW_SAMPLES];
+    private int nextSlowStatement;
+    private volatile long slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MILLIS * 1000000L;
+
+    /**
+     * 获取URL对应的统计对象，第一次使用时注册到JMX
+     *
+     * @param url the JDBC URL of the Kbase server
+     * @return the statistics of the URL
+     */
+    public static KbaseStatistics getStatistics(String url) {
+        KbaseStatistics statistics = STATISTICS.get(url);
+        if (statistics == null) {
+            KbaseStatistics created = new KbaseStatistics(url, null);
+            statistics = STATISTICS.putIfAbsent(url, created);
+            if (statistics == null) {
+                statistics = created;
+                created.register();
+            }
+        }
+        return statistics;
+    }
+
+    private KbaseStatistics(String url, KbaseStatistics parent) {
+        this.url = url;
+        this.parent = parent;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * 单个连接的统计，记录的数据同时计入本对象；不注册到JMX
+     *
+     * @return statistics starting at zero for one connection to this URL
+     */
+    public KbaseStatistics newConnectionStatistics() {
+        return new KbaseStatistics(url, this);
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.pentaho.di.core.database:type=KbaseStatistics,url="
+                    + ObjectName.quote(url));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            LogChannel.GENERAL.logDetailed("Unable to register Kbase statistics for [" + url + "] with JMX: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一次调用的耗时，执行类语句超过阈值时保存SQL样本
+     *
+     * @param kind  the kind of call
+     * @param nanos the elapsed time
+     * @param sql   the statement text, may be null
+     */
+    public void record(Kind kind, long nanos, String sql) {
+        if (parent != null) {
+            parent.record(kind, nanos, sql);
+        }
+        histograms[kind.ordinal()].add(nanos);
+        if (kind == Kind.EXECUTE) {
+            statements.incrementAndGet();
+        }
+        if (nanos >= slowThresholdNanos && sql != null) {
+            String sample = kind + " " + nanos / 1000000L + "ms: " + sql;
+            synchronized (slowStatements) {
+                slowStatements[nextSlowStatement] = sample;
+                nextSlowStatement = (nextSlowStatement + 1) % SLOW_SAMPLES;
+            }
+        }
+    }
+
+    public void addRowsRead(long rows) {
+        if (parent != null) {
+            parent.addRowsRead(rows);
+        }
+        rowsRead.addAndGet(rows);
+    }
+
+    public void addRowsWritten(long rows) {
+        if (parent != null) {
+            parent.addRowsWritten(rows);
+        }
+        rowsWritten.addAndGet(rows);
+    }
+
+    public void addBatch(int size) {
+        if (parent != null) {
+            parent.addBatch(size);
+        }
+        batches.incrementAndGet();
+        batchedRows.addAndGet(size);
+    }
+
+    /**
+     * 把统计摘要写入日志，{@link KbaseInstrumentedDriver} 在连接关闭(步骤结束断开连接)时调用
+     * <p>
+     * Nothing is logged below detailed level; latency histograms are only logged at debug level.
+     *
+     * @param log the step or job log
+     */
+    public void logSummary(LogChannelInterface log) {
+        if (!log.isDetailed()) {
+            return;
+        }
+        log.logDetailed(getSummary());
+        for (String slow : getSlowStatements()) {
+            log.logDetailed("Slow " + slow);
+        }
+        if (log.isDebug()) {
+            for (String histogram : getLatencyHistograms()) {
+                log.logDebug(histogram);
+            }
+        }
+    }
+
+    /**
+     * @return a one line summary of the counters
+     */
+    String getSummary() {
+        return "Kbase statistics for " + (parent != null ? "connection to " : "") + url + ": statements="
+                + statements.get() + ", rowsRead=" + rowsRead.get() + ", rowsWritten=" + rowsWritten.get()
+                + ", batches=" + batches.get() + ", batchedRows=" + batchedRows.get() + ", commits=" + getCommits();
+    }
+
+    @Override
+    public String getURL() {
+        return url;
+    }
+
+    @Override
+    public long getConnects() {
+        return histograms[Kind.CONNECT.ordinal()].count.get();
+    }
+
+    @Override
+    public long getStatements() {
+        return statements.get();
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public long getBatchedRows() {
+        return batchedRows.get();
+    }
+
+    @Override
+    public long getCommits() {
+        return histograms[Kind.COMMIT.ordinal()].count.get();
+    }
+
+    @Override
+    public String[] getLatencyHistograms() {
+        Kind[] kinds = Kind.values();
+        String[] result = new String[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            result[i] = kinds[i] + " " + histograms[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getSlowStatements() {
+        List<String> result = new ArrayList<String>(SLOW_SAMPLES);
+        synchronized (slowStatements) {
+            for (int i = 0; i < SLOW_SAMPLES; i++) {
+                String sample = slowStatements[(nextSlowStatement + i) % SLOW_SAMPLES];
+                if (sample != null) {
+                    result.add(sample);
+                }
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public long getSlowStatementThresholdMillis() {
+        return slowThresholdNanos / 1000000L;
+    }
+
+    @Override
+    public void setSlowStatementThresholdMillis(long millis) {
+        slowThresholdNanos = millis * 1000000L;
+    }
+
+    @Override
+    public void reset() {
+        // 直方图原地清零，不替换数组元素，与并发的 record 不存在可见性问题
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        statements.set(0);
+        rowsRead.set(0);
+        rowsWritten.set(0);
+        batches.set(0);
+        batchedRows.set(0);
+        synchronized (slowStatements) {
+            for (int i = 0; i < SLOW_SAMPLES; i++) {
+                slowStatements[i] = null;
+            }
+        }
+    }
+
+    /**
+     * 耗时直方图，第i个桶统计 [2^(i-1), 2^i) 微秒的调用
+     */
+    private static class Histogram {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private void add(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            long micros = nanos / 1000L;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+        }
+
+        private void reset() {
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        @Override
+        public String toString() {
+            long n = count.get();
+            StringBuilder text = new StringBuilder(128);
+            text.append("count=").append(n).append(", totalMs=").append(totalNanos.get() / 1000000L)
+                    .append(", avgUs=").append(n == 0 ? 0 : totalNanos.get() / n / 1000L)
+                    .append(", maxUs=").append(maxNanos.get() / 1000L).append(", histogramUs={");
+            boolean first = true;
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = buckets.get(i);
+                if (c > 0) {
+                    text.append(first ? "" : ", ").append("<").append(1L << i).append('=').append(c);
+                    first = false;
+                }
+            }
+            return text.append('}').toString();
+        }
+    }
+}
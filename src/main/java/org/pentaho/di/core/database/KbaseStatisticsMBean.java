@@ -0,0 +1,42 @@
+package org.pentaho.di.core.database;
+
+/**
+ * Kbase连接统计的JMX接口
+ */
+public interface KbaseStatisticsMBean {
+
+    /**
+     * @return the JDBC URL the statistics are collected for
+     */
+    String getURL();
+
+    long getConnects();
+
+    long getStatements();
+
+    long getRowsRead();
+
+    long getRowsWritten();
+
+    long getBatches();
+
+    long getBatchedRows();
+
+    long getCommits();
+
+    /**
+     * @return per statement kind: count, total/average/max time and the latency histogram (power of 2 microseconds)
+     */
+    String[] getLatencyHistograms();
+
+    /**
+     * @return the most recent statements slower than the threshold, with their duration and SQL
+     */
+    String[] getSlowStatements();
+
+    long getSlowStatementThresholdMillis();
+
+    void setSlowStatementThresholdMillis(long millis);
+
+    void reset();
+}
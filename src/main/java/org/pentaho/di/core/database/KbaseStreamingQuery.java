@@ -0,0 +1,132 @@
+package org.pentaho.di.core.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Kbase流式查询
+ * 使用只进、只读游标和固定的抓取条数逐行读取结果，内存占用与表的大小无关。
+ * <p>
+ * The result set is released as soon as the last row was read; call {@link #close()} to release it earlier,
+ * e.g. when the step is stopped.
+ */
+public class KbaseStreamingQuery {
+
+    private final Database database;
+    private final String sql;
+    private final RowMetaInterface rowMeta;
+    private final int fetchSize;
+
+    private Statement statement;
+    private ResultSet resultSet;
+    private long rowsRead;
+
+    /**
+     * @param database a connected Kbase database
+     * @param sql      the query to stream
+     * @param rowMeta  the layout of the rows returned by the query
+     */
+    public KbaseStreamingQuery(Database database, String sql, RowMetaInterface rowMeta) {
+        this.database = database;
+        this.sql = sql;
+        this.rowMeta = rowMeta;
+        this.fetchSize = ((KbaseDatabaseMeta) database.getDatabaseMeta().getDatabaseInterface()).getFetchSize();
+    }
+
+    /**
+     * 流式读取整张表，字段信息取自{@link KbaseDatabaseMeta#getTableFields(Database, String, String)}
+     *
+     * @param database   a connected Kbase database
+     * @param schemaName the schema, may be null
+     * @param tableName  the table to read
+     * @return an unopened streaming query over all rows of the table
+     * @throws KettleDatabaseException
+     */
+    public static KbaseStreamingQuery forTable(Database database, String schemaName, String tableName)
+            throws KettleDatabaseException {
+        RowMetaInterface fields = KbaseDatabaseMeta.getTableFields(database, schemaName, tableName);
+        String table = database.getDatabaseMeta().getQuotedSchemaTableCombination(schemaName, tableName);
+        return new KbaseStreamingQuery(database, "SELECT * FROM " + table, fields);
+    }
+
+    /**
+     * 打开只进只读游标
+     *
+     * @throws KettleDatabaseException
+     */
+    public void open() throws KettleDatabaseException {
+        try {
+            statement = database.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            }
+            statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+            resultSet = statement.executeQuery(sql);
+        } catch (SQLException e) {
+            close();
+            throw new KettleDatabaseException("Unable to open streaming query [" + sql + "]", e);
+        }
+    }
+
+    /**
+     * 读取下一行，读完后自动释放游标
+     *
+     * @return the next row or null if there are no more rows
+     * @throws KettleDatabaseException
+     */
+    public Object[] getRow() throws KettleDatabaseException {
+        if (resultSet == null) {
+            return null;
+        }
+        try {
+            if (!resultSet.next()) {
+                close();
+                return null;
+            }
+            DatabaseInterface databaseInterface = database.getDatabaseMeta().getDatabaseInterface();
+            Object[] row = new Object[rowMeta.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = rowMeta.getValueMeta(i).getValueFromResultSet(databaseInterface, resultSet, i);
+            }
+            rowsRead++;
+            return row;
+        } catch (SQLException e) {
+            close();
+            throw new KettleDatabaseException("Error reading row " + (rowsRead + 1) + " of query [" + sql + "]", e);
+        }
+    }
+
+    /**
+     * 释放结果集和语句
+     */
+    public void close() {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        }
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        }
+        resultSet = null;
+        statement = null;
+    }
+
+    public RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+}
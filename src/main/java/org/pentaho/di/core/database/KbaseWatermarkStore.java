@@ -0,0 +1,220 @@
+package org.pentaho.di.core.database;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Properties;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+
+/**
+ * Kbase增量抽取水位存储
+ * 每个 连接/表/字段 的最高水位保存在本地属性文件中(默认 ~/.kettle/kbase-watermarks.properties)，
+ * 先写临时文件再替换，写入中断不会损坏已有的水位。
+ * <p>
+ * Watermarks are timestamps (stored as <code>T:&lt;millis&gt;:&lt;nanos&gt;</code>, keeping the full fraction of
+ * the second), other dates (<code>D:&lt;millis&gt;</code>) or integer keys (<code>N:&lt;value&gt;</code>).
+ * Every read-modify-write holds an exclusive {@link FileLock} on <code>&lt;file&gt;.lock</code>, so jobs in other
+ * JVMs sharing the file don't overwrite each other's watermarks; the data file itself can't be locked because
+ * it is replaced on every save. Readers need no lock, they see either the old or the new file.
+ */
+public class KbaseWatermarkStore {
+
+    public static final String DEFAULT_FILE_NAME = "kbase-watermarks.properties";
+
+    /**
+     * 同一JVM中不能对同一文件重复加锁，文件锁之前先在进程内互斥
+     */
+    private static final Object WRITE_LOCK = new Object();
+
+    private static KbaseWatermarkStore defaultStore;
+
+    private final File file;
+    private final File lockFile;
+
+    /**
+     * @return the store in the Kettle directory
+     */
+    public static synchronized KbaseWatermarkStore getDefault() {
+        if (defaultStore == null) {
+            defaultStore = new KbaseWatermarkStore(new File(Const.getKettleDirectory(), DEFAULT_FILE_NAME));
+        }
+        return defaultStore;
+    }
+
+    /**
+     * @param file the properties file holding the watermarks
+     */
+    public KbaseWatermarkStore(File file) {
+        this.file = file;
+        this.lockFile = new File(file.getPath() + ".lock");
+    }
+
+    /**
+     * @return the key of a watermark
+     */
+    public static String getKey(DatabaseMeta databaseMeta, String tableName, String column) {
+        return KbaseDatabaseMeta.getConnectionKey(databaseMeta) + "/" + tableName + "/" + column;
+    }
+
+    /**
+     * 读取水位
+     *
+     * @param key the watermark key, see {@link #getKey(DatabaseMeta, String, String)}
+     * @return a {@link Timestamp}, a {@link Date}, a {@link Long} or null if nothing was extracted yet
+     * @throws KettleDatabaseException
+     */
+    public Object getWatermark(String key) throws KettleDatabaseException {
+        String value = load().getProperty(key);
+        if (value == null || value.length() < 3) {
+            return null;
+        }
+        try {
+            if (value.charAt(0) == 'T') {
+                int colon = value.indexOf(':', 2);
+                Timestamp timestamp = new Timestamp(Long.parseLong(value.substring(2, colon)));
+                timestamp.setNanos(Integer.parseInt(value.substring(colon + 1)));
+                return timestamp;
+            }
+            long number = Long.parseLong(value.substring(2));
+            return value.charAt(0) == 'D' ? new Date(number) : Long.valueOf(number);
+        } catch (RuntimeException e) {
+            throw new KettleDatabaseException("Invalid watermark [" + value + "] for [" + key + "] in " + file, e);
+        }
+    }
+
+    /**
+     * 保存水位，应在下游处理成功后调用
+     *
+     * @param key       the watermark key
+     * @param watermark a {@link Date} or a {@link Number}
+     * @throws KettleDatabaseException
+     */
+    public void setWatermark(String key, Object watermark) throws KettleDatabaseException {
+        String value;
+        if (watermark instanceof Timestamp) {
+            value = "T:" + ((Timestamp) watermark).getTime() + ":" + ((Timestamp) watermark).getNanos();
+        } else if (watermark instanceof Date) {
+            value = "D:" + ((Date) watermark).getTime();
+        } else {
+            value = "N:" + ((Number) watermark).longValue();
+        }
+        synchronized (WRITE_LOCK) {
+            FileLock lock = lock();
+            try {
+                Properties properties = load();
+                properties.setProperty(key, value);
+                save(properties);
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * 删除水位，下次抽取全表
+     *
+     * @param key the watermark key
+     * @throws KettleDatabaseException
+     */
+    public void reset(String key) throws KettleDatabaseException {
+        synchronized (WRITE_LOCK) {
+            FileLock lock = lock();
+            try {
+                Properties properties = load();
+                if (properties.remove(key) != null) {
+                    save(properties);
+                }
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * 对锁文件加排它锁，其他进程的写入在此等待
+     */
+    private FileLock lock() throws KettleDatabaseException {
+        FileChannel channel = null;
+        try {
+            lockFile.getAbsoluteFile().getParentFile().mkdirs();
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return channel.lock();
+        } catch (IOException e) {
+            close(channel);
+            throw new KettleDatabaseException("Unable to lock " + lockFile, e);
+        }
+    }
+
+    private static void release(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // closing the channel releases the lock too
+        }
+        close(lock.channel());
+    }
+
+    private Properties load() throws KettleDatabaseException {
+        Properties properties = new Properties();
+        if (!file.exists()) {
+            return properties;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+            return properties;
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to read watermarks from " + file, e);
+        } finally {
+            close(in);
+        }
+    }
+
+    private void save(Properties properties) throws KettleDatabaseException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        OutputStream out = null;
+        File temp = null;
+        try {
+            directory.mkdirs();
+            temp = File.createTempFile(file.getName(), ".tmp", directory);
+            out = new FileOutputStream(temp);
+            properties.store(out, "Kbase incremental extraction watermarks");
+            out.close();
+            out = null;
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException e) {
+            throw new KettleDatabaseException("Unable to write watermarks to " + file, e);
+        } finally {
+            close(out);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
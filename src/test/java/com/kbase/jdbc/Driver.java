@@ -0,0 +1,10 @@
+package com.kbase.jdbc;
+
+import org.pentaho.di.core.database.KbaseStandInDriver;
+
+/**
+ * 测试用的Kbase驱动名
+ * 让按 com.kbase.jdbc.Driver 加载驱动的代码(Database.connect、KbaseInstrumentedDriver)在测试中使用替身驱动。
+ */
+public class Driver extends KbaseStandInDriver {
+}
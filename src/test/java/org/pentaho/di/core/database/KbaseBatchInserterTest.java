@@ -0,0 +1,184 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KbaseBatchInserterTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+    private RowMetaInterface rowMeta;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseDatabaseMeta kbaseMeta = KbaseTestSupport.kbase(databaseMeta);
+        kbaseMeta.setBatchSize(100);
+        kbaseMeta.setBatchCommitSize(300);
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID BIGINT NOT NULL, NAME VARCHAR(5), PRIMARY KEY (ID))");
+        database = KbaseTestSupport.connect(databaseMeta);
+        rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("ID"));
+        rowMeta.addValueMeta(new ValueMetaString("NAME"));
+    }
+
+    @After
+    public void tearDown() {
+        database.disconnect();
+    }
+
+    @Test
+    public void writesJdbcBatches() throws Exception {
+        assertLoadsInBatches(false);
+    }
+
+    @Test
+    public void writesMultiRowInserts() throws Exception {
+        assertLoadsInBatches(true);
+    }
+
+    private void assertLoadsInBatches(boolean multiRowInsert) throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setMultiRowInsert(multiRowInsert);
+        long before = KbaseTestSupport.roundTrips(databaseMeta);
+
+        KbaseBatchInserter inserter = new KbaseBatchInserter(database, null, "TARGET", rowMeta, null);
+        for (long id = 1; id <= 1050; id++) {
+            inserter.addRow(new Object[]{id, "n" + (id % 100)});
+        }
+        inserter.close();
+
+        long roundTrips = KbaseTestSupport.roundTrips(databaseMeta) - before;
+        assertEquals(1050, inserter.getRowsWritten());
+        assertEquals(0, inserter.getRowsRejected());
+        assertEquals(1050, KbaseTestSupport.count(databaseMeta, "TARGET"));
+        // 11 batches with a savepoint each and 4 commits instead of 1050 single row inserts
+        assertTrue("round trips: " + roundTrips, roundTrips <= 30);
+    }
+
+    @Test
+    public void isolatesRejectedRows() throws Exception {
+        final List<Object[]> rejected = new ArrayList<Object[]>();
+        KbaseBatchInserter inserter = new KbaseBatchInserter(database, null, "TARGET", rowMeta,
+                new KbaseBatchInserter.RowErrorHandler() {
+                    @Override
+                    public void rowFailed(Object[] row, SQLException e) {
+                        rejected.add(row);
+                    }
+                });
+        for (long id = 1; id <= 250; id++) {
+            // every 37th name is too long for VARCHAR(5), id 200 is a duplicate of id 100
+            String name = id % 37 == 0 ? "too long" : "ok";
+            inserter.addRow(new Object[]{id == 200 ? 100L : id, name});
+        }
+        inserter.close();
+
+        assertEquals(7, rejected.size());
+        assertEquals(7, inserter.getRowsRejected());
+        assertEquals(243, inserter.getRowsWritten());
+        assertEquals(243, KbaseTestSupport.count(databaseMeta, "TARGET"));
+        for (Object[] row : rejected) {
+            long id = (Long) row[0];
+            assertTrue("unexpected reject " + id, id % 37 == 0 || (id == 100 && "ok".equals(row[1])));
+        }
+    }
+
+    @Test
+    public void failsWithoutErrorHandler() throws Exception {
+        KbaseBatchInserter inserter = new KbaseBatchInserter(database, null, "TARGET", rowMeta, null);
+        for (long id = 1; id <= 300; id++) {
+            inserter.addRow(new Object[]{id, "ok"});
+        }
+        try {
+            for (long id = 301; id <= 400; id++) {
+                inserter.addRow(new Object[]{id, id == 350 ? "too long" : "ok"});
+            }
+            fail("the bad row was accepted");
+        } catch (KettleDatabaseException e) {
+            // expected
+        }
+        database.disconnect();
+        // the committed rows stay, the failed batch is rolled back completely
+        assertEquals(300, KbaseTestSupport.count(databaseMeta, "TARGET"));
+    }
+
+    @Test
+    public void conversionErrorDropsTheWholeBatch() throws Exception {
+        assertConversionErrorDropsTheBatch(false);
+    }
+
+    @Test
+    public void conversionErrorDropsTheWholeMultiRowInsert() throws Exception {
+        assertConversionErrorDropsTheBatch(true);
+    }
+
+    private void assertConversionErrorDropsTheBatch(boolean multiRowInsert) throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setMultiRowInsert(multiRowInsert);
+        RowMetaInterface failing = new RowMeta();
+        failing.addValueMeta(new ValueMetaInteger("ID"));
+        failing.addValueMeta(new ValueMetaString("NAME") {
+            @Override
+            public void setPreparedStatementValue(DatabaseMeta databaseMeta, PreparedStatement preparedStatement,
+                                                  int index, Object data) throws KettleDatabaseException {
+                if ("bad".equals(data)) {
+                    throw new KettleDatabaseException("Unable to convert [" + data + "]");
+                }
+                super.setPreparedStatementValue(databaseMeta, preparedStatement, index, data);
+            }
+        });
+        KbaseBatchInserter inserter = new KbaseBatchInserter(database, null, "TARGET", failing, null);
+        try {
+            for (long id = 1; id <= 100; id++) {
+                inserter.addRow(new Object[]{id, id == 50 ? "bad" : "ok"});
+            }
+            fail("the conversion error was ignored");
+        } catch (KettleDatabaseException e) {
+            // expected
+        }
+        assertEquals(0, inserter.getRowsWritten());
+
+        // 出错的批次既不在JDBC批处理中，也不在缓冲区中
+        inserter.addRow(new Object[]{101L, "ok"});
+        inserter.flush();
+        inserter.close();
+        assertEquals(1, inserter.getRowsWritten());
+        assertEquals(1, KbaseTestSupport.count(databaseMeta, "TARGET"));
+    }
+
+    @Test
+    public void leavesTransactionToCallerWhenDeferred() throws Exception {
+        database.getConnection().setAutoCommit(false);
+        KbaseBatchInserter inserter = new KbaseBatchInserter(database, null, "TARGET", rowMeta, null, true);
+        for (long id = 1; id <= 500; id++) {
+            inserter.addRow(new Object[]{id, "ok"});
+        }
+        inserter.close();
+        assertEquals(500, inserter.getRowsWritten());
+        assertTrue(!database.getConnection().getAutoCommit());
+
+        database.getConnection().rollback();
+        assertEquals(0, KbaseTestSupport.count(databaseMeta, "TARGET"));
+    }
+}
@@ -0,0 +1,86 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KbaseBatchedLookupTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.kbase(databaseMeta).setMaxInListSize(10);
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE CUSTOMERS (ID BIGINT, NAME VARCHAR(20))");
+        StringBuilder insert = new StringBuilder("INSERT INTO CUSTOMERS VALUES ");
+        for (int id = 1; id <= 100; id++) {
+            insert.append(id > 1 ? ", " : "").append('(').append(id).append(", 'C").append(id).append("')");
+        }
+        KbaseTestSupport.execute(databaseMeta, insert.toString());
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        DBCache.getInstance().clear(databaseMeta.getName());
+        database.disconnect();
+    }
+
+    @Test
+    public void looksUpPrefetchedKeysInOneQuery() throws Exception {
+        KbaseBatchedLookup lookup = newLookup(100);
+        for (long id = 1; id <= 10; id++) {
+            lookup.prefetch(id);
+        }
+        for (long id = 1; id <= 10; id++) {
+            assertEquals("C" + id, lookup.get(id)[0]);
+        }
+        assertEquals(1, lookup.getQueries());
+        assertNull(lookup.get(1000));
+        lookup.close();
+    }
+
+    @Test
+    public void cacheSmallerThanInListNeverReportsFalseMisses() throws Exception {
+        KbaseBatchedLookup lookup = newLookup(2);
+        for (long id = 1; id <= 5; id++) {
+            lookup.prefetch(id);
+        }
+        assertEquals("C1", lookup.get(1)[0]);
+        for (long id = 1; id <= 25; id++) {
+            lookup.prefetch(id);
+            assertEquals("C" + id, lookup.get(id)[0]);
+        }
+        for (long id = 1; id <= 10; id++) {
+            assertEquals("C" + id, lookup.get(id)[0]);
+        }
+        lookup.close();
+    }
+
+    @Test
+    public void preloadsSmallTables() throws Exception {
+        KbaseBatchedLookup lookup = newLookup(1000);
+        assertEquals(true, lookup.preload());
+        assertEquals("C42", lookup.get(42)[0]);
+        assertNull(lookup.get(1000));
+        assertEquals(0, lookup.getQueries());
+    }
+
+    private KbaseBatchedLookup newLookup(int cacheSize) throws Exception {
+        return new KbaseBatchedLookup(database, null, "CUSTOMERS", "ID", new String[]{"NAME"}, cacheSize);
+    }
+}
@@ -0,0 +1,197 @@
+package org.pentaho.di.core.database;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 简单的基准测试工具：预热后多次测量，结果追加到CSV文件
+ * <p>
+ * The harness only compares code paths of this plugin with each other on the same JVM and machine, e.g. a JDBC batch
+ * against per-row inserts over the stand-in driver; its numbers are not absolute or statistically rigorous figures.
+ * JMH is not used because it would need a separate benchmark module and annotation processing under the
+ * pentaho-ce-jar-parent-pom build, while this harness runs as an ordinary, opt-in test of the plugin jar.
+ * There is no forking, and results a benchmark body computes should go to
+ * {@link #consume(long)} so the JIT can't drop the work. Allocation per operation comes from the HotSpot thread
+ * allocation counter and is -1 on VMs without it; garbage collections and their time are summed over all collectors
+ * for the measured runs. Results are appended to {@value #OUTPUT_PROPERTY}
+ * (default <code>target/kbase-benchmarks.csv</code>) as <code>suite,benchmark,parameters,iterations,operations,ns_per_op,ops_per_s,p50_ns_per_op,max_ns_per_op,
+ * bytes_per_op,gc_count,gc_ms</code> so runs of different builds can be diffed.
+ */
+final class KbaseBenchmark {
+
+    static final String OUTPUT_PROPERTY = "kbase.benchmark.output";
+
+    private static final String HEADER = "suite,benchmark,parameters,iterations,operations,ns_per_op,ops_per_s,"
+            + "p50_ns_per_op,max_ns_per_op,bytes_per_op,gc_count,gc_ms";
+
+    /**
+     * 一次测量的内容
+     */
+    interface Body {
+        /**
+         * @return the number of operations performed, e.g. rows inserted
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * 一个基准的结果
+     */
+    static final class Result {
+        final String name;
+        final String parameters;
+        final int iterations;
+        final long operations;
+        final double nanosPerOp;
+        final double p50NanosPerOp;
+        final double maxNanosPerOp;
+        final double bytesPerOp;
+        final long gcCount;
+        final long gcMillis;
+
+        private Result(String name, String parameters, int iterations, long operations, double nanosPerOp,
+                       double p50NanosPerOp, double maxNanosPerOp, double bytesPerOp, long gcCount, long gcMillis) {
+            this.name = name;
+            this.parameters = parameters;
+            this.iterations = iterations;
+            this.operations = operations;
+            this.nanosPerOp = nanosPerOp;
+            this.p50NanosPerOp = p50NanosPerOp;
+            this.maxNanosPerOp = maxNanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        double getOpsPerSecond() {
+            return 1e9 / nanosPerOp;
+        }
+    }
+
+    private static volatile long sink;
+
+    private final String suite;
+    private final int warmups;
+    private final int iterations;
+    private final List<Result> results = new ArrayList<Result>();
+    private final com.sun.management.ThreadMXBean allocations;
+
+    /**
+     * @param suite      the name of the suite, the first CSV column
+     * @param warmups    the number of unmeasured runs before measuring
+     * @param iterations the number of measured runs
+     */
+    KbaseBenchmark(String suite, int warmups, int iterations) {
+        this.suite = suite;
+        this.warmups = warmups;
+        this.iterations = iterations;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        this.allocations = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        if (allocations != null) {
+            allocations.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /**
+     * 预热后测量
+     *
+     * @param name       the benchmark name
+     * @param parameters the parameters, e.g. <code>rows=2000 latencyMicros=100</code>
+     * @param body       the measured work
+     * @return the result, also kept for {@link #write()}
+     */
+    Result measure(String name, String parameters, Body body) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            body.run();
+        }
+        double[] nanosPerOp = new double[iterations];
+        long totalOperations = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        long threadId = Thread.currentThread().getId();
+        long[] gc = gcTotals();
+        for (int i = 0; i < iterations; i++) {
+            long bytes = allocations == null ? 0 : allocations.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            long operations = Math.max(1, body.run());
+            long nanos = System.nanoTime() - start;
+            if (allocations != null) {
+                totalBytes += allocations.getThreadAllocatedBytes(threadId) - bytes;
+            }
+            nanosPerOp[i] = (double) nanos / operations;
+            totalOperations += operations;
+            totalNanos += nanos;
+        }
+        long[] gcAfter = gcTotals();
+        Arrays.sort(nanosPerOp);
+        Result result = new Result(name, parameters, iterations, totalOperations,
+                (double) totalNanos / totalOperations, nanosPerOp[iterations / 2], nanosPerOp[iterations - 1],
+                allocations == null ? -1 : (double) totalBytes / totalOperations, gcAfter[0] - gc[0],
+                gcAfter[1] - gc[1]);
+        results.add(result);
+        System.out.println(String.format(Locale.ROOT,
+                "%-14s %-28s %-32s %14.1f ns/op %14.1f ops/s %12.1f B/op %5d GCs %6d ms GC", suite, name,
+                parameters, result.nanosPerOp, result.getOpsPerSecond(), result.bytesPerOp, result.gcCount,
+                result.gcMillis));
+        return result;
+    }
+
+    /**
+     * @return the number of collections and the collection time in ms of all collectors so far
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**
+     * 保留计算结果，避免被JIT优化掉
+     */
+    static void consume(long value) {
+        sink += value;
+    }
+
+    /**
+     * 将结果追加到CSV文件，新文件先写表头
+     */
+    void write() throws IOException {
+        File file = new File(System.getProperty(OUTPUT_PROPERTY, "target/kbase-benchmarks.csv"));
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        boolean header = !file.exists() || file.length() == 0;
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                StandardCharsets.UTF_8));
+        try {
+            if (header) {
+                out.println(HEADER);
+            }
+            for (Result result : results) {
+                out.println(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d", suite,
+                        result.name, result.parameters, result.iterations, result.operations, result.nanosPerOp,
+                        result.getOpsPerSecond(), result.p50NanosPerOp, result.maxNanosPerOp, result.bytesPerOp,
+                        result.gcCount, result.gcMillis));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
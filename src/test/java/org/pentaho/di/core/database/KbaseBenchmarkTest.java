@@ -0,0 +1,483 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * 性能基准，只在 -Dkbase.benchmark=true 时运行：
+ * <pre>mvn test -Dtest=KbaseBenchmarkTest -Dkbase.benchmark=true</pre>
+ * Every suite runs against the stand-in driver, with a simulated round trip time where the network is what the
+ * optimization saves. Results are printed and appended to <code>target/kbase-benchmarks.csv</code>
+ * (see {@link KbaseBenchmark}). The numbers compare code paths on the same machine; they are not server figures.
+ */
+public class KbaseBenchmarkTest {
+
+    private static final String ENABLED_PROPERTY = "kbase.benchmark";
+
+    private static final int WARMUPS = Integer.getInteger("kbase.benchmark.warmups", 2);
+    private static final int ITERATIONS = Integer.getInteger("kbase.benchmark.iterations", 5);
+    private static final long LATENCY_MICROS = Long.getLong("kbase.benchmark.latencyMicros", 100L);
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        Assume.assumeTrue(Boolean.getBoolean(ENABLED_PROPERTY));
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        database.disconnect();
+        DBCache.getInstance().clear(databaseMeta.getName());
+    }
+
+    /**
+     * user-001: 逐行INSERT与JDBC批处理、多行INSERT的吞吐量
+     */
+    @Test
+    public void batchInsert() throws Exception {
+        final int rows = 2000;
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID BIGINT, NAME VARCHAR(40), AMOUNT NUMERIC(12, 2))");
+        Connection connection = KbaseTestSupport.openConnection(databaseMeta, LATENCY_MICROS);
+        database.setConnection(connection);
+        final RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("ID"));
+        rowMeta.addValueMeta(new ValueMetaString("NAME"));
+        rowMeta.addValueMeta(new ValueMetaBigNumber("AMOUNT"));
+        final AtomicLong nextId = new AtomicLong();
+        String parameters = "rows=" + rows + " latencyMicros=" + LATENCY_MICROS;
+        KbaseBenchmark benchmark = new KbaseBenchmark("batch-insert", WARMUPS, ITERATIONS);
+
+        final PreparedStatement perRow = connection.prepareStatement(
+                "INSERT INTO TARGET (ID, NAME, AMOUNT) VALUES (?, ?, ?)");
+        KbaseBenchmark.Result baseline = benchmark.measure("per-row", parameters, new KbaseBenchmark.Body() {
+            @Override
+            public long run() throws Exception {
+                // the path Table Output takes without batching: one executeUpdate per row, commit at the end
+                database.getConnection().setAutoCommit(false);
+                for (int i = 0; i < rows; i++) {
+                    long id = nextId.incrementAndGet();
+                    perRow.setLong(1, id);
+                    perRow.setString(2, "customer " + id);
+                    perRow.setBigDecimal(3, BigDecimal.valueOf(id, 2));
+                    perRow.executeUpdate();
+                }
+                database.getConnection().commit();
+                database.getConnection().setAutoCommit(true);
+                return rows;
+            }
+        });
+        perRow.close();
+
+        for (final boolean multiRowInsert : new boolean[]{false, true}) {
+            final KbaseDatabaseMeta kbaseMeta = KbaseTestSupport.kbase(databaseMeta);
+            kbaseMeta.setBatchSize(500);
+            kbaseMeta.setBatchCommitSize(5000);
+            kbaseMeta.setMultiRowInsert(multiRowInsert);
+            KbaseBenchmark.Result result = benchmark.measure(multiRowInsert ? "multi-row-insert" : "jdbc-batch",
+                    parameters + " batchSize=500", new KbaseBenchmark.Body() {
+                        @Override
+                        public long run() throws Exception {
+                            KbaseBatchInserter inserter = new KbaseBatchInserter(database, null, "TARGET", rowMeta,
+                                    null);
+                            for (int i = 0; i < rows; i++) {
+                                long id = nextId.incrementAndGet();
+                                inserter.addRow(new Object[]{id, "customer " + id, BigDecimal.valueOf(id, 2)});
+                            }
+                            inserter.close();
+                            return inserter.getRowsWritten();
+                        }
+                    });
+            assertFaster(baseline, result);
+        }
+        assertEquals(nextId.get(), KbaseTestSupport.count(databaseMeta, "TARGET"));
+        benchmark.write();
+    }
+
+    /**
+     * user-004: 插件扫描(类初始化并实例化)和没有本地库时首次连接的开销
+     */
+    @Test
+    public void nativeLoaderStartup() throws Exception {
+        KbaseBenchmark benchmark = new KbaseBenchmark("native-loader", WARMUPS, ITERATIONS);
+        final int scans = 20;
+        benchmark.measure("plugin-scan", "classLoaders=" + scans, new KbaseBenchmark.Body() {
+            @Override
+            public long run() throws Exception {
+                // a fresh class loader per scan runs the static initializers again, as a new Spoon/Pan JVM would
+                for (int i = 0; i < scans; i++) {
+                    Class<?> type = Class.forName(KbaseDatabaseMeta.class.getName(), true, new IsolatingClassLoader());
+                    assertFalse(type == KbaseDatabaseMeta.class);
+                    type.newInstance();
+                }
+                return scans;
+            }
+        });
+        final AtomicLong pathNr = new AtomicLong();
+        benchmark.measure("first-connect-no-native", "libraries=absent", new KbaseBenchmark.Body() {
+            @Override
+            public long run() {
+                // a path never tried before is probed, a failed path is only retried after a minute
+                assertFalse(KbaseNativeLoader.ensureLoaded("kbase-benchmark-missing-" + pathNr.incrementAndGet()));
+                return 1;
+            }
+        });
+        final int calls = 100000;
+        benchmark.measure("later-connects-no-native", "libraries=absent calls=" + calls, new KbaseBenchmark.Body() {
+            @Override
+            public long run() {
+                long loaded = 0;
+                for (int i = 0; i < calls; i++) {
+                    loaded += KbaseNativeLoader.ensureLoaded("kbase-benchmark-missing") ? 1 : 0;
+                }
+                KbaseBenchmark.consume(loaded);
+                return calls;
+            }
+        });
+        benchmark.write();
+    }
+
+    /**
+     * user-006: 按抽取条数流式读取大表，每次抽取一个网络往返
+     */
+    @Test
+    public void streamingFetch() throws Exception {
+        final int rows = 100000;
+        createWideTable("FACTS", rows);
+        KbaseBenchmark benchmark = new KbaseBenchmark("streaming-fetch", WARMUPS, ITERATIONS);
+        database.setConnection(KbaseTestSupport.openConnection(databaseMeta, LATENCY_MICROS));
+        for (final int fetchSize : new int[]{10, 100, 1000, 10000}) {
+            KbaseTestSupport.kbase(databaseMeta).setFetchSize(fetchSize);
+            benchmark.measure("fetch", "rows=" + rows + " fetchSize=" + fetchSize + " latencyMicros="
+                    + LATENCY_MICROS, new KbaseBenchmark.Body() {
+                @Override
+                public long run() throws Exception {
+                    KbaseStreamingQuery query = KbaseStreamingQuery.forTable(database, null, "FACTS");
+                    query.open();
+                    while (query.getRow() != null) {
+                        // drain
+                    }
+                    assertEquals(rows, query.getRowsRead());
+                    return query.getRowsRead();
+                }
+            });
+        }
+        benchmark.write();
+    }
+
+    /**
+     * user-008: 单次扫描的字符串引用与原来的三次正则替换；各种字段类型的DDL生成
+     */
+    @Test
+    public void quotingAndDdl() throws Exception {
+        final KbaseDatabaseMeta kbaseMeta = KbaseTestSupport.kbase(databaseMeta);
+        final String[] texts = {
+                "plain customer name",
+                "O'Brien's \"quoted\" remark",
+                "line one\nline two\r\nline three with 'quotes'\n",
+                "多行文本\n第二行'引号'\r\n第三行",
+        };
+        final int calls = 100000;
+        KbaseBenchmark benchmark = new KbaseBenchmark("quoting-ddl", WARMUPS, ITERATIONS);
+        KbaseBenchmark.Result regex = benchmark.measure("quote-regex-baseline", "calls=" + calls,
+                new KbaseBenchmark.Body() {
+                    @Override
+                    public long run() {
+                        long length = 0;
+                        for (int i = 0; i < calls; i++) {
+                            String text = texts[i % texts.length];
+                            length += ("'" + text.replaceAll("'", "''").replaceAll("\\n", "'||chr(13)||'")
+                                    .replaceAll("\\r", "'||chr(10)||'") + "'").length();
+                        }
+                        KbaseBenchmark.consume(length);
+                        return calls;
+                    }
+                });
+        KbaseBenchmark.Result quoted = benchmark.measure("quote-single-pass", "calls=" + calls,
+                new KbaseBenchmark.Body() {
+                    @Override
+                    public long run() {
+                        long length = 0;
+                        for (int i = 0; i < calls; i++) {
+                            length += kbaseMeta.quoteSQLString(texts[i % texts.length]).length();
+                        }
+                        KbaseBenchmark.consume(length);
+                        return calls;
+                    }
+                });
+        assertFaster(regex, quoted);
+
+        final ValueMetaInterface[] fields = {
+                new ValueMetaInteger("ID"), new ValueMetaInteger("QUANTITY", 9, 0), new ValueMetaString("NAME", 60, 0),
+                new ValueMetaString("NOTES"), new ValueMetaNumber("RATE", 10, 4), new ValueMetaBigNumber("TOTAL", 30, 2),
+                new ValueMetaDate("DAY"), new ValueMetaTimestamp("CHANGED"), new ValueMetaBoolean("ACTIVE"),
+                new ValueMetaBinary("PAYLOAD"),
+        };
+        benchmark.measure("field-definition", "types=" + fields.length + " calls=" + calls,
+                new KbaseBenchmark.Body() {
+                    @Override
+                    public long run() {
+                        long length = 0;
+                        for (int i = 0; i < calls; i++) {
+                            length += kbaseMeta.getFieldDefinition(fields[i % fields.length], "ID", null, false, true,
+                                    false).length();
+                        }
+                        KbaseBenchmark.consume(length);
+                        return calls;
+                    }
+                });
+        benchmark.measure("add-column", "calls=" + calls / 10, new KbaseBenchmark.Body() {
+            @Override
+            public long run() {
+                long length = 0;
+                for (int i = 0; i < calls / 10; i++) {
+                    length += kbaseMeta.getAddColumnStatement("FACTS", fields[i % fields.length], "ID", false, null,
+                            false).length();
+                }
+                KbaseBenchmark.consume(length);
+                return calls / 10;
+            }
+        });
+        benchmark.write();
+    }
+
+    /**
+     * user-018: NUMERIC字段按精度映射为 Integer/Number 与全部读为 BigNumber 的对比
+     * <p>
+     * The stand-in keeps NUMERIC values as BigDecimal and its proxies box primitive getters, so the read figures
+     * favour BigNumber more than a wire protocol driver would; the sort and sum figures are what steps downstream pay.
+     */
+    @Test
+    public void numericMapping() throws Exception {
+        final int rows = 50000;
+        createWideTable("FACTS", rows);
+        final String sql = "SELECT * FROM FACTS";
+        RowMetaInterface mapped = database.getQueryFields(sql + " WHERE 1=0", false);
+        RowMetaInterface bigNumbers = new RowMeta();
+        for (ValueMetaInterface field : mapped.getValueMetaList()) {
+            bigNumbers.addValueMeta(field.isNumeric()
+                    ? new ValueMetaBigNumber(field.getName(), field.getLength(), field.getPrecision()) : field.clone());
+        }
+        assertEquals(ValueMetaInterface.TYPE_INTEGER, mapped.getValueMeta(1).getType());
+        assertEquals(ValueMetaInterface.TYPE_NUMBER, mapped.getValueMeta(3).getType());
+
+        KbaseBenchmark benchmark = new KbaseBenchmark("numeric-mapping", WARMUPS, ITERATIONS);
+        String parameters = "rows=" + rows + " numericColumns=6";
+        for (RowMetaInterface rowMeta : new RowMetaInterface[]{bigNumbers, mapped}) {
+            String mapping = rowMeta == bigNumbers ? "all-bignumber" : "narrowest-type";
+            final List<Object[]> data = new ArrayList<Object[]>(rows);
+            benchmark.measure("read-" + mapping, parameters, read(sql, rowMeta, data));
+            benchmark.measure("sort-" + mapping, parameters, sort(rowMeta, data));
+            benchmark.measure("sum-" + mapping, parameters, sum(rowMeta, data));
+        }
+        benchmark.write();
+    }
+
+    private KbaseBenchmark.Body read(final String sql, final RowMetaInterface rowMeta, final List<Object[]> data) {
+        return new KbaseBenchmark.Body() {
+            @Override
+            public long run() throws Exception {
+                data.clear();
+                KbaseStreamingQuery query = new KbaseStreamingQuery(database, sql, rowMeta);
+                query.open();
+                Object[] row;
+                while ((row = query.getRow()) != null) {
+                    data.add(row);
+                }
+                return query.getRowsRead();
+            }
+        };
+    }
+
+    /**
+     * 按 PRICE, QUANTITY 排序，比较方式与排序步骤相同
+     */
+    private static KbaseBenchmark.Body sort(final RowMetaInterface rowMeta, final List<Object[]> data) {
+        final ValueMetaInterface price = rowMeta.getValueMeta(3);
+        final ValueMetaInterface quantity = rowMeta.getValueMeta(1);
+        return new KbaseBenchmark.Body() {
+            @Override
+            public long run() {
+                List<Object[]> rows = new ArrayList<Object[]>(data);
+                Collections.sort(rows, new Comparator<Object[]>() {
+                    @Override
+                    public int compare(Object[] a, Object[] b) {
+                        try {
+                            int compare = price.compare(a[3], b[3]);
+                            return compare != 0 ? compare : quantity.compare(a[1], b[1]);
+                        } catch (KettleValueException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+                KbaseBenchmark.consume(rows.size());
+                return rows.size();
+            }
+        };
+    }
+
+    /**
+     * 对所有数值字段求和，整数、浮点数和BigDecimal分别累加
+     */
+    private static KbaseBenchmark.Body sum(final RowMetaInterface rowMeta, final List<Object[]> data) {
+        return new KbaseBenchmark.Body() {
+            @Override
+            public long run() throws KettleValueException {
+                long integers = 0;
+                double numbers = 0;
+                BigDecimal bigNumbers = BigDecimal.ZERO;
+                for (Object[] row : data) {
+                    for (int i = 1; i <= 6; i++) {
+                        ValueMetaInterface field = rowMeta.getValueMeta(i);
+                        switch (field.getType()) {
+                            case ValueMetaInterface.TYPE_INTEGER:
+                                integers += field.getInteger(row[i]);
+                                break;
+                            case ValueMetaInterface.TYPE_NUMBER:
+                                numbers += field.getNumber(row[i]);
+                                break;
+                            default:
+                                bigNumbers = bigNumbers.add(field.getBigNumber(row[i]));
+                                break;
+                        }
+                    }
+                }
+                KbaseBenchmark.consume(integers + (long) numbers + bigNumbers.longValue());
+                return data.size();
+            }
+        };
+    }
+
+    /**
+     * 建一张有多个NUMERIC字段的事实表
+     */
+    private void createWideTable(String tableName, int rows) throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE " + tableName + " (ID BIGINT, QUANTITY NUMERIC(9, 0), "
+                + "UNITS NUMERIC(18, 0), PRICE NUMERIC(12, 2), DISCOUNT NUMERIC(5, 4), TOTAL NUMERIC(15, 2), "
+                + "TAX NUMERIC(12, 2), NAME VARCHAR(40))");
+        Connection connection = KbaseTestSupport.openConnection(databaseMeta, 0);
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO " + tableName
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            for (int id = 1; id <= rows; id++) {
+                insert.setLong(1, id);
+                insert.setLong(2, id % 1000);
+                insert.setLong(3, id * 7919L);
+                insert.setBigDecimal(4, BigDecimal.valueOf(id % 100000, 2));
+                insert.setBigDecimal(5, BigDecimal.valueOf(id % 10000, 4));
+                insert.setBigDecimal(6, BigDecimal.valueOf(id * 31L, 2));
+                insert.setBigDecimal(7, BigDecimal.valueOf(id % 9999, 2));
+                insert.setString(8, "item " + id);
+                insert.addBatch();
+                if (id % 1000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void assertFaster(KbaseBenchmark.Result baseline, KbaseBenchmark.Result result) {
+        if (result.nanosPerOp >= baseline.nanosPerOp) {
+            throw new AssertionError(result.name + " (" + result.nanosPerOp + " ns/op) is not faster than "
+                    + baseline.name + " (" + baseline.nanosPerOp + " ns/op)");
+        }
+    }
+
+    /**
+     * 重新加载插件类的类加载器，其它类仍由父加载器提供
+     */
+    private static final class IsolatingClassLoader extends ClassLoader {
+
+        IsolatingClassLoader() {
+            super(KbaseBenchmarkTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith("org.pentaho.di.core.database.Kbase")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null) {
+                    byte[] bytes = read(name.replace('.', '/') + ".class");
+                    type = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(type);
+                }
+                return type;
+            }
+        }
+
+        private byte[] read(String resource) throws ClassNotFoundException {
+            InputStream in = getParent().getResourceAsStream(resource);
+            if (in == null) {
+                throw new ClassNotFoundException(resource);
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    bytes.write(buffer, 0, read);
+                }
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(resource, e);
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KbaseBulkLoaderTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+    private File stagingDirectory;
+    private RowMetaInterface rowMeta;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        // 替身数据库不能导入文件，只记录装载的文件名
+        KbaseTestSupport.kbase(databaseMeta).setBulkLoadSQL("INSERT INTO LOADED (FILE_NAME) VALUES ({FILE})");
+        KbaseTestSupport.kbase(databaseMeta).setBulkFileSize(1024);
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE LOADED (FILE_NAME VARCHAR(500))");
+        database = KbaseTestSupport.connect(databaseMeta);
+        stagingDirectory = File.createTempFile("kbase_staging", "");
+        stagingDirectory.delete();
+        stagingDirectory.mkdir();
+        rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("ID"));
+        rowMeta.addValueMeta(new ValueMetaString("NAME"));
+    }
+
+    @After
+    public void tearDown() {
+        database.disconnect();
+        File[] files = stagingDirectory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        stagingDirectory.delete();
+    }
+
+    @Test
+    public void loadsEveryStagingFile() throws Exception {
+        KbaseBulkLoader loader = new KbaseBulkLoader(database, null, "TARGET", rowMeta, stagingDirectory, false);
+        loader.start();
+        addRows(loader, 500);
+        loader.close();
+
+        assertEquals(500, loader.getRowsWritten());
+        assertEquals(loader.getFilesLoaded(), KbaseTestSupport.count(databaseMeta, "LOADED"));
+        assertEquals(0, stagingDirectory.listFiles().length);
+    }
+
+    @Test
+    public void abortDeletesStagingFilesAndEndsTheLoaderThread() throws Exception {
+        KbaseBulkLoader loader = new KbaseBulkLoader(database, null, "TARGET", rowMeta, stagingDirectory, false);
+        loader.start();
+        addRows(loader, 100);
+        loader.abort();
+        loader.abort();
+
+        Thread loaderThread = findThread("Kbase bulk loader TARGET");
+        if (loaderThread != null) {
+            loaderThread.join(5000);
+            assertFalse(loaderThread.isAlive());
+        }
+        assertEquals(0, stagingDirectory.listFiles().length);
+        try {
+            loader.close();
+            fail("an aborted loader can't be closed");
+        } catch (KettleDatabaseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void requiresAConfiguredLoadStatement() throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).getAttributes().remove("KBASE_BULK_LOAD_SQL");
+        try {
+            new KbaseBulkLoader(database, null, "TARGET", rowMeta, stagingDirectory, false);
+            fail("a loader without import statement was created");
+        } catch (KettleDatabaseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("KBASE_BULK_LOAD_SQL"));
+        }
+    }
+
+    @Test
+    public void commitsEveryImportWithoutAutoCommit() throws Exception {
+        database.getConnection().setAutoCommit(false);
+        KbaseBulkLoader loader = new KbaseBulkLoader(database, null, "TARGET", rowMeta, stagingDirectory, false);
+        loader.start();
+        addRows(loader, 100);
+        loader.close();
+        database.getConnection().rollback();
+
+        assertTrue(loader.getFilesLoaded() > 1);
+        assertEquals(loader.getFilesLoaded(), KbaseTestSupport.count(databaseMeta, "LOADED"));
+    }
+
+    @Test
+    public void deletesStagingFilesOfFailedImports() throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setBulkLoadSQL("INSERT INTO MISSING (FILE_NAME) VALUES ({FILE})");
+        KbaseBulkLoader loader = new KbaseBulkLoader(database, null, "TARGET", rowMeta, stagingDirectory, false);
+        loader.start();
+        try {
+            addRows(loader, 100);
+            loader.close();
+            fail("the failed import was ignored");
+        } catch (KettleDatabaseException e) {
+            loader.abort();
+        }
+        assertEquals(0, stagingDirectory.listFiles().length);
+    }
+
+    @Test
+    public void keepsStagingFilesForDebugging() throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setBulkKeepFiles(true);
+        KbaseBulkLoader loader = new KbaseBulkLoader(database, null, "TARGET", rowMeta, stagingDirectory, false);
+        loader.start();
+        addRows(loader, 100);
+        loader.close();
+
+        assertEquals(loader.getFilesLoaded(), stagingDirectory.listFiles().length);
+    }
+
+    private void addRows(KbaseBulkLoader loader, int rows) throws KettleDatabaseException {
+        for (long id = 1; id <= rows; id++) {
+            loader.addRow(new Object[]{id, "name\t" + id});
+        }
+    }
+
+    private static Thread findThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                return thread;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package org.pentaho.di.core.database;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LoggingObjectType;
+import org.pentaho.di.core.logging.SimpleLoggingObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseConnectionPoolTest {
+
+    private static final SimpleLoggingObject PARENT =
+            new SimpleLoggingObject("kbase-test", LoggingObjectType.GENERAL, null);
+
+    private DatabaseMeta databaseMeta;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+    }
+
+    @Test
+    public void doesNothingWithoutPooling() throws Exception {
+        long warmedUp = KbaseConnectionPool.getWarmedUpConnections();
+        KbaseConnectionPool.warmUp(PARENT, databaseMeta, 5);
+
+        // 没有连接池时打开的连接会立即关闭，预热没有意义
+        assertEquals(0, KbaseTestSupport.roundTrips(databaseMeta));
+        assertEquals(warmedUp, KbaseConnectionPool.getWarmedUpConnections());
+        assertTrue(KbaseConnectionPool.getStatistics(databaseMeta).startsWith("pooling=false"));
+    }
+
+    @Test
+    public void opensTheRequestedConnections() throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setUsingConnectionPool(true);
+        long warmedUp = KbaseConnectionPool.getWarmedUpConnections();
+        KbaseConnectionPool.warmUp(PARENT, databaseMeta, 3);
+
+        assertEquals(3, KbaseTestSupport.roundTrips(databaseMeta));
+        assertEquals(warmedUp + 3, KbaseConnectionPool.getWarmedUpConnections());
+
+        // 未指定数量时使用初始连接数
+        KbaseConnectionPool.warmUp(PARENT, databaseMeta, 0);
+        assertEquals(3 + KbaseTestSupport.kbase(databaseMeta).getInitialPoolSize(),
+                KbaseTestSupport.roundTrips(databaseMeta));
+    }
+}
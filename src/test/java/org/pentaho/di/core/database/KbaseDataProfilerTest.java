@@ -0,0 +1,103 @@
+package org.pentaho.di.core.database;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class KbaseDataProfilerTest {
+
+    private KbaseDatabaseMeta kbaseMeta;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() {
+        kbaseMeta = new KbaseDatabaseMeta();
+    }
+
+    @Test
+    public void neverNarrowsBelowTheKettleType() throws Exception {
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaNumber("RATE"));
+        rowMeta.addValueMeta(new ValueMetaBigNumber("AMOUNT"));
+        rowMeta.addValueMeta(new ValueMetaBigNumber("PRICE"));
+        KbaseDataProfiler profiler = new KbaseDataProfiler(kbaseMeta, rowMeta, 0);
+        // 样本中恰好都是整数
+        profiler.addRow(new Object[]{1.0, new BigDecimal("12345"), new BigDecimal("123.45")});
+        profiler.addRow(new Object[]{2.0, new BigDecimal("-7"), new BigDecimal("0.5")});
+
+        assertEquals("DOUBLE PRECISION", definition(profiler, rowMeta, 0));
+        assertEquals("NUMERIC(6, 0)", definition(profiler, rowMeta, 1));
+        assertEquals("NUMERIC(6, 2)", definition(profiler, rowMeta, 2));
+    }
+
+    @Test
+    public void addsHeadroomToTheSample() throws Exception {
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("QUANTITY"));
+        rowMeta.addValueMeta(new ValueMetaString("NAME"));
+        rowMeta.addValueMeta(new ValueMetaString("NOTES"));
+        KbaseDataProfiler profiler = new KbaseDataProfiler(kbaseMeta, rowMeta, 0);
+        profiler.addRow(new Object[]{20000L, "abcdefghij", repeat('x', 1500)});
+
+        assertEquals("INT", definition(profiler, rowMeta, 0));
+        assertEquals("VARCHAR(20)", definition(profiler, rowMeta, 1));
+        assertEquals("TEXT", definition(profiler, rowMeta, 2));
+
+        kbaseMeta.setProfileHeadroom(0);
+        assertEquals("SMALLINT", definition(profiler, rowMeta, 0));
+        assertEquals("VARCHAR(10)", definition(profiler, rowMeta, 1));
+        assertEquals("VARCHAR(1500)", definition(profiler, rowMeta, 2));
+    }
+
+    @Test
+    public void measuresLengthsLikeTheDatabase() throws Exception {
+        kbaseMeta.setProfileHeadroom(0);
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("NAME"));
+        String name = "数据库😀";
+
+        KbaseDataProfiler characters = new KbaseDataProfiler(kbaseMeta, rowMeta, 0);
+        characters.addRow(new Object[]{name});
+        assertEquals(4, characters.getProfile(0).getMaxLength());
+        assertEquals("VARCHAR(4)", definition(characters, rowMeta, 0));
+
+        kbaseMeta.setVarcharLengthSemantics(KbaseDatabaseMeta.LENGTH_SEMANTICS_BYTE);
+        KbaseDataProfiler bytes = new KbaseDataProfiler(kbaseMeta, rowMeta, 0);
+        bytes.addRow(new Object[]{name});
+        assertEquals(13, bytes.getProfile(0).getMaxLength());
+
+        kbaseMeta.setDatabaseCharset("GBK");
+        KbaseDataProfiler gbk = new KbaseDataProfiler(kbaseMeta, rowMeta, 0);
+        gbk.addRow(new Object[]{"数据库"});
+        assertEquals(6, gbk.getProfile(0).getMaxLength());
+    }
+
+    private String definition(KbaseDataProfiler profiler, RowMetaInterface rowMeta, int index) {
+        return kbaseMeta.getFieldDefinition(rowMeta.getValueMeta(index), profiler.getProfile(index), null, null, false,
+                false, false);
+    }
+
+    private static String repeat(char c, int times) {
+        StringBuilder text = new StringBuilder(times);
+        for (int i = 0; i < times; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,200 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class KbaseDatabaseMetaTest {
+
+    private DatabaseMeta databaseMeta;
+    private KbaseDatabaseMeta kbaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        kbaseMeta = KbaseTestSupport.kbase(databaseMeta);
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        DBCache.getInstance().clear(databaseMeta.getName());
+        database.disconnect();
+    }
+
+    /**
+     * 单次扫描的实现必须与原来的三次 replaceAll 完全一致
+     */
+    @Test
+    public void quotesStringsLikeTheRegexImplementation() {
+        String[] samples = {"", "plain", "it's", "''", "a\nb", "a\rb", "\r\n", "x'\n'\ry", "数据'仓库\n", "$1\\"};
+        for (String sample : samples) {
+            assertEquals(sample, regexQuote(sample), kbaseMeta.quoteSQLString(sample));
+        }
+        Random random = new Random(7);
+        char[] alphabet = {'a', 'Z', '\'', '\n', '\r', '库', ' ', '$', '\\'};
+        for (int i = 0; i < 1000; i++) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String sample = new String(chars);
+            assertEquals(regexQuote(sample), kbaseMeta.quoteSQLString(sample));
+        }
+    }
+
+    private static String regexQuote(String string) {
+        return "'" + string.replaceAll("'", "''").replaceAll("\\n", "'||chr(13)||'")
+                .replaceAll("\\r", "'||chr(10)||'") + "'";
+    }
+
+    @Test
+    public void quotedStringsAreAcceptedByTheServer() throws Exception {
+        String value = "it's a \"test\" 数据";
+        Object[] row = KbaseTestSupport.query(databaseMeta, "SELECT " + kbaseMeta.quoteSQLString(value) + " FROM DUAL")
+                .get(0);
+        assertEquals(value, row[0]);
+    }
+
+    @Test
+    public void buildsMultiRowInserts() {
+        assertEquals("INSERT INTO T (A, B) VALUES (?, ?), (?, ?), (?, ?)",
+                kbaseMeta.getMultiRowInsertStatement("T", new String[]{"A", "B"}, 3));
+        assertEquals("INSERT INTO T (A) VALUES (?)", kbaseMeta.getMultiRowInsertStatement("T", new String[]{"A"}, 1));
+    }
+
+    @Test
+    public void buildsLimitClauses() {
+        assertEquals(" LIMIT 10", kbaseMeta.getLimitClause(10));
+        assertEquals(" LIMIT 5 OFFSET 10", kbaseMeta.getLimitClause(10L, 5L));
+        assertEquals(" OFFSET 10", kbaseMeta.getLimitClause(10L, -1L));
+    }
+
+    @Test
+    public void buildsFullTextConditions() {
+        assertEquals("\"TITLE\" = '数据+仓库'", kbaseMeta.getFullTextCondition("\"TITLE\"", "数据+仓库", 1));
+        assertEquals("\"TITLE\" = '数据+仓库' FACTOR 3", kbaseMeta.getFullTextCondition("\"TITLE\"", "数据+仓库", 3));
+        assertEquals("BODY = 'it''s' FACTOR 2", kbaseMeta.getFullTextCondition("BODY", "it's", 2));
+        assertEquals(" ORDER BY RELEVANT", kbaseMeta.getRelevanceOrderClause());
+    }
+
+    @Test
+    public void generatedDdlRoundTrips() throws Exception {
+        ValueMetaInterface[] fields = {
+                new ValueMetaInteger("ID"),
+                new ValueMetaString("NAME", 40, 0),
+                new ValueMetaString("NOTES"),
+                new ValueMetaInteger("SMALL", 4, 0),
+                new ValueMetaInteger("BIG", 15, 0),
+                new ValueMetaNumber("RATE", 10, 3),
+                new ValueMetaBigNumber("TOTAL", 30, 2),
+                new ValueMetaNumber("RATIO"),
+                new ValueMetaDate("DAY"),
+                new ValueMetaTimestamp("AT"),
+                new ValueMetaBoolean("FLAG"),
+                new ValueMetaBinary("DATA"),
+        };
+        StringBuilder ddl = new StringBuilder("CREATE TABLE GENERATED (");
+        for (int i = 0; i < fields.length; i++) {
+            ddl.append(i > 0 ? ", " : "").append(kbaseMeta.getFieldDefinition(fields[i], "ID", null, false, true,
+                    false));
+        }
+        KbaseTestSupport.execute(databaseMeta, ddl.append(')').toString());
+
+        RowMetaInterface read = database.getQueryFields(kbaseMeta.getSQLQueryFields("GENERATED"), false);
+        assertEquals(fields.length, read.size());
+        for (int i = 0; i < fields.length; i++) {
+            assertEquals(fields[i].getName(), read.getValueMeta(i).getName().toUpperCase());
+        }
+    }
+
+    @Test
+    public void mapsNumericToTheNarrowestType() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE AMOUNTS (I NUMERIC(10, 0), D NUMERIC(12, 2), "
+                + "W NUMERIC(30, 2), L NUMERIC(19, 0), B BIGINT, F DOUBLE PRECISION)");
+
+        RowMetaInterface fields = database.getQueryFields("SELECT * FROM AMOUNTS WHERE 1=0", false);
+        assertEquals(ValueMetaInterface.TYPE_INTEGER, fields.getValueMeta(0).getType());
+        assertEquals(ValueMetaInterface.TYPE_NUMBER, fields.getValueMeta(1).getType());
+        assertEquals(2, fields.getValueMeta(1).getPrecision());
+        assertEquals(ValueMetaInterface.TYPE_BIGNUMBER, fields.getValueMeta(2).getType());
+        assertEquals(ValueMetaInterface.TYPE_BIGNUMBER, fields.getValueMeta(3).getType());
+        assertEquals(ValueMetaInterface.TYPE_INTEGER, fields.getValueMeta(4).getType());
+        assertEquals(ValueMetaInterface.TYPE_NUMBER, fields.getValueMeta(5).getType());
+    }
+
+    @Test
+    public void unknownPrecisionStaysBigNumber() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE AMOUNTS (N NUMERIC, S NUMERIC(12, 2))");
+
+        RowMetaInterface fields = database.getQueryFields("SELECT N, S FROM AMOUNTS", false);
+        assertEquals(ValueMetaInterface.TYPE_BIGNUMBER, fields.getValueMeta(0).getType());
+        assertEquals(ValueMetaInterface.TYPE_NUMBER, fields.getValueMeta(1).getType());
+
+        kbaseMeta.setStrictBigNumberInterpretation(true);
+        fields = database.getQueryFields("SELECT N FROM AMOUNTS", false);
+        assertEquals(ValueMetaInterface.TYPE_BIGNUMBER, fields.getValueMeta(0).getType());
+    }
+
+    /**
+     * 直接调用Kettle描述结果集字段的入口 ValueMetaBase.getValueFromSQLType
+     */
+    @Test
+    public void kettleCallsTheSqlTypeHook() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE AMOUNTS (I NUMERIC(10, 0), D NUMERIC(12, 2), "
+                + "N NUMERIC, NAME VARCHAR(10))");
+        Statement statement = database.getConnection().createStatement();
+        try {
+            ResultSetMetaData rm = statement.executeQuery("SELECT * FROM AMOUNTS").getMetaData();
+            ValueMetaBase valueMeta = new ValueMetaBase();
+            int[] expected = {ValueMetaInterface.TYPE_INTEGER, ValueMetaInterface.TYPE_NUMBER,
+                    ValueMetaInterface.TYPE_BIGNUMBER, ValueMetaInterface.TYPE_STRING};
+            for (int i = 1; i <= expected.length; i++) {
+                ValueMetaInterface field = valueMeta.getValueFromSQLType(databaseMeta, rm.getColumnLabel(i), rm, i,
+                        false, false);
+                assertEquals(rm.getColumnLabel(i), expected[i - 1], field.getType());
+            }
+            assertEquals(null, kbaseMeta.customizeValueFromSQLType(
+                    valueMeta.getValueFromSQLType(databaseMeta, "NAME", rm, 4, false, false), rm, 4));
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Test
+    public void strictInterpretationKeepsDecimalsExact() throws Exception {
+        kbaseMeta.setStrictBigNumberInterpretation(true);
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE AMOUNTS (I NUMERIC(10, 0), D NUMERIC(12, 2))");
+
+        RowMetaInterface fields = database.getQueryFields("SELECT * FROM AMOUNTS WHERE 1=0", false);
+        assertEquals(ValueMetaInterface.TYPE_INTEGER, fields.getValueMeta(0).getType());
+        assertEquals(ValueMetaInterface.TYPE_BIGNUMBER, fields.getValueMeta(1).getType());
+    }
+}
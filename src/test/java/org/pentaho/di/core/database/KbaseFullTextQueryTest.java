@@ -0,0 +1,99 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KbaseFullTextQueryTest {
+
+    private static final String[] ID = {"ID"};
+    private static final String[] TITLE_AND_BODY = {"TITLE", "BODY"};
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE DOCS (ID BIGINT, TITLE VARCHAR(100), BODY TEXT)",
+                "INSERT INTO DOCS VALUES (1, 'other', '数据 body'), (2, '数据仓库', 'x'), (3, '数据', '数据'), "
+                        + "(4, 'none', 'none'), (5, 'x', '数据'), (6, '数据', 'y'), (7, 'y', '数据'), "
+                        + "(8, 'z', '数据'), (9, 'it''s', 'quoted')");
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        DBCache.getInstance().clear(databaseMeta.getName());
+        database.disconnect();
+    }
+
+    @Test
+    public void weightsFieldsAndOrdersByRelevance() throws Exception {
+        KbaseFullTextQuery query = new KbaseFullTextQuery(database, null, "DOCS", ID, "数据", TITLE_AND_BODY,
+                new int[]{3}, 0, 3);
+        assertEquals("SELECT " + databaseMeta.quoteField("ID") + " FROM "
+                + databaseMeta.getQuotedSchemaTableCombination(null, "DOCS") + " WHERE "
+                + databaseMeta.quoteField("TITLE") + " = '数据' FACTOR 3 OR "
+                + databaseMeta.quoteField("BODY") + " = '数据' ORDER BY RELEVANT", query.getSearchSQL());
+
+        // 标题命中权重3，正文命中权重1，相关度相同时保持表中顺序
+        assertEquals(Arrays.asList(3L, 2L, 6L, 1L, 5L, 7L, 8L), ids(query));
+        // 3+3+1行，最后一页不足一页，不再查询
+        assertEquals(3, query.getPages());
+    }
+
+    @Test
+    public void stopsAfterTopK() throws Exception {
+        KbaseFullTextQuery query = new KbaseFullTextQuery(database, null, "DOCS", ID, "数据", TITLE_AND_BODY,
+                new int[]{3, 1}, 5, 2);
+        assertEquals(Arrays.asList(3L, 2L, 6L, 1L, 5L), ids(query));
+        // 2+2+1行，最后一页只取还差的1行
+        assertEquals(3, query.getPages());
+        long roundTrips = KbaseTestSupport.roundTrips(databaseMeta);
+        assertNull(query.getRow());
+        assertEquals(3, query.getPages());
+        assertEquals(roundTrips, KbaseTestSupport.roundTrips(databaseMeta));
+        assertEquals(5, query.getRowsRead());
+    }
+
+    @Test
+    public void readsAnEmptyPageAfterAFullLastPage() throws Exception {
+        KbaseFullTextQuery query = new KbaseFullTextQuery(database, null, "DOCS", ID, "数据", TITLE_AND_BODY, null,
+                0, 7);
+        assertEquals(7, ids(query).size());
+        assertEquals(2, query.getPages());
+    }
+
+    @Test
+    public void quotesTheSearchExpression() throws Exception {
+        KbaseFullTextQuery query = new KbaseFullTextQuery(database, null, "DOCS", ID, "it's", TITLE_AND_BODY, null,
+                0, 10);
+        assertEquals(Arrays.asList(9L), ids(query));
+    }
+
+    private static List<Long> ids(KbaseFullTextQuery query) throws Exception {
+        List<Long> ids = new ArrayList<Long>();
+        for (Object[] row = query.getRow(); row != null; row = query.getRow()) {
+            ids.add((Long) row[0]);
+        }
+        query.close();
+        return ids;
+    }
+}
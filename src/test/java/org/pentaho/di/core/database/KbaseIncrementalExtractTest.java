@@ -0,0 +1,129 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KbaseIncrementalExtractTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+    private File watermarkFile;
+    private KbaseWatermarkStore store;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE ORDERS (ID BIGINT, VERSION BIGINT, CHANGED TIMESTAMP)");
+        // 每个版本号有7行，分页时同一水位的行会跨页
+        insert(1, 70);
+        database = KbaseTestSupport.connect(databaseMeta);
+        watermarkFile = File.createTempFile("kbase-watermarks", ".properties");
+        watermarkFile.delete();
+        store = new KbaseWatermarkStore(watermarkFile);
+    }
+
+    @After
+    public void tearDown() {
+        DBCache.getInstance().clear(databaseMeta.getName());
+        database.disconnect();
+        watermarkFile.delete();
+    }
+
+    @Test
+    public void pagesByWatermarkAndKey() throws Exception {
+        assertExtracts(newExtract("VERSION", "ID", 5), 1, 70);
+    }
+
+    @Test
+    public void pagesByWatermarkWithoutSplittingTies() throws Exception {
+        assertExtracts(newExtract("VERSION", null, 5), 1, 70);
+        watermarkFile.delete();
+        assertExtracts(newExtract("VERSION", null, 1), 1, 70);
+    }
+
+    @Test
+    public void pagesByTimestamp() throws Exception {
+        assertExtracts(newExtract("CHANGED", null, 4), 1, 70);
+    }
+
+    @Test
+    public void nextRunReadsOnlyNewRows() throws Exception {
+        assertExtracts(newExtract("VERSION", "ID", 8), 1, 70);
+        insert(71, 90);
+        assertExtracts(newExtract("VERSION", "ID", 8), 71, 90);
+        assertExtracts(newExtract("VERSION", "ID", 8), 0, 0);
+    }
+
+    @Test
+    public void safetyLagKeepsTheNewestRowsForTheNextRun() throws Exception {
+        KbaseIncrementalExtract extract = newExtract("VERSION", "ID", 10);
+        extract.setSafetyLag(2);
+        // VERSION 9 和 10 (ID 57..70) 留到下次抽取
+        assertExtracts(extract, 1, 56);
+
+        extract = newExtract("VERSION", "ID", 10);
+        assertExtracts(extract, 57, 70);
+    }
+
+    @Test
+    public void safetyLagOnTimestampsUsesTheClock() throws Exception {
+        KbaseIncrementalExtract extract = newExtract("CHANGED", "ID", 10);
+        extract.setSafetyLag(System.currentTimeMillis());
+        extract.open();
+        assertNull(extract.getRow());
+        assertEquals(0, extract.getRowsRead());
+    }
+
+    private KbaseIncrementalExtract newExtract(String watermarkColumn, String keyColumn, int pageSize)
+            throws Exception {
+        return new KbaseIncrementalExtract(database, store, null, "ORDERS", watermarkColumn, keyColumn, pageSize);
+    }
+
+    /**
+     * 抽取并提交，检查读到的ID正好是 first..last，各一次
+     */
+    private void assertExtracts(KbaseIncrementalExtract extract, long first, long last) throws Exception {
+        extract.open();
+        List<Long> ids = new ArrayList<Long>();
+        Object[] row;
+        while ((row = extract.getRow()) != null) {
+            ids.add((Long) row[0]);
+        }
+        extract.commit();
+        extract.close();
+        Collections.sort(ids);
+        List<Long> expected = new ArrayList<Long>();
+        for (long id = first; first > 0 && id <= last; id++) {
+            expected.add(id);
+        }
+        assertEquals(expected, ids);
+    }
+
+    private void insert(int first, int last) throws Exception {
+        StringBuilder insert = new StringBuilder("INSERT INTO ORDERS VALUES ");
+        for (int id = first; id <= last; id++) {
+            int version = (id + 6) / 7;
+            insert.append(id > first ? ", " : "").append('(').append(id).append(", ").append(version)
+                    .append(", TIMESTAMP '2020-01-").append(String.format("%02d", version)).append(" 10:00:00')");
+        }
+        KbaseTestSupport.execute(databaseMeta, insert.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseIndexCatalogTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+    private KbaseIndexCatalog catalog;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.execute(databaseMeta,
+                "CREATE TABLE ORDERS (ID BIGINT, CUSTOMER_ID BIGINT, ORDER_DATE TIMESTAMP, STATUS VARCHAR(10))",
+                "CREATE INDEX IDX_ORDERS_CUSTOMER ON ORDERS (Customer_Id, Order_Date)");
+        database = KbaseTestSupport.connect(databaseMeta);
+        catalog = KbaseIndexCatalog.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        catalog.refresh(databaseMeta);
+        database.disconnect();
+    }
+
+    @Test
+    public void matchesColumnsCaseInsensitively() throws Exception {
+        assertTrue(catalog.isIndexed(database, "ORDERS", new String[]{"customer_id"}));
+        assertTrue(catalog.isIndexed(database, "ORDERS", new String[]{"CUSTOMER_ID", "order_date"}));
+        assertFalse(catalog.isIndexed(database, "ORDERS", new String[]{"CUSTOMER_ID", "STATUS"}));
+        assertEquals("IDX_ORDERS_CUSTOMER", catalog.findIndex(database, "ORDERS", new String[]{"ORDER_DATE"}));
+        assertNull(catalog.findIndex(database, "ORDERS", new String[]{"STATUS"}));
+    }
+
+    @Test
+    public void readsEachTableOnce() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE CUSTOMERS (ID BIGINT)");
+        long before = KbaseTestSupport.roundTrips(databaseMeta);
+        catalog.isIndexed(database, "ORDERS", new String[]{"CUSTOMER_ID"});
+        assertEquals(before + 1, KbaseTestSupport.roundTrips(databaseMeta));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(catalog.isIndexed(database, "ORDERS", new String[]{"CUSTOMER_ID"}));
+            assertFalse(catalog.isIndexed(database, "ORDERS", new String[]{"STATUS"}));
+            assertFalse(catalog.isIndexed(database, "CUSTOMERS", new String[]{"ID"}));
+        }
+        // 没有索引的表也只读取一次
+        assertEquals(before + 2, KbaseTestSupport.roundTrips(databaseMeta));
+    }
+
+    @Test
+    public void seesIndexesAfterTheScriptExecutorRanDdl() throws Exception {
+        assertFalse(catalog.isIndexed(database, "ORDERS", new String[]{"STATUS"}));
+
+        new KbaseScriptExecutor(database, true).execute("CREATE INDEX IDX_ORDERS_STATUS ON ORDERS (STATUS);");
+
+        assertTrue(catalog.isIndexed(database, "ORDERS", new String[]{"STATUS"}));
+        assertEquals("IDX_ORDERS_STATUS", catalog.findIndex(database, "ORDERS", new String[]{"STATUS"}));
+    }
+
+    @Test
+    public void trustsTheSnapshotUntilTheTableIsInvalidated() throws Exception {
+        assertTrue(catalog.isIndexed(database, "ORDERS", new String[]{"CUSTOMER_ID"}));
+
+        KbaseTestSupport.execute(databaseMeta, "DROP INDEX IDX_ORDERS_CUSTOMER");
+        KbaseTestSupport.kbase(databaseMeta).getCreateIndexStatement("ORDERS", "IDX_ORDERS_STATUS",
+                new String[]{"STATUS"}, false, false);
+        assertTrue(catalog.isIndexed(database, "ORDERS", new String[]{"CUSTOMER_ID"}));
+
+        catalog.invalidateTable(databaseMeta, "\"ORDERS\"");
+        assertFalse(catalog.isIndexed(database, "ORDERS", new String[]{"CUSTOMER_ID"}));
+        assertTrue(catalog.getIndexes(database, "ORDERS").isEmpty());
+    }
+}
@@ -0,0 +1,74 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseKeyAllocatorTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.execute(databaseMeta, KbaseTestSupport.kbase(databaseMeta).getSQLCreateSequence("SEQ_ID", 50));
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        database.disconnect();
+    }
+
+    @Test
+    public void allocatesUniqueKeysInBlocks() throws Exception {
+        KbaseKeyAllocator allocator = new KbaseKeyAllocator("SEQ_ID", 50);
+        KbaseKeyAllocator other = new KbaseKeyAllocator("SEQ_ID", 50);
+        Set<Long> keys = new HashSet<Long>();
+        for (int i = 0; i < 120; i++) {
+            assertTrue(keys.add(allocator.nextKey(database)));
+            assertTrue(keys.add(other.nextKey(database)));
+        }
+        assertEquals(3, allocator.getRoundTrips());
+        assertEquals(3, other.getRoundTrips());
+    }
+
+    @Test(expected = KettleDatabaseException.class)
+    public void rejectsSequenceWithAnotherIncrement() throws Exception {
+        new KbaseKeyAllocator("SEQ_ID", 100).nextKey(database);
+    }
+
+    @Test(expected = KettleDatabaseException.class)
+    public void rejectsMissingSequence() throws Exception {
+        new KbaseKeyAllocator("SEQ_MISSING", 50).nextKey(database);
+    }
+
+    @Test
+    public void sharesAllocatorPerSequence() {
+        KbaseKeyAllocator allocator = KbaseKeyAllocator.getAllocator(databaseMeta, "SEQ_ID", 50);
+        assertSame(allocator, KbaseKeyAllocator.getAllocator(databaseMeta, "seq_id", 50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sharedAllocatorKeepsItsBlockSize() {
+        KbaseKeyAllocator.getAllocator(databaseMeta, "SEQ_ID", 50);
+        KbaseKeyAllocator.getAllocator(databaseMeta, "SEQ_ID", 10);
+    }
+}
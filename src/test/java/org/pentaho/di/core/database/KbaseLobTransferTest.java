@@ -0,0 +1,165 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KbaseLobTransferTest {
+
+    private static final int THRESHOLD = 100;
+
+    private DatabaseMeta databaseMeta;
+    private Connection connection;
+    private KbaseLobTransfer transfer;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.kbase(databaseMeta).setLobThreshold(THRESHOLD);
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE DOCS (ID BIGINT, BODY BLOB, NOTE TEXT)",
+                "CREATE TABLE COPIES (ID BIGINT, BODY BLOB, NOTE TEXT)");
+        connection = KbaseTestSupport.openConnection(databaseMeta, 0);
+        transfer = new KbaseLobTransfer(KbaseTestSupport.kbase(databaseMeta));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void readsValuesUpToTheThresholdIntoRows() throws Exception {
+        byte[] body = bytes(THRESHOLD);
+        String note = text(THRESHOLD);
+        insert(1, body, note);
+
+        ResultSet res = select(1);
+        assertArrayEquals(body, transfer.getBlob(res, 1));
+        assertEquals(note, transfer.getClob(res, 2));
+        res.getStatement().close();
+    }
+
+    @Test
+    public void streamsValuesAboveTheThreshold() throws Exception {
+        byte[] body = bytes(5000);
+        String note = text(5000);
+        insert(1, body, note);
+
+        ResultSet res = select(1);
+        try {
+            transfer.getBlob(res, 1);
+            fail("BLOB above the threshold was read into a row");
+        } catch (KettleDatabaseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("copyBlob"));
+        }
+        try {
+            transfer.getClob(res, 2);
+            fail("TEXT above the threshold was read into a row");
+        } catch (KettleDatabaseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("copyClob"));
+        }
+        ByteArrayOutputStream copiedBody = new ByteArrayOutputStream();
+        StringWriter copiedNote = new StringWriter();
+        assertEquals(body.length, transfer.copyBlob(res, 1, copiedBody));
+        assertEquals(note.length(), transfer.copyClob(res, 2, copiedNote));
+        assertArrayEquals(body, copiedBody.toByteArray());
+        assertEquals(note, copiedNote.toString());
+        res.getStatement().close();
+    }
+
+    @Test
+    public void transfersValuesBetweenTables() throws Exception {
+        insert(1, bytes(5000), text(5000));
+        insert(2, null, null);
+
+        Connection target = KbaseTestSupport.openConnection(databaseMeta, 0);
+        try {
+            PreparedStatement insert = target.prepareStatement("INSERT INTO COPIES VALUES (?, ?, ?)");
+            Statement statement = connection.createStatement();
+            ResultSet res = statement.executeQuery("SELECT ID, BODY, NOTE FROM DOCS");
+            while (res.next()) {
+                insert.setLong(1, res.getLong(1));
+                transfer.transferBlob(res, 2, insert, 2);
+                transfer.transferClob(res, 3, insert, 3);
+                insert.executeUpdate();
+                transfer.closeStreams();
+            }
+            statement.close();
+        } finally {
+            target.close();
+        }
+
+        assertEquals(2, KbaseTestSupport.count(databaseMeta, "COPIES"));
+        Object[] copied = KbaseTestSupport.query(databaseMeta, "SELECT BODY, NOTE FROM COPIES WHERE ID = 1").get(0);
+        assertArrayEquals(bytes(5000), (byte[]) copied[0]);
+        assertEquals(text(5000), copied[1]);
+        copied = KbaseTestSupport.query(databaseMeta, "SELECT BODY, NOTE FROM COPIES WHERE ID = 2").get(0);
+        assertEquals(Arrays.asList(null, null), Arrays.asList(copied));
+    }
+
+    @Test
+    public void nullValues() throws Exception {
+        insert(1, null, null);
+
+        ResultSet res = select(1);
+        assertNull(transfer.getBlob(res, 1));
+        assertNull(transfer.getClob(res, 2));
+        assertEquals(-1, transfer.copyBlob(res, 1, new ByteArrayOutputStream()));
+        assertEquals(-1, transfer.copyClob(res, 2, new StringWriter()));
+        res.getStatement().close();
+    }
+
+    private void insert(long id, byte[] body, String note) throws Exception {
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO DOCS VALUES (?, ?, ?)");
+        insert.setLong(1, id);
+        transfer.setBlob(insert, 2, body);
+        transfer.setClob(insert, 3, note);
+        insert.executeUpdate();
+        insert.close();
+    }
+
+    private ResultSet select(long id) throws Exception {
+        ResultSet res = connection.createStatement().executeQuery("SELECT BODY, NOTE FROM DOCS WHERE ID = " + id);
+        assertTrue(res.next());
+        return res;
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+}
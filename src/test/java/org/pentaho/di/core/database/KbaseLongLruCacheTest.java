@@ -0,0 +1,111 @@
+package org.pentaho.di.core.database;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseLongLruCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        KbaseLongLruCache<String> cache = new KbaseLongLruCache<String>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        assertEquals("a", cache.get(1));
+
+        cache.put(4, "d");
+
+        assertNull(cache.get(2));
+        assertEquals("a", cache.get(1));
+        assertEquals("c", cache.get(3));
+        assertEquals("d", cache.get(4));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void containsKeyDoesNotChangeOrder() {
+        KbaseLongLruCache<String> cache = new KbaseLongLruCache<String>(2);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        assertTrue(cache.containsKey(1));
+
+        cache.put(3, "c");
+
+        assertFalse(cache.containsKey(1));
+        assertTrue(cache.containsKey(2));
+    }
+
+    @Test
+    public void replacesExistingValue() {
+        KbaseLongLruCache<String> cache = new KbaseLongLruCache<String>(2);
+        cache.put(-7, "a");
+        cache.put(-7, "b");
+        assertEquals(1, cache.size());
+        assertEquals("b", cache.get(-7));
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void clearEmptiesTheCache() {
+        KbaseLongLruCache<String> cache = new KbaseLongLruCache<String>(4);
+        cache.put(1, "a");
+        cache.put(Long.MIN_VALUE, "b");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1));
+        assertNull(cache.get(Long.MIN_VALUE));
+        cache.put(2, "c");
+        assertEquals("c", cache.get(2));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        KbaseLongLruCache<String> cache = new KbaseLongLruCache<String>(2);
+        cache.put(1, "a");
+        cache.get(1);
+        cache.get(2);
+        cache.get(1);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new KbaseLongLruCache<String>(0);
+    }
+
+    /**
+     * 与 LinkedHashMap(访问顺序) 对比随机操作的结果
+     */
+    @Test
+    public void behavesLikeAccessOrderedLinkedHashMap() {
+        final int capacity = 37;
+        KbaseLongLruCache<Long> cache = new KbaseLongLruCache<Long>(capacity);
+        Map<Long, Long> reference = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(100) - 50;
+            if (random.nextBoolean()) {
+                cache.put(key, (long) i);
+                reference.put(key, (long) i);
+            } else {
+                assertEquals("key " + key + " at operation " + i, reference.get(key), cache.get(key));
+            }
+            assertEquals(reference.size(), cache.size());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KbaseMergeWriterTest {
+
+    private static final String BAD = "not convertible";
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        DBCache.getInstance().clear(databaseMeta.getName());
+        database.disconnect();
+    }
+
+    @Test
+    public void insertsThenUpdates() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID NUMERIC(10, 2), NAME VARCHAR(20))");
+        RowMetaInterface rowMeta = rowMeta(new ValueMetaBigNumber("ID"));
+
+        KbaseMergeWriter writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING", rowMeta,
+                new String[]{"ID"});
+        writer.addRow(new Object[]{new BigDecimal("1"), "a"});
+        writer.addRow(new Object[]{new BigDecimal("2"), "b"});
+        writer.close();
+        assertEquals(2, writer.getInsertedCount());
+
+        writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING", rowMeta, new String[]{"ID"});
+        writer.addRow(new Object[]{new BigDecimal("2"), "c"});
+        writer.addRow(new Object[]{new BigDecimal("3"), "d"});
+        writer.close();
+        assertEquals(1, writer.getInsertedCount());
+        assertEquals(1, writer.getUpdatedCount());
+        assertEquals(3, KbaseTestSupport.count(databaseMeta, "TARGET"));
+    }
+
+    @Test
+    public void numericKeysIgnoreScale() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID NUMERIC(10, 2), NAME VARCHAR(20))");
+        KbaseMergeWriter writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING",
+                rowMeta(new ValueMetaBigNumber("ID")), new String[]{"ID"});
+        writer.addRow(new Object[]{new BigDecimal("1.0"), "first"});
+        writer.addRow(new Object[]{new BigDecimal("1.00"), "last"});
+        writer.close();
+
+        assertEquals(1, writer.getInsertedCount());
+        assertEquals("last", KbaseTestSupport.query(databaseMeta, "SELECT NAME FROM TARGET").get(0)[0]);
+    }
+
+    @Test
+    public void binaryKeysCompareByContent() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID VARBINARY(16), NAME VARCHAR(20))");
+        KbaseMergeWriter writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING",
+                rowMeta(new ValueMetaBinary("ID")), new String[]{"ID"});
+        writer.addRow(new Object[]{new byte[]{1, 2}, "first"});
+        writer.addRow(new Object[]{new byte[]{1, 2}, "last"});
+        writer.close();
+
+        assertEquals(1, writer.getInsertedCount());
+        assertEquals("last", KbaseTestSupport.query(databaseMeta, "SELECT NAME FROM TARGET").get(0)[0]);
+    }
+
+    @Test(expected = KettleDatabaseException.class)
+    public void rejectsNullKeys() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID NUMERIC(10, 2), NAME VARCHAR(20))");
+        KbaseMergeWriter writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING",
+                rowMeta(new ValueMetaBigNumber("ID")), new String[]{"ID"});
+        writer.addRow(new Object[]{null, "orphan"});
+    }
+
+    @Test
+    public void conversionErrorRollsTheBatchBack() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID NUMERIC(10, 2), NAME VARCHAR(20))");
+        KbaseMergeWriter writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING",
+                failingRowMeta(), new String[]{"ID"});
+        writer.addRow(new Object[]{new BigDecimal("1"), "a"});
+        writer.close();
+
+        writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING", failingRowMeta(),
+                new String[]{"ID"});
+        writer.addRow(new Object[]{new BigDecimal("2"), "b"});
+        writer.addRow(new Object[]{new BigDecimal("3"), BAD});
+        try {
+            writer.close();
+            fail("conversion error not reported");
+        } catch (KettleDatabaseException e) {
+            // expected
+        }
+        // 清空暂存表的DELETE也被回滚
+        assertEquals(1, KbaseTestSupport.count(databaseMeta, "TARGET_STAGING"));
+        assertEquals(1, KbaseTestSupport.count(databaseMeta, "TARGET"));
+        assertTrue(database.getConnection().getAutoCommit());
+    }
+
+    @Test
+    public void leavesTheCallersTransactionOpen() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TARGET (ID NUMERIC(10, 2), NAME VARCHAR(20))");
+        KbaseMergeWriter writer = new KbaseMergeWriter(database, null, "TARGET", "TARGET_STAGING",
+                failingRowMeta(), new String[]{"ID"});
+        Connection connection = database.getConnection();
+        connection.setAutoCommit(false);
+        connection.createStatement().executeUpdate("INSERT INTO TARGET VALUES (9, 'caller')");
+
+        writer.addRow(new Object[]{new BigDecimal("1"), "a"});
+        writer.flush();
+        writer.addRow(new Object[]{new BigDecimal("2"), BAD});
+        try {
+            writer.flush();
+            fail("conversion error not reported");
+        } catch (KettleDatabaseException e) {
+            // expected
+        }
+        assertEquals(false, connection.getAutoCommit());
+        assertEquals(2, KbaseTestSupport.count(databaseMeta, "TARGET"));
+
+        // 没有提交调用者的事务
+        connection.rollback();
+        assertEquals(0, KbaseTestSupport.count(databaseMeta, "TARGET"));
+    }
+
+    /**
+     * NAME 字段的值为 {@link #BAD} 时绑定参数失败，模拟字段转换错误
+     */
+    private static RowMetaInterface failingRowMeta() {
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaBigNumber("ID"));
+        rowMeta.addValueMeta(new ValueMetaString("NAME", 20, 0) {
+            @Override
+            public void setPreparedStatementValue(DatabaseMeta databaseMeta, PreparedStatement preparedStatement,
+                                                  int index, Object data) throws KettleDatabaseException {
+                if (BAD.equals(data)) {
+                    throw new KettleDatabaseException("Unable to convert [" + data + "]");
+                }
+                super.setPreparedStatementValue(databaseMeta, preparedStatement, index, data);
+            }
+        });
+        return rowMeta;
+    }
+
+    private static RowMetaInterface rowMeta(ValueMetaInterface key) {
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(key);
+        rowMeta.addValueMeta(new ValueMetaString("NAME", 20, 0));
+        return rowMeta;
+    }
+}
@@ -0,0 +1,65 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class KbaseNativeLoaderTest {
+
+    private static final String DIRECTORY_VARIABLE = "KBASE_NATIVE_LOADER_TEST_DIR";
+
+    private String missing;
+
+    @Before
+    public void setUp() {
+        // 不存在的目录，每次加载都失败
+        missing = new File(System.getProperty("java.io.tmpdir"), "kbase-native-missing-" + System.nanoTime())
+                .getPath();
+        System.setProperty(DIRECTORY_VARIABLE, missing);
+        KbaseNativeLoader.reset(KbaseNativeLoader.RETRY_INTERVAL_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(DIRECTORY_VARIABLE);
+        KbaseNativeLoader.reset(KbaseNativeLoader.RETRY_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void retriesOnlyForANewPathWithinTheInterval() {
+        assertFalse(KbaseNativeLoader.ensureLoaded(missing));
+        assertFalse(KbaseNativeLoader.ensureLoaded(missing));
+        assertEquals(1, KbaseNativeLoader.getLoadAttempts());
+
+        assertFalse(KbaseNativeLoader.ensureLoaded(missing + "-other"));
+        assertEquals(2, KbaseNativeLoader.getLoadAttempts());
+        assertFalse(KbaseNativeLoader.isNativeAvailable());
+    }
+
+    @Test
+    public void retriesTheSamePathAfterTheInterval() throws Exception {
+        KbaseNativeLoader.reset(50L);
+        assertFalse(KbaseNativeLoader.ensureLoaded(missing));
+        assertFalse(KbaseNativeLoader.ensureLoaded(missing));
+        assertEquals(1, KbaseNativeLoader.getLoadAttempts());
+
+        Thread.sleep(100L);
+        assertFalse(KbaseNativeLoader.ensureLoaded(missing));
+        assertEquals(2, KbaseNativeLoader.getLoadAttempts());
+    }
+
+    @Test
+    public void substitutesVariablesInThePath() {
+        assertFalse(KbaseNativeLoader.ensureLoaded("${" + DIRECTORY_VARIABLE + "}" + File.separator + "lib"));
+        assertEquals(missing + File.separator + "lib", KbaseNativeLoader.getFailedPath());
+
+        // 替换后的路径相同，不重新加载
+        assertFalse(KbaseNativeLoader.ensureLoaded(missing + File.separator + "lib"));
+        assertEquals(1, KbaseNativeLoader.getLoadAttempts());
+    }
+}
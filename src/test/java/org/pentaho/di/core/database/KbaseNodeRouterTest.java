@@ -0,0 +1,72 @@
+package org.pentaho.di.core.database;
+
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseNodeRouterTest {
+
+    @Test
+    public void parsesHostsAndPorts() {
+        List<KbaseNodeRouter.Node> nodes = KbaseNodeRouter.parseHosts(
+                "db1:5000, db2;[fe80::1]:5001 [::1] fe80::2", "4567");
+        assertEquals(5, nodes.size());
+        assertNode(nodes.get(0), "db1", "5000", "db1:5000");
+        assertNode(nodes.get(1), "db2", "4567", "db2:4567");
+        assertNode(nodes.get(2), "fe80::1", "5001", "[fe80::1]:5001");
+        assertNode(nodes.get(3), "::1", "4567", "[::1]:4567");
+        assertNode(nodes.get(4), "fe80::2", "4567", "[fe80::2]:4567");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnclosedBracket() {
+        KbaseNodeRouter.parseHosts("[fe80::1:5001", "4567");
+    }
+
+    @Test
+    public void selectionDoesNotWaitForHealthChecks() {
+        // 不可路由的地址，探测要等到超时
+        KbaseNodeRouter router = new KbaseNodeRouter(KbaseNodeRouter.parseHosts("10.255.255.1:4567", "4567"));
+        long start = System.nanoTime();
+        router.selectReplica(KbaseNodeRouter.ROUND_ROBIN);
+        router.selectReplica(KbaseNodeRouter.LEAST_LOADED);
+        assertTrue((System.nanoTime() - start) / 1000000L < 500);
+    }
+
+    @Test
+    public void routesAroundUnreachableNodes() throws Exception {
+        ServerSocket up = new ServerSocket(0);
+        ServerSocket down = new ServerSocket(0);
+        int downPort = down.getLocalPort();
+        down.close();
+        try {
+            KbaseNodeRouter router = new KbaseNodeRouter(KbaseNodeRouter.parseHosts(
+                    "127.0.0.1:" + downPort + ",127.0.0.1:" + up.getLocalPort(), "4567"));
+            router.checkAll();
+            KbaseNodeRouter.Node healthy = router.getReplicas().get(1);
+            assertFalse(router.getReplicas().get(0).isHealthy());
+            for (int i = 0; i < 4; i++) {
+                assertSame(healthy, router.selectReplica(KbaseNodeRouter.ROUND_ROBIN));
+            }
+            assertSame(healthy, router.selectReplica(KbaseNodeRouter.LEAST_LOADED));
+
+            up.close();
+            router.checkAll();
+            assertNull(router.selectReplica(KbaseNodeRouter.ROUND_ROBIN));
+        } finally {
+            up.close();
+        }
+    }
+
+    private static void assertNode(KbaseNodeRouter.Node node, String host, String port, String text) {
+        assertEquals(Arrays.asList(host, port, text), Arrays.asList(node.getHost(), node.getPort(), node.toString()));
+    }
+}
@@ -0,0 +1,173 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LoggingObjectType;
+import org.pentaho.di.core.logging.SimpleLoggingObject;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KbaseParallelWriterTest {
+
+    private static final SimpleLoggingObject PARENT =
+            new SimpleLoggingObject("kbase-test", LoggingObjectType.GENERAL, null);
+
+    private DatabaseMeta databaseMeta;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.kbase(databaseMeta).setBatchSize(2);
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE T (ID BIGINT, NAME VARCHAR(20))",
+                "CREATE TABLE KEYED (KEY BLOB, NR BIGINT)");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        KbaseStandInDriver.setLatency(0, TimeUnit.MILLISECONDS);
+        KbaseStandInDriver.failCommitsAfter(databaseMeta.getURL(), -1);
+    }
+
+    @Test
+    public void rowsWithTheSameKeyGoToTheSameConnection() throws Exception {
+        final Map<String, Set<String>> writers = new ConcurrentHashMap<String, Set<String>>();
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaBinary("KEY") {
+            @Override
+            public void setPreparedStatementValue(DatabaseMeta databaseMeta, PreparedStatement preparedStatement,
+                                                  int index, Object data) throws KettleDatabaseException {
+                String key = Arrays.toString((byte[]) data);
+                writers.putIfAbsent(key, ConcurrentHashMap.<String>newKeySet());
+                writers.get(key).add(Thread.currentThread().getName());
+                super.setPreparedStatementValue(databaseMeta, preparedStatement, index, data);
+            }
+        });
+        rowMeta.addValueMeta(new ValueMetaInteger("NR"));
+
+        KbaseParallelWriter writer = new KbaseParallelWriter(PARENT, databaseMeta, null, "KEYED", rowMeta, 0, 3, 2);
+        for (long nr = 0; nr < 100; nr++) {
+            // 每行都是新的数组，按内容分区
+            writer.addRow(new Object[]{new byte[]{(byte) (nr % 20), 1}, nr});
+        }
+        writer.close();
+
+        assertEquals(100, writer.getRowsWritten());
+        assertEquals(100, KbaseTestSupport.count(databaseMeta, "KEYED"));
+        assertEquals(20, writers.size());
+        Set<String> threads = new HashSet<String>();
+        for (Map.Entry<String, Set<String>> key : writers.entrySet()) {
+            assertEquals(key.getKey() + " " + key.getValue(), 1, key.getValue().size());
+            threads.addAll(key.getValue());
+        }
+        assertEquals(threads.toString(), 3, threads.size());
+    }
+
+    @Test
+    public void waitsWhenTheWritersFallBehind() throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setBatchSize(1);
+        KbaseStandInDriver.setLatency(100, TimeUnit.MILLISECONDS);
+        KbaseParallelWriter writer = new KbaseParallelWriter(PARENT, databaseMeta, null, "T", rowMeta(), 0, 1, 1);
+
+        // 第一批在写入，第二批在队列中，第三批要等写入线程取走第二批
+        long start = System.nanoTime();
+        for (long id = 1; id <= 3; id++) {
+            writer.addRow(new Object[]{id, "row"});
+        }
+        long waited = System.nanoTime() - start;
+        writer.close();
+
+        assertTrue(waited + "ns", waited >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(3, KbaseTestSupport.count(databaseMeta, "T"));
+    }
+
+    @Test
+    public void oneFailingWriterRollsBackEveryConnection() throws Exception {
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("ID"));
+        rowMeta.addValueMeta(new ValueMetaString("NAME") {
+            @Override
+            public void setPreparedStatementValue(DatabaseMeta databaseMeta, PreparedStatement preparedStatement,
+                                                  int index, Object data) throws KettleDatabaseException {
+                if ("bad".equals(data)) {
+                    throw new KettleDatabaseException("Unable to convert [" + data + "]");
+                }
+                super.setPreparedStatementValue(databaseMeta, preparedStatement, index, data);
+            }
+        });
+
+        KbaseParallelWriter writer = new KbaseParallelWriter(PARENT, databaseMeta, null, "T", rowMeta, 0, 3, 2);
+        KettleDatabaseException failure = null;
+        try {
+            for (long id = 1; id <= 100; id++) {
+                writer.addRow(new Object[]{id, id == 50 ? "bad" : "row"});
+            }
+        } catch (KettleDatabaseException e) {
+            // 出错时步骤取消写入
+            failure = e;
+            writer.cancel();
+        }
+        if (failure == null) {
+            try {
+                writer.close();
+                fail("the failing writer was not reported");
+            } catch (KettleDatabaseException e) {
+                failure = e;
+            }
+        }
+        assertTrue(failure.getMessage(), failure.getMessage().contains("Parallel load into [T] failed"));
+
+        // 其他连接已写入但未提交的行也被回滚
+        assertEquals(0, KbaseTestSupport.count(databaseMeta, "T"));
+    }
+
+    @Test
+    public void reportsAPartialCommit() throws Exception {
+        KbaseParallelWriter writer = new KbaseParallelWriter(PARENT, databaseMeta, null, "T", rowMeta(), 0, 2, 2);
+        for (long id = 1; id <= 10; id++) {
+            writer.addRow(new Object[]{id, "row"});
+        }
+        KbaseStandInDriver.failCommitsAfter(databaseMeta.getURL(), 1);
+        try {
+            writer.close();
+            fail("the failed commit was not reported");
+        } catch (KettleDatabaseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                    "Commit of [T] failed after 1 of 2 connections were committed, the load is partially committed"));
+        }
+
+        long committed = KbaseTestSupport.count(databaseMeta, "T");
+        assertTrue(String.valueOf(committed), committed > 0 && committed < 10);
+    }
+
+    private static RowMetaInterface rowMeta() {
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("ID"));
+        rowMeta.addValueMeta(new ValueMetaString("NAME"));
+        return rowMeta;
+    }
+}
@@ -0,0 +1,179 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KbasePartitionedQueryTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.execute(databaseMeta,
+                "CREATE TABLE EVENTS (ID BIGINT, AMOUNT BIGINT, CREATED TIMESTAMP, PRIMARY KEY (ID))");
+        StringBuilder insert = new StringBuilder("INSERT INTO EVENTS VALUES ");
+        for (int id = 1; id <= 1000; id++) {
+            if (id > 1) {
+                insert.append(", ");
+            }
+            // AMOUNT is NULL for every 10th row and skewed towards small values
+            insert.append('(').append(id).append(", ").append(id % 10 == 0 ? "NULL" : String.valueOf(id * id % 997))
+                    .append(", TIMESTAMP '2020-01-").append(String.format("%02d", id % 28 + 1)).append(" 10:00:00')");
+        }
+        KbaseTestSupport.execute(databaseMeta, insert.toString());
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        database.disconnect();
+    }
+
+    @Test
+    public void splitsOnNumericColumnIncludingNulls() throws Exception {
+        assertCoversAllRows(new KbasePartitionedQuery(databaseMeta, "EVENTS", "ID", "AMOUNT", null, 4));
+    }
+
+    @Test
+    public void splitsOnDateColumn() throws Exception {
+        assertCoversAllRows(new KbasePartitionedQuery(databaseMeta, "EVENTS", "ID", "CREATED", null, 3));
+    }
+
+    @Test
+    public void pagesInUniqueOrder() throws Exception {
+        assertCoversAllRows(new KbasePartitionedQuery(databaseMeta, "EVENTS", "ID", null, "ID", 7));
+    }
+
+    @Test
+    public void lastPageReadsRowsAddedAfterCounting() throws Exception {
+        KbasePartitionedQuery query = new KbasePartitionedQuery(databaseMeta, "EVENTS", "ID", null, "ID", 3);
+        query.computeBounds(database);
+        KbaseTestSupport.execute(databaseMeta, "INSERT INTO EVENTS (ID) VALUES (1001), (1002)");
+
+        Set<Long> ids = new HashSet<Long>();
+        for (int partitionNr = 0; partitionNr < 3; partitionNr++) {
+            for (Object[] row : read(query, partitionNr)) {
+                assertTrue(ids.add(((Number) row[0]).longValue()));
+            }
+        }
+        assertEquals(1002, ids.size());
+    }
+
+    @Test
+    public void emptyTableGoesToTheFirstPartition() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "DELETE FROM EVENTS");
+        KbasePartitionedQuery query = new KbasePartitionedQuery(databaseMeta, "EVENTS", "ID", "AMOUNT", null, 2);
+        query.computeBounds(database);
+        assertEquals("SELECT ID FROM EVENTS", query.getPartitionSQL(0));
+        assertEquals("SELECT ID FROM EVENTS WHERE 1=0", query.getPartitionSQL(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pagingNeedsAnOrder() {
+        new KbasePartitionedQuery(databaseMeta, "EVENTS", "ID", null, null, 2);
+    }
+
+    @Test
+    public void bindsTheBoundsAsParameters() throws Exception {
+        KbasePartitionedQuery query = new KbasePartitionedQuery(databaseMeta, "EVENTS", "ID", "AMOUNT", null, 3);
+        query.computeBounds(database);
+        assertEquals("SELECT ID FROM EVENTS WHERE AMOUNT >= ? AND AMOUNT < ?", query.getPartitionSQL(1));
+        RowMetaAndData parameters = query.getPartitionParameters(1);
+        assertEquals(2, parameters.size());
+        assertTrue(parameters.getData()[0] instanceof BigDecimal);
+        assertEquals(1, query.getPartitionParameters(0).getData().length);
+        assertEquals(1, query.getPartitionParameters(2).getData().length);
+    }
+
+    @Test
+    public void splitsFractionalValues() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE RATES (ID BIGINT, RATE DOUBLE PRECISION)",
+                "INSERT INTO RATES VALUES (1, 0.1), (2, 0.2), (3, 0.3), (4, 0.4), (5, 0.5), (6, 0.6), (7, 0.7), "
+                        + "(8, 0.8)");
+        assertSplitsEvenly(new KbasePartitionedQuery(databaseMeta, "RATES", "ID", "RATE", null, 4), 8);
+    }
+
+    @Test
+    public void splitsTheFullRangeOfBigint() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE KEYS (ID BIGINT, K BIGINT)",
+                "INSERT INTO KEYS VALUES (1, " + Long.MIN_VALUE + "), (2, -3000000000000000000), "
+                        + "(3, 3000000000000000000), (4, " + Long.MAX_VALUE + ")");
+        assertSplitsEvenly(new KbasePartitionedQuery(databaseMeta, "KEYS", "ID", "K", null, 2), 4);
+    }
+
+    @Test
+    public void splitsWithinASecond() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE TICKS (ID BIGINT, T TIMESTAMP)");
+        for (int id = 1; id <= 6; id++) {
+            KbaseTestSupport.execute(databaseMeta, "INSERT INTO TICKS VALUES (" + id
+                    + ", TIMESTAMP '2020-01-01 10:00:00." + id + "00000001')");
+        }
+        KbasePartitionedQuery query = new KbasePartitionedQuery(databaseMeta, "TICKS", "ID", "T", null, 3);
+        assertSplitsEvenly(query, 6);
+        Timestamp bound = (Timestamp) query.getPartitionParameters(1).getData()[0];
+        assertEquals(Timestamp.valueOf("2020-01-01 10:00:00.266666667"), bound);
+    }
+
+    private void assertCoversAllRows(KbasePartitionedQuery query) throws Exception {
+        query.computeBounds(database);
+        Set<Long> ids = new HashSet<Long>();
+        for (int partitionNr = 0; partitionNr < query.getNrPartitions(); partitionNr++) {
+            for (Object[] row : read(query, partitionNr)) {
+                long id = ((Number) row[0]).longValue();
+                assertTrue("row " + id + " read twice", ids.add(id));
+            }
+        }
+        assertEquals(1000, ids.size());
+    }
+
+    /**
+     * 均匀分布的取值在每个分区中的行数相同
+     */
+    private void assertSplitsEvenly(KbasePartitionedQuery query, int nrRows) throws Exception {
+        query.computeBounds(database);
+        Set<Long> ids = new HashSet<Long>();
+        for (int partitionNr = 0; partitionNr < query.getNrPartitions(); partitionNr++) {
+            List<Object[]> rows = read(query, partitionNr);
+            assertEquals("partition " + partitionNr, nrRows / query.getNrPartitions(), rows.size());
+            for (Object[] row : rows) {
+                assertTrue(ids.add(((Number) row[0]).longValue()));
+            }
+        }
+        assertEquals(nrRows, ids.size());
+    }
+
+    private List<Object[]> read(KbasePartitionedQuery query, int partitionNr) throws Exception {
+        RowMetaAndData parameters = query.getPartitionParameters(partitionNr);
+        ResultSet res = database.openQuery(query.getPartitionSQL(partitionNr), parameters.getRowMeta(),
+                parameters.getData());
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Object[] row = database.getRow(res); row != null; row = database.getRow(res)) {
+            rows.add(row);
+        }
+        database.closeQuery(res);
+        return rows;
+    }
+}
@@ -0,0 +1,98 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.net.ServerSocket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseReplicaDriverTest {
+
+    private DatabaseMeta databaseMeta;
+    private KbaseDatabaseMeta kbaseMeta;
+    private ServerSocket replica1;
+    private ServerSocket replica2;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // 健康检查能连上的副本
+        replica1 = new ServerSocket(0);
+        replica2 = new ServerSocket(0);
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        kbaseMeta = KbaseTestSupport.kbase(databaseMeta);
+        kbaseMeta.setReplicaHosts("127.0.0.1:" + replica1.getLocalPort() + ", 127.0.0.1:" + replica2.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        replica1.close();
+        replica2.close();
+    }
+
+    @Test
+    public void writeAndDdlConnectionsNeverGetAReplica() throws Exception {
+        String primaryURL = "jdbc:kbase://localhost:4567/" + databaseMeta.getDatabaseName();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(primaryURL, databaseMeta.getURL());
+        }
+        assertEquals(KbaseInstrumentedDriver.KBASE_DRIVER, kbaseMeta.getDriverClass());
+
+        Connection connection = connect();
+        try {
+            connection.createStatement().execute("CREATE TABLE T (ID BIGINT)");
+            connection.createStatement().executeUpdate("INSERT INTO T VALUES (1)");
+        } finally {
+            connection.close();
+        }
+        assertEquals(1, KbaseTestSupport.count(databaseMeta, "T"));
+        assertEquals(0, KbaseStandInDriver.getRoundTrips(replicaURL(replica1)));
+        assertEquals(0, KbaseStandInDriver.getRoundTrips(replicaURL(replica2)));
+    }
+
+    @Test
+    public void readOnlyConnectionsPickAReplicaPerConnection() throws Exception {
+        kbaseMeta.setReadOnlyConnection(true);
+        String url = databaseMeta.getURL();
+        // 取URL不选择节点，连接池等保存URL的调用方也按连接路由
+        assertEquals(url, databaseMeta.getURL());
+        assertTrue(url, url.endsWith("@jdbc:kbase://localhost:4567/" + databaseMeta.getDatabaseName()));
+        assertEquals(KbaseReplicaDriver.class.getName(), kbaseMeta.getDriverClass());
+
+        connect().close();
+        connect().close();
+
+        assertEquals(1, KbaseStandInDriver.getRoundTrips(replicaURL(replica1)));
+        assertEquals(1, KbaseStandInDriver.getRoundTrips(replicaURL(replica2)));
+        assertEquals(0, KbaseStandInDriver.getRoundTrips("jdbc:kbase://localhost:4567/"
+                + databaseMeta.getDatabaseName()));
+    }
+
+    @Test
+    public void replacesTheHostOfInstrumentedURLs() throws Exception {
+        KbaseNodeRouter.Node node = KbaseNodeRouter.parseHosts("[fe80::1]:5001", "4567").get(0);
+        assertEquals("jdbc:kbase-instrumented://[fe80::1]:5001/BDMS",
+                KbaseReplicaDriver.withNode("jdbc:kbase-instrumented://db1:4567/BDMS", node));
+    }
+
+    private Connection connect() throws Exception {
+        Class.forName(kbaseMeta.getDriverClass());
+        return DriverManager.getConnection(databaseMeta.getURL(), "test", "test");
+    }
+
+    private String replicaURL(ServerSocket replica) {
+        return "jdbc:kbase://127.0.0.1:" + replica.getLocalPort() + "/" + databaseMeta.getDatabaseName();
+    }
+}
@@ -0,0 +1,147 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class KbaseRepositoryCacheTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        List<String> ddl = new ArrayList<String>();
+        ddl.add("CREATE TABLE R_TRANSFORMATION (ID_TRANSFORMATION BIGINT, NAME VARCHAR(255), "
+                + "MODIFIED_USER VARCHAR(255), MODIFIED_DATE TIMESTAMP)");
+        ddl.add("CREATE TABLE R_STEP (ID_STEP BIGINT, ID_TRANSFORMATION BIGINT, NAME VARCHAR(255))");
+        for (String table : Arrays.asList("R_STEP_ATTRIBUTE", "R_STEP_DATABASE", "R_TRANS_HOP", "R_TRANS_ATTRIBUTE",
+                "R_TRANS_STEP_CONDITION", "R_TRANS_PARTITION_SCHEMA", "R_TRANS_CLUSTER", "R_TRANS_SLAVE")) {
+            ddl.add("CREATE TABLE " + table + " (ID_TRANSFORMATION BIGINT)");
+        }
+        ddl.add("CREATE TABLE R_TRANS_NOTE (ID_TRANSFORMATION BIGINT, ID_NOTE BIGINT)");
+        ddl.add("CREATE TABLE R_NOTE (ID_NOTE BIGINT, VALUE_STR VARCHAR(255))");
+        ddl.add("INSERT INTO R_TRANSFORMATION VALUES (1, 'load', 'admin', TIMESTAMP '2020-01-01 10:00:00')");
+        ddl.add("INSERT INTO R_STEP VALUES (10, 1, 'input'), (11, 1, 'output')");
+        KbaseTestSupport.execute(databaseMeta, ddl.toArray(new String[0]));
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        KbaseRepositoryCache.getInstance().invalidateConnection(databaseMeta);
+        DBCache.getInstance().clear(databaseMeta.getName());
+        database.disconnect();
+    }
+
+    @Test
+    public void rereadsSavesWithTheSameModifiedDate() throws Exception {
+        KbaseRepositoryCache cache = KbaseRepositoryCache.getInstance();
+        KbaseRepositoryCache.RepositoryObject first = cache.getTransformation(database, 1);
+        assertEquals(2, first.getTable("R_STEP").getRows().size());
+        assertSame(first, cache.getTransformation(database, 1));
+
+        // 另一个用户在同一秒内保存
+        KbaseTestSupport.execute(databaseMeta, "UPDATE R_TRANSFORMATION SET MODIFIED_USER = 'etl'");
+        KbaseRepositoryCache.RepositoryObject second = cache.getTransformation(database, 1);
+        assertNotSame(first, second);
+        assertSame(second, cache.getTransformation(database, 1));
+
+        // 同一用户、同一时间重新保存了步骤
+        KbaseTestSupport.execute(databaseMeta, "DELETE FROM R_STEP",
+                "INSERT INTO R_STEP VALUES (12, 1, 'input'), (13, 1, 'output')");
+        KbaseRepositoryCache.RepositoryObject third = cache.getTransformation(database, 1);
+        assertNotSame(second, third);
+        assertEquals(12L, third.getTable("R_STEP").getValue(0, "ID_STEP"));
+    }
+
+    @Test
+    public void fullTableFlushesEarlierTablesFirst() throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setBatchSize(2);
+        KbaseRepositoryBatchWriter writer = new KbaseRepositoryBatchWriter(database);
+        RowMetaInterface stepMeta = new RowMeta();
+        stepMeta.addValueMeta(new ValueMetaInteger("ID_STEP"));
+        stepMeta.addValueMeta(new ValueMetaInteger("ID_TRANSFORMATION"));
+        RowMetaInterface hopMeta = new RowMeta();
+        hopMeta.addValueMeta(new ValueMetaInteger("ID_TRANSFORMATION"));
+
+        writer.insertRow("R_STEP", stepMeta, new Object[]{20L, 2L});
+        writer.insertRow("R_TRANS_HOP", hopMeta, new Object[]{2L});
+        writer.insertRow("R_TRANS_HOP", hopMeta, new Object[]{2L});
+
+        // R_TRANS_HOP 满了，先写入的 R_STEP 一起写入
+        assertEquals(3, KbaseTestSupport.count(databaseMeta, "R_STEP"));
+        assertEquals(2, KbaseTestSupport.count(databaseMeta, "R_TRANS_HOP"));
+        assertEquals(3, writer.getRowsWritten());
+        writer.close();
+    }
+
+    @Test
+    public void handsOutCopiesOfCachedRows() throws Exception {
+        KbaseRepositoryCache.RepositoryObject object = KbaseRepositoryCache.getInstance().getTransformation(database, 1);
+        KbaseRepositoryCache.Rows steps = object.getTable("R_STEP");
+        steps.getRows().get(0)[0] = 99L;
+        steps.getRows("ID_STEP", 11L).get(0)[2] = "changed";
+
+        assertEquals(10L, steps.getValue(0, "ID_STEP"));
+        assertEquals("output", steps.getRows("ID_STEP", 11L).get(0)[2]);
+    }
+
+    @Test
+    public void conversionErrorDropsTheBatch() throws Exception {
+        KbaseTestSupport.kbase(databaseMeta).setBatchSize(2);
+        KbaseRepositoryBatchWriter writer = new KbaseRepositoryBatchWriter(database);
+        RowMetaInterface stepMeta = new RowMeta();
+        stepMeta.addValueMeta(new ValueMetaInteger("ID_STEP"));
+        stepMeta.addValueMeta(new ValueMetaString("NAME") {
+            @Override
+            public void setPreparedStatementValue(DatabaseMeta databaseMeta, PreparedStatement preparedStatement,
+                                                  int index, Object data) throws KettleDatabaseException {
+                if ("bad".equals(data)) {
+                    throw new KettleDatabaseException("Unable to convert [" + data + "]");
+                }
+                super.setPreparedStatementValue(databaseMeta, preparedStatement, index, data);
+            }
+        });
+
+        writer.insertRow("R_STEP", stepMeta, new Object[]{20L, "good"});
+        try {
+            writer.insertRow("R_STEP", stepMeta, new Object[]{21L, "bad"});
+            fail("conversion error was not reported");
+        } catch (KettleDatabaseException e) {
+            // expected
+        }
+
+        // 失败的批次既不会重发，也不会留在预编译语句里
+        writer.insertRow("R_STEP", stepMeta, new Object[]{22L, "retry"});
+        writer.flush();
+        assertEquals(3, KbaseTestSupport.count(databaseMeta, "R_STEP"));
+        assertEquals(1, writer.getRowsWritten());
+        writer.close();
+    }
+}
@@ -0,0 +1,180 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.DBCache;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KbaseScriptExecutorTest {
+
+    private DatabaseMeta databaseMeta;
+    private Database database;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws KettleException {
+        KettleClientEnvironment.init();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        databaseMeta = KbaseTestSupport.newDatabaseMeta();
+        KbaseTestSupport.kbase(databaseMeta).setBatchSize(50);
+        database = KbaseTestSupport.connect(databaseMeta);
+    }
+
+    @After
+    public void tearDown() {
+        DBCache.getInstance().clear(databaseMeta.getName());
+        database.disconnect();
+    }
+
+    @Test
+    public void batchesAdjacentStatements() throws Exception {
+        StringBuilder script = new StringBuilder("CREATE TABLE T1 (ID BIGINT, NAME VARCHAR(10));\n");
+        for (int i = 0; i < 120; i++) {
+            script.append("INSERT INTO T1 VALUES (").append(i).append(", 'row").append(i).append("');\n");
+        }
+        script.append("SELECT COUNT(*) FROM T1;\n");
+        script.append("UPDATE T1 SET NAME = 'even' WHERE ID < 60;\n");
+        script.append("DELETE FROM T1 WHERE ID >= 100;\n");
+
+        KbaseScriptExecutor executor = new KbaseScriptExecutor(database, true);
+        assertTrue(executor.execute(script.toString()).isEmpty());
+
+        assertEquals(124, executor.getStatements());
+        // CREATE, 3 insert batches, SELECT, UPDATE + DELETE batch
+        assertEquals(6, executor.getRoundTrips());
+        assertEquals(120 + 60 + 20, executor.getRowsAffected());
+        assertEquals(100, KbaseTestSupport.count(databaseMeta, "T1"));
+    }
+
+    @Test
+    public void recordsFailuresAndRunsTheRest() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE T1 (ID BIGINT, PRIMARY KEY (ID))");
+        List<String> sqls = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            // statements 5 and 12 repeat an existing key
+            sqls.add("INSERT INTO T1 VALUES (" + (i == 5 || i == 12 ? 0 : i) + ")");
+        }
+
+        KbaseScriptExecutor executor = new KbaseScriptExecutor(database, false);
+        List<KbaseScriptExecutor.Failure> failures = executor.execute(sqls);
+
+        assertEquals(2, failures.size());
+        assertEquals(5, failures.get(0).getIndex());
+        assertEquals(12, failures.get(1).getIndex());
+        assertNotNull(failures.get(0).getException());
+        assertEquals(20, executor.getStatements());
+        assertEquals(18, executor.getRowsAffected());
+        assertEquals(18, KbaseTestSupport.count(databaseMeta, "T1"));
+    }
+
+    @Test
+    public void eachCallReturnsOnlyItsOwnFailures() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE T1 (ID BIGINT, PRIMARY KEY (ID))");
+        KbaseScriptExecutor executor = new KbaseScriptExecutor(database, false);
+
+        List<KbaseScriptExecutor.Failure> first = executor.execute(
+                "INSERT INTO T1 VALUES (1);\nINSERT INTO T1 VALUES (1);\nINSERT INTO T1 VALUES (2);");
+        assertEquals(1, first.size());
+        assertEquals(1, first.get(0).getIndex());
+
+        List<KbaseScriptExecutor.Failure> second = executor.execute(
+                "INSERT INTO T1 VALUES (2);\nINSERT INTO T1 VALUES (3);");
+        assertEquals(1, second.size());
+        assertEquals(0, second.get(0).getIndex());
+        assertEquals(1, first.size());
+
+        assertEquals(2, executor.getFailures().size());
+        assertEquals(0, executor.execute("INSERT INTO T1 VALUES (4);").size());
+    }
+
+    @Test
+    public void runsTheRestSinglyWhenTheDriverReportsNoCounts() throws Exception {
+        database.disconnect();
+        Properties options = new Properties();
+        options.setProperty("batchUpdateCounts", "false");
+        database = KbaseTestSupport.connect(databaseMeta, options);
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE T1 (ID BIGINT, PRIMARY KEY (ID))");
+        List<String> sqls = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            // statement 3 repeats an existing key, the driver doesn't say which entry failed
+            sqls.add("INSERT INTO T1 VALUES (" + (i == 3 ? 0 : i) + ")");
+        }
+
+        KbaseScriptExecutor executor = new KbaseScriptExecutor(database, false);
+        List<KbaseScriptExecutor.Failure> failures = executor.execute(sqls);
+
+        assertEquals(1, failures.size());
+        assertEquals(3, failures.get(0).getIndex());
+        assertEquals(10, executor.getStatements());
+        assertEquals(9, executor.getRowsAffected());
+        assertEquals(9, KbaseTestSupport.count(databaseMeta, "T1"));
+    }
+
+    @Test
+    public void cacheIsOnlyDroppedAfterScriptsWithDdl() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE T1 (ID BIGINT)");
+        KbaseScriptExecutor executor = new KbaseScriptExecutor(database, true);
+        executor.execute("CREATE TABLE T2 (ID BIGINT);");
+
+        assertEquals(1, KbaseDatabaseMeta.getTableFields(database, null, "T1").size());
+        KbaseTestSupport.execute(databaseMeta, "ALTER TABLE T1 ADD NAME VARCHAR(10)");
+        executor.execute("INSERT INTO T1 (ID) VALUES (1);");
+        // 没有DDL的脚本不清理缓存
+        assertEquals(1, KbaseDatabaseMeta.getTableFields(database, null, "T1").size());
+    }
+
+    @Test
+    public void stopsOnTheFirstError() throws Exception {
+        KbaseScriptExecutor executor = new KbaseScriptExecutor(database, true);
+        try {
+            executor.execute(Arrays.asList("CREATE TABLE T1 (ID BIGINT)", "INSERT INTO T1 VALUES (1)",
+                    "INSERT INTO MISSING VALUES (1)", "INSERT INTO T1 VALUES (2)"));
+            fail("the failing statement was ignored");
+        } catch (KettleDatabaseException e) {
+            // expected
+        }
+        assertEquals(1, executor.getFailures().size());
+        assertEquals(2, executor.getFailures().get(0).getIndex());
+    }
+
+    @Test
+    public void dropsCachedMetadataAfterDdl() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE T1 (ID BIGINT)");
+        assertEquals(1, KbaseDatabaseMeta.getTableFields(database, null, "T1").size());
+
+        new KbaseScriptExecutor(database, true).execute("ALTER TABLE T1 ADD NAME VARCHAR(10);");
+
+        assertEquals(2, KbaseDatabaseMeta.getTableFields(database, null, "T1").size());
+    }
+
+    @Test
+    public void generatingDdlKeepsCachedMetadata() throws Exception {
+        KbaseTestSupport.execute(databaseMeta, "CREATE TABLE T1 (ID BIGINT)");
+        assertEquals(1, KbaseDatabaseMeta.getTableFields(database, null, "T1").size());
+
+        // 生成的DDL还没有执行，表结构没有变化
+        KbaseDatabaseMeta kbaseMeta = KbaseTestSupport.kbase(databaseMeta);
+        kbaseMeta.getAddColumnStatement("T1", new ValueMetaString("NAME", 10, 0), null, false, null, false);
+        kbaseMeta.getDropTableIfExistsStatement("T1");
+        long roundTrips = KbaseTestSupport.roundTrips(databaseMeta);
+        assertEquals(1, KbaseDatabaseMeta.getTableFields(database, null, "T1").size());
+        assertEquals(roundTrips, KbaseTestSupport.roundTrips(databaseMeta));
+    }
+}
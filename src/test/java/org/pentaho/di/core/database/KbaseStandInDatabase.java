@@ -0,0 +1,1955 @@
+package org.pentaho.di.core.database;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.pentaho.di.core.database.KbaseStandInParser.AlterTable;
+import org.pentaho.di.core.database.KbaseStandInParser.Binary;
+import org.pentaho.di.core.database.KbaseStandInParser.ColumnDef;
+import org.pentaho.di.core.database.KbaseStandInParser.ColumnRef;
+import org.pentaho.di.core.database.KbaseStandInParser.CreateIndex;
+import org.pentaho.di.core.database.KbaseStandInParser.CreateSequence;
+import org.pentaho.di.core.database.KbaseStandInParser.CreateTable;
+import org.pentaho.di.core.database.KbaseStandInParser.Delete;
+import org.pentaho.di.core.database.KbaseStandInParser.Drop;
+import org.pentaho.di.core.database.KbaseStandInParser.Exists;
+import org.pentaho.di.core.database.KbaseStandInParser.Expr;
+import org.pentaho.di.core.database.KbaseStandInParser.FullText;
+import org.pentaho.di.core.database.KbaseStandInParser.Function;
+import org.pentaho.di.core.database.KbaseStandInParser.In;
+import org.pentaho.di.core.database.KbaseStandInParser.Insert;
+import org.pentaho.di.core.database.KbaseStandInParser.IsNull;
+import org.pentaho.di.core.database.KbaseStandInParser.Like;
+import org.pentaho.di.core.database.KbaseStandInParser.Literal;
+import org.pentaho.di.core.database.KbaseStandInParser.OrderItem;
+import org.pentaho.di.core.database.KbaseStandInParser.Param;
+import org.pentaho.di.core.database.KbaseStandInParser.Relevance;
+import org.pentaho.di.core.database.KbaseStandInParser.Select;
+import org.pentaho.di.core.database.KbaseStandInParser.SelectItem;
+import org.pentaho.di.core.database.KbaseStandInParser.Statement;
+import org.pentaho.di.core.database.KbaseStandInParser.SubQuery;
+import org.pentaho.di.core.database.KbaseStandInParser.Unary;
+import org.pentaho.di.core.database.KbaseStandInParser.Update;
+
+/**
+ * 替身驱动的内存数据库
+ * 保存表、索引和序列，解释执行 {@link KbaseStandInParser} 解析的语句，并提供 USER_IND_COLUMNS、
+ * USER_SEQUENCES、ALL_SEQUENCES、USER_TABLES 和 DUAL 数据字典视图。
+ * <p>
+ * Statements run one at a time under the database lock and are atomic. Changes of a session are undone on rollback,
+ * but other sessions see them immediately (read uncommitted). DDL commits the session like it does on Kbase.
+ * Identifiers are case-insensitive and keep the case they were created with, also in the dictionary views.
+ * Unique and primary keys are enforced through hash indexes, which also serve <code>key = ?</code> and
+ * <code>key IN (...)</code> lookups; every other predicate scans the table.
+ */
+final class KbaseStandInDatabase {
+
+    /**
+     * 未设置的参数
+     */
+    static final Object NOT_SET = new Object();
+
+    private static final MathContext DIVISION = MathContext.DECIMAL64;
+
+    static final class Column {
+        final String name;
+        final String typeName;
+        final int sqlType;
+        final int length;
+        final int scale;
+        final boolean notNull;
+        final boolean autoIncrement;
+        final Object defaultValue;
+        final String tableName;
+
+        Column(String name, String typeName, int sqlType, int length, int scale, boolean notNull,
+               boolean autoIncrement, Object defaultValue, String tableName) {
+            this.name = name;
+            this.typeName = typeName;
+            this.sqlType = sqlType;
+            this.length = length;
+            this.scale = scale;
+            this.notNull = notNull;
+            this.autoIncrement = autoIncrement;
+            this.defaultValue = defaultValue;
+            this.tableName = tableName;
+        }
+
+        Column rename(String label) {
+            return new Column(label, typeName, sqlType, length, scale, notNull, autoIncrement, null, tableName);
+        }
+    }
+
+    static final class Table {
+        final String name;
+        final List<Column> columns = new ArrayList<Column>();
+        final Map<String, Integer> positions = new HashMap<String, Integer>();
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        final List<Index> indexes = new ArrayList<Index>();
+        long nextId = 1;
+        int version;
+
+        Table(String name) {
+            this.name = name;
+        }
+
+        void addColumn(Column column) {
+            positions.put(key(column.name), columns.size());
+            columns.add(column);
+        }
+
+        int position(String column) {
+            Integer position = positions.get(key(column));
+            return position == null ? -1 : position;
+        }
+
+        void reindexColumns() {
+            positions.clear();
+            for (int i = 0; i < columns.size(); i++) {
+                positions.put(key(columns.get(i).name), i);
+            }
+        }
+    }
+
+    static final class Index {
+        final String name;
+        final Table table;
+        final String[] columnNames;
+        final boolean unique;
+        int[] columns;
+        final Map<Object, Object[]> rows = new HashMap<Object, Object[]>();
+
+        Index(String name, Table table, String[] columnNames, boolean unique) {
+            this.name = name;
+            this.table = table;
+            this.columnNames = columnNames;
+            this.unique = unique;
+        }
+
+        /**
+         * @return the key of the row, null if a key column is null
+         */
+        Object keyOf(Object[] row) {
+            if (columns.length == 1) {
+                return normalize(row[columns[0]]);
+            }
+            Object[] key = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                key[i] = normalize(row[columns[i]]);
+                if (key[i] == null) {
+                    return null;
+                }
+            }
+            return Arrays.asList(key);
+        }
+    }
+
+    static final class Sequence {
+        final String name;
+        final long increment;
+        final long start;
+        long next;
+
+        Sequence(String name, long start, long increment) {
+            this.name = name;
+            this.start = start;
+            this.increment = increment;
+            this.next = start;
+        }
+    }
+
+    /**
+     * 语句的执行结果：查询结果或影响的行数
+     */
+    static final class Result {
+        final List<Column> columns;
+        final List<Object[]> rows;
+        final int updateCount;
+        final List<Object> generatedKeys;
+
+        Result(List<Column> columns, List<Object[]> rows) {
+            this.columns = columns;
+            this.rows = rows;
+            this.updateCount = -1;
+            this.generatedKeys = Collections.emptyList();
+        }
+
+        Result(int updateCount, List<Object> generatedKeys) {
+            this.columns = null;
+            this.rows = null;
+            this.updateCount = updateCount;
+            this.generatedKeys = generatedKeys;
+        }
+
+        boolean isQuery() {
+            return columns != null;
+        }
+    }
+
+    private static final class Undo {
+        static final int INSERTED = 0;
+        static final int DELETED = 1;
+        static final int UPDATED = 2;
+
+        final int kind;
+        final Table table;
+        final int version;
+        final Object[] row;
+        final Object[] old;
+
+        Undo(int kind, Table table, Object[] row, Object[] old) {
+            this.kind = kind;
+            this.table = table;
+            this.version = table.version;
+            this.row = row;
+            this.old = old;
+        }
+    }
+
+    /**
+     * 一个连接的事务状态
+     */
+    final class Session {
+        boolean autoCommit = true;
+        private final List<Undo> undo = new ArrayList<Undo>();
+        private final Map<String, Long> currentValues = new HashMap<String, Long>();
+
+        KbaseStandInDatabase getDatabase() {
+            return KbaseStandInDatabase.this;
+        }
+    }
+
+    private static final class Scope {
+        final Table table;
+        final String alias;
+        final Object[] row;
+        final Scope outer;
+
+        Scope(Table table, String alias, Object[] row, Scope outer) {
+            this.table = table;
+            this.alias = alias;
+            this.row = row;
+            this.outer = outer;
+        }
+
+        boolean matches(String qualifier) {
+            if (qualifier == null) {
+                return true;
+            }
+            String name = qualifier.substring(qualifier.lastIndexOf('.') + 1);
+            return alias != null ? alias.equalsIgnoreCase(name) : table.name.equalsIgnoreCase(name);
+        }
+    }
+
+    private static final class Context {
+        final Session session;
+        final Object[] parameters;
+        final Map<Object, Object> cache = new IdentityHashMap<Object, Object>();
+
+        Context(Session session, Object[] parameters) {
+            this.session = session;
+            this.parameters = parameters;
+        }
+    }
+
+    private final String name;
+    private final Map<String, Table> tables = new LinkedHashMap<String, Table>();
+    private final Map<String, Index> indexes = new LinkedHashMap<String, Index>();
+    private final Map<String, Sequence> sequences = new LinkedHashMap<String, Sequence>();
+
+    private final AtomicLong statements = new AtomicLong();
+
+    KbaseStandInDatabase(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Session openSession() {
+        return new Session();
+    }
+
+    /**
+     * @return the number of statements executed, batched statements counted one by one
+     */
+    long getStatements() {
+        return statements.get();
+    }
+
+    /**
+     * @return the number of rows in the table, -1 if it doesn't exist
+     */
+    synchronized int getRowCount(String tableName) {
+        Table table = tables.get(key(tableName));
+        return table == null ? -1 : table.rows.size();
+    }
+
+    /**
+     * @return copies of the rows in the table, in insertion order
+     */
+    synchronized List<Object[]> getRows(String tableName) throws SQLException {
+        List<Object[]> copy = new ArrayList<Object[]>();
+        for (Object[] row : requireTable(tableName).rows) {
+            copy.add(row.clone());
+        }
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // transactions
+
+    synchronized void commit(Session session) {
+        session.undo.clear();
+    }
+
+    synchronized int savepoint(Session session) {
+        return session.undo.size();
+    }
+
+    synchronized void rollback(Session session, int savepoint) {
+        rollbackTo(session, savepoint);
+    }
+
+    private void rollbackTo(Session session, int mark) {
+        Map<Table, Set<Object[]>> inserted = new IdentityHashMap<Table, Set<Object[]>>();
+        for (int i = session.undo.size() - 1; i >= mark; i--) {
+            Undo undo = session.undo.remove(i);
+            Table table = undo.table;
+            if (tables.get(key(table.name)) != table || table.version != undo.version) {
+                // table dropped or altered since
+                continue;
+            }
+            if (undo.kind == Undo.INSERTED) {
+                Set<Object[]> rows = inserted.get(table);
+                if (rows == null) {
+                    rows = Collections.newSetFromMap(new IdentityHashMap<Object[], Boolean>());
+                    inserted.put(table, rows);
+                }
+                rows.add(undo.row);
+                continue;
+            }
+            // rows inserted after this change are removed before it is undone
+            removeInserted(inserted);
+            if (undo.kind == Undo.DELETED) {
+                for (Index index : table.indexes) {
+                    putKey(index, undo.row);
+                }
+                table.rows.add(undo.row);
+            } else {
+                for (Index index : table.indexes) {
+                    removeKey(index, undo.row);
+                }
+                System.arraycopy(undo.old, 0, undo.row, 0, undo.old.length);
+                for (Index index : table.indexes) {
+                    putKey(index, undo.row);
+                }
+            }
+        }
+        removeInserted(inserted);
+    }
+
+    private void removeInserted(Map<Table, Set<Object[]>> inserted) {
+        for (Map.Entry<Table, Set<Object[]>> entry : inserted.entrySet()) {
+            removeRows(entry.getKey(), entry.getValue());
+        }
+        inserted.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // execution
+
+    /**
+     * 执行一条语句，失败时撤销该语句的全部修改
+     *
+     * @param session    the session of the connection
+     * @param statement  the parsed statement
+     * @param parameters the parameter values, {@link #NOT_SET} for parameters that weren't set
+     * @return the query result or update count
+     * @throws SQLException on any error, with the SQLState a server would report
+     */
+    synchronized Result execute(Session session, Statement statement, Object[] parameters) throws SQLException {
+        statements.incrementAndGet();
+        for (int i = 0; i < statement.parameterCount; i++) {
+            if (i >= parameters.length || parameters[i] == NOT_SET) {
+                throw new SQLException("No value specified for parameter " + (i + 1), "07001");
+            }
+        }
+        Context context = new Context(session, parameters);
+        int mark = session.undo.size();
+        try {
+            Result result = dispatch(context, statement);
+            if (session.autoCommit) {
+                session.undo.clear();
+            }
+            return result;
+        } catch (SQLException e) {
+            rollbackTo(session, mark);
+            throw e;
+        } catch (RuntimeException e) {
+            rollbackTo(session, mark);
+            throw new SQLException("Internal error executing [" + statement.sql + "]: " + e, "XX000", e);
+        }
+    }
+
+    private Result dispatch(Context context, Statement statement) throws SQLException {
+        if (statement instanceof Select) {
+            return select(context, (Select) statement, null, false);
+        }
+        if (statement instanceof Insert) {
+            return insert(context, (Insert) statement);
+        }
+        if (statement instanceof Update) {
+            return update(context, (Update) statement);
+        }
+        if (statement instanceof Delete) {
+            return delete(context, (Delete) statement);
+        }
+        // DDL commits the current transaction
+        context.session.undo.clear();
+        if (statement instanceof CreateTable) {
+            createTable((CreateTable) statement);
+        } else if (statement instanceof CreateIndex) {
+            createIndex((CreateIndex) statement);
+        } else if (statement instanceof CreateSequence) {
+            createSequence((CreateSequence) statement);
+        } else if (statement instanceof Drop) {
+            drop((Drop) statement);
+        } else if (statement instanceof AlterTable) {
+            alterTable((AlterTable) statement);
+        } else {
+            throw new SQLSyntaxErrorException("Unsupported statement [" + statement.sql + "]", "42000");
+        }
+        return new Result(0, Collections.emptyList());
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // DDL
+
+    private void createTable(CreateTable create) throws SQLException {
+        String tableKey = key(create.table);
+        if (tables.containsKey(tableKey) || isDictionary(tableKey)) {
+            if (create.ifNotExists) {
+                return;
+            }
+            throw new SQLSyntaxErrorException("Table [" + create.table + "] already exists", "42S01");
+        }
+        Table table = new Table(create.table);
+        Set<String> primaryKey = new HashSet<String>();
+        for (String column : create.primaryKey) {
+            primaryKey.add(key(column));
+        }
+        List<String> inlineKey = new ArrayList<String>();
+        for (ColumnDef def : create.columns) {
+            if (table.position(def.name) >= 0) {
+                throw new SQLSyntaxErrorException("Duplicate column [" + def.name + "]", "42S21");
+            }
+            if (def.primaryKey) {
+                inlineKey.add(def.name);
+                primaryKey.add(key(def.name));
+            }
+            table.addColumn(toColumn(def, primaryKey.contains(key(def.name)), table.name));
+        }
+        List<String> keyColumns = create.primaryKey.isEmpty() ? inlineKey : create.primaryKey;
+        List<Index> tableIndexes = new ArrayList<Index>();
+        if (!keyColumns.isEmpty()) {
+            tableIndexes.add(newIndex("PK_" + table.name, table, keyColumns, true));
+        }
+        for (ColumnDef def : create.columns) {
+            if (def.unique) {
+                tableIndexes.add(newIndex("UK_" + table.name + "_" + def.name, table,
+                        Collections.singletonList(def.name), true));
+            }
+        }
+        for (int i = 0; i < create.uniqueKeys.size(); i++) {
+            tableIndexes.add(newIndex("UK_" + table.name + "_" + (i + 1), table, create.uniqueKeys.get(i), true));
+        }
+        for (Index index : tableIndexes) {
+            if (indexes.containsKey(key(index.name))) {
+                throw new SQLSyntaxErrorException("Index [" + index.name + "] already exists", "42S11");
+            }
+        }
+        tables.put(tableKey, table);
+        for (Index index : tableIndexes) {
+            indexes.put(key(index.name), index);
+            table.indexes.add(index);
+        }
+    }
+
+    private Index newIndex(String indexName, Table table, List<String> columns, boolean unique) throws SQLException {
+        Index index = new Index(indexName, table, columns.toArray(new String[columns.size()]), unique);
+        resolveIndexColumns(index);
+        return index;
+    }
+
+    private static void resolveIndexColumns(Index index) throws SQLException {
+        int[] positions = new int[index.columnNames.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = index.table.position(index.columnNames[i]);
+            if (positions[i] < 0) {
+                throw new SQLSyntaxErrorException("Column [" + index.columnNames[i] + "] not found in table ["
+                        + index.table.name + "]", "42S22");
+            }
+        }
+        index.columns = positions;
+    }
+
+    private void createIndex(CreateIndex create) throws SQLException {
+        Table table = requireTable(create.table);
+        if (indexes.containsKey(key(create.index))) {
+            throw new SQLSyntaxErrorException("Index [" + create.index + "] already exists", "42S11");
+        }
+        Index index = newIndex(create.index, table, create.columns, create.unique);
+        for (Object[] row : table.rows) {
+            Object indexKey = index.keyOf(row);
+            if (index.unique && indexKey != null && index.rows.put(indexKey, row) != null) {
+                throw new SQLIntegrityConstraintViolationException("Duplicate key " + indexKey + " in table ["
+                        + table.name + "], cannot create unique index [" + create.index + "]", "23000");
+            }
+        }
+        indexes.put(key(index.name), index);
+        table.indexes.add(index);
+    }
+
+    private void createSequence(CreateSequence create) throws SQLException {
+        String sequenceKey = key(create.sequence);
+        if (sequences.containsKey(sequenceKey)) {
+            throw new SQLSyntaxErrorException("Sequence [" + create.sequence + "] already exists", "42S01");
+        }
+        if (create.increment == 0) {
+            throw new SQLSyntaxErrorException("INCREMENT BY must not be zero", "42000");
+        }
+        sequences.put(sequenceKey, new Sequence(create.sequence, create.start, create.increment));
+    }
+
+    private void drop(Drop drop) throws SQLException {
+        String dropKey = key(drop.name);
+        if (drop.objectType.equals("TABLE")) {
+            Table table = tables.remove(dropKey);
+            if (table != null) {
+                for (Index index : table.indexes) {
+                    indexes.remove(key(index.name));
+                }
+                return;
+            }
+        } else if (drop.objectType.equals("INDEX")) {
+            Index index = indexes.remove(dropKey);
+            if (index != null) {
+                index.table.indexes.remove(index);
+                return;
+            }
+        } else if (sequences.remove(dropKey) != null) {
+            return;
+        }
+        if (!drop.ifExists) {
+            throw new SQLSyntaxErrorException(drop.objectType.substring(0, 1)
+                    + drop.objectType.substring(1).toLowerCase(Locale.ROOT) + " [" + drop.name + "] does not exist",
+                    "42S02");
+        }
+    }
+
+    /**
+     * 修改表结构时重建所有行，之前未提交的修改不再能撤销
+     */
+    private void alterTable(AlterTable alter) throws SQLException {
+        Table table = requireTable(alter.table);
+        List<Column> columns = new ArrayList<Column>(table.columns);
+        int[] source;
+        if (!alter.add.isEmpty()) {
+            for (ColumnDef def : alter.add) {
+                if (table.position(def.name) >= 0) {
+                    throw new SQLSyntaxErrorException("Column [" + def.name + "] already exists in table ["
+                            + table.name + "]", "42S21");
+                }
+                columns.add(toColumn(def, false, table.name));
+            }
+            source = new int[columns.size()];
+            for (int i = 0; i < source.length; i++) {
+                source[i] = i < table.columns.size() ? i : -1;
+            }
+        } else if (alter.dropColumn != null) {
+            int dropped = requireColumn(table, alter.dropColumn);
+            if (columns.size() == 1) {
+                throw new SQLSyntaxErrorException("Cannot drop the only column of table [" + table.name + "]",
+                        "42000");
+            }
+            columns.remove(dropped);
+            source = new int[columns.size()];
+            for (int i = 0; i < source.length; i++) {
+                source[i] = i < dropped ? i : i + 1;
+            }
+        } else {
+            int modified = requireColumn(table, alter.modify.name);
+            Column old = table.columns.get(modified);
+            columns.set(modified, toColumn(alter.modify, old.notNull, table.name));
+            source = new int[columns.size()];
+            for (int i = 0; i < source.length; i++) {
+                source[i] = i;
+            }
+        }
+
+        ArrayList<Object[]> rows = new ArrayList<Object[]>(table.rows.size());
+        for (Object[] row : table.rows) {
+            Object[] copy = new Object[columns.size()];
+            for (int i = 0; i < copy.length; i++) {
+                Column column = columns.get(i);
+                copy[i] = source[i] < 0 ? column.defaultValue : coerce(row[source[i]], column);
+                if (copy[i] == null && column.notNull && !column.autoIncrement) {
+                    throw new SQLIntegrityConstraintViolationException("Column [" + column.name
+                            + "] cannot be null", "23000");
+                }
+            }
+            rows.add(copy);
+        }
+
+        if (alter.dropColumn != null) {
+            for (Index index : new ArrayList<Index>(table.indexes)) {
+                for (String column : index.columnNames) {
+                    if (column.equalsIgnoreCase(alter.dropColumn)) {
+                        table.indexes.remove(index);
+                        indexes.remove(key(index.name));
+                        break;
+                    }
+                }
+            }
+        }
+        table.columns.clear();
+        table.columns.addAll(columns);
+        table.reindexColumns();
+        table.rows = rows;
+        table.version++;
+        for (Index index : table.indexes) {
+            resolveIndexColumns(index);
+            index.rows.clear();
+            for (Object[] row : rows) {
+                putKey(index, row);
+            }
+        }
+    }
+
+    private Column toColumn(ColumnDef def, boolean primaryKey, String tableName) throws SQLException {
+        int sqlType = sqlType(def.typeName);
+        Column untyped = new Column(def.name, def.typeName, sqlType, def.length, def.scale,
+                def.notNull || primaryKey, def.autoIncrement, null, tableName);
+        Object defaultValue = null;
+        if (def.defaultValue != null) {
+            defaultValue = coerce(evaluate(new Context(null, new Object[0]), def.defaultValue, null, null), untyped);
+        }
+        return new Column(def.name, def.typeName, sqlType, def.length, def.scale, def.notNull || primaryKey,
+                def.autoIncrement, defaultValue, tableName);
+    }
+
+    /**
+     * @return the java.sql.Types code of a Kbase type name
+     */
+    static int sqlType(String typeName) throws SQLException {
+        String type = typeName.toUpperCase(Locale.ROOT);
+        if (type.equals("SMALLINT") || type.equals("TINYINT")) {
+            return Types.SMALLINT;
+        }
+        if (type.equals("INT") || type.equals("INTEGER") || type.equals("SERIAL")) {
+            return Types.INTEGER;
+        }
+        if (type.equals("BIGINT") || type.equals("BIGSERIAL")) {
+            return Types.BIGINT;
+        }
+        if (type.equals("NUMERIC") || type.equals("DECIMAL") || type.equals("NUMBER") || type.equals("DEC")) {
+            return Types.NUMERIC;
+        }
+        if (type.equals("FLOAT") || type.equals("DOUBLE") || type.equals("DOUBLE PRECISION")
+                || type.equals("REAL")) {
+            return Types.DOUBLE;
+        }
+        if (type.equals("CHAR") || type.equals("CHARACTER") || type.equals("NCHAR")) {
+            return Types.CHAR;
+        }
+        if (type.equals("VARCHAR") || type.equals("VARCHAR2") || type.equals("NVARCHAR")
+                || type.equals("CHARACTER VARYING")) {
+            return Types.VARCHAR;
+        }
+        if (type.equals("TEXT") || type.equals("LONG VARCHAR") || type.equals("LONG")) {
+            return Types.LONGVARCHAR;
+        }
+        if (type.equals("CLOB")) {
+            return Types.CLOB;
+        }
+        if (type.equals("DATE")) {
+            return Types.DATE;
+        }
+        if (type.equals("TIMESTAMP") || type.equals("DATETIME")) {
+            return Types.TIMESTAMP;
+        }
+        if (type.equals("TIME")) {
+            return Types.TIME;
+        }
+        if (type.equals("BOOLEAN") || type.equals("BOOL") || type.equals("BIT")) {
+            return Types.BOOLEAN;
+        }
+        if (type.equals("BLOB") || type.equals("BYTEA") || type.equals("LONG RAW")) {
+            return Types.BLOB;
+        }
+        if (type.equals("BINARY") || type.equals("VARBINARY") || type.equals("RAW")) {
+            return Types.VARBINARY;
+        }
+        throw new SQLSyntaxErrorException("Unknown data type [" + typeName + "]", "42000");
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // DML
+
+    private Result insert(Context context, Insert insert) throws SQLException {
+        Table table = requireTable(insert.table);
+        int[] targets;
+        if (insert.columns.isEmpty()) {
+            targets = new int[table.columns.size()];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = i;
+            }
+        } else {
+            targets = new int[insert.columns.size()];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = requireColumn(table, insert.columns.get(i));
+            }
+        }
+
+        List<Object[]> values;
+        if (insert.select != null) {
+            values = select(context, insert.select, null, false).rows;
+        } else {
+            values = new ArrayList<Object[]>(insert.values.size());
+            for (List<Expr> expressions : insert.values) {
+                Object[] row = new Object[expressions.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = evaluate(context, expressions.get(i), null, null);
+                }
+                values.add(row);
+            }
+        }
+
+        List<Object> generatedKeys = new ArrayList<Object>();
+        for (Object[] value : values) {
+            if (value.length != targets.length) {
+                throw new SQLSyntaxErrorException("INSERT has " + targets.length + " target columns but "
+                        + value.length + " values", "21S01");
+            }
+            Object[] row = new Object[table.columns.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = table.columns.get(i).defaultValue;
+            }
+            for (int i = 0; i < targets.length; i++) {
+                row[targets[i]] = coerce(value[i], table.columns.get(targets[i]));
+            }
+            for (int i = 0; i < row.length; i++) {
+                Column column = table.columns.get(i);
+                if (column.autoIncrement) {
+                    if (row[i] == null) {
+                        row[i] = coerce(table.nextId++, column);
+                        generatedKeys.add(row[i]);
+                    } else if (row[i] instanceof Number) {
+                        table.nextId = Math.max(table.nextId, ((Number) row[i]).longValue() + 1);
+                    }
+                }
+                if (row[i] == null && column.notNull) {
+                    throw new SQLIntegrityConstraintViolationException("Column [" + column.name + "] of table ["
+                            + table.name + "] cannot be null", "23000");
+                }
+            }
+            addRow(context.session, table, row);
+        }
+        return new Result(values.size(), generatedKeys);
+    }
+
+    private Result update(Context context, Update update) throws SQLException {
+        Table table = requireTable(update.table.name);
+        int[] targets = new int[update.columns.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = requireColumn(table, update.columns.get(i));
+        }
+        List<Object[]> matches = matches(context, table, update.table.alias, update.where, null);
+        // all assignments see the rows as they were before the statement
+        List<Object[]> updated = new ArrayList<Object[]>(matches.size());
+        for (Object[] row : matches) {
+            Scope scope = new Scope(table, update.table.alias, row, null);
+            Object[] values = row.clone();
+            for (int i = 0; i < targets.length; i++) {
+                Column column = table.columns.get(targets[i]);
+                values[targets[i]] = coerce(evaluate(context, update.values.get(i), scope, null), column);
+                if (values[targets[i]] == null && column.notNull) {
+                    throw new SQLIntegrityConstraintViolationException("Column [" + column.name + "] of table ["
+                            + table.name + "] cannot be null", "23000");
+                }
+            }
+            updated.add(values);
+        }
+        for (int i = 0; i < matches.size(); i++) {
+            updateRow(context.session, table, matches.get(i), updated.get(i));
+        }
+        return new Result(matches.size(), Collections.emptyList());
+    }
+
+    private Result delete(Context context, Delete delete) throws SQLException {
+        Table table = requireTable(delete.table.name);
+        List<Object[]> matches = matches(context, table, delete.table.alias, delete.where, null);
+        Set<Object[]> removed = Collections.newSetFromMap(new IdentityHashMap<Object[], Boolean>());
+        removed.addAll(matches);
+        removeRows(table, removed);
+        for (Object[] row : matches) {
+            context.session.undo.add(new Undo(Undo.DELETED, table, row, null));
+        }
+        return new Result(matches.size(), Collections.emptyList());
+    }
+
+    private void addRow(Session session, Table table, Object[] row) throws SQLException {
+        for (Index index : table.indexes) {
+            if (index.unique) {
+                Object indexKey = index.keyOf(row);
+                if (indexKey != null && index.rows.containsKey(indexKey)) {
+                    throw duplicate(index, indexKey);
+                }
+            }
+        }
+        for (Index index : table.indexes) {
+            putKey(index, row);
+        }
+        table.rows.add(row);
+        session.undo.add(new Undo(Undo.INSERTED, table, row, null));
+    }
+
+    private void updateRow(Session session, Table table, Object[] row, Object[] values) throws SQLException {
+        for (Index index : table.indexes) {
+            if (index.unique) {
+                Object indexKey = index.keyOf(values);
+                Object[] existing = indexKey == null ? null : index.rows.get(indexKey);
+                if (existing != null && existing != row) {
+                    throw duplicate(index, indexKey);
+                }
+            }
+        }
+        session.undo.add(new Undo(Undo.UPDATED, table, row, row.clone()));
+        for (Index index : table.indexes) {
+            removeKey(index, row);
+        }
+        System.arraycopy(values, 0, row, 0, values.length);
+        for (Index index : table.indexes) {
+            putKey(index, row);
+        }
+    }
+
+    private static void removeRows(Table table, Set<Object[]> removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        ArrayList<Object[]> remaining = new ArrayList<Object[]>(Math.max(16, table.rows.size() - removed.size()));
+        for (Object[] row : table.rows) {
+            if (removed.contains(row)) {
+                for (Index index : table.indexes) {
+                    removeKey(index, row);
+                }
+            } else {
+                remaining.add(row);
+            }
+        }
+        table.rows = remaining;
+    }
+
+    private static void putKey(Index index, Object[] row) {
+        if (index.unique) {
+            Object indexKey = index.keyOf(row);
+            if (indexKey != null) {
+                index.rows.put(indexKey, row);
+            }
+        }
+    }
+
+    private static void removeKey(Index index, Object[] row) {
+        if (index.unique) {
+            Object indexKey = index.keyOf(row);
+            if (indexKey != null && index.rows.get(indexKey) == row) {
+                index.rows.remove(indexKey);
+            }
+        }
+    }
+
+    private static SQLException duplicate(Index index, Object indexKey) {
+        return new SQLIntegrityConstraintViolationException("Unique constraint [" + index.name + "] violated, key "
+                + indexKey + " already exists in table [" + index.table.name + "]", "23000");
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // queries
+
+    private Result select(Context context, Select select, Scope outer, boolean existsOnly) throws SQLException {
+        Table table = select.from == null ? null : resolveTable(select.from.name);
+        String alias = select.from == null ? null : select.from.alias;
+        List<Scope> scopes = new ArrayList<Scope>();
+        if (table == null) {
+            Scope scope = new Scope(dual(), null, new Object[]{"X"}, outer);
+            if (select.where == null || isTrue(evaluate(context, select.where, scope, null))) {
+                scopes.add(scope);
+            }
+        } else {
+            for (Object[] row : candidates(context, table, alias, select.where, outer)) {
+                Scope scope = new Scope(table, alias, row, outer);
+                if (select.where == null || isTrue(evaluate(context, select.where, scope, null))) {
+                    scopes.add(scope);
+                    if (existsOnly) {
+                        break;
+                    }
+                }
+            }
+        }
+        Table source = table == null ? dual() : table;
+
+        boolean aggregate = false;
+        for (SelectItem item : select.items) {
+            aggregate |= item.expr != null && containsAggregate(item.expr);
+        }
+
+        List<Column> columns = new ArrayList<Column>();
+        for (SelectItem item : select.items) {
+            if (item.star) {
+                for (Column column : source.columns) {
+                    if (item.starQualifier == null || new Scope(source, alias, null, null).matches(item.starQualifier)) {
+                        columns.add(column);
+                    }
+                }
+            } else {
+                columns.add(describe(item, source, columns.size()));
+            }
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        if (aggregate) {
+            Scope scope = scopes.isEmpty() ? new Scope(source, alias, new Object[source.columns.size()], outer)
+                    : scopes.get(0);
+            rows.add(project(context, select, scope, scopes, columns.size()));
+        } else {
+            if (!select.orderBy.isEmpty()) {
+                sort(context, select, scopes);
+            }
+            for (Scope scope : scopes) {
+                rows.add(project(context, select, scope, null, columns.size()));
+            }
+        }
+
+        if (select.distinct) {
+            Map<Object, Object[]> distinct = new LinkedHashMap<Object, Object[]>();
+            for (Object[] row : rows) {
+                Object[] rowKey = new Object[row.length];
+                for (int i = 0; i < row.length; i++) {
+                    rowKey[i] = normalize(row[i]);
+                }
+                List<Object> distinctKey = Arrays.asList(rowKey);
+                if (!distinct.containsKey(distinctKey)) {
+                    distinct.put(distinctKey, row);
+                }
+            }
+            rows = new ArrayList<Object[]>(distinct.values());
+        }
+
+        long offset = select.offset == null ? 0 : toLong(evaluate(context, select.offset, outer, null));
+        long limit = select.limit == null ? Long.MAX_VALUE : toLong(evaluate(context, select.limit, outer, null));
+        if (offset > 0 || limit < rows.size()) {
+            int from = (int) Math.min(rows.size(), Math.max(0, offset));
+            int to = (int) Math.min(rows.size(), from + Math.max(0, Math.min(limit, Integer.MAX_VALUE)));
+            rows = new ArrayList<Object[]>(rows.subList(from, to));
+        }
+
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            if (column.sqlType == Types.NULL) {
+                columns.set(i, infer(column.name, rows, i));
+            }
+        }
+        return new Result(columns, rows);
+    }
+
+    private Object[] project(Context context, Select select, Scope scope, List<Scope> group, int width)
+            throws SQLException {
+        Object[] row = new Object[width];
+        int position = 0;
+        for (SelectItem item : select.items) {
+            if (item.star) {
+                for (int i = 0; i < scope.table.columns.size(); i++) {
+                    if (item.starQualifier == null || scope.matches(item.starQualifier)) {
+                        row[position++] = scope.row[i];
+                    }
+                }
+            } else {
+                row[position++] = evaluate(context, item.expr, scope, group);
+            }
+        }
+        return row;
+    }
+
+    private void sort(final Context context, Select select, List<Scope> scopes) throws SQLException {
+        final int nrKeys = select.orderBy.size();
+        final boolean[] descending = new boolean[nrKeys];
+        Expr[] keys = new Expr[nrKeys];
+        for (int k = 0; k < nrKeys; k++) {
+            OrderItem item = select.orderBy.get(k);
+            descending[k] = item.descending;
+            keys[k] = orderKey(select, item.expr);
+        }
+        final Map<Scope, Object[]> values = new IdentityHashMap<Scope, Object[]>();
+        for (Scope scope : scopes) {
+            Object[] value = new Object[nrKeys];
+            for (int k = 0; k < nrKeys; k++) {
+                value[k] = evaluate(context, keys[k], scope, null);
+            }
+            values.put(scope, value);
+        }
+        Collections.sort(scopes, new Comparator<Scope>() {
+            @Override
+            public int compare(Scope one, Scope two) {
+                Object[] a = values.get(one);
+                Object[] b = values.get(two);
+                for (int k = 0; k < nrKeys; k++) {
+                    int result;
+                    if (a[k] == null || b[k] == null) {
+                        // nulls sort last ascending, first descending
+                        result = a[k] == null ? (b[k] == null ? 0 : 1) : -1;
+                    } else {
+                        result = compareValues(a[k], b[k]);
+                    }
+                    if (result != 0) {
+                        return descending[k] ? -result : result;
+                    }
+                }
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * ORDER BY 1 and ORDER BY alias refer to select items
+     */
+    private static Expr orderKey(Select select, Expr expr) {
+        if (expr instanceof Literal && ((Literal) expr).value instanceof Long) {
+            int ordinal = ((Long) ((Literal) expr).value).intValue();
+            if (ordinal >= 1 && ordinal <= select.items.size() && !select.items.get(ordinal - 1).star) {
+                return select.items.get(ordinal - 1).expr;
+            }
+        }
+        if (expr instanceof ColumnRef && ((ColumnRef) expr).qualifier == null) {
+            for (SelectItem item : select.items) {
+                if (item.alias != null && item.alias.equalsIgnoreCase(((ColumnRef) expr).name)) {
+                    return item.expr;
+                }
+            }
+        }
+        return expr;
+    }
+
+    private Column describe(SelectItem item, Table source, int position) {
+        Expr expr = item.expr;
+        if (expr instanceof Function && ((Function) expr).isAggregate()) {
+            Function function = (Function) expr;
+            String label = item.alias != null ? item.alias
+                    : function.name + (function.star ? "(*)" : "");
+            if (function.name.equals("COUNT")) {
+                return new Column(label, "BIGINT", Types.BIGINT, 0, 0, true, false, null, "");
+            }
+            if ((function.name.equals("MIN") || function.name.equals("MAX"))
+                    && function.arguments.get(0) instanceof ColumnRef) {
+                int column = source.position(((ColumnRef) function.arguments.get(0)).name);
+                if (column >= 0) {
+                    return source.columns.get(column).rename(label);
+                }
+            }
+            return untyped(label);
+        }
+        if (expr instanceof ColumnRef) {
+            ColumnRef ref = (ColumnRef) expr;
+            String label = item.alias != null ? item.alias : ref.name;
+            int column = source.position(ref.name);
+            if (column >= 0) {
+                Column described = source.columns.get(column);
+                return item.alias == null ? described : described.rename(label);
+            }
+            if (ref.name.equalsIgnoreCase("NEXTVAL") || ref.name.equalsIgnoreCase("CURRVAL")) {
+                return new Column(label.toUpperCase(Locale.ROOT), "BIGINT", Types.BIGINT, 0, 0, true, false, null,
+                        "");
+            }
+            return untyped(label);
+        }
+        return untyped(item.alias != null ? item.alias : "EXPR" + (position + 1));
+    }
+
+    private static Column untyped(String label) {
+        return new Column(label, null, Types.NULL, 0, 0, false, false, null, "");
+    }
+
+    private static Column infer(String label, List<Object[]> rows, int index) {
+        Object sample = null;
+        for (Object[] row : rows) {
+            if (row[index] != null) {
+                sample = row[index];
+                break;
+            }
+        }
+        if (sample instanceof Long || sample instanceof Integer) {
+            return new Column(label, "BIGINT", Types.BIGINT, 0, 0, false, false, null, "");
+        }
+        if (sample instanceof BigDecimal) {
+            return new Column(label, "NUMERIC", Types.NUMERIC, 0, -1, false, false, null, "");
+        }
+        if (sample instanceof Double) {
+            return new Column(label, "DOUBLE PRECISION", Types.DOUBLE, 0, 0, false, false, null, "");
+        }
+        if (sample instanceof Timestamp) {
+            return new Column(label, "TIMESTAMP", Types.TIMESTAMP, 0, 0, false, false, null, "");
+        }
+        if (sample instanceof Boolean) {
+            return new Column(label, "BOOLEAN", Types.BOOLEAN, 0, 0, false, false, null, "");
+        }
+        if (sample instanceof byte[]) {
+            return new Column(label, "BLOB", Types.BLOB, 0, 0, false, false, null, "");
+        }
+        return new Column(label, "VARCHAR", Types.VARCHAR, 0, 0, false, false, null, "");
+    }
+
+    /**
+     * 先用唯一索引缩小范围：WHERE 中的 <code>key = value</code> 或 <code>key IN (values)</code> 条件
+     */
+    private Collection<Object[]> candidates(Context context, Table table, String alias, Expr where, Scope outer)
+            throws SQLException {
+        if (where == null || table.indexes.isEmpty()) {
+            return table.rows;
+        }
+        Scope self = new Scope(table, alias, null, outer);
+        List<Expr> conjuncts = new ArrayList<Expr>();
+        conjuncts(where, conjuncts);
+        for (Expr conjunct : conjuncts) {
+            ColumnRef column = null;
+            List<Expr> values = null;
+            if (conjunct instanceof Binary && ((Binary) conjunct).operator.equals("=")) {
+                Binary equals = (Binary) conjunct;
+                if (isOwnColumn(equals.left, self) && isConstant(equals.right, self)) {
+                    column = (ColumnRef) equals.left;
+                    values = Collections.singletonList(equals.right);
+                } else if (isOwnColumn(equals.right, self) && isConstant(equals.left, self)) {
+                    column = (ColumnRef) equals.right;
+                    values = Collections.singletonList(equals.left);
+                }
+            } else if (conjunct instanceof In && !((In) conjunct).negated && ((In) conjunct).list != null
+                    && isOwnColumn(((In) conjunct).operand, self)) {
+                In in = (In) conjunct;
+                boolean constant = true;
+                for (Expr value : in.list) {
+                    constant &= isConstant(value, self);
+                }
+                if (constant) {
+                    column = (ColumnRef) in.operand;
+                    values = in.list;
+                }
+            }
+            if (column == null) {
+                continue;
+            }
+            int position = table.position(column.name);
+            for (Index index : table.indexes) {
+                if (index.unique && index.columns.length == 1 && index.columns[0] == position) {
+                    Set<Object[]> rows = Collections.newSetFromMap(new IdentityHashMap<Object[], Boolean>());
+                    List<Object[]> ordered = new ArrayList<Object[]>();
+                    for (Expr value : values) {
+                        Object indexKey;
+                        try {
+                            indexKey = normalize(coerce(evaluate(context, value, outer, null),
+                                    table.columns.get(position)));
+                        } catch (SQLException e) {
+                            // not convertible to the column type, can't match
+                            continue;
+                        }
+                        Object[] row = indexKey == null ? null : index.rows.get(indexKey);
+                        if (row != null && rows.add(row)) {
+                            ordered.add(row);
+                        }
+                    }
+                    return ordered;
+                }
+            }
+        }
+        return table.rows;
+    }
+
+    private static void conjuncts(Expr expr, List<Expr> conjuncts) {
+        if (expr instanceof Binary && ((Binary) expr).operator.equals("AND")) {
+            conjuncts(((Binary) expr).left, conjuncts);
+            conjuncts(((Binary) expr).right, conjuncts);
+        } else {
+            conjuncts.add(expr);
+        }
+    }
+
+    private static boolean isOwnColumn(Expr expr, Scope self) {
+        return expr instanceof ColumnRef && self.matches(((ColumnRef) expr).qualifier)
+                && self.table.position(((ColumnRef) expr).name) >= 0;
+    }
+
+    /**
+     * @return true if the value doesn't depend on the row being filtered
+     */
+    private static boolean isConstant(Expr expr, Scope self) {
+        if (expr instanceof Literal || expr instanceof Param) {
+            return true;
+        }
+        return expr instanceof ColumnRef && ((ColumnRef) expr).qualifier != null
+                && !self.matches(((ColumnRef) expr).qualifier);
+    }
+
+    private List<Object[]> matches(Context context, Table table, String alias, Expr where, Scope outer)
+            throws SQLException {
+        List<Object[]> matches = new ArrayList<Object[]>();
+        for (Object[] row : candidates(context, table, alias, where, outer)) {
+            if (where == null || isTrue(evaluate(context, where, new Scope(table, alias, row, outer), null))) {
+                matches.add(row);
+            }
+        }
+        return matches;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // expressions
+
+    private Object evaluate(Context context, Expr expr, Scope scope, List<Scope> group) throws SQLException {
+        if (expr instanceof Literal) {
+            return ((Literal) expr).value;
+        }
+        if (expr instanceof Param) {
+            return context.parameters[((Param) expr).index];
+        }
+        if (expr instanceof ColumnRef) {
+            return column(context, (ColumnRef) expr, scope);
+        }
+        if (expr instanceof Binary) {
+            return binary(context, (Binary) expr, scope, group);
+        }
+        if (expr instanceof Unary) {
+            Unary unary = (Unary) expr;
+            Object value = evaluate(context, unary.operand, scope, group);
+            if (value == null) {
+                return null;
+            }
+            if (unary.operator.equals("NOT")) {
+                return !isTrue(value);
+            }
+            if (value instanceof Long) {
+                return -(Long) value;
+            }
+            return toBigDecimal(value).negate();
+        }
+        if (expr instanceof IsNull) {
+            IsNull isNull = (IsNull) expr;
+            return (evaluate(context, isNull.operand, scope, group) == null) != isNull.negated;
+        }
+        if (expr instanceof In) {
+            return in(context, (In) expr, scope, group);
+        }
+        if (expr instanceof Like) {
+            Like like = (Like) expr;
+            Object value = evaluate(context, like.operand, scope, group);
+            Object pattern = evaluate(context, like.pattern, scope, group);
+            if (value == null || pattern == null) {
+                return null;
+            }
+            return likePattern(String.valueOf(pattern)).matcher(toText(value)).matches() != like.negated;
+        }
+        if (expr instanceof FullText) {
+            FullText fullText = (FullText) expr;
+            Object value = evaluate(context, fullText.operand, scope, group);
+            Object expression = evaluate(context, fullText.expression, scope, group);
+            if (value == null || expression == null) {
+                return null;
+            }
+            return toText(value).contains(String.valueOf(expression));
+        }
+        if (expr instanceof Relevance) {
+            return relevance(context, ((Relevance) expr).where, scope);
+        }
+        if (expr instanceof Exists) {
+            return !select(context, ((Exists) expr).query, scope, true).rows.isEmpty();
+        }
+        if (expr instanceof SubQuery) {
+            List<Object[]> rows = select(context, ((SubQuery) expr).query, scope, false).rows;
+            if (rows.size() > 1) {
+                throw new SQLException("Single-row sub-query returns more than one row", "21000");
+            }
+            return rows.isEmpty() ? null : rows.get(0)[0];
+        }
+        if (expr instanceof Function) {
+            return function(context, (Function) expr, scope, group);
+        }
+        throw new SQLSyntaxErrorException("Unsupported expression " + expr, "42000");
+    }
+
+    /**
+     * @return the sum of the weights of the full-text conditions the row matches
+     */
+    private long relevance(Context context, Expr expr, Scope scope) throws SQLException {
+        if (expr instanceof FullText) {
+            return isTrue(evaluate(context, expr, scope, null)) ? ((FullText) expr).weight : 0;
+        }
+        if (expr instanceof Binary) {
+            return relevance(context, ((Binary) expr).left, scope) + relevance(context, ((Binary) expr).right, scope);
+        }
+        return 0;
+    }
+
+    private Object column(Context context, ColumnRef ref, Scope scope) throws SQLException {
+        for (Scope current = scope; current != null; current = current.outer) {
+            if (current.matches(ref.qualifier)) {
+                int position = current.table.position(ref.name);
+                if (position >= 0) {
+                    return current.row[position];
+                }
+            }
+        }
+        if (ref.qualifier != null) {
+            Sequence sequence = sequences.get(key(ref.qualifier.substring(ref.qualifier.lastIndexOf('.') + 1)));
+            if (sequence != null && ref.name.equalsIgnoreCase("NEXTVAL")) {
+                long value = sequence.next;
+                sequence.next += sequence.increment;
+                context.session.currentValues.put(key(sequence.name), value);
+                return value;
+            }
+            if (sequence != null && ref.name.equalsIgnoreCase("CURRVAL")) {
+                Long value = context.session.currentValues.get(key(sequence.name));
+                if (value == null) {
+                    throw new SQLException("CURRVAL of sequence [" + sequence.name
+                            + "] is not yet defined in this session", "72000");
+                }
+                return value;
+            }
+        }
+        throw new SQLSyntaxErrorException("Column [" + (ref.qualifier == null ? "" : ref.qualifier + ".")
+                + ref.name + "] not found", "42S22");
+    }
+
+    private Object binary(Context context, Binary binary, Scope scope, List<Scope> group) throws SQLException {
+        String operator = binary.operator;
+        if (operator.equals("AND")) {
+            Object left = evaluate(context, binary.left, scope, group);
+            if (left != null && !isTrue(left)) {
+                return false;
+            }
+            Object right = evaluate(context, binary.right, scope, group);
+            if (right != null && !isTrue(right)) {
+                return false;
+            }
+            return left == null || right == null ? null : Boolean.TRUE;
+        }
+        if (operator.equals("OR")) {
+            Object left = evaluate(context, binary.left, scope, group);
+            if (left != null && isTrue(left)) {
+                return true;
+            }
+            Object right = evaluate(context, binary.right, scope, group);
+            if (right != null && isTrue(right)) {
+                return true;
+            }
+            return left == null || right == null ? null : Boolean.FALSE;
+        }
+        Object left = evaluate(context, binary.left, scope, group);
+        Object right = evaluate(context, binary.right, scope, group);
+        if (operator.equals("||")) {
+            // Kbase treats NULL as an empty string when concatenating
+            return (left == null ? "" : toText(left)) + (right == null ? "" : toText(right));
+        }
+        if (left == null || right == null) {
+            return null;
+        }
+        if (operator.equals("=")) {
+            return compareValues(left, right) == 0;
+        }
+        if (operator.equals("<>")) {
+            return compareValues(left, right) != 0;
+        }
+        if (operator.equals("<")) {
+            return compareValues(left, right) < 0;
+        }
+        if (operator.equals("<=")) {
+            return compareValues(left, right) <= 0;
+        }
+        if (operator.equals(">")) {
+            return compareValues(left, right) > 0;
+        }
+        if (operator.equals(">=")) {
+            return compareValues(left, right) >= 0;
+        }
+        if (left instanceof Long && right instanceof Long) {
+            long a = (Long) left;
+            long b = (Long) right;
+            try {
+                if (operator.equals("+")) {
+                    return Math.addExact(a, b);
+                }
+                if (operator.equals("-")) {
+                    return Math.subtractExact(a, b);
+                }
+                if (operator.equals("*")) {
+                    return Math.multiplyExact(a, b);
+                }
+            } catch (ArithmeticException e) {
+                // fall through to BigDecimal
+            }
+        }
+        BigDecimal a = toBigDecimal(left);
+        BigDecimal b = toBigDecimal(right);
+        if (operator.equals("+")) {
+            return a.add(b);
+        }
+        if (operator.equals("-")) {
+            return a.subtract(b);
+        }
+        if (operator.equals("*")) {
+            return a.multiply(b);
+        }
+        if (b.signum() == 0) {
+            throw new SQLDataException("Division by zero", "22012");
+        }
+        return a.divide(b, DIVISION);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object in(Context context, In in, Scope scope, List<Scope> group) throws SQLException {
+        Object value = evaluate(context, in.operand, scope, group);
+        if (value == null) {
+            return null;
+        }
+        Set<Object> set = (Set<Object>) context.cache.get(in);
+        boolean containsNull = false;
+        if (set == null) {
+            boolean constant = in.list != null;
+            List<Object> values = new ArrayList<Object>();
+            if (in.list != null) {
+                for (Expr item : in.list) {
+                    constant &= item instanceof Literal || item instanceof Param;
+                    values.add(evaluate(context, item, scope, group));
+                }
+            } else {
+                for (Object[] row : select(context, in.query, scope, false).rows) {
+                    values.add(row[0]);
+                }
+            }
+            set = new HashSet<Object>();
+            for (Object item : values) {
+                if (item == null) {
+                    containsNull = true;
+                } else {
+                    set.add(normalize(item));
+                    if (item instanceof String) {
+                        // numbers compared to strings
+                        Object number = numeric((String) item);
+                        if (number != null) {
+                            set.add(number);
+                        }
+                    }
+                }
+            }
+            if (constant && !containsNull) {
+                context.cache.put(in, set);
+            }
+        }
+        Object normalized = normalize(value);
+        boolean found = set.contains(normalized);
+        if (!found && normalized instanceof String) {
+            Object number = numeric((String) normalized);
+            found = number != null && set.contains(number);
+        }
+        if (found) {
+            return !in.negated;
+        }
+        return containsNull ? null : in.negated;
+    }
+
+    private static Object numeric(String text) {
+        try {
+            return normalize(new BigDecimal(text.trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Object function(Context context, Function function, Scope scope, List<Scope> group)
+            throws SQLException {
+        String name = function.name;
+        if (function.isAggregate()) {
+            if (group == null) {
+                throw new SQLSyntaxErrorException("Aggregate " + name + " not allowed here", "42000");
+            }
+            return aggregate(context, function, group);
+        }
+        List<Object> arguments = new ArrayList<Object>(function.arguments.size());
+        for (Expr argument : function.arguments) {
+            arguments.add(evaluate(context, argument, scope, group));
+        }
+        if (name.equals("COALESCE") || name.equals("NVL")) {
+            for (Object argument : arguments) {
+                if (argument != null) {
+                    return argument;
+                }
+            }
+            return null;
+        }
+        Object first = arguments.isEmpty() ? null : arguments.get(0);
+        if (first == null) {
+            return null;
+        }
+        if (name.equals("CHR")) {
+            return String.valueOf((char) toLong(first));
+        }
+        if (name.equals("UPPER")) {
+            return toText(first).toUpperCase(Locale.ROOT);
+        }
+        if (name.equals("LOWER")) {
+            return toText(first).toLowerCase(Locale.ROOT);
+        }
+        if (name.equals("TRIM")) {
+            return toText(first).trim();
+        }
+        if (name.equals("LENGTH")) {
+            return (long) toText(first).length();
+        }
+        if (name.equals("ABS")) {
+            return first instanceof Long ? Math.abs((Long) first) : toBigDecimal(first).abs();
+        }
+        if (name.equals("DATE") || name.equals("TIMESTAMP")) {
+            return toTimestamp(first);
+        }
+        throw new SQLSyntaxErrorException("Unknown function " + name, "42000");
+    }
+
+    private Object aggregate(Context context, Function function, List<Scope> group) throws SQLException {
+        if (function.star) {
+            return (long) group.size();
+        }
+        String name = function.name;
+        Expr argument = function.arguments.get(0);
+        long count = 0;
+        Object result = null;
+        BigDecimal sum = BigDecimal.ZERO;
+        boolean integral = true;
+        for (Scope scope : group) {
+            Object value = evaluate(context, argument, scope, null);
+            if (value == null) {
+                continue;
+            }
+            count++;
+            if (name.equals("MIN")) {
+                result = result == null || compareValues(value, result) < 0 ? value : result;
+            } else if (name.equals("MAX")) {
+                result = result == null || compareValues(value, result) > 0 ? value : result;
+            } else if (name.equals("SUM") || name.equals("AVG")) {
+                integral &= value instanceof Long;
+                sum = sum.add(toBigDecimal(value));
+            }
+        }
+        if (name.equals("COUNT")) {
+            return count;
+        }
+        if (name.equals("MIN") || name.equals("MAX")) {
+            return result;
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (name.equals("SUM")) {
+            return integral && sum.toBigInteger().bitLength() < 64 ? (Object) sum.longValue() : sum;
+        }
+        return sum.divide(BigDecimal.valueOf(count), DIVISION);
+    }
+
+    private static boolean containsAggregate(Expr expr) {
+        if (expr instanceof Function) {
+            Function function = (Function) expr;
+            if (function.isAggregate()) {
+                return true;
+            }
+            for (Expr argument : function.arguments) {
+                if (containsAggregate(argument)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (expr instanceof Binary) {
+            return containsAggregate(((Binary) expr).left) || containsAggregate(((Binary) expr).right);
+        }
+        if (expr instanceof Unary) {
+            return containsAggregate(((Unary) expr).operand);
+        }
+        return false;
+    }
+
+    private static final Map<String, Pattern> LIKE_PATTERNS = Collections.synchronizedMap(
+            new HashMap<String, Pattern>());
+
+    private static Pattern likePattern(String like) {
+        Pattern pattern = LIKE_PATTERNS.get(like);
+        if (pattern == null) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < like.length(); i++) {
+                char c = like.charAt(i);
+                if (c == '%') {
+                    regex.append(".*");
+                } else if (c == '_') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+            LIKE_PATTERNS.put(like, pattern);
+        }
+        return pattern;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // tables and dictionary
+
+    private Table requireTable(String tableName) throws SQLException {
+        Table table = tables.get(key(tableName));
+        if (table == null) {
+            throw new SQLSyntaxErrorException("Table [" + tableName + "] does not exist", "42S02");
+        }
+        return table;
+    }
+
+    private static int requireColumn(Table table, String column) throws SQLException {
+        String unqualified = column.substring(column.lastIndexOf('.') + 1);
+        int position = table.position(unqualified);
+        if (position < 0) {
+            throw new SQLSyntaxErrorException("Column [" + column + "] not found in table [" + table.name + "]",
+                    "42S22");
+        }
+        return position;
+    }
+
+    private static boolean isDictionary(String tableKey) {
+        return tableKey.equals("DUAL") || tableKey.equals("USER_IND_COLUMNS") || tableKey.equals("USER_SEQUENCES")
+                || tableKey.equals("ALL_SEQUENCES") || tableKey.equals("USER_TABLES");
+    }
+
+    private Table resolveTable(String tableName) throws SQLException {
+        String tableKey = key(tableName);
+        Table table = tables.get(tableKey);
+        if (table != null) {
+            return table;
+        }
+        if (tableKey.equals("DUAL")) {
+            return dual();
+        }
+        if (tableKey.equals("USER_IND_COLUMNS")) {
+            Table view = view("USER_IND_COLUMNS", "INDEX_NAME", "TABLE_NAME", "COLUMN_NAME");
+            view.addColumn(new Column("COLUMN_POSITION", "BIGINT", Types.BIGINT, 0, 0, true, false, null,
+                    view.name));
+            for (Index index : indexes.values()) {
+                for (int i = 0; i < index.columnNames.length; i++) {
+                    view.rows.add(new Object[]{index.name, index.table.name,
+                            index.table.columns.get(index.columns[i]).name, (long) (i + 1)});
+                }
+            }
+            return view;
+        }
+        if (tableKey.equals("USER_SEQUENCES") || tableKey.equals("ALL_SEQUENCES")) {
+            boolean all = tableKey.equals("ALL_SEQUENCES");
+            Table view = all ? view(tableKey, "SEQUENCE_OWNER", "SEQUENCE_NAME") : view(tableKey, "SEQUENCE_NAME");
+            for (String column : new String[]{"MIN_VALUE", "INCREMENT_BY", "LAST_NUMBER"}) {
+                view.addColumn(new Column(column, "BIGINT", Types.BIGINT, 0, 0, true, false, null, view.name));
+            }
+            for (Sequence sequence : sequences.values()) {
+                String sequenceName = sequence.name.toUpperCase(Locale.ROOT);
+                view.rows.add(all ? new Object[]{"KBASE", sequenceName, sequence.start, sequence.increment,
+                        sequence.next} : new Object[]{sequenceName, sequence.start, sequence.increment, sequence.next});
+            }
+            return view;
+        }
+        if (tableKey.equals("USER_TABLES")) {
+            Table view = view("USER_TABLES", "TABLE_NAME");
+            for (Table existing : tables.values()) {
+                view.rows.add(new Object[]{existing.name});
+            }
+            return view;
+        }
+        throw new SQLSyntaxErrorException("Table [" + tableName + "] does not exist", "42S02");
+    }
+
+    private static Table view(String viewName, String... columns) {
+        Table view = new Table(viewName);
+        for (String column : columns) {
+            view.addColumn(new Column(column, "VARCHAR", Types.VARCHAR, 128, 0, true, false, null, viewName));
+        }
+        return view;
+    }
+
+    private static Table dual() {
+        Table dual = view("DUAL", "DUMMY");
+        dual.rows.add(new Object[]{"X"});
+        return dual;
+    }
+
+    /**
+     * @return the table names in creation order
+     */
+    synchronized List<String> getTableNames() {
+        List<String> names = new ArrayList<String>();
+        for (Table table : tables.values()) {
+            names.add(table.name);
+        }
+        return names;
+    }
+
+    /**
+     * @return the primary key columns of the table, empty if it has none
+     */
+    synchronized List<String> getPrimaryKey(String tableName) {
+        Table table = tables.get(key(tableName));
+        if (table != null) {
+            Index primaryKey = indexes.get(key("PK_" + table.name));
+            if (primaryKey != null && primaryKey.table == table) {
+                return Arrays.asList(primaryKey.columnNames);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the columns of the table, null if it doesn't exist
+     */
+    synchronized List<Column> getColumns(String tableName) {
+        Table table = tables.get(key(tableName));
+        return table == null ? null : new ArrayList<Column>(table.columns);
+    }
+
+    /**
+     * @return the index names of the table
+     */
+    synchronized Set<String> getIndexNames(String tableName) {
+        Set<String> names = new LinkedHashSet<String>();
+        Table table = tables.get(key(tableName));
+        if (table != null) {
+            for (Index index : table.indexes) {
+                names.add(index.name);
+            }
+        }
+        return names;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // values
+
+    static String key(String identifier) {
+        return identifier.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * 转换为字段类型的存储形式：整数为Long，NUMERIC为BigDecimal，浮点为Double，字符为String，
+     * 日期时间为Timestamp，布尔为Boolean，二进制为byte[]
+     */
+    static Object coerce(Object value, Column column) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        try {
+            switch (column.sqlType) {
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    if (value instanceof Long) {
+                        return value;
+                    }
+                    if (value instanceof Boolean) {
+                        return (Boolean) value ? 1L : 0L;
+                    }
+                    if (value instanceof java.util.Date) {
+                        return ((java.util.Date) value).getTime();
+                    }
+                    return toBigDecimal(value).setScale(0, RoundingMode.HALF_UP).longValueExact();
+                case Types.NUMERIC:
+                    BigDecimal number = toBigDecimal(value);
+                    if (column.scale >= 0) {
+                        number = number.setScale(column.scale, RoundingMode.HALF_UP);
+                    }
+                    if (column.length > 0 && number.precision() - number.scale() > column.length
+                            - Math.max(0, column.scale)) {
+                        throw new SQLDataException("Value " + number + " exceeds NUMERIC(" + column.length + ", "
+                                + Math.max(0, column.scale) + ") of column [" + column.name + "]", "22003");
+                    }
+                    return number;
+                case Types.DOUBLE:
+                    return value instanceof Double ? value : toBigDecimal(value).doubleValue();
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.CLOB:
+                    String text = toText(value);
+                    if (column.length > 0 && text.length() > column.length
+                            && column.sqlType != Types.LONGVARCHAR && column.sqlType != Types.CLOB) {
+                        throw new SQLDataException("Value too large for column [" + column.name + "] (actual: "
+                                + text.length() + ", maximum: " + column.length + ")", "22001");
+                    }
+                    return text;
+                case Types.DATE:
+                case Types.TIMESTAMP:
+                case Types.TIME:
+                    return toTimestamp(value);
+                case Types.BOOLEAN:
+                    if (value instanceof Boolean) {
+                        return value;
+                    }
+                    if (value instanceof Number) {
+                        return ((Number) value).intValue() != 0;
+                    }
+                    String flag = value.toString().trim();
+                    return flag.equalsIgnoreCase("Y") || flag.equalsIgnoreCase("true") || flag.equals("1");
+                default:
+                    if (value instanceof byte[]) {
+                        return value;
+                    }
+                    return toText(value).getBytes(StandardCharsets.UTF_8);
+            }
+        } catch (NumberFormatException e) {
+            throw new SQLDataException("Invalid number [" + value + "] for column [" + column.name + "]", "22018",
+                    e);
+        } catch (ArithmeticException e) {
+            throw new SQLDataException("Value [" + value + "] out of range for column [" + column.name + "]",
+                    "22003", e);
+        } catch (IllegalArgumentException e) {
+            throw new SQLDataException("Invalid date/time [" + value + "] for column [" + column.name + "]",
+                    "22007", e);
+        }
+    }
+
+    /**
+     * 用于唯一索引、IN 和 DISTINCT 的值：数值按大小、二进制按内容比较
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            BigDecimal number = toBigDecimal(value).stripTrailingZeros();
+            return number.scale() < 0 ? number.setScale(0) : number;
+        }
+        if (value instanceof java.util.Date) {
+            return toTimestamp(value);
+        }
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+        return value;
+    }
+
+    static int compareValues(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            return ((Long) a).compareTo((Long) b);
+        }
+        if (a instanceof Number || b instanceof Number) {
+            try {
+                return toBigDecimal(a).compareTo(toBigDecimal(b));
+            } catch (NumberFormatException e) {
+                return toText(a).compareTo(toText(b));
+            }
+        }
+        if (a instanceof java.util.Date || b instanceof java.util.Date) {
+            return toTimestamp(a).compareTo(toTimestamp(b));
+        }
+        if (a instanceof Boolean && b instanceof Boolean) {
+            return ((Boolean) a).compareTo((Boolean) b);
+        }
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) a).compareTo(ByteBuffer.wrap((byte[]) b));
+        }
+        return toText(a).compareTo(toText(b));
+    }
+
+    static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            return BigDecimal.valueOf(((Number) value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO;
+        }
+        return new BigDecimal(toText(value).trim());
+    }
+
+    static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : toBigDecimal(value).longValue();
+    }
+
+    static String toText(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof java.util.Date) {
+            return toTimestamp(value).toString();
+        }
+        return String.valueOf(value);
+    }
+
+    static Timestamp toTimestamp(Object value) {
+        if (value instanceof Timestamp) {
+            return (Timestamp) value;
+        }
+        if (value instanceof java.util.Date) {
+            return new Timestamp(((java.util.Date) value).getTime());
+        }
+        if (value instanceof Number) {
+            return new Timestamp(((Number) value).longValue());
+        }
+        String text = toText(value).trim();
+        if (text.length() == 10) {
+            return new Timestamp(java.sql.Date.valueOf(text).getTime());
+        }
+        return Timestamp.valueOf(text);
+    }
+
+    static boolean isTrue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        return value != null && (value.toString().equalsIgnoreCase("Y") || value.toString().equalsIgnoreCase("true"));
+    }
+}
@@ -0,0 +1,1296 @@
+package org.pentaho.di.core.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+import org.pentaho.di.core.database.KbaseStandInDatabase.Column;
+import org.pentaho.di.core.database.KbaseStandInDatabase.Result;
+import org.pentaho.di.core.database.KbaseStandInDatabase.Session;
+
+/**
+ * Kbase替身驱动(仅用于测试)
+ * 纯Java实现，接受 {@link KbaseDatabaseMeta#getURL(String, String, String)} 生成的 jdbc:kbase://host:port/database
+ * 形式的URL，数据保存在内存中(见{@link KbaseStandInDatabase})，不需要Kbase服务器和本地库。
+ * <p>
+ * Every round trip to the "server" (connect, execute, executeBatch, commit, rollback, setSavepoint and each
+ * further fetch of {@link Statement#getFetchSize()} rows) waits for the configured latency and is counted, so
+ * batching, caching and streaming can be measured reproducibly. The latency is taken from the URL option
+ * <code>latencyMicros</code>, the system property {@value #LATENCY_PROPERTY} or {@link #setLatency(long, TimeUnit)}.
+ * Further URL options, separated by <code>?</code>/<code>&amp;</code> or <code>;</code>:
+ * <ul>
+ * <li><code>fetchSize</code>: the default fetch size, 0 (default) returns all rows with the first round trip</li>
+ * <li><code>continueBatchOnError=true</code>: execute the rest of a batch after a failing statement and report it
+ * as {@link Statement#EXECUTE_FAILED}, instead of stopping at the failing statement</li>
+ * <li><code>batchUpdateCounts=false</code>: execute a batch atomically, a failing statement undoes the whole batch
+ * and no update counts are reported</li>
+ * </ul>
+ * Databases live until {@link #reset()}; connections with the same host, port and database share one.
+ * The test copy of <code>com.kbase.jdbc.Driver</code> extends this class, so {@link Database#connect()} and
+ * {@link KbaseInstrumentedDriver} find it under the real driver's name.
+ */
+public class KbaseStandInDriver implements Driver {
+
+    public static final String URL_PREFIX = "jdbc:kbase://";
+
+    public static final String LATENCY_PROPERTY = "kbase.standin.latency.micros";
+
+    private static final Map<String, KbaseStandInDatabase> DATABASES =
+            new ConcurrentHashMap<String, KbaseStandInDatabase>();
+    private static final Map<String, AtomicLong> ROUND_TRIPS = new ConcurrentHashMap<String, AtomicLong>();
+    private static final Map<String, AtomicInteger> COMMITS_BEFORE_FAILURE =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    private static volatile long latencyNanos = TimeUnit.MICROSECONDS.toNanos(Long.getLong(LATENCY_PROPERTY, 0L));
+
+    static {
+        try {
+            DriverManager.registerDriver(new KbaseStandInDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 确保驱动已注册
+     */
+    public static void register() {
+        // the static initializer registers the driver
+    }
+
+    /**
+     * @param latency the simulated network round trip time of connections opened without a latencyMicros option
+     * @param unit    the unit of latency
+     */
+    public static void setLatency(long latency, TimeUnit unit) {
+        latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * 删除所有内存数据库
+     */
+    public static void reset() {
+        DATABASES.clear();
+        ROUND_TRIPS.clear();
+        COMMITS_BEFORE_FAILURE.clear();
+    }
+
+    /**
+     * 模拟提交失败：数据库再成功提交指定次数后，之后的{@link Connection#commit()}都抛出异常
+     *
+     * @param url     a jdbc:kbase:// URL
+     * @param commits the number of commits that still succeed, negative to stop failing
+     */
+    public static void failCommitsAfter(String url, int commits) {
+        if (commits < 0) {
+            COMMITS_BEFORE_FAILURE.remove(databaseName(url));
+        } else {
+            COMMITS_BEFORE_FAILURE.put(databaseName(url), new AtomicInteger(commits));
+        }
+    }
+
+    /**
+     * @param url a jdbc:kbase:// URL, options are ignored
+     * @return the in-memory database of the URL, created if needed
+     */
+    static KbaseStandInDatabase getDatabase(String url) {
+        String name = databaseName(url);
+        KbaseStandInDatabase database = DATABASES.get(name);
+        if (database == null) {
+            synchronized (DATABASES) {
+                database = DATABASES.get(name);
+                if (database == null) {
+                    database = new KbaseStandInDatabase(name);
+                    ROUND_TRIPS.put(name, new AtomicLong());
+                    DATABASES.put(name, database);
+                }
+            }
+        }
+        return database;
+    }
+
+    /**
+     * @param url a jdbc:kbase:// URL
+     * @return the round trips to the database of the URL since it was created
+     */
+    public static long getRoundTrips(String url) {
+        AtomicLong roundTrips = ROUND_TRIPS.get(databaseName(url));
+        return roundTrips == null ? 0 : roundTrips.get();
+    }
+
+    private static String databaseName(String url) {
+        String name = url.startsWith(URL_PREFIX) ? url.substring(URL_PREFIX.length()) : url;
+        int options = indexOfOptions(name);
+        return (options < 0 ? name : name.substring(0, options)).toLowerCase(Locale.ROOT);
+    }
+
+    private static int indexOfOptions(String url) {
+        int question = url.indexOf('?');
+        int semicolon = url.indexOf(';');
+        if (question < 0) {
+            return semicolon;
+        }
+        return semicolon < 0 ? question : Math.min(question, semicolon);
+    }
+
+    private static Map<String, String> options(String url, Properties info) {
+        Map<String, String> options = new HashMap<String, String>();
+        if (info != null) {
+            for (String name : info.stringPropertyNames()) {
+                options.put(name, info.getProperty(name));
+            }
+        }
+        int start = indexOfOptions(url);
+        if (start >= 0) {
+            for (String option : url.substring(start + 1).split("[&;?]")) {
+                int equals = option.indexOf('=');
+                if (equals > 0) {
+                    options.put(option.substring(0, equals).trim(), option.substring(equals + 1).trim());
+                }
+            }
+        }
+        return options;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        Map<String, String> options = options(url, info);
+        ConnectionHandler handler = new ConnectionHandler(url, getDatabase(url), options,
+                ROUND_TRIPS.get(databaseName(url)));
+        handler.roundTrip();
+        Connection connection = (Connection) Proxy.newProxyInstance(KbaseStandInDriver.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+        handler.proxy = connection;
+        return connection;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("java.util.logging is not used");
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // proxies
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(KbaseStandInDriver.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * equals/hashCode/toString and unwrap/isWrapperFor of the proxies
+     */
+    private abstract static class BaseHandler implements InvocationHandler {
+        Object proxy;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Object[] arguments = args == null ? new Object[0] : args;
+            if (method.getDeclaringClass() == Object.class) {
+                if (name.equals("equals")) {
+                    return proxy == arguments[0];
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+            if (name.equals("isWrapperFor")) {
+                return ((Class<?>) arguments[0]).isInstance(proxy);
+            }
+            if (name.equals("unwrap")) {
+                if (((Class<?>) arguments[0]).isInstance(proxy)) {
+                    return proxy;
+                }
+                throw new SQLException("Not a wrapper for " + arguments[0]);
+            }
+            return handle(method, name, arguments);
+        }
+
+        abstract Object handle(Method method, String name, Object[] args) throws Throwable;
+    }
+
+    private static final class StandInSavepoint implements Savepoint {
+        private final int id;
+        private final String name;
+        private final int mark;
+
+        StandInSavepoint(int id, String name, int mark) {
+            this.id = id;
+            this.name = name;
+            this.mark = mark;
+        }
+
+        @Override
+        public int getSavepointId() throws SQLException {
+            if (name != null) {
+                throw new SQLException("Named savepoint");
+            }
+            return id;
+        }
+
+        @Override
+        public String getSavepointName() throws SQLException {
+            if (name == null) {
+                throw new SQLException("Unnamed savepoint");
+            }
+            return name;
+        }
+    }
+
+    private static final class ConnectionHandler extends BaseHandler {
+        private final String url;
+        private final KbaseStandInDatabase database;
+        private final Session session;
+        private final AtomicLong roundTrips;
+        private final long latency;
+        private final int defaultFetchSize;
+        private final boolean continueBatchOnError;
+        private final boolean batchUpdateCounts;
+        private final String user;
+        private boolean closed;
+        private boolean readOnly;
+        private int isolation = Connection.TRANSACTION_READ_UNCOMMITTED;
+        private int savepoints;
+
+        ConnectionHandler(String url, KbaseStandInDatabase database, Map<String, String> options,
+                          AtomicLong roundTrips) {
+            this.url = url;
+            this.database = database;
+            this.session = database.openSession();
+            this.roundTrips = roundTrips;
+            this.latency = options.containsKey("latencyMicros")
+                    ? TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.get("latencyMicros"))) : latencyNanos;
+            this.defaultFetchSize = options.containsKey("fetchSize") ? Integer.parseInt(options.get("fetchSize")) : 0;
+            this.continueBatchOnError = Boolean.parseBoolean(options.get("continueBatchOnError"));
+            this.batchUpdateCounts = !"false".equalsIgnoreCase(options.get("batchUpdateCounts"));
+            this.user = options.get("user");
+        }
+
+        /**
+         * 模拟一次网络往返
+         */
+        void roundTrip() {
+            roundTrips.incrementAndGet();
+            if (latency > 0) {
+                long deadline = System.nanoTime() + latency;
+                long remaining = latency;
+                while (remaining > 0) {
+                    LockSupport.parkNanos(remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+            }
+        }
+
+        void checkOpen() throws SQLException {
+            if (closed) {
+                throw new SQLException("Connection is closed", "08003");
+            }
+        }
+
+        Result execute(KbaseStandInParser.Statement statement, Object[] parameters) throws SQLException {
+            if (readOnly && !(statement instanceof KbaseStandInParser.Select)) {
+                throw new SQLException("Connection is read-only", "25006");
+            }
+            return database.execute(session, statement, parameters);
+        }
+
+        @Override
+        Object handle(Method method, String name, Object[] args) throws Throwable {
+            if (name.equals("close")) {
+                if (!closed && !session.autoCommit) {
+                    // like most servers an open transaction is rolled back
+                    database.rollback(session, 0);
+                }
+                closed = true;
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed;
+            }
+            if (name.equals("isValid")) {
+                return !closed;
+            }
+            checkOpen();
+            if (name.equals("createStatement")) {
+                return newStatement(null, false);
+            }
+            if (name.equals("prepareStatement")) {
+                boolean generatedKeys = args.length == 2 && (args[1] instanceof String[] || args[1] instanceof int[]
+                        || Integer.valueOf(Statement.RETURN_GENERATED_KEYS).equals(args[1]));
+                return newStatement(KbaseStandInParser.parse((String) args[0]), generatedKeys);
+            }
+            if (name.equals("getAutoCommit")) {
+                return session.autoCommit;
+            }
+            if (name.equals("setAutoCommit")) {
+                boolean autoCommit = (Boolean) args[0];
+                if (autoCommit && !session.autoCommit) {
+                    database.commit(session);
+                }
+                session.autoCommit = autoCommit;
+                return null;
+            }
+            if (name.equals("commit")) {
+                roundTrip();
+                AtomicInteger commits = COMMITS_BEFORE_FAILURE.get(databaseName(url));
+                if (commits != null && commits.getAndDecrement() <= 0) {
+                    throw new SQLException("Simulated commit failure", "08006");
+                }
+                database.commit(session);
+                return null;
+            }
+            if (name.equals("rollback")) {
+                roundTrip();
+                int mark = args.length == 0 ? 0 : ((StandInSavepoint) args[0]).mark;
+                database.rollback(session, mark);
+                return null;
+            }
+            if (name.equals("setSavepoint")) {
+                if (session.autoCommit) {
+                    throw new SQLException("Savepoints need a transaction, auto commit is on", "3B001");
+                }
+                roundTrip();
+                return new StandInSavepoint(++savepoints, args.length == 0 ? null : (String) args[0],
+                        database.savepoint(session));
+            }
+            if (name.equals("releaseSavepoint")) {
+                return null;
+            }
+            if (name.equals("getMetaData")) {
+                return proxy(DatabaseMetaData.class, new DatabaseMetaDataHandler(this));
+            }
+            if (name.equals("setReadOnly")) {
+                readOnly = (Boolean) args[0];
+                return null;
+            }
+            if (name.equals("isReadOnly")) {
+                return readOnly;
+            }
+            if (name.equals("setTransactionIsolation")) {
+                isolation = (Integer) args[0];
+                return null;
+            }
+            if (name.equals("getTransactionIsolation")) {
+                return isolation;
+            }
+            if (name.equals("nativeSQL")) {
+                return args[0];
+            }
+            if (name.equals("getTypeMap")) {
+                return new HashMap<String, Class<?>>();
+            }
+            if (name.equals("getClientInfo")) {
+                return args.length == 0 ? new Properties() : null;
+            }
+            if (name.equals("getHoldability")) {
+                return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+            }
+            if (name.equals("getNetworkTimeout")) {
+                return 0;
+            }
+            if (name.equals("createBlob")) {
+                return new SerialBlob(new byte[0]);
+            }
+            if (name.equals("createClob")) {
+                return new SerialClob(new char[0]);
+            }
+            if (name.equals("getCatalog") || name.equals("getSchema") || name.equals("getWarnings")) {
+                return null;
+            }
+            if (name.startsWith("set") || name.equals("clearWarnings") || name.equals("abort")) {
+                return null;
+            }
+            throw new SQLFeatureNotSupportedException("Connection." + name + " is not supported by the stand-in");
+        }
+
+        private Object newStatement(KbaseStandInParser.Statement prepared, boolean generatedKeys) {
+            StatementHandler handler = new StatementHandler(this, prepared, generatedKeys);
+            handler.proxy = proxy(prepared == null ? Statement.class : PreparedStatement.class, handler);
+            return handler.proxy;
+        }
+    }
+
+    private static final class StatementHandler extends BaseHandler {
+        private final ConnectionHandler connection;
+        private final KbaseStandInParser.Statement prepared;
+        private Object[] parameters;
+        private final List<Object[]> parameterBatch = new ArrayList<Object[]>();
+        private final List<String> sqlBatch = new ArrayList<String>();
+        private ResultSet resultSet;
+        private int updateCount = -1;
+        private List<Object> generatedKeys = Collections.emptyList();
+        private int fetchSize;
+        private int maxRows;
+        private boolean closed;
+
+        StatementHandler(ConnectionHandler connection, KbaseStandInParser.Statement prepared, boolean generatedKeys) {
+            this.connection = connection;
+            this.prepared = prepared;
+            this.fetchSize = connection.defaultFetchSize;
+            if (prepared != null) {
+                parameters = new Object[prepared.parameterCount];
+                Arrays.fill(parameters, KbaseStandInDatabase.NOT_SET);
+            }
+        }
+
+        @Override
+        Object handle(Method method, String name, Object[] args) throws Throwable {
+            if (name.equals("close")) {
+                closeResultSet();
+                closed = true;
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            connection.checkOpen();
+            if (name.equals("executeQuery") || name.equals("executeUpdate") || name.equals("execute")
+                    || name.equals("executeLargeUpdate")) {
+                KbaseStandInParser.Statement statement = args.length > 0 && args[0] instanceof String
+                        ? KbaseStandInParser.parse((String) args[0]) : prepared;
+                if (statement == null) {
+                    throw new SQLException("No SQL given for a plain statement");
+                }
+                Object[] values = statement == prepared ? parameters : new Object[0];
+                boolean query = execute(statement, values);
+                if (name.equals("executeQuery")) {
+                    if (!query) {
+                        throw new SQLException("Statement did not return a result set: " + statement.sql);
+                    }
+                    return resultSet;
+                }
+                if (name.equals("execute")) {
+                    return query;
+                }
+                if (query) {
+                    throw new SQLException("Query passed to " + name + ": " + statement.sql);
+                }
+                return name.equals("executeLargeUpdate") ? (Object) (long) updateCount : (Object) updateCount;
+            }
+            if (name.equals("addBatch")) {
+                if (args.length == 1) {
+                    sqlBatch.add((String) args[0]);
+                } else {
+                    parameterBatch.add(parameters.clone());
+                }
+                return null;
+            }
+            if (name.equals("clearBatch")) {
+                sqlBatch.clear();
+                parameterBatch.clear();
+                return null;
+            }
+            if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+                int[] counts = executeBatch();
+                if (name.equals("executeLargeBatch")) {
+                    long[] large = new long[counts.length];
+                    for (int i = 0; i < counts.length; i++) {
+                        large[i] = counts[i];
+                    }
+                    return large;
+                }
+                return counts;
+            }
+            if (name.equals("clearParameters")) {
+                Arrays.fill(parameters, KbaseStandInDatabase.NOT_SET);
+                return null;
+            }
+            if (prepared != null && name.startsWith("set") && args.length >= 2 && args[0] instanceof Integer) {
+                setParameter(name, args);
+                return null;
+            }
+            if (name.equals("getResultSet")) {
+                return resultSet;
+            }
+            if (name.equals("getUpdateCount")) {
+                return updateCount;
+            }
+            if (name.equals("getLargeUpdateCount")) {
+                return (long) updateCount;
+            }
+            if (name.equals("getMoreResults")) {
+                closeResultSet();
+                updateCount = -1;
+                return false;
+            }
+            if (name.equals("getGeneratedKeys")) {
+                List<Object[]> rows = new ArrayList<Object[]>();
+                for (Object key : generatedKeys) {
+                    rows.add(new Object[]{key});
+                }
+                return newResultSet(Collections.singletonList(
+                        new Column("GENERATED_KEY", "BIGINT", Types.BIGINT, 0, 0, true, true, null, "")), rows);
+            }
+            if (name.equals("setFetchSize")) {
+                fetchSize = (Integer) args[0];
+                return null;
+            }
+            if (name.equals("getFetchSize")) {
+                return fetchSize;
+            }
+            if (name.equals("setMaxRows")) {
+                maxRows = (Integer) args[0];
+                return null;
+            }
+            if (name.equals("getMaxRows")) {
+                return maxRows;
+            }
+            if (name.equals("getConnection")) {
+                return connection.proxy;
+            }
+            if (name.equals("getMetaData")) {
+                if (!(prepared instanceof KbaseStandInParser.Select)) {
+                    return null;
+                }
+                Object[] values = parameters.clone();
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = values[i] == KbaseStandInDatabase.NOT_SET ? null : values[i];
+                }
+                return new ResultSetMetaDataHandler(connection.database.execute(connection.session, prepared,
+                        values).columns).newProxy();
+            }
+            if (name.equals("getParameterMetaData")) {
+                final int count = prepared == null ? 0 : prepared.parameterCount;
+                return proxy(ParameterMetaData.class, new BaseHandler() {
+                    @Override
+                    Object handle(Method method, String name, Object[] args) {
+                        return name.equals("getParameterCount") ? count : defaultValue(method.getReturnType());
+                    }
+                });
+            }
+            if (name.equals("getResultSetType") || name.equals("getFetchDirection")) {
+                return name.equals("getResultSetType") ? ResultSet.TYPE_FORWARD_ONLY : ResultSet.FETCH_FORWARD;
+            }
+            if (name.equals("getResultSetConcurrency")) {
+                return ResultSet.CONCUR_READ_ONLY;
+            }
+            if (name.equals("getQueryTimeout") || name.equals("getMaxFieldSize")) {
+                return 0;
+            }
+            if (name.equals("getWarnings")) {
+                return null;
+            }
+            if (name.startsWith("set") || name.equals("cancel") || name.equals("clearWarnings")
+                    || name.equals("closeOnCompletion")) {
+                return null;
+            }
+            throw new SQLFeatureNotSupportedException("Statement." + name + " is not supported by the stand-in");
+        }
+
+        /**
+         * @return true if the statement returned a result set
+         */
+        private boolean execute(KbaseStandInParser.Statement statement, Object[] values) throws SQLException {
+            closeResultSet();
+            connection.roundTrip();
+            Result result = connection.execute(statement, values);
+            if (result.isQuery()) {
+                List<Object[]> rows = result.rows;
+                if (maxRows > 0 && rows.size() > maxRows) {
+                    rows = rows.subList(0, maxRows);
+                }
+                resultSet = newResultSet(result.columns, rows);
+                updateCount = -1;
+                generatedKeys = Collections.emptyList();
+                return true;
+            }
+            updateCount = result.updateCount;
+            generatedKeys = result.generatedKeys;
+            return false;
+        }
+
+        /**
+         * 整个批次一次往返；出错时停止(或继续执行其余语句)并抛出 BatchUpdateException
+         */
+        private int[] executeBatch() throws SQLException {
+            closeResultSet();
+            int size = prepared == null ? sqlBatch.size() : parameterBatch.size();
+            int[] counts = new int[size];
+            SQLException failure = null;
+            if (size > 0) {
+                connection.roundTrip();
+            }
+            List<Object> keys = new ArrayList<Object>();
+            // 不返回更新计数的驱动整批执行，出错时撤销整批
+            boolean atomic = !connection.batchUpdateCounts && !connection.continueBatchOnError;
+            boolean autoCommit = connection.session.autoCommit;
+            int mark = connection.database.savepoint(connection.session);
+            connection.session.autoCommit = autoCommit && !atomic;
+            try {
+                for (int i = 0; i < size; i++) {
+                    try {
+                        Result result = prepared == null
+                                ? connection.execute(KbaseStandInParser.parse(sqlBatch.get(i)), new Object[0])
+                                : connection.execute(prepared, parameterBatch.get(i));
+                        if (result.isQuery()) {
+                            throw new SQLException("Query in batch: " + (prepared == null ? sqlBatch.get(i)
+                                    : prepared.sql));
+                        }
+                        counts[i] = result.updateCount;
+                        keys.addAll(result.generatedKeys);
+                    } catch (SQLException e) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                        if (!connection.continueBatchOnError) {
+                            sqlBatch.clear();
+                            parameterBatch.clear();
+                            if (atomic) {
+                                connection.database.rollback(connection.session, mark);
+                            }
+                            throw new BatchUpdateException("Batch entry " + i + " failed: " + e.getMessage(),
+                                    e.getSQLState(), e.getErrorCode(),
+                                    atomic ? new int[0] : Arrays.copyOf(counts, i), e);
+                        }
+                        counts[i] = Statement.EXECUTE_FAILED;
+                    }
+                }
+            } finally {
+                if (atomic && autoCommit) {
+                    connection.database.commit(connection.session);
+                }
+                connection.session.autoCommit = autoCommit;
+            }
+            sqlBatch.clear();
+            parameterBatch.clear();
+            generatedKeys = keys;
+            updateCount = -1;
+            if (failure != null) {
+                throw new BatchUpdateException("Batch had failing entries: " + failure.getMessage(),
+                        failure.getSQLState(), failure.getErrorCode(), counts, failure);
+            }
+            return counts;
+        }
+
+        private void setParameter(String name, Object[] args) throws SQLException {
+            int index = (Integer) args[0];
+            if (index < 1 || index > parameters.length) {
+                throw new SQLException("Parameter index " + index + " out of range 1.." + parameters.length,
+                        "07009");
+            }
+            Object value = name.equals("setNull") ? null : args[1];
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                value = ((Number) value).longValue();
+            } else if (value instanceof Float) {
+                value = ((Float) value).doubleValue();
+            } else if (value instanceof Blob) {
+                Blob blob = (Blob) value;
+                value = blob.getBytes(1, (int) blob.length());
+            } else if (value instanceof Clob) {
+                Clob clob = (Clob) value;
+                value = clob.getSubString(1, (int) clob.length());
+            } else if (value instanceof InputStream) {
+                value = read((InputStream) value, args.length > 2 ? ((Number) args[2]).longValue() : -1);
+                if (name.equals("setAsciiStream")) {
+                    value = new String((byte[]) value, StandardCharsets.US_ASCII);
+                }
+            } else if (value instanceof Reader) {
+                value = read((Reader) value, args.length > 2 ? ((Number) args[2]).longValue() : -1);
+            } else if (value instanceof java.net.URL) {
+                value = value.toString();
+            }
+            parameters[index - 1] = value;
+        }
+
+        private ResultSet newResultSet(List<Column> columns, List<Object[]> rows) {
+            ResultSetHandler handler = new ResultSetHandler(this, columns, rows, fetchSize);
+            resultSet = (ResultSet) proxy(ResultSet.class, handler);
+            handler.proxy = resultSet;
+            return resultSet;
+        }
+
+        private void closeResultSet() throws SQLException {
+            if (resultSet != null) {
+                resultSet.close();
+                resultSet = null;
+            }
+        }
+    }
+
+    private static final class ResultSetHandler extends BaseHandler {
+        private final StatementHandler statement;
+        private final List<Column> columns;
+        private final List<Object[]> rows;
+        private int fetchSize;
+        private int position = -1;
+        private boolean wasNull;
+        private boolean closed;
+
+        ResultSetHandler(StatementHandler statement, List<Column> columns, List<Object[]> rows, int fetchSize) {
+            this.statement = statement;
+            this.columns = columns;
+            this.rows = rows;
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        Object handle(Method method, String name, Object[] args) throws Throwable {
+            if (name.equals("close")) {
+                closed = true;
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed;
+            }
+            if (closed) {
+                throw new SQLException("Result set is closed");
+            }
+            if (name.equals("next")) {
+                if (position < rows.size()) {
+                    position++;
+                }
+                if (position > 0 && position < rows.size() && fetchSize > 0 && position % fetchSize == 0) {
+                    // the next block of rows is fetched from the server
+                    statement.connection.roundTrip();
+                }
+                return position < rows.size();
+            }
+            if (name.equals("wasNull")) {
+                return wasNull;
+            }
+            if (name.equals("findColumn")) {
+                return findColumn((String) args[0]);
+            }
+            if (name.equals("getMetaData")) {
+                return new ResultSetMetaDataHandler(columns).newProxy();
+            }
+            if (name.equals("getStatement")) {
+                return statement.proxy;
+            }
+            if (name.equals("setFetchSize")) {
+                fetchSize = (Integer) args[0];
+                return null;
+            }
+            if (name.equals("getFetchSize")) {
+                return fetchSize;
+            }
+            if (name.equals("getRow")) {
+                return position < rows.size() ? position + 1 : 0;
+            }
+            if (name.equals("isBeforeFirst")) {
+                return position < 0 && !rows.isEmpty();
+            }
+            if (name.equals("isAfterLast")) {
+                return position >= rows.size() && !rows.isEmpty();
+            }
+            if (name.equals("getType")) {
+                return ResultSet.TYPE_FORWARD_ONLY;
+            }
+            if (name.equals("getConcurrency")) {
+                return ResultSet.CONCUR_READ_ONLY;
+            }
+            if (name.equals("getHoldability")) {
+                return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+            }
+            if (name.equals("getWarnings")) {
+                return null;
+            }
+            if (name.equals("clearWarnings") || name.equals("setFetchDirection")) {
+                return null;
+            }
+            if (name.startsWith("get") && args.length >= 1 && (args[0] instanceof Integer || args[0] instanceof String)) {
+                return get(method, name, args);
+            }
+            throw new SQLFeatureNotSupportedException("ResultSet." + name + " is not supported by the stand-in");
+        }
+
+        private int findColumn(String label) throws SQLException {
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).name.equalsIgnoreCase(label)) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("Column [" + label + "] not in result set", "42S22");
+        }
+
+        private Object get(Method method, String name, Object[] args) throws SQLException {
+            if (position < 0 || position >= rows.size()) {
+                throw new SQLException("No current row", "24000");
+            }
+            int index = args[0] instanceof Integer ? (Integer) args[0] : findColumn((String) args[0]);
+            if (index < 1 || index > columns.size()) {
+                throw new SQLException("Column index " + index + " out of range 1.." + columns.size(), "07009");
+            }
+            Object value = rows.get(position)[index - 1];
+            wasNull = value == null;
+            Class<?> type = method.getReturnType();
+            if (value == null) {
+                return defaultValue(type);
+            }
+            try {
+                if (name.equals("getObject")) {
+                    if (args.length > 1 && args[1] instanceof Class) {
+                        return convert(value, (Class<?>) args[1], columns.get(index - 1));
+                    }
+                    return columns.get(index - 1).sqlType == Types.DATE
+                            ? new java.sql.Date(((Timestamp) value).getTime()) : value;
+                }
+                if (name.equals("getBigDecimal") && args.length > 1 && args[1] instanceof Integer) {
+                    return KbaseStandInDatabase.toBigDecimal(value).setScale((Integer) args[1], RoundingMode.HALF_UP);
+                }
+                if (name.equals("getBinaryStream") || name.equals("getAsciiStream")
+                        || name.equals("getUnicodeStream")) {
+                    return new ByteArrayInputStream(value instanceof byte[] ? (byte[]) value
+                            : KbaseStandInDatabase.toText(value).getBytes(StandardCharsets.UTF_8));
+                }
+                if (name.equals("getCharacterStream") || name.equals("getNCharacterStream")) {
+                    return new StringReader(KbaseStandInDatabase.toText(value));
+                }
+                if (name.equals("getBlob")) {
+                    return new SerialBlob(value instanceof byte[] ? (byte[]) value
+                            : KbaseStandInDatabase.toText(value).getBytes(StandardCharsets.UTF_8));
+                }
+                if (name.equals("getClob") || name.equals("getNClob")) {
+                    return new SerialClob(KbaseStandInDatabase.toText(value).toCharArray());
+                }
+                if (name.equals("getNString")) {
+                    return KbaseStandInDatabase.toText(value);
+                }
+                return convert(value, type, columns.get(index - 1));
+            } catch (NumberFormatException e) {
+                throw new SQLException("Cannot convert [" + value + "] with " + name, "22018", e);
+            } catch (IllegalArgumentException e) {
+                throw new SQLException("Cannot convert [" + value + "] with " + name, "22007", e);
+            }
+        }
+    }
+
+    private static Object convert(Object value, Class<?> type, Column column) throws SQLException {
+        if (type == String.class) {
+            return KbaseStandInDatabase.toText(value);
+        }
+        if (type == long.class || type == Long.class) {
+            return KbaseStandInDatabase.coerce(value, integerColumn(column));
+        }
+        if (type == int.class || type == Integer.class) {
+            return ((Long) KbaseStandInDatabase.coerce(value, integerColumn(column))).intValue();
+        }
+        if (type == short.class || type == Short.class) {
+            return ((Long) KbaseStandInDatabase.coerce(value, integerColumn(column))).shortValue();
+        }
+        if (type == byte.class || type == Byte.class) {
+            return ((Long) KbaseStandInDatabase.coerce(value, integerColumn(column))).byteValue();
+        }
+        if (type == double.class || type == Double.class) {
+            return KbaseStandInDatabase.toBigDecimal(value).doubleValue();
+        }
+        if (type == float.class || type == Float.class) {
+            return KbaseStandInDatabase.toBigDecimal(value).floatValue();
+        }
+        if (type == BigDecimal.class) {
+            return KbaseStandInDatabase.toBigDecimal(value);
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return KbaseStandInDatabase.isTrue(value);
+        }
+        if (type == Timestamp.class) {
+            return KbaseStandInDatabase.toTimestamp(value);
+        }
+        if (type == java.sql.Date.class) {
+            return new java.sql.Date(KbaseStandInDatabase.toTimestamp(value).getTime());
+        }
+        if (type == Time.class) {
+            return new Time(KbaseStandInDatabase.toTimestamp(value).getTime());
+        }
+        if (type == java.util.Date.class) {
+            return KbaseStandInDatabase.toTimestamp(value);
+        }
+        if (type == byte[].class) {
+            return value instanceof byte[] ? value
+                    : KbaseStandInDatabase.toText(value).getBytes(StandardCharsets.UTF_8);
+        }
+        if (type == Object.class || type.isInstance(value)) {
+            return value;
+        }
+        throw new SQLException("Cannot convert [" + value + "] to " + type.getName(), "22018");
+    }
+
+    private static Column integerColumn(Column column) {
+        return new Column(column.name, "BIGINT", Types.BIGINT, 0, 0, false, false, null, column.tableName);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        return null;
+    }
+
+    private static byte[] read(InputStream in, long length) throws SQLException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            long remaining = length < 0 ? Long.MAX_VALUE : length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new SQLException("Unable to read stream parameter", e);
+        }
+    }
+
+    private static String read(Reader in, long length) throws SQLException {
+        try {
+            StringBuilder out = new StringBuilder();
+            char[] buffer = new char[8192];
+            long remaining = length < 0 ? Long.MAX_VALUE : length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                out.append(buffer, 0, read);
+                remaining -= read;
+            }
+            return out.toString();
+        } catch (IOException e) {
+            throw new SQLException("Unable to read character stream parameter", e);
+        }
+    }
+
+    private static final class ResultSetMetaDataHandler extends BaseHandler {
+        private final List<Column> columns;
+
+        ResultSetMetaDataHandler(List<Column> columns) {
+            this.columns = columns;
+        }
+
+        ResultSetMetaData newProxy() {
+            proxy = proxy(ResultSetMetaData.class, this);
+            return (ResultSetMetaData) proxy;
+        }
+
+        @Override
+        Object handle(Method method, String name, Object[] args) throws SQLException {
+            if (name.equals("getColumnCount")) {
+                return columns.size();
+            }
+            int index = (Integer) args[0];
+            if (index < 1 || index > columns.size()) {
+                throw new SQLException("Column index " + index + " out of range 1.." + columns.size(), "07009");
+            }
+            Column column = columns.get(index - 1);
+            if (name.equals("getColumnName") || name.equals("getColumnLabel")) {
+                return column.name;
+            }
+            if (name.equals("getColumnType")) {
+                return column.sqlType;
+            }
+            if (name.equals("getColumnTypeName")) {
+                return column.typeName;
+            }
+            if (name.equals("getPrecision")) {
+                return precision(column);
+            }
+            if (name.equals("getScale")) {
+                return column.sqlType == Types.NUMERIC ? column.scale : 0;
+            }
+            if (name.equals("getColumnDisplaySize")) {
+                return Math.max(precision(column), 1);
+            }
+            if (name.equals("isNullable")) {
+                return column.notNull ? ResultSetMetaData.columnNoNulls : ResultSetMetaData.columnNullable;
+            }
+            if (name.equals("isSigned")) {
+                return isNumeric(column.sqlType);
+            }
+            if (name.equals("isAutoIncrement")) {
+                return column.autoIncrement;
+            }
+            if (name.equals("getTableName")) {
+                return column.tableName;
+            }
+            if (name.equals("getSchemaName") || name.equals("getCatalogName")) {
+                return "";
+            }
+            if (name.equals("getColumnClassName")) {
+                return javaClass(column.sqlType).getName();
+            }
+            if (name.equals("isSearchable") || name.equals("isWritable")) {
+                return true;
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static int precision(Column column) {
+        switch (column.sqlType) {
+            case Types.SMALLINT:
+                return 5;
+            case Types.INTEGER:
+                return 10;
+            case Types.BIGINT:
+                return 19;
+            case Types.DOUBLE:
+                return 15;
+            case Types.NUMERIC:
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.VARBINARY:
+                return Math.max(0, column.length);
+            case Types.BOOLEAN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isNumeric(int sqlType) {
+        return sqlType == Types.SMALLINT || sqlType == Types.INTEGER || sqlType == Types.BIGINT
+                || sqlType == Types.NUMERIC || sqlType == Types.DOUBLE;
+    }
+
+    private static Class<?> javaClass(int sqlType) {
+        switch (sqlType) {
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return Long.class;
+            case Types.NUMERIC:
+                return BigDecimal.class;
+            case Types.DOUBLE:
+                return Double.class;
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIME:
+                return Timestamp.class;
+            case Types.BOOLEAN:
+                return Boolean.class;
+            case Types.BLOB:
+            case Types.VARBINARY:
+                return byte[].class;
+            default:
+                return String.class;
+        }
+    }
+
+    private static final class DatabaseMetaDataHandler extends BaseHandler {
+        private final ConnectionHandler connection;
+
+        DatabaseMetaDataHandler(ConnectionHandler connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        Object handle(Method method, String name, Object[] args) throws SQLException {
+            if (name.equals("getURL")) {
+                return connection.url;
+            }
+            if (name.equals("getUserName")) {
+                return connection.user;
+            }
+            if (name.equals("getConnection")) {
+                return connection.proxy;
+            }
+            if (name.equals("getDatabaseProductName")) {
+                return "Kbase";
+            }
+            if (name.equals("getDatabaseProductVersion") || name.equals("getDriverVersion")) {
+                return "1.0 (stand-in)";
+            }
+            if (name.equals("getDriverName")) {
+                return KbaseStandInDriver.class.getName();
+            }
+            if (name.equals("getDriverMajorVersion") || name.equals("getDatabaseMajorVersion")) {
+                return 1;
+            }
+            if (name.equals("getJDBCMajorVersion")) {
+                return 4;
+            }
+            if (name.equals("getIdentifierQuoteString")) {
+                return "\"";
+            }
+            if (name.equals("getCatalogSeparator")) {
+                return ".";
+            }
+            if (name.equals("getSearchStringEscape")) {
+                return "\\";
+            }
+            if (name.equals("supportsBatchUpdates") || name.equals("supportsTransactions")
+                    || name.equals("supportsSavepoints") || name.equals("supportsGetGeneratedKeys")
+                    || name.equals("supportsResultSetType") || name.equals("supportsMixedCaseQuotedIdentifiers")) {
+                return true;
+            }
+            if (name.equals("getTables")) {
+                return tables((String) args[2]);
+            }
+            if (name.equals("getColumns")) {
+                return columns((String) args[2], (String) args[3]);
+            }
+            if (name.equals("getPrimaryKeys")) {
+                return primaryKeys((String) args[2]);
+            }
+            if (name.equals("getTableTypes")) {
+                return resultSet(new String[]{"TABLE_TYPE"}, Collections.singletonList(new Object[]{"TABLE"}));
+            }
+            if (method.getReturnType() == ResultSet.class) {
+                return resultSet(new String[0], Collections.<Object[]>emptyList());
+            }
+            if (method.getReturnType() == String.class) {
+                return "";
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private ResultSet tables(String pattern) throws SQLException {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (String table : connection.database.getTableNames()) {
+                if (matches(table, pattern)) {
+                    rows.add(new Object[]{null, null, table, "TABLE", null});
+                }
+            }
+            return resultSet(new String[]{"TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME", "TABLE_TYPE", "REMARKS"}, rows);
+        }
+
+        private ResultSet columns(String tablePattern, String columnPattern) throws SQLException {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (String table : connection.database.getTableNames()) {
+                if (!matches(table, tablePattern)) {
+                    continue;
+                }
+                List<Column> columns = connection.database.getColumns(table);
+                for (int i = 0; columns != null && i < columns.size(); i++) {
+                    Column column = columns.get(i);
+                    if (matches(column.name, columnPattern)) {
+                        rows.add(new Object[]{null, null, table, column.name, (long) column.sqlType,
+                                column.typeName, (long) precision(column), null,
+                                (long) Math.max(0, column.scale), 10L,
+                                column.notNull ? (long) DatabaseMetaData.columnNoNulls
+                                        : (long) DatabaseMetaData.columnNullable, null, null, null, null, null,
+                                (long) (i + 1), column.notNull ? "NO" : "YES"});
+                    }
+                }
+            }
+            return resultSet(new String[]{"TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME", "COLUMN_NAME", "DATA_TYPE",
+                    "TYPE_NAME", "COLUMN_SIZE", "BUFFER_LENGTH", "DECIMAL_DIGITS", "NUM_PREC_RADIX", "NULLABLE",
+                    "REMARKS", "COLUMN_DEF", "SQL_DATA_TYPE", "SQL_DATETIME_SUB", "CHAR_OCTET_LENGTH",
+                    "ORDINAL_POSITION", "IS_NULLABLE"}, rows);
+        }
+
+        private ResultSet primaryKeys(String table) throws SQLException {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            List<String> columns = connection.database.getPrimaryKey(table);
+            for (int i = 0; i < columns.size(); i++) {
+                rows.add(new Object[]{null, null, table, columns.get(i), (long) (i + 1), "PK_" + table});
+            }
+            return resultSet(new String[]{"TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME", "COLUMN_NAME", "KEY_SEQ",
+                    "PK_NAME"}, rows);
+        }
+
+        private static boolean matches(String name, String pattern) {
+            if (pattern == null || pattern.equals("%")) {
+                return true;
+            }
+            return name.toUpperCase(Locale.ROOT).matches(pattern.toUpperCase(Locale.ROOT)
+                    .replace(".", "\\.").replace("%", ".*").replace("_", "."));
+        }
+
+        private ResultSet resultSet(String[] names, List<Object[]> rows) throws SQLException {
+            List<Column> columns = new ArrayList<Column>();
+            for (int i = 0; i < names.length; i++) {
+                Object sample = rows.isEmpty() ? null : rows.get(0)[i];
+                boolean number = sample instanceof Long;
+                columns.add(new Column(names[i], number ? "BIGINT" : "VARCHAR", number ? Types.BIGINT : Types.VARCHAR,
+                        0, 0, false, false, null, ""));
+            }
+            StatementHandler statement = new StatementHandler(connection, null, false);
+            statement.proxy = proxy(Statement.class, statement);
+            return statement.newResultSet(columns, rows);
+        }
+    }
+}
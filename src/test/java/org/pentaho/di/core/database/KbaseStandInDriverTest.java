@@ -0,0 +1,204 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 替身驱动本身的测试，确保其他测试依赖的方言行为正确
+ */
+public class KbaseStandInDriverTest {
+
+    private static final String URL = KbaseStandInDriver.URL_PREFIX + "localhost:4567/DRIVERTEST";
+
+    private Connection connection;
+    private Statement statement;
+
+    @Before
+    public void setUp() throws SQLException {
+        KbaseStandInDriver.reset();
+        connection = DriverManager.getConnection(URL, "test", "test");
+        statement = connection.createStatement();
+        statement.execute("CREATE TABLE T1 (ID BIGSERIAL, NAME VARCHAR(5), AMOUNT NUMERIC(12, 2), PRIMARY KEY (ID))");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+        KbaseStandInDriver.reset();
+    }
+
+    @Test
+    public void generatesKeysAndEnforcesConstraints() throws SQLException {
+        assertEquals(2, statement.executeUpdate("INSERT INTO T1 (NAME, AMOUNT) VALUES ('a', 1.5), ('b''c', 2)"));
+        ResultSet res = statement.executeQuery("SELECT ID, NAME FROM T1 ORDER BY ID");
+        assertTrue(res.next());
+        assertEquals(1, res.getLong(1));
+        assertTrue(res.next());
+        assertEquals(2, res.getLong(1));
+        assertEquals("b'c", res.getString(2));
+
+        try {
+            statement.execute("INSERT INTO T1 (ID) VALUES (1)");
+            fail("duplicate key accepted");
+        } catch (SQLException e) {
+            assertEquals("23000", e.getSQLState());
+        }
+        try {
+            statement.execute("INSERT INTO T1 (NAME) VALUES ('toolong')");
+            fail("too long value accepted");
+        } catch (SQLException e) {
+            assertEquals("22001", e.getSQLState());
+        }
+    }
+
+    @Test
+    public void reportsPartialBatch() throws SQLException {
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO T1 (ID, NAME) VALUES (?, ?)");
+        String[] names = {"x", "toolong", "y"};
+        for (int i = 0; i < names.length; i++) {
+            insert.setLong(1, i + 10);
+            insert.setString(2, names[i]);
+            insert.addBatch();
+        }
+        try {
+            insert.executeBatch();
+            fail("batch with a bad row succeeded");
+        } catch (BatchUpdateException e) {
+            assertEquals(1, e.getUpdateCounts().length);
+        }
+        assertEquals(1, count("T1"));
+    }
+
+    @Test
+    public void rollsBackToSavepoint() throws SQLException {
+        statement.execute("INSERT INTO T1 (NAME) VALUES ('a')");
+        connection.setAutoCommit(false);
+        statement.execute("INSERT INTO T1 (NAME) VALUES ('b')");
+        Savepoint savepoint = connection.setSavepoint();
+        statement.execute("UPDATE T1 SET NAME = 'upd' WHERE ID = 1");
+        statement.execute("DELETE FROM T1 WHERE ID = 2");
+        connection.rollback(savepoint);
+        assertEquals(2, count("T1"));
+        connection.rollback();
+        assertEquals(1, count("T1"));
+        ResultSet res = statement.executeQuery("SELECT NAME FROM T1");
+        assertTrue(res.next());
+        assertEquals("a", res.getString(1));
+    }
+
+    @Test
+    public void describesNumericColumns() throws SQLException {
+        ResultSetMetaData metaData = statement.executeQuery("SELECT * FROM T1 WHERE 1=0").getMetaData();
+        assertEquals(3, metaData.getColumnCount());
+        assertEquals(Types.BIGINT, metaData.getColumnType(1));
+        assertEquals(Types.NUMERIC, metaData.getColumnType(3));
+        assertEquals(12, metaData.getPrecision(3));
+        assertEquals(2, metaData.getScale(3));
+
+        statement.execute("INSERT INTO T1 (AMOUNT) VALUES (3.333)");
+        ResultSet res = statement.executeQuery("SELECT AMOUNT FROM T1");
+        assertTrue(res.next());
+        assertEquals(new BigDecimal("3.33"), res.getBigDecimal(1));
+    }
+
+    @Test
+    public void supportsLimitOffsetAndOrderByOrdinal() throws SQLException {
+        for (int i = 0; i < 10; i++) {
+            statement.execute("INSERT INTO T1 (NAME) VALUES ('n" + i + "')");
+        }
+        ResultSet res = statement.executeQuery("SELECT ID FROM T1 ORDER BY 1 DESC LIMIT 3 OFFSET 2");
+        for (long id = 8; id >= 6; id--) {
+            assertTrue(res.next());
+            assertEquals(id, res.getLong(1));
+        }
+        assertFalse(res.next());
+        res = statement.executeQuery("SELECT ID FROM T1 ORDER BY ID OFFSET 7");
+        for (long id = 8; id <= 10; id++) {
+            assertTrue(res.next());
+            assertEquals(id, res.getLong(1));
+        }
+        assertFalse(res.next());
+    }
+
+    @Test
+    public void exposesDictionaryViews() throws SQLException {
+        statement.execute("CREATE INDEX IDX_T1_NAME ON T1 (NAME)");
+        statement.execute("CREATE SEQUENCE SEQ1 START WITH 1 INCREMENT BY 50");
+        ResultSet res = statement.executeQuery(
+                "SELECT COLUMN_NAME FROM USER_IND_COLUMNS WHERE INDEX_NAME = 'IDX_T1_NAME'");
+        assertTrue(res.next());
+        assertEquals("NAME", res.getString(1));
+
+        res = statement.executeQuery("SELECT SEQ1.NEXTVAL FROM DUAL");
+        assertTrue(res.next());
+        assertEquals(1, res.getLong(1));
+        res = statement.executeQuery("SELECT INCREMENT_BY FROM USER_SEQUENCES WHERE SEQUENCE_NAME = 'SEQ1'");
+        assertTrue(res.next());
+        assertEquals(50, res.getLong(1));
+    }
+
+    @Test
+    public void altersTables() throws SQLException {
+        statement.execute("ALTER TABLE T1 ADD EXTRA INT");
+        statement.execute("ALTER TABLE\"T1\"ALTER NAME VARCHAR(20)");
+        statement.execute("ALTER TABLE T1 DROP COLUMN AMOUNT");
+        ResultSetMetaData metaData = statement.executeQuery("SELECT * FROM T1 WHERE 1=0").getMetaData();
+        assertEquals(3, metaData.getColumnCount());
+        assertEquals("EXTRA", metaData.getColumnName(3));
+        statement.execute("INSERT INTO T1 (NAME) VALUES ('longer than five')");
+    }
+
+    @Test
+    public void countsRoundTripsAndFetchBlocks() throws SQLException {
+        for (int i = 0; i < 10; i++) {
+            statement.execute("INSERT INTO T1 (NAME) VALUES ('n" + i + "')");
+        }
+        long before = KbaseStandInDriver.getRoundTrips(URL);
+        statement.setFetchSize(3);
+        ResultSet res = statement.executeQuery("SELECT ID FROM T1");
+        while (res.next()) {
+            // drain
+        }
+        // execute returns the first block, three more blocks hold the remaining seven rows
+        assertEquals(4, KbaseStandInDriver.getRoundTrips(URL) - before);
+    }
+
+    @Test
+    public void simulatesLatency() throws SQLException {
+        Connection slow = DriverManager.getConnection(URL + "?latencyMicros=2000", "test", "test");
+        try {
+            Statement slowStatement = slow.createStatement();
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                slowStatement.executeQuery("SELECT COUNT(*) FROM T1");
+            }
+            assertTrue(System.nanoTime() - start >= 20000000L);
+        } finally {
+            slow.close();
+        }
+    }
+
+    private long count(String tableName) throws SQLException {
+        ResultSet res = statement.executeQuery("SELECT COUNT(*) FROM " + tableName);
+        res.next();
+        return res.getLong(1);
+    }
+}
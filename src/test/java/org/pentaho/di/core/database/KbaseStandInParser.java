@@ -0,0 +1,1068 @@
+package org.pentaho.di.core.database;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 替身驱动的SQL解析
+ * 把插件生成的SQL方言解析为语句树，{@link KbaseStandInDatabase} 解释执行。
+ * <p>
+ * Supported: CREATE/DROP TABLE, INDEX and SEQUENCE, ALTER TABLE ADD/DROP/ALTER/MODIFY column, INSERT with VALUES
+ * lists or a SELECT, UPDATE and DELETE with (correlated) sub-queries, and single-table SELECT with WHERE, ORDER BY,
+ * LIMIT/OFFSET, DISTINCT and COUNT/MIN/MAX/SUM/AVG. Joins and GROUP BY are not supported; they fail with a
+ * {@link SQLSyntaxErrorException} like any other statement the parser doesn't understand.
+ * <p>
+ * Full-text search is approximated: <code>column = 'expression' FACTOR n</code>, and in a SELECT ordered
+ * <code>ORDER BY RELEVANT</code> every <code>column = 'string'</code>, is a {@link FullText} match of the expression
+ * as a plain substring; the relevance of a row is the sum of the weights of its matching conditions.
+ */
+final class KbaseStandInParser {
+
+    private enum TokenType {
+        WORD, QUOTED, STRING, NUMBER, PARAM, SYMBOL, END
+    }
+
+    private static final class Token {
+        final TokenType type;
+        final String text;
+        final int position;
+
+        Token(TokenType type, String text, int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+    }
+
+    private final String sql;
+    private final List<Token> tokens;
+    private int current;
+    private int parameterCount;
+
+    private KbaseStandInParser(String sql) throws SQLException {
+        this.sql = sql;
+        this.tokens = tokenize(sql);
+    }
+
+    /**
+     * 解析一条语句
+     *
+     * @param sql the statement, a trailing semicolon is allowed
+     * @return the parsed statement
+     * @throws SQLException if the statement is not understood
+     */
+    static Statement parse(String sql) throws SQLException {
+        KbaseStandInParser parser = new KbaseStandInParser(sql);
+        Statement statement = parser.statement();
+        parser.accept(";");
+        if (parser.peek().type != TokenType.END) {
+            throw parser.error("unexpected " + parser.peek().text);
+        }
+        statement.sql = sql;
+        statement.parameterCount = parser.parameterCount;
+        return statement;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // statements
+
+    abstract static class Statement {
+        String sql;
+        int parameterCount;
+    }
+
+    static final class ColumnDef {
+        String name;
+        String typeName;
+        int length = -1;
+        int scale = -1;
+        boolean notNull;
+        boolean primaryKey;
+        boolean unique;
+        boolean autoIncrement;
+        Expr defaultValue;
+    }
+
+    static final class CreateTable extends Statement {
+        String table;
+        boolean ifNotExists;
+        final List<ColumnDef> columns = new ArrayList<ColumnDef>();
+        final List<String> primaryKey = new ArrayList<String>();
+        final List<List<String>> uniqueKeys = new ArrayList<List<String>>();
+    }
+
+    static final class CreateIndex extends Statement {
+        String index;
+        String table;
+        boolean unique;
+        final List<String> columns = new ArrayList<String>();
+    }
+
+    static final class CreateSequence extends Statement {
+        String sequence;
+        long start = 1;
+        long increment = 1;
+    }
+
+    static final class Drop extends Statement {
+        String objectType;
+        String name;
+        boolean ifExists;
+    }
+
+    static final class AlterTable extends Statement {
+        String table;
+        final List<ColumnDef> add = new ArrayList<ColumnDef>();
+        String dropColumn;
+        ColumnDef modify;
+    }
+
+    static final class Insert extends Statement {
+        String table;
+        final List<String> columns = new ArrayList<String>();
+        final List<List<Expr>> values = new ArrayList<List<Expr>>();
+        Select select;
+    }
+
+    static final class Update extends Statement {
+        TableRef table;
+        final List<String> columns = new ArrayList<String>();
+        final List<Expr> values = new ArrayList<Expr>();
+        Expr where;
+    }
+
+    static final class Delete extends Statement {
+        TableRef table;
+        Expr where;
+    }
+
+    static final class TableRef {
+        String name;
+        String alias;
+    }
+
+    static final class SelectItem {
+        Expr expr;
+        String alias;
+        boolean star;
+        String starQualifier;
+    }
+
+    static final class OrderItem {
+        Expr expr;
+        boolean descending;
+    }
+
+    static final class Select extends Statement {
+        boolean distinct;
+        final List<SelectItem> items = new ArrayList<SelectItem>();
+        TableRef from;
+        Expr where;
+        final List<OrderItem> orderBy = new ArrayList<OrderItem>();
+        Expr limit;
+        Expr offset;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // expressions
+
+    abstract static class Expr {
+    }
+
+    static final class Literal extends Expr {
+        final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+    }
+
+    static final class Param extends Expr {
+        final int index;
+
+        Param(int index) {
+            this.index = index;
+        }
+    }
+
+    static final class ColumnRef extends Expr {
+        final String qualifier;
+        final String name;
+
+        ColumnRef(String qualifier, String name) {
+            this.qualifier = qualifier;
+            this.name = name;
+        }
+    }
+
+    static final class Binary extends Expr {
+        final String operator;
+        final Expr left;
+        final Expr right;
+
+        Binary(String operator, Expr left, Expr right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    static final class Unary extends Expr {
+        final String operator;
+        final Expr operand;
+
+        Unary(String operator, Expr operand) {
+            this.operator = operator;
+            this.operand = operand;
+        }
+    }
+
+    static final class IsNull extends Expr {
+        final Expr operand;
+        final boolean negated;
+
+        IsNull(Expr operand, boolean negated) {
+            this.operand = operand;
+            this.negated = negated;
+        }
+    }
+
+    static final class In extends Expr {
+        final Expr operand;
+        final List<Expr> list;
+        final Select query;
+        final boolean negated;
+
+        In(Expr operand, List<Expr> list, Select query, boolean negated) {
+            this.operand = operand;
+            this.list = list;
+            this.query = query;
+            this.negated = negated;
+        }
+    }
+
+    static final class Like extends Expr {
+        final Expr operand;
+        final Expr pattern;
+        final boolean negated;
+
+        Like(Expr operand, Expr pattern, boolean negated) {
+            this.operand = operand;
+            this.pattern = pattern;
+            this.negated = negated;
+        }
+    }
+
+    /**
+     * 全文检索条件：字段值包含检索表达式
+     */
+    static final class FullText extends Expr {
+        final Expr operand;
+        final Expr expression;
+        final int weight;
+
+        FullText(Expr operand, Expr expression, int weight) {
+            this.operand = operand;
+            this.expression = expression;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * ORDER BY RELEVANT 的排序键：WHERE 中命中的全文检索条件的权重之和
+     */
+    static final class Relevance extends Expr {
+        final Expr where;
+
+        Relevance(Expr where) {
+            this.where = where;
+        }
+    }
+
+    static final class Exists extends Expr {
+        final Select query;
+
+        Exists(Select query) {
+            this.query = query;
+        }
+    }
+
+    static final class SubQuery extends Expr {
+        final Select query;
+
+        SubQuery(Select query) {
+            this.query = query;
+        }
+    }
+
+    static final class Function extends Expr {
+        final String name;
+        final List<Expr> arguments;
+        final boolean star;
+
+        Function(String name, List<Expr> arguments, boolean star) {
+            this.name = name;
+            this.arguments = arguments;
+            this.star = star;
+        }
+
+        boolean isAggregate() {
+            return name.equals("COUNT") || name.equals("MIN") || name.equals("MAX") || name.equals("SUM")
+                    || name.equals("AVG");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // grammar
+
+    private Statement statement() throws SQLException {
+        if (acceptWord("SELECT")) {
+            return selectBody();
+        }
+        if (acceptWord("INSERT")) {
+            return insert();
+        }
+        if (acceptWord("UPDATE")) {
+            return update();
+        }
+        if (acceptWord("DELETE")) {
+            return delete();
+        }
+        if (acceptWord("CREATE")) {
+            return create();
+        }
+        if (acceptWord("DROP")) {
+            return drop();
+        }
+        if (acceptWord("ALTER")) {
+            return alter();
+        }
+        throw error("unsupported statement");
+    }
+
+    private Select select() throws SQLException {
+        expectWord("SELECT");
+        return selectBody();
+    }
+
+    private Select selectBody() throws SQLException {
+        Select select = new Select();
+        select.distinct = acceptWord("DISTINCT");
+        do {
+            SelectItem item = new SelectItem();
+            if (accept("*")) {
+                item.star = true;
+            } else if (peek().type != TokenType.SYMBOL && peekAt(1).text.equals(".") && peekAt(2).text.equals("*")) {
+                item.star = true;
+                item.starQualifier = identifier();
+                expect(".");
+                expect("*");
+            } else {
+                item.expr = expression();
+                if (acceptWord("AS")) {
+                    item.alias = identifier();
+                } else if (isAliasToken(peek())) {
+                    item.alias = identifier();
+                }
+            }
+            select.items.add(item);
+        } while (accept(","));
+        if (acceptWord("FROM")) {
+            select.from = tableRef();
+        }
+        if (acceptWord("WHERE")) {
+            select.where = expression();
+        }
+        if (acceptWord("ORDER")) {
+            expectWord("BY");
+            if (acceptWord("RELEVANT")) {
+                select.where = fullText(select.where);
+                OrderItem item = new OrderItem();
+                item.expr = new Relevance(select.where);
+                item.descending = true;
+                select.orderBy.add(item);
+            } else {
+                do {
+                    OrderItem item = new OrderItem();
+                    item.expr = expression();
+                    if (acceptWord("DESC")) {
+                        item.descending = true;
+                    } else {
+                        acceptWord("ASC");
+                    }
+                    select.orderBy.add(item);
+                } while (accept(","));
+            }
+        }
+        while (true) {
+            if (acceptWord("LIMIT")) {
+                select.limit = expression();
+            } else if (acceptWord("OFFSET")) {
+                select.offset = expression();
+                if (!acceptWord("ROWS")) {
+                    acceptWord("ROW");
+                }
+            } else {
+                break;
+            }
+        }
+        return select;
+    }
+
+    private TableRef tableRef() throws SQLException {
+        TableRef ref = new TableRef();
+        ref.name = qualifiedName();
+        if (acceptWord("AS")) {
+            ref.alias = identifier();
+        } else if (isAliasToken(peek())) {
+            ref.alias = identifier();
+        }
+        return ref;
+    }
+
+    private Insert insert() throws SQLException {
+        expectWord("INTO");
+        Insert insert = new Insert();
+        insert.table = qualifiedName();
+        if (accept("(")) {
+            do {
+                insert.columns.add(identifier());
+            } while (accept(","));
+            expect(")");
+        }
+        if (acceptWord("VALUES")) {
+            do {
+                expect("(");
+                List<Expr> row = new ArrayList<Expr>();
+                do {
+                    row.add(expression());
+                } while (accept(","));
+                expect(")");
+                insert.values.add(row);
+            } while (accept(","));
+        } else {
+            insert.select = select();
+        }
+        return insert;
+    }
+
+    private Update update() throws SQLException {
+        Update update = new Update();
+        update.table = tableRef();
+        expectWord("SET");
+        do {
+            update.columns.add(columnName());
+            expect("=");
+            update.values.add(expression());
+        } while (accept(","));
+        if (acceptWord("WHERE")) {
+            update.where = expression();
+        }
+        return update;
+    }
+
+    private Delete delete() throws SQLException {
+        expectWord("FROM");
+        Delete delete = new Delete();
+        delete.table = tableRef();
+        if (acceptWord("WHERE")) {
+            delete.where = expression();
+        }
+        return delete;
+    }
+
+    private Statement create() throws SQLException {
+        boolean unique = acceptWord("UNIQUE");
+        if (acceptWord("INDEX")) {
+            CreateIndex index = new CreateIndex();
+            index.unique = unique;
+            index.index = qualifiedName();
+            expectWord("ON");
+            index.table = qualifiedName();
+            expect("(");
+            do {
+                index.columns.add(identifier());
+                if (!acceptWord("ASC")) {
+                    acceptWord("DESC");
+                }
+            } while (accept(","));
+            expect(")");
+            return index;
+        }
+        if (unique) {
+            throw error("INDEX expected");
+        }
+        if (acceptWord("SEQUENCE")) {
+            CreateSequence sequence = new CreateSequence();
+            sequence.sequence = qualifiedName();
+            while (peek().type == TokenType.WORD) {
+                if (acceptWord("START")) {
+                    acceptWord("WITH");
+                    sequence.start = signedLong();
+                } else if (acceptWord("INCREMENT")) {
+                    acceptWord("BY");
+                    sequence.increment = signedLong();
+                } else {
+                    // NOCACHE, NOCYCLE, MINVALUE n ...
+                    next();
+                    if (peek().type == TokenType.NUMBER) {
+                        next();
+                    }
+                }
+            }
+            return sequence;
+        }
+        expectWord("TABLE");
+        CreateTable create = new CreateTable();
+        if (acceptWord("IF")) {
+            expectWord("NOT");
+            expectWord("EXISTS");
+            create.ifNotExists = true;
+        }
+        create.table = qualifiedName();
+        expect("(");
+        do {
+            if (acceptWord("PRIMARY")) {
+                expectWord("KEY");
+                create.primaryKey.addAll(nameList());
+            } else if (acceptWord("UNIQUE")) {
+                create.uniqueKeys.add(nameList());
+            } else if (acceptWord("CONSTRAINT")) {
+                identifier();
+                if (acceptWord("PRIMARY")) {
+                    expectWord("KEY");
+                    create.primaryKey.addAll(nameList());
+                } else {
+                    expectWord("UNIQUE");
+                    create.uniqueKeys.add(nameList());
+                }
+            } else {
+                create.columns.add(columnDef());
+            }
+        } while (accept(","));
+        expect(")");
+        return create;
+    }
+
+    private Drop drop() throws SQLException {
+        Drop drop = new Drop();
+        if (acceptWord("TABLE")) {
+            drop.objectType = "TABLE";
+        } else if (acceptWord("INDEX")) {
+            drop.objectType = "INDEX";
+        } else {
+            expectWord("SEQUENCE");
+            drop.objectType = "SEQUENCE";
+        }
+        if (acceptWord("IF")) {
+            expectWord("EXISTS");
+            drop.ifExists = true;
+        }
+        drop.name = qualifiedName();
+        return drop;
+    }
+
+    /**
+     * ALTER TABLE t ADD [COLUMN] def | ADD (def, ...) | DROP [COLUMN] c | ALTER|MODIFY [COLUMN] def
+     */
+    private AlterTable alter() throws SQLException {
+        AlterTable alter = new AlterTable();
+        expectWord("TABLE");
+        alter.table = qualifiedName();
+        if (acceptWord("ADD")) {
+            acceptWord("COLUMN");
+            if (accept("(")) {
+                do {
+                    alter.add.add(columnDef());
+                } while (accept(","));
+                expect(")");
+            } else {
+                alter.add.add(columnDef());
+            }
+        } else if (acceptWord("DROP")) {
+            acceptWord("COLUMN");
+            alter.dropColumn = identifier();
+        } else if (acceptWord("ALTER") || acceptWord("MODIFY")) {
+            acceptWord("COLUMN");
+            alter.modify = columnDef();
+        } else {
+            throw error("ADD, DROP, ALTER or MODIFY expected");
+        }
+        return alter;
+    }
+
+    private ColumnDef columnDef() throws SQLException {
+        ColumnDef column = new ColumnDef();
+        column.name = identifier();
+        acceptWord("TYPE");
+        StringBuilder typeName = new StringBuilder();
+        while (peek().type == TokenType.WORD && !isConstraintWord(peek())) {
+            if (typeName.length() > 0) {
+                typeName.append(' ');
+            }
+            typeName.append(next().text.toUpperCase(Locale.ROOT));
+        }
+        if (typeName.length() == 0) {
+            throw error("data type expected");
+        }
+        column.typeName = typeName.toString();
+        if (accept("(")) {
+            column.length = (int) signedLong();
+            if (accept(",")) {
+                column.scale = (int) signedLong();
+            }
+            expect(")");
+        }
+        while (true) {
+            if (acceptWord("NOT")) {
+                expectWord("NULL");
+                column.notNull = true;
+            } else if (acceptWord("NULL")) {
+                column.notNull = false;
+            } else if (acceptWord("PRIMARY")) {
+                expectWord("KEY");
+                column.primaryKey = true;
+            } else if (acceptWord("UNIQUE")) {
+                column.unique = true;
+            } else if (acceptWord("AUTO_INCREMENT") || acceptWord("AUTOINCREMENT")) {
+                column.autoIncrement = true;
+            } else if (acceptWord("DEFAULT")) {
+                column.defaultValue = primary();
+            } else {
+                break;
+            }
+        }
+        if (column.typeName.equals("BIGSERIAL") || column.typeName.equals("SERIAL")) {
+            column.autoIncrement = true;
+        }
+        return column;
+    }
+
+    private static boolean isConstraintWord(Token token) {
+        String word = token.text.toUpperCase(Locale.ROOT);
+        return word.equals("NOT") || word.equals("NULL") || word.equals("PRIMARY") || word.equals("UNIQUE")
+                || word.equals("DEFAULT") || word.equals("AUTO_INCREMENT") || word.equals("AUTOINCREMENT");
+    }
+
+    private List<String> nameList() throws SQLException {
+        List<String> names = new ArrayList<String>();
+        expect("(");
+        do {
+            names.add(identifier());
+        } while (accept(","));
+        expect(")");
+        return names;
+    }
+
+    // expression precedence: OR < AND < NOT < comparison < || < + - < * / < unary
+
+    private Expr expression() throws SQLException {
+        Expr left = and();
+        while (acceptWord("OR")) {
+            left = new Binary("OR", left, and());
+        }
+        return left;
+    }
+
+    private Expr and() throws SQLException {
+        Expr left = not();
+        while (acceptWord("AND")) {
+            left = new Binary("AND", left, not());
+        }
+        return left;
+    }
+
+    private Expr not() throws SQLException {
+        if (acceptWord("NOT")) {
+            return new Unary("NOT", not());
+        }
+        return comparison();
+    }
+
+    private Expr comparison() throws SQLException {
+        Expr left = concatenation();
+        Token token = peek();
+        if (token.type == TokenType.SYMBOL && (token.text.equals("=") || token.text.equals("<>")
+                || token.text.equals("!=") || token.text.equals("<") || token.text.equals("<=")
+                || token.text.equals(">") || token.text.equals(">="))) {
+            next();
+            String operator = token.text.equals("!=") ? "<>" : token.text;
+            Expr right = concatenation();
+            if (operator.equals("=") && acceptWord("FACTOR")) {
+                Token weight = next();
+                if (weight.type != TokenType.NUMBER) {
+                    throw error("weight expected after FACTOR");
+                }
+                return new FullText(left, right, Integer.parseInt(weight.text));
+            }
+            return new Binary(operator, left, right);
+        }
+        if (acceptWord("IS")) {
+            boolean negated = acceptWord("NOT");
+            expectWord("NULL");
+            return new IsNull(left, negated);
+        }
+        boolean negated = acceptWord("NOT");
+        if (acceptWord("IN")) {
+            expect("(");
+            if (isWord(peek(), "SELECT")) {
+                Select query = select();
+                expect(")");
+                return new In(left, null, query, negated);
+            }
+            List<Expr> list = new ArrayList<Expr>();
+            do {
+                list.add(expression());
+            } while (accept(","));
+            expect(")");
+            return new In(left, list, null, negated);
+        }
+        if (acceptWord("LIKE")) {
+            return new Like(left, concatenation(), negated);
+        }
+        if (acceptWord("BETWEEN")) {
+            Expr low = concatenation();
+            expectWord("AND");
+            Expr high = concatenation();
+            Expr between = new Binary("AND", new Binary(">=", left, low), new Binary("<=", left, high));
+            return negated ? new Unary("NOT", between) : between;
+        }
+        if (negated) {
+            throw error("IN, LIKE or BETWEEN expected");
+        }
+        return left;
+    }
+
+    /**
+     * 按相关度排序时，WHERE 中字段与字符串的比较是全文检索
+     */
+    private static Expr fullText(Expr expr) {
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            if (binary.operator.equals("AND") || binary.operator.equals("OR")) {
+                return new Binary(binary.operator, fullText(binary.left), fullText(binary.right));
+            }
+            if (binary.operator.equals("=") && binary.left instanceof ColumnRef && binary.right instanceof Literal
+                    && ((Literal) binary.right).value instanceof String) {
+                return new FullText(binary.left, binary.right, 1);
+            }
+        }
+        if (expr instanceof Unary && ((Unary) expr).operator.equals("NOT")) {
+            return new Unary("NOT", fullText(((Unary) expr).operand));
+        }
+        return expr;
+    }
+
+    private Expr concatenation() throws SQLException {
+        Expr left = additive();
+        while (accept("||")) {
+            left = new Binary("||", left, additive());
+        }
+        return left;
+    }
+
+    private Expr additive() throws SQLException {
+        Expr left = multiplicative();
+        while (true) {
+            if (accept("+")) {
+                left = new Binary("+", left, multiplicative());
+            } else if (accept("-")) {
+                left = new Binary("-", left, multiplicative());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Expr multiplicative() throws SQLException {
+        Expr left = unary();
+        while (true) {
+            if (accept("*")) {
+                left = new Binary("*", left, unary());
+            } else if (accept("/")) {
+                left = new Binary("/", left, unary());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Expr unary() throws SQLException {
+        if (accept("-")) {
+            return new Unary("-", unary());
+        }
+        accept("+");
+        return primary();
+    }
+
+    private Expr primary() throws SQLException {
+        Token token = next();
+        switch (token.type) {
+            case NUMBER:
+                return new Literal(number(token.text));
+            case STRING:
+                return new Literal(token.text);
+            case PARAM:
+                return new Param(parameterCount++);
+            case SYMBOL:
+                if (token.text.equals("(")) {
+                    if (isWord(peek(), "SELECT")) {
+                        Select query = select();
+                        expect(")");
+                        return new SubQuery(query);
+                    }
+                    Expr inner = expression();
+                    expect(")");
+                    return inner;
+                }
+                if (token.text.equals("-")) {
+                    return new Unary("-", primary());
+                }
+                throw error("unexpected " + token.text);
+            case QUOTED:
+            case WORD:
+                break;
+            default:
+                throw error("unexpected end of statement");
+        }
+        String word = token.type == TokenType.WORD ? token.text.toUpperCase(Locale.ROOT) : null;
+        if (word != null) {
+            if (word.equals("NULL")) {
+                return new Literal(null);
+            }
+            if (word.equals("TRUE") || word.equals("FALSE")) {
+                return new Literal(Boolean.valueOf(word.equals("TRUE")));
+            }
+            if (word.equals("EXISTS")) {
+                expect("(");
+                Select query = select();
+                expect(")");
+                return new Exists(query);
+            }
+            if ((word.equals("DATE") || word.equals("TIMESTAMP")) && peek().type == TokenType.STRING) {
+                return new Function(word, Collections.<Expr>singletonList(new Literal(next().text)), false);
+            }
+            if (accept("(")) {
+                if (accept("*")) {
+                    expect(")");
+                    return new Function(word, Collections.<Expr>emptyList(), true);
+                }
+                List<Expr> arguments = new ArrayList<Expr>();
+                if (!accept(")")) {
+                    acceptWord("DISTINCT");
+                    do {
+                        arguments.add(expression());
+                    } while (accept(","));
+                    expect(")");
+                }
+                return new Function(word, arguments, false);
+            }
+        }
+        String name = token.type == TokenType.QUOTED ? token.text : token.text;
+        StringBuilder qualifier = null;
+        while (peek().text.equals(".") && peek().type == TokenType.SYMBOL) {
+            next();
+            Token part = next();
+            if (part.type != TokenType.WORD && part.type != TokenType.QUOTED) {
+                throw error("identifier expected");
+            }
+            qualifier = qualifier == null ? new StringBuilder(name) : qualifier.append('.').append(name);
+            name = part.text;
+        }
+        return new ColumnRef(qualifier == null ? null : qualifier.toString(), name);
+    }
+
+    private static Object number(String text) {
+        if (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0 && text.length() < 19) {
+            return Long.valueOf(text);
+        }
+        return new BigDecimal(text);
+    }
+
+    private long signedLong() throws SQLException {
+        boolean negative = accept("-");
+        Token token = next();
+        if (token.type != TokenType.NUMBER) {
+            throw error("number expected");
+        }
+        long value = new BigDecimal(token.text).longValue();
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return a possibly schema qualified name; the schema is dropped, the stand-in has one namespace
+     */
+    private String qualifiedName() throws SQLException {
+        String name = identifier();
+        while (peek().type == TokenType.SYMBOL && peek().text.equals(".")) {
+            next();
+            name = identifier();
+        }
+        return name;
+    }
+
+    private String columnName() throws SQLException {
+        return qualifiedName();
+    }
+
+    private String identifier() throws SQLException {
+        Token token = next();
+        if (token.type != TokenType.WORD && token.type != TokenType.QUOTED) {
+            throw error("identifier expected at " + token.text);
+        }
+        return token.text;
+    }
+
+    private static boolean isAliasToken(Token token) {
+        if (token.type == TokenType.QUOTED) {
+            return true;
+        }
+        if (token.type != TokenType.WORD) {
+            return false;
+        }
+        String word = token.text.toUpperCase(Locale.ROOT);
+        return !(word.equals("FROM") || word.equals("WHERE") || word.equals("ORDER") || word.equals("LIMIT")
+                || word.equals("OFFSET") || word.equals("SET") || word.equals("GROUP") || word.equals("UNION"));
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // tokens
+
+    private Token peek() {
+        return tokens.get(current);
+    }
+
+    private Token peekAt(int ahead) {
+        return tokens.get(Math.min(current + ahead, tokens.size() - 1));
+    }
+
+    private Token next() {
+        Token token = tokens.get(current);
+        if (token.type != TokenType.END) {
+            current++;
+        }
+        return token;
+    }
+
+    private static boolean isWord(Token token, String word) {
+        return token.type == TokenType.WORD && token.text.equalsIgnoreCase(word);
+    }
+
+    private boolean acceptWord(String word) {
+        if (isWord(peek(), word)) {
+            current++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectWord(String word) throws SQLException {
+        if (!acceptWord(word)) {
+            throw error(word + " expected");
+        }
+    }
+
+    private boolean accept(String symbol) {
+        Token token = peek();
+        if (token.type == TokenType.SYMBOL && token.text.equals(symbol)) {
+            current++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String symbol) throws SQLException {
+        if (!accept(symbol)) {
+            throw error("'" + symbol + "' expected");
+        }
+    }
+
+    private SQLException error(String message) {
+        return new SQLSyntaxErrorException("Syntax error at position " + peek().position + ", " + message + ": "
+                + sql, "42000");
+    }
+
+    private static List<Token> tokenize(String sql) throws SQLException {
+        List<Token> tokens = new ArrayList<Token>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '\'' || c == '"') {
+                StringBuilder text = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new SQLSyntaxErrorException("Unterminated " + (c == '"' ? "identifier" : "string")
+                                + " at position " + start + ": " + sql, "42000");
+                    }
+                    char d = sql.charAt(i++);
+                    if (d == c) {
+                        if (i < length && sql.charAt(i) == c) {
+                            text.append(c);
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        text.append(d);
+                    }
+                }
+                tokens.add(new Token(c == '"' ? TokenType.QUOTED : TokenType.STRING, text.toString(), start));
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(sql.charAt(i + 1)))) {
+                while (i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                if (i < length && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+                    i++;
+                    if (i < length && (sql.charAt(i) == '+' || sql.charAt(i) == '-')) {
+                        i++;
+                    }
+                    while (i < length && Character.isDigit(sql.charAt(i))) {
+                        i++;
+                    }
+                }
+                tokens.add(new Token(TokenType.NUMBER, sql.substring(start, i), start));
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+                        || sql.charAt(i) == '$' || sql.charAt(i) == '#')) {
+                    i++;
+                }
+                tokens.add(new Token(TokenType.WORD, sql.substring(start, i), start));
+            } else if (c == '?') {
+                i++;
+                tokens.add(new Token(TokenType.PARAM, "?", start));
+            } else {
+                String two = i + 1 < length ? sql.substring(i, i + 2) : "";
+                if (two.equals("<=") || two.equals(">=") || two.equals("<>") || two.equals("!=")
+                        || two.equals("||")) {
+                    i += 2;
+                    tokens.add(new Token(TokenType.SYMBOL, two, start));
+                } else if ("(),.*=<>+-/;".indexOf(c) >= 0) {
+                    i++;
+                    tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), start));
+                } else {
+                    throw new SQLSyntaxErrorException("Unexpected character '" + c + "' at position " + start
+                            + ": " + sql, "42000");
+                }
+            }
+        }
+        tokens.add(new Token(TokenType.END, "end of statement", length));
+        return tokens;
+    }
+}
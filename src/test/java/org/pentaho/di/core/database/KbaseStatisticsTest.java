@@ -0,0 +1,94 @@
+package org.pentaho.di.core.database;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseStatisticsTest {
+
+    private String url;
+    private KbaseStatistics statistics;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName(KbaseInstrumentedDriver.class.getName());
+        url = KbaseTestSupport.newDatabaseMeta().getURL();
+        statistics = KbaseStatistics.getStatistics(url);
+    }
+
+    @Test
+    public void recordsStatementsRowsAndBatches() throws Exception {
+        Connection connection = DriverManager.getConnection(KbaseInstrumentedDriver.toInstrumentedURL(url), "test",
+                "test");
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE T (ID BIGINT)");
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO T VALUES (?)");
+            for (int id = 1; id <= 3; id++) {
+                insert.setLong(1, id);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            ResultSet res = statement.executeQuery("SELECT ID FROM T");
+            while (res.next()) {
+                res.getLong(1);
+            }
+            res.close();
+        } finally {
+            connection.close();
+        }
+        connection.close();
+
+        assertEquals(1, statistics.getConnects());
+        assertEquals(3, statistics.getStatements());
+        assertEquals(1, statistics.getBatches());
+        assertEquals(3, statistics.getBatchedRows());
+        assertEquals(3, statistics.getRowsWritten());
+        assertEquals(3, statistics.getRowsRead());
+    }
+
+    @Test
+    public void connectionStatisticsCountOnlyTheirOwnCalls() throws Exception {
+        KbaseStatistics first = statistics.newConnectionStatistics();
+        first.record(KbaseStatistics.Kind.EXECUTE, 1000, "INSERT INTO T VALUES (1)");
+        first.addRowsWritten(1);
+        KbaseStatistics second = statistics.newConnectionStatistics();
+        second.record(KbaseStatistics.Kind.EXECUTE, 1000, "SELECT ID FROM T");
+        second.addRowsRead(5);
+
+        assertEquals(1, second.getStatements());
+        assertEquals(0, second.getRowsWritten());
+        assertEquals(5, second.getRowsRead());
+        assertEquals("Kbase statistics for connection to " + url + ": statements=1, rowsRead=5, rowsWritten=0, "
+                + "batches=0, batchedRows=0, commits=0", second.getSummary());
+        assertEquals(2, statistics.getStatements());
+        assertEquals(1, statistics.getRowsWritten());
+        assertEquals(5, statistics.getRowsRead());
+    }
+
+    @Test
+    public void resetKeepsRecording() throws Exception {
+        statistics.record(KbaseStatistics.Kind.COMMIT, 1000, null);
+        statistics.record(KbaseStatistics.Kind.EXECUTE, 5000000000L, "SELECT 1 FROM DUAL");
+        assertEquals(1, statistics.getCommits());
+        assertEquals(1, statistics.getSlowStatements().length);
+
+        statistics.reset();
+        assertEquals(0, statistics.getCommits());
+        assertEquals(0, statistics.getStatements());
+        assertEquals(0, statistics.getSlowStatements().length);
+        String commits = statistics.getLatencyHistograms()[KbaseStatistics.Kind.COMMIT.ordinal()];
+        assertTrue(commits, commits.startsWith("COMMIT count=0,"));
+
+        statistics.record(KbaseStatistics.Kind.COMMIT, 1000, null);
+        assertEquals(1, statistics.getCommits());
+    }
+}
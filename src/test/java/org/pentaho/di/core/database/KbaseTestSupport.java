@@ -0,0 +1,137 @@
+package org.pentaho.di.core.database;
+
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.logging.LoggingObjectType;
+import org.pentaho.di.core.logging.SimpleLoggingObject;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试公用方法：连接到进程内的 Kbase 替身数据库({@link KbaseStandInDriver})
+ * <p>
+ * Every call of {@link #newDatabaseMeta()} uses a connection and database name of its own, so tests don't share
+ * tables, caches or round trip counters. Connections are set directly on the {@link Database}, bypassing the driver class loading of
+ * {@link Database#connect()}.
+ */
+final class KbaseTestSupport {
+
+    private static final AtomicInteger DATABASE_NR = new AtomicInteger();
+
+    private KbaseTestSupport() {
+    }
+
+    /**
+     * @return the metadata of a new, empty stand-in database
+     */
+    static DatabaseMeta newDatabaseMeta() {
+        KbaseStandInDriver.register();
+        int nr = DATABASE_NR.incrementAndGet();
+        DatabaseMeta databaseMeta = new DatabaseMeta();
+        databaseMeta.setDatabaseInterface(new KbaseDatabaseMeta());
+        databaseMeta.setAccessType(DatabaseMeta.TYPE_ACCESS_NATIVE);
+        databaseMeta.setName("kbase-test" + nr);
+        databaseMeta.setHostname("localhost");
+        databaseMeta.setDBPort("4567");
+        databaseMeta.setDBName("TEST" + nr);
+        databaseMeta.setUsername("test");
+        databaseMeta.setPassword("test");
+        return databaseMeta;
+    }
+
+    static KbaseDatabaseMeta kbase(DatabaseMeta databaseMeta) {
+        return (KbaseDatabaseMeta) databaseMeta.getDatabaseInterface();
+    }
+
+    /**
+     * @param databaseMeta the stand-in database
+     * @return a connected database, auto commit on
+     */
+    static Database connect(DatabaseMeta databaseMeta) throws KettleDatabaseException, SQLException {
+        return connect(databaseMeta, new Properties());
+    }
+
+    /**
+     * @param options stand-in driver options, see {@link KbaseStandInDriver}
+     * @return a connected database, auto commit on
+     */
+    static Database connect(DatabaseMeta databaseMeta, Properties options)
+            throws KettleDatabaseException, SQLException {
+        Properties info = new Properties();
+        info.putAll(options);
+        info.setProperty("user", "test");
+        info.setProperty("password", "test");
+        Database database = new Database(new SimpleLoggingObject("kbase-test", LoggingObjectType.GENERAL, null),
+                databaseMeta);
+        database.setConnection(DriverManager.getConnection(databaseMeta.getURL(), info));
+        return database;
+    }
+
+    /**
+     * @param latencyMicros the simulated round trip time of the connection, 0 for none
+     * @return a new JDBC connection to the stand-in database
+     */
+    static Connection openConnection(DatabaseMeta databaseMeta, long latencyMicros)
+            throws KettleDatabaseException, SQLException {
+        Properties info = new Properties();
+        info.setProperty("user", "test");
+        info.setProperty("password", "test");
+        info.setProperty("latencyMicros", String.valueOf(latencyMicros));
+        return DriverManager.getConnection(databaseMeta.getURL(), info);
+    }
+
+    /**
+     * 使用单独的连接执行语句(自动提交)
+     */
+    static void execute(DatabaseMeta databaseMeta, String... sqls) throws KettleDatabaseException, SQLException {
+        Connection connection = DriverManager.getConnection(databaseMeta.getURL(), "test", "test");
+        try {
+            Statement statement = connection.createStatement();
+            for (String sql : sqls) {
+                statement.execute(sql);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return the rows of the query, each row as an array of JDBC objects
+     */
+    static List<Object[]> query(DatabaseMeta databaseMeta, String sql) throws KettleDatabaseException, SQLException {
+        Connection connection = DriverManager.getConnection(databaseMeta.getURL(), "test", "test");
+        try {
+            ResultSet res = connection.createStatement().executeQuery(sql);
+            int columns = res.getMetaData().getColumnCount();
+            List<Object[]> rows = new ArrayList<Object[]>();
+            while (res.next()) {
+                Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    row[i] = res.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+            return rows;
+        } finally {
+            connection.close();
+        }
+    }
+
+    static long count(DatabaseMeta databaseMeta, String tableName) throws KettleDatabaseException, SQLException {
+        return ((Number) query(databaseMeta, "SELECT COUNT(*) FROM " + tableName).get(0)[0]).longValue();
+    }
+
+    /**
+     * @return the round trips to the stand-in database so far
+     */
+    static long roundTrips(DatabaseMeta databaseMeta) throws KettleDatabaseException {
+        return KbaseStandInDriver.getRoundTrips(databaseMeta.getURL());
+    }
+}
@@ -0,0 +1,91 @@
+package org.pentaho.di.core.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KbaseWatermarkStoreTest {
+
+    private File watermarkFile;
+
+    @Before
+    public void setUp() throws Exception {
+        watermarkFile = File.createTempFile("kbase-watermarks", ".properties");
+        watermarkFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        watermarkFile.delete();
+        new File(watermarkFile.getPath() + ".lock").delete();
+    }
+
+    @Test
+    public void keepsTheFullPrecisionOfTimestamps() throws Exception {
+        KbaseWatermarkStore store = new KbaseWatermarkStore(watermarkFile);
+        Timestamp timestamp = Timestamp.valueOf("2020-01-01 10:00:00.123456789");
+        store.setWatermark("changed", timestamp);
+        store.setWatermark("created", new Date(1577872800123L));
+        store.setWatermark("version", 42L);
+
+        Object watermark = new KbaseWatermarkStore(watermarkFile).getWatermark("changed");
+        assertTrue(watermark.getClass().getName(), watermark instanceof Timestamp);
+        assertEquals(timestamp, watermark);
+        assertEquals(123456789, ((Timestamp) watermark).getNanos());
+        assertEquals(new Date(1577872800123L), store.getWatermark("created"));
+        assertEquals(42L, store.getWatermark("version"));
+
+        store.reset("changed");
+        assertNull(store.getWatermark("changed"));
+    }
+
+    @Test
+    public void storesSharingAFileKeepEachOthersWatermarks() throws Exception {
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            // 每个线程一个实例，相当于共用水位文件的不同作业
+            final KbaseWatermarkStore store = new KbaseWatermarkStore(watermarkFile);
+            final String prefix = "job" + i + "/";
+            writers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (long n = 0; n < 25; n++) {
+                            store.setWatermark(prefix + n, n);
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        KbaseWatermarkStore store = new KbaseWatermarkStore(watermarkFile);
+        for (int i = 0; i < 4; i++) {
+            for (long n = 0; n < 25; n++) {
+                assertEquals("job" + i + "/" + n, n, store.getWatermark("job" + i + "/" + n));
+            }
+        }
+    }
+}